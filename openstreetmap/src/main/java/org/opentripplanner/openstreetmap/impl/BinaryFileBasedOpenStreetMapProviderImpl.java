@@ -18,6 +18,8 @@ import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import crosby.binary.file.BlockInputStream;
 
@@ -25,6 +27,9 @@ import crosby.binary.file.BlockInputStream;
  * Parser for the OpenStreetMap PBF format. Parses files in three passes:
  * First the relations, then the ways, then the nodes are also loaded.
  *
+ * When more than one thread is configured, blocks are inflated and decoded concurrently by a
+ * {@link ParallelBlockDecoder}; entities still reach the handler in file order.
+ *
  * @see http://wiki.openstreetmap.org/wiki/PBF_Format
  * @see org.opentripplanner.openstreetmap.services.graph_builder.services.osm.OpenStreetMapContentHandler#biPhase
  * @since 0.4
@@ -33,7 +38,13 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
 
     private File _path;
 
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
     public void readOSM(OpenStreetMapContentHandler handler) {
+        if (_threads > 1) {
+            readOSMParallel(handler);
+            return;
+        }
         try {
             BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(handler);
 
@@ -60,6 +71,42 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
             throw new IllegalStateException("error loading OSM from path " + _path, ex);        }
     }
 
+    private void readOSMParallel(OpenStreetMapContentHandler handler) {
+        ExecutorService executor = Executors.newFixedThreadPool(_threads);
+        try {
+            ParallelBlockDecoder decoder = new ParallelBlockDecoder(executor, _threads * 4);
+
+            decoder.setParseNodes(false);
+            decoder.setParseWays(false);
+            decoder.process(new FileInputStream(_path), handler);
+
+            handler.doneRelations();
+
+            decoder.setParseRelations(false);
+            decoder.setParseWays(true);
+            decoder.process(new FileInputStream(_path), handler);
+
+            handler.secondPhase();
+
+            decoder.setParseNodes(true);
+            decoder.setParseWays(false);
+            decoder.process(new FileInputStream(_path), handler);
+            handler.nodesLoaded();
+        } catch (Exception ex) {
+            throw new IllegalStateException("error loading OSM from path " + _path, ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Number of threads used to decode PBF blocks. Set to 1 to decode on the reading thread.
+     * Defaults to the number of available processors.
+     */
+    public void setThreads(int threads) {
+        _threads = threads;
+    }
+
     public void setPath(File path) {
         _path = path;
     }
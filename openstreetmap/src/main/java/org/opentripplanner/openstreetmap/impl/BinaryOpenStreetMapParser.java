@@ -33,10 +33,19 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     private boolean _parseWays = true;
     private boolean _parseRelations = true;
     private boolean _parseNodes = true;
-    private Map<String, String> stringTable = new HashMap<String, String>();
+    private Map<String, String> stringTable;
 
     public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler) {
+        this(handler, new HashMap<String, String>());
+    }
+
+    /**
+     * Create a parser sharing its string table with other parsers. The table must be thread-safe
+     * if the parsers are used concurrently (see {@link ParallelBlockDecoder}).
+     */
+    BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler, Map<String, String> stringTable) {
         _handler = handler;
+        this.stringTable = stringTable;
     }
 
     // The strings are already being pulled from a string table in the PBF file,
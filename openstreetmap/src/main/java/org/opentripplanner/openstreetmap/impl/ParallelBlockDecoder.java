@@ -0,0 +1,242 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.openstreetmap.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+
+/**
+ * Reads the blobs of a PBF file sequentially, inflates and decodes them on a worker pool, and
+ * hands the resulting entities to the content handler in file order. The handler is only ever
+ * called from the thread invoking {@link #process}, so it does not need to be thread-safe.
+ *
+ * At most maxBlocksInFlight decoded blocks are held in memory at once.
+ */
+public class ParallelBlockDecoder {
+
+    private static final Logger _log = LoggerFactory.getLogger(ParallelBlockDecoder.class);
+
+    private final ExecutorService _executor;
+
+    private final int _maxBlocksInFlight;
+
+    private final Map<String, String> _stringTable = new ConcurrentHashMap<String, String>();
+
+    private boolean _parseWays = true;
+
+    private boolean _parseRelations = true;
+
+    private boolean _parseNodes = true;
+
+    public ParallelBlockDecoder(ExecutorService executor, int maxBlocksInFlight) {
+        _executor = executor;
+        _maxBlocksInFlight = Math.max(1, maxBlocksInFlight);
+    }
+
+    /**
+     * Decode the whole stream, delivering entities to the handler. The stream is closed on return.
+     *
+     * @return the number of data blocks decoded
+     */
+    public int process(InputStream input, OpenStreetMapContentHandler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        ArrayDeque<Future<DecodedBlock>> pending = new ArrayDeque<Future<DecodedBlock>>();
+        BinaryOpenStreetMapParser headerParser = new BinaryOpenStreetMapParser(handler);
+        int nBlocks = 0;
+        long start = System.currentTimeMillis();
+        try {
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] headerBytes = new byte[headerSize];
+                in.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+                byte[] blobBytes = new byte[header.getDatasize()];
+                in.readFully(blobBytes);
+
+                if (header.getType().equals("OSMHeader")) {
+                    headerParser.parse(Osmformat.HeaderBlock.parseFrom(inflate(blobBytes)));
+                } else if (header.getType().equals("OSMData")) {
+                    pending.add(_executor.submit(new DecodeTask(blobBytes)));
+                    nBlocks++;
+                    if (pending.size() >= _maxBlocksInFlight) {
+                        deliver(pending.poll(), handler);
+                    }
+                }
+                // other block types are skipped, as the PBF specification requires
+            }
+            while (!pending.isEmpty()) {
+                deliver(pending.poll(), handler);
+            }
+        } finally {
+            for (Future<DecodedBlock> future : pending) {
+                future.cancel(true);
+            }
+            in.close();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        _log.info(String.format("decoded %d PBF blocks in %.1f sec (%.1f blocks/sec)", nBlocks,
+                elapsed / 1000.0, nBlocks * 1000.0 / elapsed));
+        return nBlocks;
+    }
+
+    private void deliver(Future<DecodedBlock> future, OpenStreetMapContentHandler handler)
+            throws IOException {
+        DecodedBlock block;
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while decoding PBF blocks", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IllegalStateException("error decoding PBF block", e.getCause());
+        }
+        block.deliverTo(handler);
+    }
+
+    private static byte[] inflate(byte[] blobBytes) throws IOException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(blobBytes);
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        }
+        if (!blob.hasZlibData()) {
+            throw new IOException("unsupported PBF blob compression");
+        }
+        byte[] raw = new byte[blob.getRawSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            int n = inflater.inflate(raw);
+            if (n != raw.length || !inflater.finished()) {
+                throw new IOException("truncated PBF blob");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt PBF blob: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    private class DecodeTask implements Callable<DecodedBlock> {
+
+        private final byte[] blobBytes;
+
+        private final boolean parseNodes = _parseNodes;
+
+        private final boolean parseWays = _parseWays;
+
+        private final boolean parseRelations = _parseRelations;
+
+        DecodeTask(byte[] blobBytes) {
+            this.blobBytes = blobBytes;
+        }
+
+        @Override
+        public DecodedBlock call() throws IOException {
+            DecodedBlock block = new DecodedBlock();
+            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(block, _stringTable);
+            parser.setParseNodes(parseNodes);
+            parser.setParseWays(parseWays);
+            parser.setParseRelations(parseRelations);
+            parser.parse(Osmformat.PrimitiveBlock.parseFrom(inflate(blobBytes)));
+            return block;
+        }
+    }
+
+    /**
+     * Collects the entities of one primitive block so that they can be replayed in order on the
+     * handler thread.
+     */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+
+        private List<OSMNode> nodes = new ArrayList<OSMNode>();
+
+        private List<OSMWay> ways = new ArrayList<OSMWay>();
+
+        private List<OSMRelation> relations = new ArrayList<OSMRelation>();
+
+        void deliverTo(OpenStreetMapContentHandler handler) {
+            for (OSMNode node : nodes)
+                handler.addNode(node);
+            for (OSMWay way : ways)
+                handler.addWay(way);
+            for (OSMRelation relation : relations)
+                handler.addRelation(relation);
+        }
+
+        public void addNode(OSMNode node) {
+            nodes.add(node);
+        }
+
+        public void addWay(OSMWay way) {
+            ways.add(way);
+        }
+
+        public void addRelation(OSMRelation relation) {
+            relations.add(relation);
+        }
+
+        public void secondPhase() {
+        }
+
+        public void doneRelations() {
+        }
+
+        public void nodesLoaded() {
+        }
+    }
+
+    public void setParseWays(boolean parseWays) {
+        _parseWays = parseWays;
+    }
+
+    public void setParseRelations(boolean parseRelations) {
+        _parseRelations = parseRelations;
+    }
+
+    public void setParseNodes(boolean parseNodes) {
+        _parseNodes = parseNodes;
+    }
+}
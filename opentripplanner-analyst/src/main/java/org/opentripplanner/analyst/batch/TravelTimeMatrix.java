@@ -0,0 +1,217 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.analyst.request.SampleFactory;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Computes many-to-many travel time matrices. The points on the side that is not searched from
+ * are linked into the graph once, as Samples; then one shortest path tree is built per point on
+ * the other side, in parallel, and evaluated at every Sample.
+ *
+ * Travel times by transit depend on the time, so transit matrices are searched forward from the
+ * origins, or backward from the destinations if the request is arriveBy. Other travel times do
+ * not, and the trees are built from whichever side has fewer points.
+ */
+@Component
+public class TravelTimeMatrix {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeMatrix.class);
+
+    /** The travel time of an origin-destination pair that could not be linked or reached */
+    public static final int UNREACHABLE = -1;
+
+    @Autowired private GraphService graphService;
+    @Autowired private SPTService sptService;
+    @Autowired private SampleFactory sampleFactory;
+
+    /** The number of shortest path trees built at the same time. */
+    @Setter private int threads = Runtime.getRuntime().availableProcessors();
+
+    /** The longest travel time searched for, in seconds. */
+    @Setter private int maxTime = 2 * 60 * 60;
+
+    /** The largest number of origin-destination pairs in one matrix. */
+    @Getter @Setter private int maxPairs = 1000000;
+
+    private ExecutorService executor;
+
+    /** Receives the rows of a matrix, in the order of the origins. */
+    public static interface RowHandler {
+        public void handleRow(int origin, int[] times) throws IOException;
+    }
+
+    /**
+     * @return the travel times in seconds from each origin (rows) to each destination (columns),
+     *         or UNREACHABLE.
+     */
+    public int[][] compute(RoutingRequest prototype, List<Coordinate> origins,
+            List<Coordinate> destinations) throws IOException {
+        final int[][] matrix = new int[origins.size()][];
+        compute(prototype, origins, destinations, new RowHandler() {
+            @Override
+            public void handleRow(int origin, int[] times) {
+                matrix[origin] = times;
+            }
+        });
+        return matrix;
+    }
+
+    /**
+     * Compute a travel time matrix, passing its rows to the handler as soon as they are known:
+     * forward searches produce one row each, while backward searches produce one column each and
+     * so the rows are only available once all of them are done.
+     * 
+     * @throws IllegalArgumentException if there are more than maxPairs origin-destination pairs
+     */
+    public void compute(RoutingRequest prototype, List<Coordinate> origins,
+            List<Coordinate> destinations, RowHandler handler) throws IOException {
+        if (!isAllowed(origins.size(), destinations.size()))
+            throw new IllegalArgumentException(origins.size() + "x" + destinations.size()
+                    + " travel time matrix is larger than " + maxPairs + " pairs");
+        boolean reverse;
+        if (prototype.getModes().isTransit())
+            reverse = prototype.arriveBy;
+        else
+            reverse = destinations.size() < origins.size();
+        List<Coordinate> searched = reverse ? destinations : origins;
+        List<Coordinate> sampled = reverse ? origins : destinations;
+        long t0 = System.currentTimeMillis();
+        Sample[] samples = new Sample[sampled.size()];
+        for (int i = 0; i < samples.length; i++) {
+            Coordinate c = sampled.get(i);
+            samples[i] = sampleFactory.getSample(c.x, c.y);
+        }
+        List<Future<int[]>> results = new ArrayList<Future<int[]>>(searched.size());
+        for (Coordinate c : searched)
+            results.add(getExecutor().submit(new Search(prototype, c, reverse, samples)));
+        try {
+            if (reverse) {
+                int[][] columns = new int[searched.size()][];
+                for (int j = 0; j < columns.length; j++)
+                    columns[j] = results.get(j).get();
+                for (int i = 0; i < sampled.size(); i++) {
+                    int[] row = new int[columns.length];
+                    for (int j = 0; j < row.length; j++)
+                        row[j] = columns[j][i];
+                    handler.handleRow(i, row);
+                }
+            } else {
+                for (int i = 0; i < results.size(); i++)
+                    handler.handleRow(i, results.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while computing a travel time matrix", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("could not compute a travel time matrix", e.getCause());
+        } finally {
+            // stop the searches whose results nobody will read
+            for (Future<int[]> result : results)
+                result.cancel(true);
+        }
+        LOG.info("computed {}x{} travel time matrix in {} msec", new Object[] { origins.size(),
+                destinations.size(), System.currentTimeMillis() - t0 });
+    }
+
+    /** @return whether a matrix of this size may be computed */
+    public boolean isAllowed(int nOrigins, int nDestinations) {
+        return (long) nOrigins * nDestinations <= maxPairs;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int n = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "travel-time-matrix-" + n++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /** One shortest path tree, evaluated at every sample. */
+    private class Search implements Callable<int[]> {
+
+        private final RoutingRequest prototype;
+
+        private final Coordinate point;
+
+        private final boolean reverse;
+
+        private final Sample[] samples;
+
+        Search(RoutingRequest prototype, Coordinate point, boolean reverse, Sample[] samples) {
+            this.prototype = prototype;
+            this.point = point;
+            this.reverse = reverse;
+            this.samples = samples;
+        }
+
+        @Override
+        public int[] call() {
+            int[] times = new int[samples.length];
+            Arrays.fill(times, UNREACHABLE);
+            RoutingRequest req = prototype.clone();
+            req.batch = true;
+            req.setArriveBy(reverse);
+            req.worstTime = req.dateTime + (req.arriveBy ? -maxTime : maxTime);
+            String latLon = String.format("%f,%f", point.y, point.x);
+            if (req.arriveBy)
+                req.setTo(latLon);
+            else
+                req.setFrom(latLon);
+            try {
+                req.setRoutingContext(graphService.getGraph(req.routerId));
+            } catch (VertexNotFoundException vnfe) {
+                LOG.debug("no vertex could be created near {}", point);
+                return times;
+            }
+            try {
+                ShortestPathTree spt = sptService.getShortestPathTree(req);
+                if (spt == null)
+                    return times;
+                for (int i = 0; i < samples.length; i++) {
+                    if (samples[i] == null)
+                        continue;
+                    long t = samples[i].eval(spt);
+                    if (t <= maxTime)
+                        times[i] = (int) t;
+                }
+            } finally {
+                req.cleanup();
+            }
+            return times;
+        }
+    }
+
+}
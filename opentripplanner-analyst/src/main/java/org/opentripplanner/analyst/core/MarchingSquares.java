@@ -0,0 +1,174 @@
+package org.opentripplanner.analyst.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Extracts isochrone polygons from a TimeSurface with the marching squares algorithm. All the
+ * cutoffs are contoured in a single pass over the grid cells.
+ *
+ * Crossing points are interpolated linearly between grid points, and halfway when one of them is
+ * unreachable. Segments are oriented with the area within the cutoff on their left, so that once
+ * they are chained into rings, counterclockwise rings are shells and clockwise rings are holes.
+ */
+public class MarchingSquares {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /*
+     * Cell corners are numbered 0 (southwest), 1 (southeast), 2 (northeast), 3 (northwest), and
+     * cell edges 0 (south), 1 (east), 2 (north), 3 (west). The ends of each edge are listed in
+     * the same order for the cells on both sides, so that they compute the same crossing point.
+     */
+    private static final int[][] EDGE_CORNERS = { { 0, 1 }, { 1, 2 }, { 3, 2 }, { 0, 3 } };
+
+    private static final int[] CORNER_DX = { 0, 1, 1, 0 };
+
+    private static final int[] CORNER_DY = { 0, 0, 1, 1 };
+
+    /** The pairs of edges crossed, for each combination of corners within the cutoff */
+    private static final int[][] SEGMENTS = { {}, { 0, 3 }, { 0, 1 }, { 3, 1 }, { 1, 2 },
+            null, { 0, 2 }, { 3, 2 }, { 3, 2 }, { 0, 2 }, null, { 1, 2 }, { 3, 1 }, { 0, 1 },
+            { 0, 3 }, {} };
+
+    /** @return one (possibly empty) MultiPolygon per cutoff, in seconds */
+    public static List<MultiPolygon> contour(TimeSurface surface, int[] cutoffs) {
+        List<Map<Coordinate, Coordinate>> segments = new ArrayList<Map<Coordinate, Coordinate>>();
+        for (int k = 0; k < cutoffs.length; k++)
+            segments.add(new HashMap<Coordinate, Coordinate>());
+        long[] t = new long[4];
+        for (int y = -1; y < surface.height; y++) {
+            for (int x = -1; x < surface.width; x++) {
+                for (int c = 0; c < 4; c++)
+                    t[c] = surface.getTime(x + CORNER_DX[c], y + CORNER_DY[c]);
+                for (int k = 0; k < cutoffs.length; k++) {
+                    // halfway between integers, so that no crossing point falls on a grid point
+                    double threshold = cutoffs[k] + 0.5;
+                    int index = 0;
+                    for (int c = 0; c < 4; c++)
+                        if (t[c] < threshold)
+                            index |= 1 << c;
+                    int[] edges = SEGMENTS[index];
+                    if (edges == null) {
+                        // saddle: are the two corners within the cutoff connected across the cell?
+                        boolean connected = t[0] + t[1] + t[2] + t[3] < 4 * threshold;
+                        if (connected == (index == 5))
+                            edges = new int[] { 3, 2, 0, 1 };
+                        else
+                            edges = new int[] { 0, 3, 1, 2 };
+                    }
+                    for (int i = 0; i < edges.length; i += 2)
+                        addSegment(surface, x, y, t, threshold, edges[i], edges[i + 1],
+                                segments.get(k));
+                }
+            }
+        }
+        List<MultiPolygon> isochrones = new ArrayList<MultiPolygon>(cutoffs.length);
+        for (Map<Coordinate, Coordinate> next : segments)
+            isochrones.add(makePolygons(next));
+        return isochrones;
+    }
+
+    private static void addSegment(TimeSurface surface, int x, int y, long[] t,
+            double threshold, int e0, int e1, Map<Coordinate, Coordinate> next) {
+        // the corner of e0 within the cutoff must be on the left of e0 -> e1
+        int[] corners = EDGE_CORNERS[e0];
+        int inside = t[corners[0]] < threshold ? corners[0] : corners[1];
+        double m0x = midX(e0), m0y = midY(e0);
+        double cross = (midX(e1) - m0x) * (CORNER_DY[inside] - m0y) - (midY(e1) - m0y)
+                * (CORNER_DX[inside] - m0x);
+        Coordinate p0 = crossing(surface, x, y, t, threshold, e0);
+        Coordinate p1 = crossing(surface, x, y, t, threshold, e1);
+        if (cross > 0)
+            next.put(p0, p1);
+        else
+            next.put(p1, p0);
+    }
+
+    private static double midX(int edge) {
+        int[] corners = EDGE_CORNERS[edge];
+        return (CORNER_DX[corners[0]] + CORNER_DX[corners[1]]) / 2.0;
+    }
+
+    private static double midY(int edge) {
+        int[] corners = EDGE_CORNERS[edge];
+        return (CORNER_DY[corners[0]] + CORNER_DY[corners[1]]) / 2.0;
+    }
+
+    private static Coordinate crossing(TimeSurface surface, int x, int y, long[] t,
+            double threshold, int edge) {
+        int c0 = EDGE_CORNERS[edge][0];
+        int c1 = EDGE_CORNERS[edge][1];
+        double frac;
+        if (t[c0] == TimeSurface.UNREACHABLE || t[c1] == TimeSurface.UNREACHABLE)
+            frac = 0.5;
+        else
+            frac = (threshold - t[c0]) / (t[c1] - t[c0]);
+        double gx = x + CORNER_DX[c0] + frac * (CORNER_DX[c1] - CORNER_DX[c0]);
+        double gy = y + CORNER_DY[c0] + frac * (CORNER_DY[c1] - CORNER_DY[c0]);
+        return new Coordinate(surface.getLon(gx), surface.getLat(gy));
+    }
+
+    /** Chain the segments into rings, and put each hole into the smallest shell around it. */
+    private static MultiPolygon makePolygons(Map<Coordinate, Coordinate> next) {
+        List<LinearRing> shells = new ArrayList<LinearRing>();
+        List<LinearRing> holes = new ArrayList<LinearRing>();
+        while (!next.isEmpty()) {
+            Coordinate start = next.keySet().iterator().next();
+            List<Coordinate> ring = new ArrayList<Coordinate>();
+            Coordinate c = start;
+            do {
+                ring.add(c);
+                c = next.remove(c);
+            } while (c != null && !c.equals(start));
+            if (c == null || ring.size() < 3)
+                continue; // cannot happen on a padded grid, but do not build invalid rings
+            ring.add(start);
+            Coordinate[] coords = ring.toArray(new Coordinate[ring.size()]);
+            LinearRing linearRing = geometryFactory.createLinearRing(coords);
+            if (CGAlgorithms.isCCW(coords))
+                shells.add(linearRing);
+            else
+                holes.add(linearRing);
+        }
+        List<List<LinearRing>> holesForShell = new ArrayList<List<LinearRing>>();
+        for (int i = 0; i < shells.size(); i++)
+            holesForShell.add(new ArrayList<LinearRing>());
+        for (LinearRing hole : holes) {
+            Coordinate p = hole.getCoordinateN(0);
+            int best = -1;
+            double bestArea = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < shells.size(); i++) {
+                LinearRing shell = shells.get(i);
+                if (!shell.getEnvelopeInternal().contains(p))
+                    continue;
+                if (!CGAlgorithms.isPointInRing(p, shell.getCoordinates()))
+                    continue;
+                double area = Math.abs(CGAlgorithms.signedArea(shell.getCoordinates()));
+                if (area < bestArea) {
+                    best = i;
+                    bestArea = area;
+                }
+            }
+            if (best >= 0)
+                holesForShell.get(best).add(hole);
+        }
+        Polygon[] polygons = new Polygon[shells.size()];
+        for (int i = 0; i < polygons.length; i++) {
+            List<LinearRing> h = holesForShell.get(i);
+            polygons[i] = geometryFactory.createPolygon(shells.get(i),
+                    h.toArray(new LinearRing[h.size()]));
+        }
+        return geometryFactory.createMultiPolygon(polygons);
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.opentripplanner.analyst.core;
+
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * The travel times of a shortest path tree rasterized onto a regular lat/lon grid covering the
+ * vertices it reached. Grid points are linked to the street network with Samples, like tile
+ * pixels, so a surface can be contoured or queried many times without going back to the SPT.
+ */
+public class TimeSurface {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSurface.class);
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** The longitude and latitude of the grid point (0, 0), in the southwest corner */
+    public final double west, south;
+
+    /** The grid spacing, in degrees */
+    public final double dLon, dLat;
+
+    public final int width, height;
+
+    /** Travel times in seconds, row by row from the south */
+    private final int[] times;
+
+    /**
+     * @throws IllegalArgumentException if the grid covering the SPT at this resolution would have
+     *         more than maxCells points. It is checked before anything is allocated or sampled.
+     */
+    public TimeSurface(ShortestPathTree spt, SampleSource sampleSource, double resolutionM,
+            long maxCells) {
+        long t0 = System.currentTimeMillis();
+        Envelope env = new Envelope();
+        for (State s : spt.getAllStates())
+            env.expandToInclude(s.getVertex().getCoordinate());
+        dLat = SphericalDistanceLibrary.metersToDegrees(resolutionM);
+        dLon = dLat / Math.cos(env.centre().y * Math.PI / 180);
+        // one more grid step on each side, to catch the samples linked to the outermost edges
+        west = env.getMinX() - dLon;
+        south = env.getMinY() - dLat;
+        width = (int) Math.ceil(env.getWidth() / dLon) + 3;
+        height = (int) Math.ceil(env.getHeight() / dLat) + 3;
+        if ((long) width * height > maxCells)
+            throw new IllegalArgumentException("a " + width + "x" + height + " time surface at "
+                    + resolutionM + " m resolution is larger than " + maxCells + " cells");
+        times = new int[width * height];
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                Sample s = sampleSource.getSample(getLon(x), getLat(y));
+                long t = s == null ? Long.MAX_VALUE : s.eval(spt);
+                times[i++] = t >= UNREACHABLE ? UNREACHABLE : (int) t;
+            }
+        }
+        LOG.debug("rasterized {}x{} time surface in {} msec", new Object[] { width, height,
+                System.currentTimeMillis() - t0 });
+    }
+
+    /** A surface with the given travel times, row by row from the south. */
+    TimeSurface(double west, double south, double dLon, double dLat, int width, int height,
+            int[] times) {
+        this.west = west;
+        this.south = south;
+        this.dLon = dLon;
+        this.dLat = dLat;
+        this.width = width;
+        this.height = height;
+        this.times = times;
+    }
+
+    /** @return the travel time at a grid point, or UNREACHABLE (also outside of the grid) */
+    public int getTime(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return UNREACHABLE;
+        return times[y * width + x];
+    }
+
+    public double getLon(double x) {
+        return west + x * dLon;
+    }
+
+    public double getLat(double y) {
+        return south + y * dLat;
+    }
+
+}
@@ -1,5 +1,9 @@
 package org.opentripplanner.analyst.request;
 
+import lombok.Getter;
+import lombok.Setter;
+
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.SPTService;
@@ -12,6 +16,7 @@ import org.springframework.stereotype.Component;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 @Component
 public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
@@ -22,6 +27,11 @@ public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
     
     @Autowired private GraphService graphService; 
 
+    @Autowired private SampleFactory sampleFactory;
+
+    /** The largest number of grid points in a time surface, to bound its memory and sampling */
+    @Getter @Setter private long maxSurfaceCells = 4000000;
+
     private LoadingCache<RoutingRequest, ShortestPathTree> sptCache = CacheBuilder
             .newBuilder()
             .concurrencyLevel(16)
@@ -43,5 +53,61 @@ public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
     public ShortestPathTree get(RoutingRequest req) throws Exception {
         return req == null ? null : sptCache.get(req);
     }
+
+    /**
+     * The travel time surfaces rasterized from SPTs. This is a separate LRU cache of the same
+     * size: a surface stays cached after its SPT was evicted (it does not need the SPT once
+     * built), and the SPT is computed again if a surface is requested after both were evicted.
+     */
+    private LoadingCache<SurfaceRequest, TimeSurface> surfaceCache = CacheBuilder
+            .newBuilder()
+            .concurrencyLevel(16)
+            .maximumSize(16)
+            .build(new CacheLoader<SurfaceRequest, TimeSurface>() {
+                @Override
+                public TimeSurface load(SurfaceRequest key) throws Exception {
+                    LOG.debug("surface cache miss : {}", key.req);
+                    return new TimeSurface(get(key.req), sampleFactory, key.resolutionM,
+                            maxSurfaceCells);
+                }
+            });
+
+    /** 
+     * @return the travel times of the SPT for this request on a grid of the given resolution
+     * @throws IllegalArgumentException if the grid would have more than maxSurfaceCells points
+     */
+    public TimeSurface getSurface(RoutingRequest req, double resolutionM) throws Exception {
+        try {
+            return surfaceCache.get(new SurfaceRequest(req, resolutionM));
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException)
+                throw (IllegalArgumentException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static class SurfaceRequest {
+
+        final RoutingRequest req;
+
+        final double resolutionM;
+
+        SurfaceRequest(RoutingRequest req, double resolutionM) {
+            this.req = req;
+            this.resolutionM = resolutionM;
+        }
+
+        public int hashCode() {
+            return req.hashCode() * 31 + (int) resolutionM;
+        }
+
+        public boolean equals(Object other) {
+            if (other instanceof SurfaceRequest) {
+                SurfaceRequest that = (SurfaceRequest) other;
+                return this.req.equals(that.req) && this.resolutionM == that.resolutionM;
+            }
+            return false;
+        }
+    }
     
 }
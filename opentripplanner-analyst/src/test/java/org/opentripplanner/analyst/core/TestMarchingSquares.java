@@ -0,0 +1,79 @@
+package org.opentripplanner.analyst.core;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class TestMarchingSquares extends TestCase {
+
+    private static final int SIZE = 5;
+
+    private GeometryFactory geometryFactory = new GeometryFactory();
+
+    /** 100 seconds per grid step away from the center, as a square cone on a unit grid. */
+    private TimeSurface cone(boolean unreachableCenter) {
+        int[] times = new int[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++)
+                times[y * SIZE + x] = 100 * Math.max(Math.abs(x - 2), Math.abs(y - 2));
+        }
+        if (unreachableCenter)
+            times[2 * SIZE + 2] = TimeSurface.UNREACHABLE;
+        return new TimeSurface(0, 0, 1, 1, SIZE, SIZE, times);
+    }
+
+    public void testCone() {
+        List<MultiPolygon> isochrones = MarchingSquares.contour(cone(false), new int[] { -10,
+                150, 250 });
+        assertEquals(3, isochrones.size());
+
+        // nothing is reached that fast
+        assertTrue(isochrones.get(0).isEmpty());
+
+        // the 3x3 block around the center, crossed 0.505 steps beyond it, with its corners cut
+        MultiPolygon isochrone = isochrones.get(1);
+        assertEquals(1, isochrone.getNumGeometries());
+        Polygon polygon = (Polygon) isochrone.getGeometryN(0);
+        assertEquals(0, polygon.getNumInteriorRing());
+        assertEquals(3.01 * 3.01 - 2 * 0.505 * 0.505, polygon.getArea(), 1e-9);
+        assertTrue(polygon.contains(point(2, 2)));
+        assertTrue(polygon.contains(point(3.4, 2)));
+        assertFalse(polygon.contains(point(3.6, 2)));
+        assertFalse(polygon.contains(point(3.45, 3.45)));
+
+        // the whole grid, up to halfway to the unreachable points around it
+        polygon = (Polygon) isochrones.get(2).getGeometryN(0);
+        assertEquals(5 * 5 - 2 * 0.5 * 0.5, polygon.getArea(), 1e-9);
+    }
+
+    public void testHole() {
+        List<MultiPolygon> isochrones = MarchingSquares.contour(cone(true), new int[] { 150 });
+        MultiPolygon isochrone = isochrones.get(0);
+        assertEquals(1, isochrone.getNumGeometries());
+        Polygon polygon = (Polygon) isochrone.getGeometryN(0);
+        // a diamond reaching halfway to the neighbors of the unreachable center
+        assertEquals(1, polygon.getNumInteriorRing());
+        LinearRing hole = (LinearRing) polygon.getInteriorRingN(0);
+        assertEquals(0.5, geometryFactory.createPolygon(hole, null).getArea(), 1e-9);
+        assertEquals(3.01 * 3.01 - 2 * 0.505 * 0.505 - 0.5, polygon.getArea(), 1e-9);
+        assertFalse(polygon.contains(point(2, 2)));
+        assertTrue(polygon.contains(point(1.2, 2)));
+    }
+
+    public void testOrientation() {
+        // shells are counterclockwise, so JTS sees them as valid polygons
+        for (MultiPolygon isochrone : MarchingSquares.contour(cone(true), new int[] { 150, 250 }))
+            assertTrue(isochrone.isValid());
+    }
+
+    private Point point(double x, double y) {
+        return geometryFactory.createPoint(new Coordinate(x, y));
+    }
+}
@@ -0,0 +1,57 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.model.internals;
+
+import javax.xml.bind.annotation.XmlAttribute;
+
+import org.opentripplanner.util.monitoring.LatencyHistogram;
+
+/** The count, mean and usual percentiles of a histogram of request metrics. */
+public class HistogramSummary {
+
+    @XmlAttribute
+    public String name;
+
+    @XmlAttribute
+    public long count;
+
+    @XmlAttribute
+    public double mean;
+
+    @XmlAttribute
+    public double p50;
+
+    @XmlAttribute
+    public double p90;
+
+    @XmlAttribute
+    public double p99;
+
+    @XmlAttribute
+    public double max;
+
+    public HistogramSummary() {
+    }
+
+    /** Summarize a histogram, dividing every value by the given scale. */
+    public HistogramSummary(String name, LatencyHistogram histogram, double scale) {
+        this.name = name;
+        this.count = histogram.getTotalCount();
+        this.mean = histogram.getMean() / scale;
+        this.p50 = histogram.getValueAtPercentile(50) / scale;
+        this.p90 = histogram.getValueAtPercentile(90) / scale;
+        this.p99 = histogram.getValueAtPercentile(99) / scale;
+        this.max = histogram.getMaxValue() / scale;
+    }
+}
@@ -0,0 +1,39 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.model.internals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Request metrics since startup: total request time and the time spent in each phase in
+ * milliseconds, and the search counters of each request.
+ */
+@XmlRootElement
+public class RequestMetricsSummary {
+
+    public HistogramSummary total;
+
+    @XmlElementWrapper
+    @XmlElement(name = "phase")
+    public List<HistogramSummary> phases = new ArrayList<HistogramSummary>();
+
+    @XmlElementWrapper
+    @XmlElement(name = "counter")
+    public List<HistogramSummary> counters = new ArrayList<HistogramSummary>();
+}
@@ -13,9 +13,15 @@
 
 package org.opentripplanner.api.servlet;
 
+import java.io.IOException;
+
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.opentripplanner.util.monitoring.RequestProfile;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
@@ -48,6 +54,21 @@ public class ApiServlet extends SpringServlet {
             updater.start();
     }
     
+    /**
+     * Profile every request. Resources that want their requests counted in the request metrics
+     * mark the profile as handled; the rest of the time spent here is writing the response.
+     */
+    @Override
+    public void service(ServletRequest request, ServletResponse response)
+            throws ServletException, IOException {
+        RequestProfile.begin();
+        try {
+            super.service(request, response);
+        } finally {
+            RequestProfile.end();
+        }
+    }
+
     @Override
     public void destroy() {
     	if (updater != null) {
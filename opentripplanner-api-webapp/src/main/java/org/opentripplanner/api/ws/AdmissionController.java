@@ -0,0 +1,197 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of trip plan requests routed concurrently, and sheds load when the server
+ * is saturated rather than letting every request run the full search and retry loop.
+ * 
+ * At most maxConcurrentRequests are routed at once. Further requests wait in a bounded queue for
+ * at most maxQueueWait milliseconds; requests arriving when the queue is full, or that time out
+ * while queued, are rejected immediately so that servlet threads do not pile up.
+ * 
+ * Admitted requests are degraded according to the load when they are admitted, measured as the
+ * number of requests routing or queued divided by maxConcurrentRequests. Above reducedLoad they
+ * ask for fewer itineraries with fewer retries and shorter timeouts; above minimalLoad they only
+ * search for a single itinerary.
+ */
+public class AdmissionController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+    /** The delay suggested to rejected clients before they try again */
+    public static final int RETRY_AFTER_SECONDS = 1;
+
+    public static enum Degradation {
+        NONE(Integer.MAX_VALUE, Integer.MAX_VALUE, 1.0),
+        REDUCED(2, 2, 0.5),
+        MINIMAL(1, 0, 0.25);
+
+        private final int maxItineraries;
+
+        private final int maxRetries;
+
+        private final double timeoutFactor;
+
+        private Degradation(int maxItineraries, int maxRetries, double timeoutFactor) {
+            this.maxItineraries = maxItineraries;
+            this.maxRetries = maxRetries;
+            this.timeoutFactor = timeoutFactor;
+        }
+
+        /** Restrict the request to what the server can afford at this level of load. */
+        public void apply(RoutingRequest request) {
+            if (request.numItineraries > maxItineraries)
+                request.numItineraries = maxItineraries;
+            if (request.maxRetries > maxRetries)
+                request.maxRetries = maxRetries;
+            request.timeoutFactor *= timeoutFactor;
+        }
+    }
+
+    /** A permit to route one request, which must be released when the request is done. */
+    public class Admission {
+
+        @Getter
+        private final Degradation degradation;
+
+        private boolean released = false;
+
+        private Admission(Degradation degradation) {
+            this.degradation = degradation;
+        }
+
+        public void release() {
+            if (!released) {
+                released = true;
+                permits.release();
+            }
+        }
+    }
+
+    @Getter @Setter
+    private int maxConcurrentRequests = Runtime.getRuntime().availableProcessors();
+
+    @Getter @Setter
+    private int maxQueuedRequests = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Milliseconds a request may wait for a routing slot before it is rejected. */
+    @Getter @Setter
+    private long maxQueueWait = 2000;
+
+    @Getter @Setter
+    private double reducedLoad = 0.75;
+
+    @Getter @Setter
+    private double minimalLoad = 1.5;
+
+    private volatile Semaphore permits;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong degradedCount = new AtomicLong();
+
+    /**
+     * Wait for a routing slot.
+     * 
+     * @return the admission of the request, or null if it is rejected.
+     */
+    public Admission admit() {
+        Semaphore permits = getPermits();
+        if (!permits.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueuedRequests) {
+                queued.decrementAndGet();
+                return reject("queue full");
+            }
+            try {
+                if (!permits.tryAcquire(maxQueueWait, TimeUnit.MILLISECONDS))
+                    return reject("timed out in queue");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return reject("interrupted");
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+        Degradation degradation = getDegradation();
+        if (degradation != Degradation.NONE)
+            degradedCount.incrementAndGet();
+        return new Admission(degradation);
+    }
+
+    /** @return the response to a rejected request: 503, with a Retry-After header */
+    public static javax.ws.rs.core.Response rejectedResponse() {
+        // not to be confused with the plan Response of this package
+        return javax.ws.rs.core.Response.status(503)
+                .header("Retry-After", RETRY_AFTER_SECONDS).build();
+    }
+
+    /** @return the number of requests routing or queued, relative to maxConcurrentRequests */
+    public double getLoad() {
+        int routing = maxConcurrentRequests - getPermits().availablePermits();
+        return (double) (routing + queued.get()) / maxConcurrentRequests;
+    }
+
+    /** @return the number of requests rejected since startup */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /** @return the number of requests admitted with some degradation since startup */
+    public long getDegradedCount() {
+        return degradedCount.get();
+    }
+
+    private Degradation getDegradation() {
+        double load = getLoad();
+        if (load > minimalLoad)
+            return Degradation.MINIMAL;
+        if (load > reducedLoad)
+            return Degradation.REDUCED;
+        return Degradation.NONE;
+    }
+
+    private Admission reject(String reason) {
+        rejectedCount.incrementAndGet();
+        LOG.debug("rejected request: {}", reason);
+        return null;
+    }
+
+    /** The permits are created on first use, once the properties have been set. */
+    private Semaphore getPermits() {
+        Semaphore semaphore = permits;
+        if (semaphore == null) {
+            synchronized (this) {
+                semaphore = permits;
+                if (semaphore == null)
+                    permits = semaphore = new Semaphore(maxConcurrentRequests, true);
+            }
+        }
+        return semaphore;
+    }
+}
@@ -33,6 +33,7 @@ import org.opentripplanner.common.geometry.DirectionUtils;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.routing.core.Fare;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
@@ -55,6 +56,7 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.patch.Alert;
+import org.opentripplanner.routing.services.BatchFareService;
 import org.opentripplanner.routing.services.FareService;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.PathService;
@@ -63,6 +65,8 @@ import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.vertextype.ExitVertex;
 import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.opentripplanner.util.PolylineEncoder;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -153,13 +157,43 @@ public class PlanGenerator {
 
         TripPlan plan = new TripPlan(from, to, request.getDateTime());
 
-        for (GraphPath path : paths) {
-            Itinerary itinerary = generateItinerary(path, request.isShowIntermediateStops());
+        long t0 = System.nanoTime();
+        List<Fare> fares = getFares(paths);
+        RequestProfile.addTime(Phase.FARES, t0);
+        t0 = System.nanoTime();
+        for (int i = 0; i < paths.size(); i++) {
+            Itinerary itinerary = generateItinerary(paths.get(i),
+                    request.isShowIntermediateStops());
+            if (fares != null) {
+                itinerary.fare = fares.get(i);
+            }
             plan.addItinerary(itinerary);
         }
+        RequestProfile.addTime(Phase.PLAN, t0);
         return plan;
     }
 
+    /**
+     * Prices all the paths of a plan, in one call if the fare service supports it.
+     * 
+     * @return the fare of each path, or null if the graph has no fare service
+     */
+    private List<Fare> getFares(List<GraphPath> paths) {
+        Graph graph = paths.get(0).getRoutingContext().graph;
+        FareService fareService = graph.getService(FareService.class);
+        if (fareService == null) {
+            return null;
+        }
+        if (fareService instanceof BatchFareService) {
+            return ((BatchFareService) fareService).getCosts(paths);
+        }
+        List<Fare> fares = new ArrayList<Fare>(paths.size());
+        for (GraphPath path : paths) {
+            fares.add(fareService.getCost(path));
+        }
+        return fares;
+    }
+
     /**
      * Generate an itinerary from a @{link GraphPath}. The algorithm here is to walk over each state
      * in the graph path, accumulating geometry, time, and length data from the incoming edge. When
@@ -623,11 +657,6 @@ public class PlanGenerator {
         itinerary.endTime = makeCalendar(endState);
         itinerary.duration = endState.getTimeInMillis() - startState.getTimeInMillis();
 
-        Graph graph = path.getRoutingContext().graph;
-        FareService fareService = graph.getService(FareService.class);
-        if (fareService != null) {
-            itinerary.fare = fareService.getCost(path);
-        }
         itinerary.transfers = -1;
         return itinerary;
     }
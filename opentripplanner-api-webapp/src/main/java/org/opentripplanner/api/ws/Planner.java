@@ -12,10 +12,15 @@
  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package org.opentripplanner.api.ws;
 
+import java.util.HashMap;
+
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -25,6 +30,9 @@ import org.opentripplanner.api.common.RoutingResource;
 import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.error.PlannerError;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Counter;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,8 +60,12 @@ public class Planner extends RoutingResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(Planner.class);
     @Autowired public PlanGenerator planGenerator;
+    @Autowired(required=false) public AdmissionController admissionController;
     @Context protected HttpServletRequest httpServletRequest;
 
+    /** Whether to include the time spent in each phase of the request in the response. */
+    @DefaultValue("false") @QueryParam("showProfile") protected Boolean showProfile;
+
     /** Java is immensely painful */
     interface OneArgFunc<T,U> {
         public T call(U arg);
@@ -68,12 +80,26 @@ public class Planner extends RoutingResource {
          *       out so it's used here too...
          */
         
+        // refuse the request outright rather than letting it wait behind an overloaded router
+        AdmissionController.Admission admission = null;
+        if (admissionController != null) {
+            admission = admissionController.admit();
+            if (admission == null)
+                throw new WebApplicationException(AdmissionController.rejectedResponse());
+        }
+
         // create response object, containing a copy of all request parameters
         Response response = new Response(httpServletRequest);
         RoutingRequest request = null;
         try {
             // fill in request from query parameters via shared superclass method
             request = super.buildRequest();
+            if (admission != null) {
+                AdmissionController.Degradation degradation = admission.getDegradation();
+                degradation.apply(request);
+                if (degradation != AdmissionController.Degradation.NONE)
+                    response.setDegradation(degradation.toString().toLowerCase());
+            }
             TripPlan plan = func.call(request);
             response.setPlan(plan);
         } catch (Exception e) {
@@ -83,10 +109,31 @@ public class Planner extends RoutingResource {
         } finally {
             if (request != null) 
                 request.cleanup();
+            if (admission != null)
+                admission.release();
+        }
+        RequestProfile profile = RequestProfile.current();
+        if (profile != null) {
+            profile.markHandled();
+            if (showProfile)
+                response.setProfile(summarize(profile));
         }
         return response;
     }
 
+    private static HashMap<String, Long> summarize(RequestProfile profile) {
+        HashMap<String, Long> summary = new HashMap<String, Long>();
+        summary.put("total", profile.getTotalNanos() / 1000);
+        for (Phase phase : Phase.values()) {
+            // the response has not been written yet
+            if (phase != Phase.SERIALIZATION)
+                summary.put(phase.toString().toLowerCase(), profile.getNanos(phase) / 1000);
+        }
+        for (Counter counter : Counter.values())
+            summary.put(counter.toString().toLowerCase(), profile.getCount(counter));
+        return summary;
+    }
+
     @GET
     @Produces( { MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_XML })
     public Response getItineraries() throws JSONException {
@@ -31,6 +31,8 @@ public class Response {
     private HashMap<String, String> requestParameters;
     private TripPlan plan;
     private PlannerError error = null;
+    private HashMap<String, Long> profile = null;
+    private String degradation = null;
 
     public Response() {
     }
@@ -84,5 +86,31 @@ public class Response {
 
     public void setError(PlannerError error) {
         this.error = error;
+    }
+
+    /**
+     * The time spent in each phase of this request in microseconds, and the work done by its
+     * searches. Only included when requested with showProfile.
+     */
+    @XmlElement(required=false)
+    public HashMap<String, Long> getProfile() {
+        return profile;
+    }
+
+    public void setProfile(HashMap<String, Long> profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * If the server was under heavy load, the level to which this search was scaled back
+     * ("reduced" or "minimal"), in which case fewer itineraries may have been returned.
+     */
+    @XmlElement(required=false)
+    public String getDegradation() {
+        return degradation;
+    }
+
+    public void setDegradation(String degradation) {
+        this.degradation = degradation;
     }
 }
\ No newline at end of file
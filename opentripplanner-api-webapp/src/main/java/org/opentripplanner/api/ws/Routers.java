@@ -78,6 +78,9 @@ import com.vividsolutions.jts.geom.Geometry;
  * PUT http://localhost/opentripplanner-api-webapp/ws/routers/paris
  * will load a Graph from a sub-directory called 'paris' and associate it with the routerId 'paris'.
  * 
+ * PUT http://localhost/opentripplanner-api-webapp/ws/routers/paris?async=true
+ * will do the same in the background, swapping the new Graph in once it is loaded and warmed up.
+ * 
  * DELETE http://localhost/opentripplanner-api-webapp/ws/routers/paris
  * will release the Paris Graph and de-register the 'paris' routerId.
  * 
@@ -155,13 +158,22 @@ public class Routers {
      * @param preEvict before reloading each graph, evict the existing graph. This will prevent 
      * memory usage from increasing during the reload, but routing will be unavailable on this 
      * routerId for the duration of the operation.
+     * @param async load and warm the new graph in the background and return immediately with 
+     * status 202. The existing graph keeps serving requests until the new one is swapped in. 
+     * Implies preEvict=false.
      * @param upload read the graph from the PUT data stream instead of from disk.
      */
     @Secured({ "ROLE_ROUTERS" })
     @PUT @Path("{routerId}") @Produces({ MediaType.TEXT_PLAIN })
     public Response putGraphId(
             @PathParam("routerId") String routerId, 
-            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict) {
+            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict,
+            @QueryParam("async") @DefaultValue("false") boolean async) {
+        if (async && graphService instanceof GraphServiceImpl) {
+            LOG.debug("loading graph in the background.");
+            ((GraphServiceImpl) graphService).reloadGraphInBackground(routerId);
+            return Response.status(Status.ACCEPTED).entity("graph loading.").build();
+        }
         if (preEvict) {
             LOG.debug("pre-evicting graph");
             graphService.evictGraph(routerId);
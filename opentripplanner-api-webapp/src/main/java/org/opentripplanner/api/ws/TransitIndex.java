@@ -16,7 +16,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -47,14 +46,17 @@ import org.opentripplanner.common.model.T2;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.GraphService;
-import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.routing.services.TransitIndexService;
+import org.opentripplanner.routing.transit_index.DepartureIndex;
+import org.opentripplanner.routing.transit_index.DepartureIndex.Departure;
 import org.opentripplanner.routing.transit_index.RouteSegment;
 import org.opentripplanner.routing.transit_index.RouteVariant;
+import org.opentripplanner.routing.transit_index.StopIndex.StopVisitor;
 import org.opentripplanner.routing.transit_index.adapters.RouteType;
 import org.opentripplanner.routing.transit_index.adapters.StopType;
 import org.opentripplanner.routing.transit_index.adapters.TripType;
@@ -183,34 +185,39 @@ public class TransitIndex {
     }
 
     /**
-     * Return stops near a point
+     * Return stops near a point, nearest first, optionally only those of a route (of the given
+     * agency) or served by the given modes.
      */
     @GET
     @Path("/stopsNearPoint")
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_XML })
     public Object getStopsNearPoint(@QueryParam("agency") String agency,
             @QueryParam("lat") Double lat, @QueryParam("lon") Double lon,
-            @QueryParam("extended") Boolean extended, @QueryParam("routerId") String routerId)
-            throws JSONException {
+            @QueryParam("extended") Boolean extended, @QueryParam("routerId") String routerId,
+            @QueryParam("routeId") String routeId, @QueryParam("mode") String mode,
+            @QueryParam("maxStops") Integer maxStops) throws JSONException {
 
         Graph graph = getGraph(routerId);
 
-        StreetVertexIndexService streetVertexIndexService = graph.streetIndex;
-        List<TransitStop> stops = streetVertexIndexService.getNearbyTransitStops(new Coordinate(
-                lon, lat), STOP_SEARCH_RADIUS);
         TransitIndexService transitIndexService = graph.getService(TransitIndexService.class);
         if (transitIndexService == null) {
             return new TransitError(
                     "No transit index found.  Add TransitIndexBuilder to your graph builder configuration and rebuild your graph.");
         }
+        if (routeId != null && agency == null) {
+            return new TransitError("Filtering stops by routeId requires an agency.");
+        }
+
+        List<TransitStop> stops = transitIndexService.getStopIndex().getNearestStops(
+                new Coordinate(lon, lat), STOP_SEARCH_RADIUS,
+                maxStops == null ? Integer.MAX_VALUE : maxStops, agency,
+                routeId == null ? null : new AgencyAndId(agency, routeId),
+                mode == null ? null : new TraverseModeSet(mode));
 
         StopList response = new StopList();
         for (TransitStop transitStop : stops) {
-            AgencyAndId stopId = transitStop.getStopId();
-            if (agency != null && !agency.equals(stopId.getAgencyId()))
-                continue;
             StopType stop = new StopType(transitStop.getStop(), extended);
-            stop.routes = transitIndexService.getRoutesForStop(stopId);
+            stop.routes = transitIndexService.getRoutesForStop(transitStop.getStopId());
             response.stops.add(stop);
         }
 
@@ -277,6 +284,8 @@ public class TransitIndex {
 
         // if no stopAgency is set try to search through all diffrent agencies
         Graph graph = getGraph(routerId);
+        // departures are precomputed per stop, and merged with any realtime updates
+        DepartureIndex departureIndex = graph.getDepartureIndex();
 
         // add all departures
         HashSet<TripType> trips = new HashSet<TripType>();
@@ -290,40 +299,20 @@ public class TransitIndex {
         for (String stopAgencyId : getAgenciesIds(stopAgency, routerId)) {
 
             AgencyAndId stop = new AgencyAndId(stopAgencyId, stopId);
-            Edge preBoardEdge = transitIndexService.getPreBoardEdge(stop);
-            if (preBoardEdge == null)
-                continue;
-            Vertex boarding = preBoardEdge.getToVertex();
-
-            RoutingRequest options = makeTraverseOptions(startTime, routerId);
-
-            HashMap<Long, Edge> seen = new HashMap();
-            OUTER: for (Edge e : boarding.getOutgoing()) {
-                System.out.println("HERE: " + e);
-                // each of these edges boards a separate set of trips
-                for (StopTime st : getStopTimesForBoardEdge(startTime, endTime, options, e,
-                        extended)) {
-                    // diffrent parameters
-                    st.phase = "departure";
-                    if (extended != null && extended.equals(true)) {
-                        if (routeId != null && !routeId.equals("")
-                                && !st.trip.getRoute().getId().getId().equals(routeId))
-                            continue;
-                        if (references != null && references.equals(true))
-                            result.routes.add(st.trip.getRoute());
-                        result.stopTimes.add(st);
-                    } else
-                        result.stopTimes.add(st);
-                    trips.add(st.trip);
-                    if (seen.containsKey(st.time)) {
-                        Edge old = seen.get(st.time);
-                        System.out.println("DUP: " + old);
-                        getStopTimesForBoardEdge(startTime, endTime, options, e,
-                                extended);
-                        //break OUTER;
-                    }
-                    seen.put(st.time, e);
+            for (Departure departure : departureIndex.getDepartures(stop, startTime, endTime)) {
+                StopTime st = new StopTime();
+                st.time = departure.time;
+                st.phase = "departure";
+                st.trip = new TripType(departure.trip, extended);
+                if (extended != null && extended.equals(true)) {
+                    if (routeId != null && !routeId.equals("")
+                            && !departure.trip.getRoute().getId().getId().equals(routeId))
+                        continue;
+                    if (references != null && references.equals(true))
+                        result.routes.add(departure.trip.getRoute());
                 }
+                result.stopTimes.add(st);
+                trips.add(st.trip);
             }
 /*
             // add the arriving stop times for cases where there are no departures
@@ -483,31 +472,6 @@ public class TransitIndex {
         return result;
     }
 
-    private List<StopTime> getStopTimesForBoardEdge(long startTime, long endTime,
-            RoutingRequest options, Edge e, Boolean extended) {
-        List<StopTime> out = new ArrayList<StopTime>();
-        State result;
-        long time = startTime;
-        do {
-            // TODO verify options/state correctness
-            State s0 = new State(e.getFromVertex(), time, options);
-            result = e.traverse(s0);
-            if (result == null)
-                break;
-            System.out.println("boarding at " + time + " on " + result.getBackTrip());
-            time = result.getTime();
-            if (time > endTime)
-                break;
-            StopTime stopTime = new StopTime();
-            stopTime.time = time;
-            stopTime.trip = new TripType(result.getBackTrip(), extended);
-            out.add(stopTime);
-
-            time += 1; // move to the next board time
-        } while (true);
-        return out;
-    }
-
     private List<StopTime> getStopTimesForAlightEdge(long startTime, long endTime,
             RoutingRequest options, Edge e, Boolean extended) {
         List<StopTime> out = new ArrayList<StopTime>();
@@ -578,7 +542,9 @@ public class TransitIndex {
     }
 
     /**
-     * Return a list of all stops that are inside a rectangle given by lat lon positions.
+     * Return a list of all stops that are inside a rectangle given by lat lon positions, or all
+     * stops if the rectangle is missing, optionally only those of a route (of the given agency) or
+     * served by the given modes.
      */
     @GET
     @Path("/stopsInRectangle")
@@ -587,48 +553,40 @@ public class TransitIndex {
             @QueryParam("leftUpLat") Double leftUpLat, @QueryParam("leftUpLon") Double leftUpLon,
             @QueryParam("rightUpLat") Double rightUpLat,
             @QueryParam("rightUpLon") Double rightUpLon, @QueryParam("extended") Boolean extended,
-            @QueryParam("routerId") String routerId) throws JSONException {
+            @QueryParam("routerId") String routerId, @QueryParam("routeId") String routeId,
+            @QueryParam("mode") String mode) throws JSONException {
 
         Graph graph = getGraph(routerId);
-        StopList response = new StopList();
-
-        StreetVertexIndexService streetVertexIndexService = graph.streetIndex;
-        if (leftUpLat == null || leftUpLon == null || rightUpLat == null || rightUpLon == null) {
-            double METERS_PER_DEGREE_LAT = 111111;
-            double distance = 2000;
-            for (Vertex gv : graph.getVertices()) {
-                if (gv instanceof TransitStop) {
-                    Coordinate c = gv.getCoordinate();
-                    Envelope env = new Envelope(c);
-                    double meters_per_degree_lon_here = METERS_PER_DEGREE_LAT
-                            * Math.cos(Math.toRadians(c.y));
-                    env.expandBy(distance / meters_per_degree_lon_here, distance
-                            / METERS_PER_DEGREE_LAT);
-                    StopType stop = new StopType(((TransitStop) gv).getStop(), extended);
-                    response.stops.add(stop);
-                }
-            }
-        } else {
-            Coordinate cOne = new Coordinate(leftUpLat, leftUpLon);
-            Coordinate cTwo = new Coordinate(rightUpLat, rightUpLon);
-            List<TransitStop> stops = streetVertexIndexService.getNearbyTransitStops(cOne, cTwo);
-            TransitIndexService transitIndexService = graph.getService(TransitIndexService.class);
-            if (transitIndexService == null) {
-                return new TransitError(
-                        "No transit index found.  Add TransitIndexBuilder to your graph builder configuration and rebuild your graph.");
-            }
-
-            for (TransitStop transitStop : stops) {
-                AgencyAndId stopId = transitStop.getStopId();
-                if (agency != null && !agency.equals(stopId.getAgencyId()))
-                    continue;
-                StopType stop = new StopType(transitStop.getStop(), extended);
-                if (extended != null && extended.equals(true))
-                    stop.routes = transitIndexService.getRoutesForStop(stopId);
-                response.stops.add(stop);
-            }
+        TransitIndexService transitIndexService = graph.getService(TransitIndexService.class);
+        if (transitIndexService == null) {
+            return new TransitError(
+                    "No transit index found.  Add TransitIndexBuilder to your graph builder configuration and rebuild your graph.");
+        }
+        if (routeId != null && agency == null) {
+            return new TransitError("Filtering stops by routeId requires an agency.");
         }
 
+        Envelope envelope;
+        if (leftUpLat == null || leftUpLon == null || rightUpLat == null || rightUpLon == null)
+            envelope = new Envelope(-180, 180, -90, 90);
+        else
+            envelope = new Envelope(leftUpLon, rightUpLon, leftUpLat, rightUpLat);
+
+        final StopList response = new StopList();
+        final boolean withRoutes = extended != null && extended.equals(true);
+        final TransitIndexService index = transitIndexService;
+        transitIndexService.getStopIndex().query(envelope, agency,
+                routeId == null ? null : new AgencyAndId(agency, routeId),
+                mode == null ? null : new TraverseModeSet(mode), new StopVisitor() {
+                    @Override
+                    public void visit(TransitStop transitStop) {
+                        StopType stop = new StopType(transitStop.getStop(), withRoutes);
+                        if (withRoutes)
+                            stop.routes = index.getRoutesForStop(transitStop.getStopId());
+                        response.stops.add(stop);
+                    }
+                });
+
         return response;
     }
 
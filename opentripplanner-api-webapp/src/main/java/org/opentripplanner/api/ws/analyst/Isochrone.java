@@ -0,0 +1,100 @@
+package org.opentripplanner.api.ws.analyst;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.geotools.geojson.geom.GeometryJSON;
+import org.opentripplanner.analyst.core.MarchingSquares;
+import org.opentripplanner.analyst.core.TimeSurface;
+import org.opentripplanner.analyst.request.SPTCache;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.jersey.api.core.InjectParam;
+import com.sun.jersey.api.spring.Autowire;
+import com.vividsolutions.jts.geom.MultiPolygon;
+
+/**
+ * Isochrones around fromPlace (or toPlace for arriveBy requests), as a GeoJSON feature
+ * collection with one MultiPolygon feature per cutoff. The search and its time surface are cached,
+ * so asking for other cutoffs below the largest one only repeats the contouring.
+ * 
+ * Requests whose time surface would have more grid points than the SPTCache maxSurfaceCells are
+ * rejected with 400 Bad Request: use a coarser resolution or a smaller maxMinutes.
+ */
+@Path("isochrone")
+@Autowire
+public class Isochrone extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Isochrone.class);
+
+    private static final int MAX_CUTOFF_MINUTES = 4 * 60;
+
+    @InjectParam
+    private SPTCache sptCache;
+
+    @QueryParam("cutoffMinutes") List<Integer> cutoffMinutes;
+    @QueryParam("maxMinutes") @DefaultValue("60") int maxMinutes;
+    @QueryParam("resolution") @DefaultValue("200") double resolution;
+
+    @GET @Produces(MediaType.APPLICATION_JSON)
+    public Response getIsochrone() throws Exception {
+        int[] cutoffs;
+        if (cutoffMinutes == null || cutoffMinutes.isEmpty()) {
+            cutoffs = new int[] { 15, 30, 45, 60 };
+        } else {
+            cutoffs = new int[cutoffMinutes.size()];
+            for (int i = 0; i < cutoffs.length; i++)
+                cutoffs[i] = cutoffMinutes.get(i);
+        }
+        Arrays.sort(cutoffs);
+        int max = Math.max(maxMinutes, cutoffs[cutoffs.length - 1]);
+        if (cutoffs[0] <= 0 || max > MAX_CUTOFF_MINUTES || resolution < 10)
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("cutoffs must be between 1 and " + MAX_CUTOFF_MINUTES
+                            + " minutes, and the resolution at least 10 meters")
+                    .type(MediaType.TEXT_PLAIN).build();
+
+        RoutingRequest req = buildRequest();
+        req.batch = true;
+        // a fixed search horizon, so that the cached search serves all the cutoffs below it
+        req.worstTime = req.dateTime + (req.arriveBy ? -max : max) * 60;
+        TimeSurface surface;
+        try {
+            surface = sptCache.getSurface(req, resolution);
+        } catch (IllegalArgumentException e) {
+            // the area reached is too large for this resolution
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage())
+                    .type(MediaType.TEXT_PLAIN).build();
+        }
+        for (int i = 0; i < cutoffs.length; i++)
+            cutoffs[i] *= 60;
+        long t0 = System.currentTimeMillis();
+        List<MultiPolygon> isochrones = MarchingSquares.contour(surface, cutoffs);
+        LOG.debug("contoured {} isochrones in {} msec", cutoffs.length,
+                System.currentTimeMillis() - t0);
+
+        GeometryJSON geometryJSON = new GeometryJSON();
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < cutoffs.length; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("{\"type\":\"Feature\",\"properties\":{\"time\":").append(cutoffs[i])
+                    .append("},\"geometry\":").append(geometryJSON.toString(isochrones.get(i)))
+                    .append('}');
+        }
+        json.append("]}");
+        return Response.ok(json.toString()).build();
+    }
+
+}
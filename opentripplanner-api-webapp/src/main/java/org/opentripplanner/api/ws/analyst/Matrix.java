@@ -0,0 +1,145 @@
+package org.opentripplanner.api.ws.analyst;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.opentripplanner.analyst.batch.TravelTimeMatrix;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.jersey.api.core.InjectParam;
+import com.sun.jersey.api.spring.Autowire;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Travel times between every origin and every destination, in seconds (-1 when unreachable),
+ * with the same routing parameters as the planner. Origins and destinations are given as
+ * repeated "lat,lon" query parameters.
+ * 
+ * The csv format has one line per origin; the binary format is the number of origins and of
+ * destinations followed by the times row by row, all as big-endian 32-bit integers.
+ * 
+ * Matrices with more origin-destination pairs than the TravelTimeMatrix maxPairs are rejected
+ * with 400 Bad Request.
+ */
+@Path("matrix")
+@Autowire
+public class Matrix extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Matrix.class);
+
+    @InjectParam
+    private TravelTimeMatrix travelTimeMatrix;
+
+    @QueryParam("origin") List<String> origins;
+    @QueryParam("destination") List<String> destinations;
+    @QueryParam("format") @DefaultValue("csv") String format;
+
+    @GET @Produces({ "text/csv", "application/octet-stream" })
+    public Response getMatrix() throws Exception {
+        List<Coordinate> from = parseCoordinates(origins);
+        List<Coordinate> to = parseCoordinates(destinations);
+        checkSize(travelTimeMatrix, from.size(), to.size());
+        RoutingRequest prototype = buildRequest();
+        StreamingOutput output = encode(travelTimeMatrix, prototype, from, to, format);
+        LOG.debug("{}x{} matrix requested", from.size(), to.size());
+        return Response.ok(output)
+                .type("csv".equals(format) ? "text/csv" : "application/octet-stream").build();
+    }
+
+    /** Reject matrices with more origin-destination pairs than the TravelTimeMatrix allows. */
+    static void checkSize(TravelTimeMatrix travelTimeMatrix, int nOrigins, int nDestinations) {
+        if (!travelTimeMatrix.isAllowed(nOrigins, nDestinations))
+            throw badRequest(nOrigins + "x" + nDestinations + " matrix requested, at most "
+                    + travelTimeMatrix.getMaxPairs() + " origin-destination pairs are allowed");
+    }
+
+    /** @return the matrix in the given format, computed as it is written */
+    static StreamingOutput encode(final TravelTimeMatrix travelTimeMatrix,
+            final RoutingRequest prototype, final List<Coordinate> from,
+            final List<Coordinate> to, String format) {
+        if ("csv".equals(format)) {
+            return new StreamingOutput() {
+                public void write(OutputStream outStream) throws IOException {
+                    final PrintWriter out = new PrintWriter(outStream);
+                    travelTimeMatrix.compute(prototype, from, to,
+                            new TravelTimeMatrix.RowHandler() {
+                                @Override
+                                public void handleRow(int origin, int[] times) {
+                                    for (int j = 0; j < times.length; j++) {
+                                        if (j > 0)
+                                            out.print(',');
+                                        out.print(times[j]);
+                                    }
+                                    out.print('\n');
+                                }
+                            });
+                    out.flush();
+                }
+            };
+        } else if ("binary".equals(format)) {
+            return new StreamingOutput() {
+                public void write(OutputStream outStream) throws IOException {
+                    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            outStream));
+                    out.writeInt(from.size());
+                    out.writeInt(to.size());
+                    travelTimeMatrix.compute(prototype, from, to,
+                            new TravelTimeMatrix.RowHandler() {
+                                @Override
+                                public void handleRow(int origin, int[] times)
+                                        throws IOException {
+                                    for (int time : times)
+                                        out.writeInt(time);
+                                }
+                            });
+                    out.flush();
+                }
+            };
+        } else {
+            throw badRequest("unknown format " + format);
+        }
+    }
+
+    private static List<Coordinate> parseCoordinates(List<String> latLons) {
+        if (latLons == null || latLons.isEmpty())
+            throw badRequest("origins and destinations are required");
+        List<Coordinate> coordinates = new ArrayList<Coordinate>(latLons.size());
+        for (String latLon : latLons) {
+            String[] parts = latLon.split(",");
+            try {
+                if (parts.length != 2)
+                    throw new NumberFormatException();
+                double lat = Double.parseDouble(parts[0].trim());
+                double lon = Double.parseDouble(parts[1].trim());
+                coordinates.add(new Coordinate(lon, lat));
+            } catch (NumberFormatException e) {
+                throw badRequest("not a lat,lon pair: " + latLon);
+            }
+        }
+        return coordinates;
+    }
+
+    private static WebApplicationException badRequest(String message) {
+        return new WebApplicationException(Response.status(Status.BAD_REQUEST).entity(message)
+                .type("text/plain").build());
+    }
+
+}
@@ -0,0 +1,71 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws.internals;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.opentripplanner.api.model.internals.HistogramSummary;
+import org.opentripplanner.api.model.internals.RequestMetricsSummary;
+import org.opentripplanner.util.monitoring.RequestMetrics;
+import org.opentripplanner.util.monitoring.RequestProfile.Counter;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
+import org.springframework.security.access.annotation.Secured;
+
+import com.sun.jersey.api.spring.Autowire;
+import com.sun.jersey.spi.resource.Singleton;
+
+/**
+ * Export the per-phase timings and search counters of the trip plan requests served so far.
+ */
+@Path("/metrics")
+@XmlRootElement
+@Autowire
+@Singleton
+public class Metrics {
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    @Secured({ "ROLE_USER" })
+    @GET
+    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public RequestMetricsSummary getMetrics() {
+        RequestMetrics metrics = RequestMetrics.getInstance();
+        RequestMetricsSummary summary = new RequestMetricsSummary();
+        summary.total = new HistogramSummary("total", metrics.getTotal(), MICROS_PER_MILLI);
+        for (Phase phase : Phase.values()) {
+            summary.phases.add(new HistogramSummary(phase.toString().toLowerCase(),
+                    metrics.getPhase(phase), MICROS_PER_MILLI));
+        }
+        for (Counter counter : Counter.values()) {
+            summary.counters.add(new HistogramSummary(counter.toString().toLowerCase(),
+                    metrics.getCounter(counter), 1));
+        }
+        return summary;
+    }
+
+    /** Discard the metrics recorded so far. */
+    @Secured({ "ROLE_USER" })
+    @POST
+    @Path("/reset")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Object reset() {
+        RequestMetrics.getInstance().reset();
+        return "OK";
+    }
+}
@@ -0,0 +1,118 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.ws;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.api.ws.AdmissionController.Admission;
+import org.opentripplanner.api.ws.AdmissionController.Degradation;
+import org.opentripplanner.routing.core.RoutingRequest;
+
+public class TestAdmissionController extends TestCase {
+
+    private AdmissionController controller;
+
+    public void setUp() {
+        controller = new AdmissionController();
+        controller.setMaxConcurrentRequests(2);
+        controller.setMaxQueuedRequests(1);
+        controller.setMaxQueueWait(50);
+    }
+
+    public void testAdmissionAndDegradation() {
+        controller.setReducedLoad(0.4);
+        controller.setMinimalLoad(0.9);
+        assertEquals(0.0, controller.getLoad());
+        Admission first = controller.admit();
+        assertEquals(Degradation.REDUCED, first.getDegradation());
+        Admission second = controller.admit();
+        assertEquals(Degradation.MINIMAL, second.getDegradation());
+        assertEquals(1.0, controller.getLoad());
+        assertEquals(2, controller.getDegradedCount());
+        first.release();
+        // releasing twice must not hand out an extra permit
+        first.release();
+        second.release();
+        assertEquals(0.0, controller.getLoad());
+        Admission third = controller.admit();
+        assertEquals(Degradation.REDUCED, third.getDegradation());
+        third.release();
+    }
+
+    public void testQueueTimeout() {
+        Admission first = controller.admit();
+        Admission second = controller.admit();
+        long t0 = System.currentTimeMillis();
+        assertNull(controller.admit());
+        assertTrue(System.currentTimeMillis() - t0 >= 50);
+        assertEquals(1, controller.getRejectedCount());
+        first.release();
+        second.release();
+    }
+
+    public void testQueueFull() throws Exception {
+        controller.setMaxQueueWait(5000);
+        final Admission first = controller.admit();
+        Admission second = controller.admit();
+        Thread queued = new Thread() {
+            @Override
+            public void run() {
+                Admission admission = controller.admit();
+                if (admission != null)
+                    admission.release();
+            }
+        };
+        queued.start();
+        while (controller.getLoad() < 1.5)
+            Thread.sleep(1);
+        // the queue is full: rejected without waiting
+        long t0 = System.currentTimeMillis();
+        assertNull(controller.admit());
+        assertTrue(System.currentTimeMillis() - t0 < 5000);
+        assertEquals(1, controller.getRejectedCount());
+        // the queued request is admitted as soon as a slot is released
+        first.release();
+        queued.join();
+        assertEquals(1, controller.getRejectedCount());
+        second.release();
+    }
+
+    public void testDegradationApply() {
+        RoutingRequest request = new RoutingRequest();
+        request.numItineraries = 3;
+        Degradation.NONE.apply(request);
+        assertEquals(3, request.numItineraries);
+        assertEquals(Integer.MAX_VALUE, request.maxRetries);
+        assertEquals(1.0, request.timeoutFactor);
+
+        Degradation.REDUCED.apply(request);
+        assertEquals(2, request.numItineraries);
+        assertEquals(2, request.maxRetries);
+        assertEquals(0.5, request.timeoutFactor);
+
+        Degradation.MINIMAL.apply(request);
+        assertEquals(1, request.numItineraries);
+        assertEquals(0, request.maxRetries);
+        assertEquals(0.125, request.timeoutFactor);
+    }
+
+    public void testRejectedResponse() {
+        javax.ws.rs.core.Response response = AdmissionController.rejectedResponse();
+        assertEquals(503, response.getStatus());
+        assertEquals(AdmissionController.RETRY_AFTER_SECONDS,
+                response.getMetadata().getFirst("Retry-After"));
+    }
+
+}
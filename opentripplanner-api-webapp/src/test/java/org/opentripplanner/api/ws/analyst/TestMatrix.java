@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws.analyst;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.analyst.batch.TravelTimeMatrix;
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TestMatrix extends TestCase {
+
+    private static final int[][] TIMES = { { 0, 600, -1 }, { 1200, 30, 45 } };
+
+    private List<Coordinate> origins = Arrays.asList(new Coordinate(-122.68, 45.52),
+            new Coordinate(-122.67, 45.51));
+
+    private List<Coordinate> destinations = Arrays.asList(new Coordinate(-122.68, 45.52),
+            new Coordinate(-122.66, 45.50), new Coordinate(-122.65, 45.53));
+
+    /** Hands out fixed rows instead of searching a graph. */
+    private static class FixedMatrix extends TravelTimeMatrix {
+        @Override
+        public void compute(RoutingRequest prototype, List<Coordinate> origins,
+                List<Coordinate> destinations, RowHandler handler) throws IOException {
+            for (int i = 0; i < TIMES.length; i++)
+                handler.handleRow(i, TIMES[i]);
+        }
+    }
+
+    public void testCsv() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingOutput output = Matrix.encode(new FixedMatrix(), new RoutingRequest(), origins,
+                destinations, "csv");
+        output.write(out);
+        assertEquals("0,600,-1\n1200,30,45\n", out.toString("US-ASCII"));
+    }
+
+    public void testBinary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingOutput output = Matrix.encode(new FixedMatrix(), new RoutingRequest(), origins,
+                destinations, "binary");
+        output.write(out);
+        assertEquals(4 * (2 + 6), out.size());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, in.readInt());
+        assertEquals(3, in.readInt());
+        for (int[] row : TIMES) {
+            for (int time : row)
+                assertEquals(time, in.readInt());
+        }
+    }
+
+    public void testUnknownFormat() {
+        try {
+            Matrix.encode(new FixedMatrix(), new RoutingRequest(), origins, destinations, "xml");
+            fail();
+        } catch (WebApplicationException e) {
+            assertEquals(400, e.getResponse().getStatus());
+        }
+    }
+
+    public void testMaxPairs() {
+        TravelTimeMatrix matrix = new FixedMatrix();
+        matrix.setMaxPairs(6);
+        Matrix.checkSize(matrix, 2, 3);
+        try {
+            Matrix.checkSize(matrix, 3, 3);
+            fail();
+        } catch (WebApplicationException e) {
+            assertEquals(400, e.getResponse().getStatus());
+        }
+        // no overflow on huge requests
+        assertFalse(matrix.isAllowed(100000, 100000));
+    }
+}
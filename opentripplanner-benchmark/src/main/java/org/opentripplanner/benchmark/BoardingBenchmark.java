@@ -0,0 +1,108 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Boarding: a full TransitBoardAlight.traverse, and the trip lookup it relies on,
+ * TableTripPattern.getNextTrip (which delegates to Timetable.getNextTrip).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BoardingBenchmark {
+
+    private static final int N_EDGES = 256;
+
+    @Param({ "40" })
+    public int gridSize;
+
+    private TransitBoardAlight[] edges = new TransitBoardAlight[N_EDGES];
+
+    private org.opentripplanner.routing.core.State[] states =
+            new org.opentripplanner.routing.core.State[N_EDGES];
+
+    private RoutingRequest[] requests = new RoutingRequest[N_EDGES];
+
+    private int[] times = new int[N_EDGES];
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        SyntheticGraph synthetic = SyntheticGraph.getInstance(gridSize);
+        List<TransitBoardAlight> boardings = new ArrayList<TransitBoardAlight>();
+        for (Vertex v : synthetic.getGraph().getVertices()) {
+            List<Edge> outgoing = new ArrayList<Edge>(v.getOutgoing());
+            for (TransitBoardAlight e : IterableLibrary.filter(outgoing, TransitBoardAlight.class))
+                if (e.isBoarding())
+                    boardings.add(e);
+        }
+        Random random = new Random(42);
+        Vertex target = synthetic.getIntersection(gridSize - 1, gridSize - 1);
+        for (int i = 0; i < N_EDGES; i++) {
+            TransitBoardAlight edge = boardings.get(random.nextInt(boardings.size()));
+            // spread the boarding times over the day
+            long time = synthetic.getDepartureTime() + random.nextInt(12 * 3600);
+            RoutingRequest options = new RoutingRequest(new TraverseModeSet("TRANSIT,WALK"));
+            options.dateTime = time;
+            options.setRoutingContext(synthetic.getGraph(), edge.getFromVertex(), target);
+            edges[i] = edge;
+            requests[i] = options;
+            states[i] = new org.opentripplanner.routing.core.State(edge.getFromVertex(), time,
+                    options);
+            times[i] = options.rctx.serviceDays.get(1).secondsSinceMidnight(time);
+        }
+    }
+
+    @Benchmark
+    public org.opentripplanner.routing.core.State traverse() {
+        int i = next++ % N_EDGES;
+        return edges[i].traverse(states[i]);
+    }
+
+    @Benchmark
+    public TripTimes getNextTrip() {
+        int i = next++ % N_EDGES;
+        TableTripPattern pattern = edges[i].getPattern();
+        return pattern.getNextTrip(edges[i].getStopIndex(), times[i], false, requests[i], true);
+    }
+}
@@ -0,0 +1,83 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IntBinHeap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills and drains the generic BinHeap and the primitive IntBinHeap with the same random keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PriorityQueueBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private double[] keys;
+
+    private Integer[] boxed;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        keys = new double[size];
+        boxed = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = random.nextDouble() * 10000;
+            boxed[i] = i;
+        }
+    }
+
+    @Benchmark
+    public int binHeap() {
+        BinHeap<Integer> heap = new BinHeap<Integer>(size);
+        for (int i = 0; i < size; i++)
+            heap.insert(boxed[i], keys[i]);
+        int sum = 0;
+        while ( ! heap.empty())
+            sum += heap.extract_min();
+        return sum;
+    }
+
+    @Benchmark
+    public int intBinHeap() {
+        IntBinHeap heap = new IntBinHeap(size);
+        for (int i = 0; i < size; i++)
+            heap.insert(i, keys[i]);
+        int sum = 0;
+        while ( ! heap.empty())
+            sum += heap.p_extract_min();
+        return sum;
+    }
+}
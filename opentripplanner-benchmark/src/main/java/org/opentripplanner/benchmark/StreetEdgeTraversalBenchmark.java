@@ -0,0 +1,89 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A single PlainStreetEdge.traverse call, cycling over street edges of the synthetic grid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StreetEdgeTraversalBenchmark {
+
+    private static final int N_EDGES = 256;
+
+    @Param({ "40" })
+    public int gridSize;
+
+    @Param({ "WALK", "BICYCLE", "CAR" })
+    public TraverseMode mode;
+
+    private PlainStreetEdge[] edges = new PlainStreetEdge[N_EDGES];
+
+    private org.opentripplanner.routing.core.State[] states =
+            new org.opentripplanner.routing.core.State[N_EDGES];
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        SyntheticGraph synthetic = SyntheticGraph.getInstance(gridSize);
+        Random random = new Random(42);
+        Vertex target = synthetic.getIntersection(gridSize - 1, gridSize - 1);
+        for (int i = 0; i < N_EDGES; i++) {
+            Vertex v = synthetic.getIntersection(random.nextInt(gridSize), random.nextInt(gridSize));
+            List<Edge> outgoing = new ArrayList<Edge>(v.getOutgoing());
+            List<PlainStreetEdge> streets = new ArrayList<PlainStreetEdge>();
+            for (PlainStreetEdge e : IterableLibrary.filter(outgoing, PlainStreetEdge.class))
+                streets.add(e);
+            edges[i] = streets.get(random.nextInt(streets.size()));
+            RoutingRequest options = new RoutingRequest(mode);
+            options.dateTime = synthetic.getDepartureTime();
+            options.setRoutingContext(synthetic.getGraph(), v, target);
+            states[i] = new org.opentripplanner.routing.core.State(v, options);
+        }
+    }
+
+    @Benchmark
+    public org.opentripplanner.routing.core.State traverse() {
+        int i = next++ % N_EDGES;
+        return edges[i].traverse(states[i]);
+    }
+}
@@ -0,0 +1,89 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl.CandidateEdgeBundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Snapping a coordinate to the street network, as done for the origin and destination of every
+ * trip plan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StreetIndexBenchmark {
+
+    private static final int N_POINTS = 256;
+
+    @Param({ "40" })
+    public int gridSize;
+
+    private StreetVertexIndexServiceImpl index;
+
+    private RoutingRequest options;
+
+    private Coordinate[] points = new Coordinate[N_POINTS];
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        SyntheticGraph synthetic = SyntheticGraph.getInstance(gridSize);
+        index = (StreetVertexIndexServiceImpl) synthetic.getGraph().streetIndex;
+        options = new RoutingRequest(TraverseMode.WALK);
+        Random random = new Random(42);
+        double maxLat = SyntheticGraph.lat(gridSize - 1);
+        double maxLon = SyntheticGraph.lon(gridSize - 1);
+        for (int i = 0; i < N_POINTS; i++) {
+            double lat = SyntheticGraph.ORIGIN_LAT + random.nextDouble()
+                    * (maxLat - SyntheticGraph.ORIGIN_LAT);
+            double lon = SyntheticGraph.ORIGIN_LON + random.nextDouble()
+                    * (maxLon - SyntheticGraph.ORIGIN_LON);
+            points[i] = new Coordinate(lon, lat);
+        }
+    }
+
+    @Benchmark
+    public CandidateEdgeBundle getClosestEdges() {
+        return index.getClosestEdges(points[next++ % N_POINTS], options, null, null, false);
+    }
+
+    @Benchmark
+    public Vertex getClosestVertex() {
+        return index.getClosestVertex(points[next++ % N_POINTS], null, options);
+    }
+}
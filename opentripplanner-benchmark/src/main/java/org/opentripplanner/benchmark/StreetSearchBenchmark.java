@@ -0,0 +1,87 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Street-only GenericAStar searches between random intersections of the synthetic grid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StreetSearchBenchmark {
+
+    private static final int N_PAIRS = 64;
+
+    @Param({ "40" })
+    public int gridSize;
+
+    @Param({ "WALK", "BICYCLE", "CAR" })
+    public TraverseMode mode;
+
+    private SyntheticGraph synthetic;
+
+    private Vertex[] origins = new Vertex[N_PAIRS];
+
+    private Vertex[] destinations = new Vertex[N_PAIRS];
+
+    private int next = 0;
+
+    private GenericAStar aStar = new GenericAStar();
+
+    @Setup
+    public void setup() {
+        synthetic = SyntheticGraph.getInstance(gridSize);
+        Random random = new Random(42);
+        for (int i = 0; i < N_PAIRS; i++) {
+            origins[i] = synthetic.getIntersection(random.nextInt(gridSize),
+                    random.nextInt(gridSize));
+            destinations[i] = synthetic.getIntersection(random.nextInt(gridSize),
+                    random.nextInt(gridSize));
+        }
+    }
+
+    @Benchmark
+    public GraphPath search() {
+        int i = next++ % N_PAIRS;
+        RoutingRequest options = new RoutingRequest(mode);
+        options.dateTime = synthetic.getDepartureTime();
+        options.setRoutingContext(synthetic.getGraph(), origins[i], destinations[i]);
+        ShortestPathTree spt = aStar.getShortestPathTree(options);
+        return spt.getPath(destinations[i], false);
+    }
+}
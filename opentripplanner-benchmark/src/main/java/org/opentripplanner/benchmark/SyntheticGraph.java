@@ -0,0 +1,267 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.graph_builder.impl.GtfsGraphBuilderImpl;
+import org.opentripplanner.graph_builder.impl.raptor.RaptorDataBuilder;
+import org.opentripplanner.graph_builder.impl.transit_index.TransitIndexBuilder;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.model.GtfsBundles;
+import org.opentripplanner.graph_builder.services.GraphBuilderWithGtfsDao;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.loader.NetworkLinker;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * A square grid of streets with bus lines running along every few rows and columns, generated
+ * in-process so that benchmarks need neither network access nor input files.
+ *
+ * Streets are about 220 meters apart. Every TRANSIT_SPACING-th row and column carries a bus line
+ * in each direction, stopping at every other intersection, from 6am to 10pm every ten minutes.
+ * Service runs every day of 2013, and {@link #getDepartureTime()} is a weekday morning.
+ */
+public class SyntheticGraph {
+
+    public static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/Los_Angeles");
+
+    public static final double ORIGIN_LAT = 45.5;
+
+    public static final double ORIGIN_LON = -122.7;
+
+    public static final double LAT_STEP = 0.002;
+
+    public static final double LON_STEP = 0.0028;
+
+    private static final int TRANSIT_SPACING = 5;
+
+    private static final int STOP_SPACING = 2;
+
+    private static final int HEADWAY = 10 * 60;
+
+    private static final int HOP_TIME = 2 * 60;
+
+    private static final String AGENCY = "SYN";
+
+    private static Map<Integer, SyntheticGraph> instances = new HashMap<Integer, SyntheticGraph>();
+
+    private final int size;
+
+    private final Graph graph;
+
+    private final IntersectionVertex[][] intersections;
+
+    /** @return a shared synthetic graph with size x size intersections, built on first use */
+    public static synchronized SyntheticGraph getInstance(int size) {
+        SyntheticGraph instance = instances.get(size);
+        if (instance == null) {
+            instance = new SyntheticGraph(size);
+            instances.put(size, instance);
+        }
+        return instance;
+    }
+
+    private SyntheticGraph(int size) {
+        this.size = size;
+        this.graph = new Graph();
+        this.intersections = new IntersectionVertex[size][size];
+        buildStreets();
+        HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
+        buildTransit(extra);
+        new NetworkLinker(graph).createLinkage();
+        new RaptorDataBuilder().buildGraph(graph, extra);
+        graph.streetIndex = new StreetVertexIndexServiceImpl(graph);
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public IntersectionVertex getIntersection(int row, int col) {
+        return intersections[row][col];
+    }
+
+    /** @return Wednesday June 5th 2013 at 8am local time, in seconds since the epoch */
+    public long getDepartureTime() {
+        GregorianCalendar calendar = new GregorianCalendar(TIME_ZONE);
+        calendar.clear();
+        calendar.set(2013, GregorianCalendar.JUNE, 5, 8, 0, 0);
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    public static double lat(int row) {
+        return ORIGIN_LAT + row * LAT_STEP;
+    }
+
+    public static double lon(int col) {
+        return ORIGIN_LON + col * LON_STEP;
+    }
+
+    private void buildStreets() {
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                intersections[row][col] = new IntersectionVertex(graph, "i_" + row + "_" + col,
+                        lon(col), lat(row));
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (col + 1 < size)
+                    street(intersections[row][col], intersections[row][col + 1], "row " + row);
+                if (row + 1 < size)
+                    street(intersections[row][col], intersections[row + 1][col], "col " + col);
+            }
+        }
+    }
+
+    private void street(IntersectionVertex v0, IntersectionVertex v1, String name) {
+        DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
+        double length = distanceLibrary.distance(v0.getCoordinate(), v1.getCoordinate());
+        LineString geometry = GeometryUtils.makeLineString(v0.getX(), v0.getY(), v1.getX(),
+                v1.getY());
+        new PlainStreetEdge(v0, v1, geometry, name, length, StreetTraversalPermission.ALL, false);
+        new PlainStreetEdge(v1, v0, (LineString) geometry.reverse(), name, length,
+                StreetTraversalPermission.ALL, true);
+    }
+
+    private void buildTransit(HashMap<Class<?>, Object> extra) {
+        File gtfs;
+        try {
+            gtfs = writeGtfs();
+        } catch (IOException e) {
+            throw new RuntimeException("could not write synthetic GTFS", e);
+        }
+        GtfsBundle bundle = new GtfsBundle();
+        bundle.setPath(gtfs);
+        GtfsBundles bundles = new GtfsBundles();
+        bundles.setBundles(Arrays.asList(bundle));
+        GtfsGraphBuilderImpl gtfsBuilder = new GtfsGraphBuilderImpl();
+        gtfsBuilder.setGtfsBundles(bundles);
+        List<GraphBuilderWithGtfsDao> builders = new ArrayList<GraphBuilderWithGtfsDao>();
+        builders.add(new TransitIndexBuilder());
+        gtfsBuilder.setGtfsGraphBuilders(builders);
+        gtfsBuilder.buildGraph(graph, extra);
+    }
+
+    /** Write the bus lines as a GTFS zip file in the temporary directory. */
+    private File writeGtfs() throws IOException {
+        File file = File.createTempFile("otp-synthetic-", ".gtfs.zip");
+        file.deleteOnExit();
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        PrintWriter out = new PrintWriter(zip);
+
+        zip.putNextEntry(new ZipEntry("agency.txt"));
+        out.println("agency_id,agency_name,agency_url,agency_timezone");
+        out.println(AGENCY + ",Synthetic Transit,http://example.com," + TIME_ZONE.getID());
+        out.flush();
+
+        zip.putNextEntry(new ZipEntry("calendar.txt"));
+        out.println("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,"
+                + "start_date,end_date");
+        out.println("ALL,1,1,1,1,1,1,1,20130101,20131231");
+        out.flush();
+
+        // one line per transit row and column, each listing its stops in order
+        List<String> lineIds = new ArrayList<String>();
+        List<List<String>> lineStops = new ArrayList<List<String>>();
+        zip.putNextEntry(new ZipEntry("stops.txt"));
+        out.println("stop_id,stop_name,stop_lat,stop_lon");
+        for (int i = 0; i < size; i += TRANSIT_SPACING) {
+            List<String> rowStops = new ArrayList<String>();
+            List<String> colStops = new ArrayList<String>();
+            for (int j = 0; j < size; j += STOP_SPACING) {
+                // stops sit slightly off the intersection, on the side of the street
+                String rowStop = "r" + i + "_" + j;
+                out.println(rowStop + ",Row " + i + " at " + j + "," + (lat(i) + 0.0001) + ","
+                        + lon(j));
+                rowStops.add(rowStop);
+                String colStop = "c" + i + "_" + j;
+                out.println(colStop + ",Col " + i + " at " + j + "," + lat(j) + ","
+                        + (lon(i) + 0.0001));
+                colStops.add(colStop);
+            }
+            lineIds.add("R" + i);
+            lineStops.add(rowStops);
+            lineIds.add("C" + i);
+            lineStops.add(colStops);
+        }
+        out.flush();
+
+        zip.putNextEntry(new ZipEntry("routes.txt"));
+        out.println("route_id,agency_id,route_short_name,route_long_name,route_type");
+        for (String lineId : lineIds)
+            out.println(lineId + "," + AGENCY + "," + lineId + ",Line " + lineId + ",3");
+        out.flush();
+
+        zip.putNextEntry(new ZipEntry("trips.txt"));
+        out.println("route_id,service_id,trip_id,direction_id");
+        for (String lineId : lineIds) {
+            for (int t = 6 * 3600; t <= 22 * 3600; t += HEADWAY) {
+                out.println(lineId + ",ALL," + lineId + "_0_" + t + ",0");
+                out.println(lineId + ",ALL," + lineId + "_1_" + t + ",1");
+            }
+        }
+        out.flush();
+
+        zip.putNextEntry(new ZipEntry("stop_times.txt"));
+        out.println("trip_id,arrival_time,departure_time,stop_id,stop_sequence");
+        for (int l = 0; l < lineIds.size(); l++) {
+            String lineId = lineIds.get(l);
+            List<String> stops = lineStops.get(l);
+            for (int t = 6 * 3600; t <= 22 * 3600; t += HEADWAY) {
+                for (int s = 0; s < stops.size(); s++) {
+                    String time = formatTime(t + s * HOP_TIME);
+                    out.println(lineId + "_0_" + t + "," + time + "," + time + ","
+                            + stops.get(s) + "," + s);
+                    out.println(lineId + "_1_" + t + "," + time + "," + time + ","
+                            + stops.get(stops.size() - 1 - s) + "," + s);
+                }
+            }
+        }
+        out.flush();
+
+        zip.closeEntry();
+        out.close();
+        return file;
+    }
+
+    private static String formatTime(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,111 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.GraphServiceImpl;
+import org.opentripplanner.routing.impl.raptor.Raptor;
+import org.opentripplanner.routing.pathparser.BasicPathParser;
+import org.opentripplanner.routing.pathparser.NoThruTrafficPathParser;
+import org.opentripplanner.routing.pathparser.PathParser;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Walk+transit searches across the synthetic grid, with GenericAStar and with RAPTOR. Endpoints
+ * are drawn from opposite corners of the grid so that every search has to ride transit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransitSearchBenchmark {
+
+    private static final int N_PAIRS = 32;
+
+    @Param({ "40" })
+    public int gridSize;
+
+    private SyntheticGraph synthetic;
+
+    private Vertex[] origins = new Vertex[N_PAIRS];
+
+    private Vertex[] destinations = new Vertex[N_PAIRS];
+
+    private int next = 0;
+
+    private GenericAStar aStar = new GenericAStar();
+
+    private Raptor raptor = new Raptor();
+
+    @Setup
+    public void setup() {
+        synthetic = SyntheticGraph.getInstance(gridSize);
+        Random random = new Random(42);
+        int corner = gridSize / 4;
+        for (int i = 0; i < N_PAIRS; i++) {
+            origins[i] = synthetic.getIntersection(random.nextInt(corner), random.nextInt(corner));
+            destinations[i] = synthetic.getIntersection(gridSize - 1 - random.nextInt(corner),
+                    gridSize - 1 - random.nextInt(corner));
+        }
+        GraphServiceImpl graphService = new GraphServiceImpl();
+        graphService.registerGraph("", synthetic.getGraph());
+        raptor.setGraphService(graphService);
+        raptor.sptService = aStar;
+        raptor.setShortPathCutoff(0);
+        raptor.setup();
+    }
+
+    private RoutingRequest nextRequest(int i) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet("TRANSIT,WALK"));
+        options.dateTime = synthetic.getDepartureTime();
+        options.setRoutingContext(synthetic.getGraph(), origins[i], destinations[i]);
+        options.rctx.pathParsers = new PathParser[] { new BasicPathParser(),
+                new NoThruTrafficPathParser() };
+        return options;
+    }
+
+    @Benchmark
+    public GraphPath aStar() {
+        int i = next++ % N_PAIRS;
+        ShortestPathTree spt = aStar.getShortestPathTree(nextRequest(i));
+        return spt.getPath(destinations[i], false);
+    }
+
+    @Benchmark
+    public List<GraphPath> raptor() {
+        int i = next++ % N_PAIRS;
+        return raptor.getPaths(nextRequest(i));
+    }
+}
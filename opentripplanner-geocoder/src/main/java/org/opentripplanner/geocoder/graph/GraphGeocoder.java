@@ -0,0 +1,439 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.geocoder.graph;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import org.opentripplanner.geocoder.Geocoder;
+import org.opentripplanner.geocoder.GeocoderResult;
+import org.opentripplanner.geocoder.GeocoderResults;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.GraphWarmer;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Geocodes street and stop names from a routing graph, without any network access. The names are
+ * indexed by trigram, and candidates are ranked by the share of trigrams they have in common with
+ * the query, so misspelled and partial names still match. Names starting with the query and
+ * places inside the bbox, if any, are ranked higher.
+ * 
+ * Register the geocoder as a {@link GraphWarmer} of the graph service to index each graph of its
+ * routerId before it is published. Otherwise a graph is indexed on a background thread when it is
+ * first queried, and queries get an {@link #INDEXING_MSG} error until the index is ready.
+ * 
+ * Results are not restricted to the bbox: wrap this in a {@link org.opentripplanner.geocoder.GeocoderGeoZoneCropper} to
+ * drop the places outside of a fixed zone.
+ */
+public class GraphGeocoder implements Geocoder, GraphWarmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphGeocoder.class);
+
+    public static final String ERROR_MSG = "no graph to geocode with";
+
+    public static final String INDEXING_MSG = "the place names are being indexed, try again later";
+
+    /** Places of the same kind and name closer than this, in degrees, are reported once */
+    private static final double MERGE_DEGREES = 0.01;
+
+    private static final double PREFIX_BONUS = 0.25;
+
+    private static final double BBOX_BONUS = 0.25;
+
+    private GraphService graphService;
+
+    private String routerId;
+
+    private int resultLimit = 10;
+
+    private double minSimilarity = 0.35;
+
+    private int cacheSize = 1000;
+
+    /** The indexes of the graphs that are still referenced, there is usually one */
+    private final Map<Graph, Index> indexes = new WeakHashMap<Graph, Index>();
+
+    /** The graphs being indexed on a background thread */
+    private final Set<Graph> indexing = Collections
+            .newSetFromMap(new WeakHashMap<Graph, Boolean>());
+
+    public GraphGeocoder() {
+    }
+
+    public GraphGeocoder(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
+    @Override
+    public GeocoderResults geocode(String address, Envelope bbox) {
+        Graph graph = graphService == null ? null : graphService.getGraph(routerId);
+        if (graph == null)
+            return new GeocoderResults(ERROR_MSG);
+        String key = normalize(address);
+        if (key.length() == 0)
+            return new GeocoderResults(new ArrayList<GeocoderResult>());
+        Index index = getIndex(graph);
+        if (index == null)
+            return new GeocoderResults(INDEXING_MSG);
+        return new GeocoderResults(index.query(key, bbox));
+    }
+
+    /** Index the graph before it is published, if it is the one of this geocoder's routerId. */
+    @Override
+    public void warm(String routerId, Graph graph) {
+        if (!normalizeRouterId(routerId).equals(normalizeRouterId(this.routerId)))
+            return;
+        Index index = new Index(graph);
+        synchronized (indexes) {
+            indexes.put(graph, index);
+        }
+    }
+
+    private static String normalizeRouterId(String routerId) {
+        return routerId == null ? "" : routerId;
+    }
+
+    /** @return the index of the graph, or null if it is not ready yet */
+    private Index getIndex(final Graph graph) {
+        synchronized (indexes) {
+            Index index = indexes.get(graph);
+            if (index != null || !indexing.add(graph))
+                return index;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Index index = new Index(graph);
+                    synchronized (indexes) {
+                        indexes.put(graph, index);
+                    }
+                } catch (RuntimeException e) {
+                    LOG.error("failed to index the place names of the graph", e);
+                } finally {
+                    synchronized (indexes) {
+                        indexing.remove(graph);
+                    }
+                }
+            }
+        }, "geocoder-index");
+        thread.setDaemon(true);
+        thread.start();
+        return null;
+    }
+
+    /** @return whether the graph has been indexed, for tests */
+    boolean isIndexed(Graph graph) {
+        synchronized (indexes) {
+            return indexes.containsKey(graph);
+        }
+    }
+
+    /** Lower case, without accents, with runs of anything but letters and digits as one space */
+    static String normalize(String name) {
+        if (name == null)
+            return "";
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        if (space && sb.length() > 0)
+            sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    /**
+     * @return the distinct trigrams of a normalized name, padded so that its first letters make
+     *         trigrams of their own and prefixes match
+     */
+    static long[] trigrams(String key) {
+        String padded = "  " + key + " ";
+        TreeSet<Long> grams = new TreeSet<Long>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16)
+                    | padded.charAt(i + 2));
+        }
+        long[] ret = new long[grams.size()];
+        int i = 0;
+        for (Long gram : grams)
+            ret[i++] = gram;
+        return ret;
+    }
+
+    /**
+     * The names of one graph and their trigram postings, never modified once built. It must not
+     * refer to the graph, which is the weak key of the index.
+     */
+    private class Index {
+
+        final String[] names;
+
+        final String[] keys;
+
+        final double[] lats, lons;
+
+        final int[] gramCounts;
+
+        final Map<Long, int[]> postings = new HashMap<Long, int[]>();
+
+        /**
+         * The number of trigrams each place shares with the query being searched, for each thread.
+         * Searches set the counts of their candidates back to zero when they are done.
+         */
+        private final ThreadLocal<int[]> sharedCounts = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[names.length];
+            }
+        };
+
+        /** The most recent queries and the places they matched, best first, in access order */
+        private final LinkedHashMap<String, int[]> cache;
+
+        Index(Graph graph) {
+            long t0 = System.currentTimeMillis();
+            List<String> names = new ArrayList<String>();
+            List<String> keys = new ArrayList<String>();
+            List<double[]> coords = new ArrayList<double[]>();
+            Map<String, List<Integer>> placesByKind = new HashMap<String, List<Integer>>();
+            for (Vertex v : graph.getVertices()) {
+                if (v instanceof TransitStop)
+                    add("stop", v.getName(), v.getY(), v.getX(), names, keys, coords,
+                            placesByKind);
+                for (Edge e : v.getOutgoing()) {
+                    if (!(e instanceof StreetEdge) || e.hasBogusName())
+                        continue;
+                    Vertex to = e.getToVertex();
+                    add("street", e.getName(), (v.getY() + to.getY()) / 2,
+                            (v.getX() + to.getX()) / 2, names, keys, coords, placesByKind);
+                }
+            }
+            int n = names.size();
+            this.names = names.toArray(new String[n]);
+            this.keys = keys.toArray(new String[n]);
+            lats = new double[n];
+            lons = new double[n];
+            gramCounts = new int[n];
+            long[][] grams = new long[n][];
+            Map<Long, Integer> sizes = new HashMap<Long, Integer>();
+            for (int i = 0; i < n; i++) {
+                lats[i] = coords.get(i)[0];
+                lons[i] = coords.get(i)[1];
+                grams[i] = trigrams(this.keys[i]);
+                gramCounts[i] = grams[i].length;
+                for (long gram : grams[i]) {
+                    Integer size = sizes.get(gram);
+                    sizes.put(gram, size == null ? 1 : size + 1);
+                }
+            }
+            for (Map.Entry<Long, Integer> entry : sizes.entrySet())
+                postings.put(entry.getKey(), new int[entry.getValue()]);
+            Map<Long, Integer> fill = new HashMap<Long, Integer>();
+            for (int i = 0; i < n; i++) {
+                for (long gram : grams[i]) {
+                    Integer f = fill.get(gram);
+                    int pos = f == null ? 0 : f;
+                    postings.get(gram)[pos] = i;
+                    fill.put(gram, pos + 1);
+                }
+            }
+            cache = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, int[]> e) {
+                    return size() > cacheSize;
+                }
+            };
+            LOG.info("indexed {} place names with {} trigrams in {} msec", new Object[] { n,
+                    postings.size(), System.currentTimeMillis() - t0 });
+        }
+
+        private void add(String kind, String name, double lat, double lon, List<String> names,
+                List<String> keys, List<double[]> coords, Map<String, List<Integer>> placesByKind) {
+            String key = normalize(name);
+            if (key.length() == 0)
+                return;
+            String kindKey = kind + ":" + key;
+            List<Integer> places = placesByKind.get(kindKey);
+            if (places == null) {
+                places = new ArrayList<Integer>(1);
+                placesByKind.put(kindKey, places);
+            }
+            for (int i : places) {
+                double[] c = coords.get(i);
+                if (Math.abs(c[0] - lat) < MERGE_DEGREES && Math.abs(c[1] - lon) < MERGE_DEGREES)
+                    return;
+            }
+            places.add(names.size());
+            names.add(name);
+            keys.add(key);
+            coords.add(new double[] { lat, lon });
+        }
+
+        /**
+         * @return new results every time: the decorators may modify the results and replace the
+         *         list
+         */
+        List<GeocoderResult> query(String key, Envelope bbox) {
+            String cacheKey = bbox == null ? key : key + "|" + bbox;
+            int[] places;
+            synchronized (cache) {
+                places = cache.get(cacheKey);
+            }
+            if (places == null) {
+                places = search(key, bbox);
+                synchronized (cache) {
+                    cache.put(cacheKey, places);
+                }
+            }
+            List<GeocoderResult> results = new ArrayList<GeocoderResult>(places.length);
+            for (int i : places)
+                results.add(new GeocoderResult(lats[i], lons[i], names[i]));
+            return results;
+        }
+
+        private int[] search(String key, Envelope bbox) {
+            long[] queryGrams = trigrams(key);
+            int[] shared = sharedCounts.get();
+            List<Integer> candidates = new ArrayList<Integer>();
+            List<Candidate> matches = new ArrayList<Candidate>();
+            try {
+                for (long gram : queryGrams) {
+                    int[] posting = postings.get(gram);
+                    if (posting == null)
+                        continue;
+                    for (int i : posting) {
+                        if (shared[i]++ == 0)
+                            candidates.add(i);
+                    }
+                }
+                for (int i : candidates) {
+                    double similarity = 2.0 * shared[i] / (queryGrams.length + gramCounts[i]);
+                    boolean prefix = keys[i].startsWith(key);
+                    if (similarity < minSimilarity && !prefix)
+                        continue;
+                    double score = similarity;
+                    if (prefix)
+                        score += PREFIX_BONUS;
+                    if (bbox != null && bbox.contains(lons[i], lats[i]))
+                        score += BBOX_BONUS;
+                    matches.add(new Candidate(i, score));
+                }
+            } finally {
+                for (int i : candidates)
+                    shared[i] = 0;
+            }
+            Collections.sort(matches);
+            int[] places = new int[Math.min(resultLimit, matches.size())];
+            for (int i = 0; i < places.length; i++)
+                places[i] = matches.get(i).index;
+            return places;
+        }
+
+        private class Candidate implements Comparable<Candidate> {
+
+            final int index;
+
+            final double score;
+
+            Candidate(int index, double score) {
+                this.index = index;
+                this.score = score;
+            }
+
+            @Override
+            public int compareTo(Candidate other) {
+                if (score != other.score)
+                    return score > other.score ? -1 : 1;
+                return keys[index].compareTo(keys[other.index]);
+            }
+        }
+    }
+
+    public GraphService getGraphService() {
+        return graphService;
+    }
+
+    public void setGraphService(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
+    public String getRouterId() {
+        return routerId;
+    }
+
+    /** The graph to geocode with, when the graph service has several */
+    public void setRouterId(String routerId) {
+        this.routerId = routerId;
+    }
+
+    public int getResultLimit() {
+        return resultLimit;
+    }
+
+    public void setResultLimit(int resultLimit) {
+        this.resultLimit = resultLimit;
+    }
+
+    public double getMinSimilarity() {
+        return minSimilarity;
+    }
+
+    /**
+     * The least share of trigrams (Dice coefficient, from 0 to 1) a name must have in common with
+     * a query to match it, unless it starts with the query.
+     */
+    public void setMinSimilarity(double minSimilarity) {
+        this.minSimilarity = minSimilarity;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /** The number of recent queries whose results are kept, per graph */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+}
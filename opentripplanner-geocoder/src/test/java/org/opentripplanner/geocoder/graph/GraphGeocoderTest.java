@@ -0,0 +1,153 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.geocoder.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.geocoder.GeocoderResult;
+import org.opentripplanner.geocoder.GeocoderResults;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class GraphGeocoderTest {
+
+    private Graph graph;
+
+    private GraphGeocoder geocoder;
+
+    @Before
+    public void setUp() {
+        graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -122.70, 45.50);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -122.69, 45.50);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", -122.69, 45.51);
+        IntersectionVertex d = new IntersectionVertex(graph, "d", -122.40, 45.51);
+        IntersectionVertex e = new IntersectionVertex(graph, "e", -122.39, 45.51);
+        street(a, b, "Main Street");
+        street(b, c, "Market Street");
+        // a street of the same name, far away
+        street(d, e, "Main Street");
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("agency", "1"));
+        stop.setName("Pioneer Square");
+        stop.setLat(45.505);
+        stop.setLon(-122.695);
+        new TransitStop(graph, stop);
+        geocoder = new GraphGeocoder(new GraphServiceBeanImpl(graph));
+        geocoder.warm(null, graph);
+    }
+
+    private void street(IntersectionVertex v0, IntersectionVertex v1, String name) {
+        new PlainStreetEdge(v0, v1, GeometryUtils.makeLineString(v0.getX(), v0.getY(),
+                v1.getX(), v1.getY()), name, 1000, StreetTraversalPermission.ALL, false);
+    }
+
+    private List<GeocoderResult> geocode(String address, Envelope bbox) {
+        return new ArrayList<GeocoderResult>(geocoder.geocode(address, bbox).getResults());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("cafe du parc", GraphGeocoder.normalize(" Caf\u00e9-du  Parc! "));
+        assertEquals("", GraphGeocoder.normalize(null));
+    }
+
+    @Test
+    public void testExactAndMisspelledNames() {
+        List<GeocoderResult> results = geocode("Pioneer Square", null);
+        assertEquals("Pioneer Square", results.get(0).getDescription());
+        results = geocode("pionner sqare", null);
+        assertEquals("Pioneer Square", results.get(0).getDescription());
+    }
+
+    @Test
+    public void testPrefix() {
+        List<GeocoderResult> results = geocode("mar", null);
+        assertEquals(1, results.size());
+        assertEquals("Market Street", results.get(0).getDescription());
+    }
+
+    @Test
+    public void testBboxBias() {
+        Envelope east = new Envelope(-122.41, -122.38, 45.50, 45.52);
+        List<GeocoderResult> results = geocode("main street", east);
+        assertEquals("Main Street", results.get(0).getDescription());
+        assertTrue(east.contains(results.get(0).getLng(), results.get(0).getLat()));
+        Envelope west = new Envelope(-122.71, -122.68, 45.49, 45.51);
+        results = geocode("main street", west);
+        assertEquals("Main Street", results.get(0).getDescription());
+        assertTrue(west.contains(results.get(0).getLng(), results.get(0).getLat()));
+    }
+
+    @Test
+    public void testCachedResultsAreNotShared() {
+        GeocoderResults first = geocoder.geocode("main street", null);
+        int count = first.getCount();
+        assertTrue(count > 0);
+        first.getResults().clear();
+        assertEquals(count, geocoder.geocode("main street", null).getCount());
+    }
+
+    @Test
+    public void testCachedResultsAreCopied() {
+        GeocoderResults first = geocoder.geocode("pioneer square", null);
+        first.getResults().iterator().next().setDescription("cropped");
+        assertEquals("Pioneer Square", geocoder.geocode("pioneer square", null).getResults()
+                .iterator().next().getDescription());
+    }
+
+    @Test
+    public void testIndexInBackground() throws Exception {
+        GraphGeocoder unwarmed = new GraphGeocoder(new GraphServiceBeanImpl(graph));
+        // graphs of other routers are not indexed by the warmer
+        unwarmed.warm("other", graph);
+        assertFalse(unwarmed.isIndexed(graph));
+        assertEquals(GraphGeocoder.INDEXING_MSG, unwarmed.geocode("main", null).getError());
+        for (int i = 0; i < 1000 && !unwarmed.isIndexed(graph); i++)
+            Thread.sleep(10);
+        assertTrue(unwarmed.isIndexed(graph));
+        GeocoderResults results = unwarmed.geocode("main", null);
+        assertNull(results.getError());
+        assertEquals("Main Street", results.getResults().iterator().next().getDescription());
+    }
+
+    @Test
+    public void testSearchesDoNotShareCounts() {
+        // "re" shares one trigram with "pioneer square", too few to match on its own
+        assertFalse(geocode("Pioneer Square", null).isEmpty());
+        assertTrue(geocode("re", null).isEmpty());
+    }
+
+    @Test
+    public void testNoGraph() {
+        GeocoderResults results = new GraphGeocoder(new GraphServiceBeanImpl()).geocode("main",
+                null);
+        assertEquals(GraphGeocoder.ERROR_MSG, results.getError());
+    }
+}
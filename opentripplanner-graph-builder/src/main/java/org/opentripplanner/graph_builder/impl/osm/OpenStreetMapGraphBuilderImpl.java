@@ -24,6 +24,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestriction;
@@ -147,6 +151,8 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
 
     private OSMPlainStreetEdgeFactory edgeFactory = new DefaultOSMPlainStreetEdgeFactory();
 
+    private int maxAreaNodes = 0;
+
     public List<String> provides() {
         return Arrays.asList("streets", "turns");
     }
@@ -186,6 +192,14 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
         wayPropertySet = source.getWayPropertySet();
     }
 
+    /**
+     * Areas with more visibility points (concave vertices, hole vertices and vertices linked to
+     * ways) than this are not linked. Zero or less, the default, links all areas.
+     */
+    public void setMaxAreaNodes(int maxAreaNodes) {
+        this.maxAreaNodes = maxAreaNodes;
+    }
+
     /**
      * If true, disallow zero floors and add 1 to non-negative numeric floors, as is generally done in the United States. This does not affect floor
      * names from level maps. Default: true.
@@ -626,178 +640,235 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
         }
 
         private void buildAreas() {
-            final int MAX_AREA_NODES = 500;
             _log.debug("building visibility graphs for areas");
-            for (Area area : _areas) {
-                Set<OSMNode> startingNodes = new HashSet<OSMNode>();
-                List<Vertex> startingVertices = new ArrayList<Vertex>();
-                Set<Edge> edges = new HashSet<Edge>();
-
-                OSMWithTags areaEntity = area.parent;
-                // forward and reverse are not well defined for areas, so assume forward
-                float carSpeed = wayPropertySet.getCarSpeedForWay(areaEntity, false);
-
-                StreetTraversalPermission areaPermissions = getPermissionsForEntity(areaEntity,
-                        StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE);
-                if (areaPermissions == StreetTraversalPermission.NONE)
-                    continue;
-                setWayName(areaEntity);
+            // the visibility graphs of all the rings are computed in parallel while the areas are
+            // still being read; the edges are then created in order, on this thread only
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime()
+                    .availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "visibility-graph");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                List<List<AreaRing>> ringsForArea = new ArrayList<List<AreaRing>>();
+                for (Area area : _areas) {
+                    List<AreaRing> rings = prepareArea(area, executor);
+                    if (rings != null)
+                        ringsForArea.add(rings);
+                }
+                for (List<AreaRing> rings : ringsForArea) {
+                    List<Vertex> startingVertices = new ArrayList<Vertex>();
+                    Set<Edge> edges = new HashSet<Edge>();
+                    for (AreaRing ring : rings)
+                        buildAreaEdges(ring, startingVertices, edges);
+                    pruneAreaEdges(startingVertices, edges);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * The nodes of one outermost ring of an area (and of its holes) with their visibility
+         * graph, and what is needed to make the area edges.
+         */
+        private class AreaRing {
+            OSMWithTags areaEntity;
+
+            StreetTraversalPermission areaPermissions;
 
-                List<Point> vertices = new ArrayList<Point>();
+            float carSpeed;
 
-                // the points corresponding to concave or hole vertices
-                // or those linked to ways
-                Set<Point> visibilityPoints = new HashSet<Point>();
+            List<OSMNode> nodes;
 
-                // create polygon and accumulate nodes for area
+            Set<OSMNode> startingNodes;
+
+            VisibilityGraph vg;
+        }
+
+        /**
+         * Read the rings of an area and start the computation of their visibility graphs.
+         * 
+         * @return null if the area cannot be traversed
+         */
+        private List<AreaRing> prepareArea(Area area, Executor executor) {
+            Set<OSMNode> startingNodes = new HashSet<OSMNode>();
 
-                for (Ring ring : area.outermostRings) {
-                    List<OSMNode> nodes = new ArrayList<OSMNode>();
-                    vertices.clear();
-                    for (OSMNode node : ring.nodes) {
-                        if (nodes.contains(node)) {
+            OSMWithTags areaEntity = area.parent;
+            // forward and reverse are not well defined for areas, so assume forward
+            float carSpeed = wayPropertySet.getCarSpeedForWay(areaEntity, false);
+
+            StreetTraversalPermission areaPermissions = getPermissionsForEntity(areaEntity,
+                    StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE);
+            if (areaPermissions == StreetTraversalPermission.NONE)
+                return null;
+            setWayName(areaEntity);
+
+            List<AreaRing> rings = new ArrayList<AreaRing>();
+
+            List<Point> vertices = new ArrayList<Point>();
+
+            // the points corresponding to concave or hole vertices
+            // or those linked to ways
+            Set<Point> visibilityPoints = new HashSet<Point>();
+
+            // create polygon and accumulate nodes for area
+
+            for (Ring ring : area.outermostRings) {
+                List<OSMNode> nodes = new ArrayList<OSMNode>();
+                vertices.clear();
+                for (OSMNode node : ring.nodes) {
+                    if (nodes.contains(node)) {
+                        // hopefully, this only happens in order to
+                        // close polygons
+                        continue;
+                    }
+                    if (node == null) {
+                        throw new RuntimeException("node for area " + areaEntity.getId()
+                                + " does not exist");
+                    }
+                    Point point = new Point(node.getLon(), node.getLat());
+                    nodes.add(node);
+                    vertices.add(point);
+                }
+                Polygon polygon = new Polygon(vertices);
+
+                if (polygon.area() < 0) {
+                    polygon.reverse();
+                    // need to reverse nodes as well
+                    reversePolygonOfOSMNodes(nodes);
+                }
+
+                if (!polygon.is_in_standard_form()) {
+                    standardize(polygon.vertices, nodes);
+                }
+
+                int n = polygon.vertices.size();
+                for (int i = 0; i < n; ++i) {
+                    Point cur = polygon.vertices.get(i);
+                    Point prev = polygon.vertices.get((i + n - 1) % n);
+                    Point next = polygon.vertices.get((i + 1) % n);
+                    OSMNode curNode = nodes.get(i);
+                    if (_nodesWithNeighbors.contains(curNode.getId())
+                            || multipleAreasContain(curNode.getId())) {
+                        visibilityPoints.add(cur);
+                        startingNodes.add(curNode);
+                    } else if ((cur.x - prev.x) * (next.y - cur.y) - (cur.y - prev.y)
+                            * (next.x - cur.x) < 0) {
+                        // that math up there is a couple of cross products to check
+                        // if the point is concave.
+                        visibilityPoints.add(cur);
+                    }
+
+                }
+
+                ArrayList<Polygon> polygons = new ArrayList<Polygon>();
+                polygons.add(polygon);
+                // holes
+                for (Ring innerRing : ring.holes) {
+                    ArrayList<OSMNode> holeNodes = new ArrayList<OSMNode>();
+                    vertices = new ArrayList<Point>();
+                    for (OSMNode node : innerRing.nodes) {
+                        if (holeNodes.contains(node)) {
                             // hopefully, this only happens in order to
                             // close polygons
                             continue;
                         }
                         if (node == null) {
-                            throw new RuntimeException("node for area " + areaEntity.getId()
-                                    + " does not exist");
+                            throw new RuntimeException("node for area does not exist");
                         }
                         Point point = new Point(node.getLon(), node.getLat());
-                        nodes.add(node);
+                        holeNodes.add(node);
                         vertices.add(point);
-                    }
-                    Polygon polygon = new Polygon(vertices);
-
-                    if (polygon.area() < 0) {
-                        polygon.reverse();
-                        // need to reverse nodes as well
-                        reversePolygonOfOSMNodes(nodes);
-                    }
-
-                    if (!polygon.is_in_standard_form()) {
-                        standardize(polygon.vertices, nodes);
-                    }
-
-                    int n = polygon.vertices.size();
-                    for (int i = 0; i < n; ++i) {
-                        Point cur = polygon.vertices.get(i);
-                        Point prev = polygon.vertices.get((i + n - 1) % n);
-                        Point next = polygon.vertices.get((i + 1) % n);
-                        OSMNode curNode = nodes.get(i);
-                        if (_nodesWithNeighbors.contains(curNode.getId())
-                                || multipleAreasContain(curNode.getId())) {
-                            visibilityPoints.add(cur);
-                            startingNodes.add(curNode);
-                        } else if ((cur.x - prev.x) * (next.y - cur.y) - (cur.y - prev.y)
-                                * (next.x - cur.x) < 0) {
-                            // that math up there is a couple of cross products to check
-                            // if the point is concave.
-                            visibilityPoints.add(cur);
+                        visibilityPoints.add(point);
+                        if (_nodesWithNeighbors.contains(node.getId())
+                                || multipleAreasContain(node.getId())) {
+                            startingNodes.add(node);
                         }
-
                     }
+                    Polygon hole = new Polygon(vertices);
 
-                    ArrayList<Polygon> polygons = new ArrayList<Polygon>();
-                    polygons.add(polygon);
-                    // holes
-                    for (Ring innerRing : ring.holes) {
-                        ArrayList<OSMNode> holeNodes = new ArrayList<OSMNode>();
-                        vertices = new ArrayList<Point>();
-                        for (OSMNode node : innerRing.nodes) {
-                            if (holeNodes.contains(node)) {
-                                // hopefully, this only happens in order to
-                                // close polygons
-                                continue;
-                            }
-                            if (node == null) {
-                                throw new RuntimeException("node for area does not exist");
-                            }
-                            Point point = new Point(node.getLon(), node.getLat());
-                            holeNodes.add(node);
-                            vertices.add(point);
-                            visibilityPoints.add(point);
-                            if (_nodesWithNeighbors.contains(node.getId())
-                                    || multipleAreasContain(node.getId())) {
-                                startingNodes.add(node);
-                            }
-                        }
-                        Polygon hole = new Polygon(vertices);
-
-                        if (hole.area() > 0) {
-                            reversePolygonOfOSMNodes(holeNodes);
-                            hole.reverse();
-                        }
-                        if (!hole.is_in_standard_form()) {
-                            standardize(hole.vertices, holeNodes);
-                        }
-                        nodes.addAll(holeNodes);
-                        polygons.add(hole);
+                    if (hole.area() > 0) {
+                        reversePolygonOfOSMNodes(holeNodes);
+                        hole.reverse();
+                    }
+                    if (!hole.is_in_standard_form()) {
+                        standardize(hole.vertices, holeNodes);
                     }
+                    nodes.addAll(holeNodes);
+                    polygons.add(hole);
+                }
 
-                    Environment areaEnv = new Environment(polygons);
+                Environment areaEnv = new Environment(polygons);
 
-                    // FIXME: temporary hard limit on size of
-                    // areas to prevent way explosion
-                    if (visibilityPoints.size() > MAX_AREA_NODES) {
-                        _log.warn("Area " + area.parent + " is too complicated ("
-                                + visibilityPoints.size() + " > " + MAX_AREA_NODES);
-                        continue;
-                    }
+                if (maxAreaNodes > 0 && visibilityPoints.size() > maxAreaNodes) {
+                    _log.warn("Area " + area.parent + " is too complicated ("
+                            + visibilityPoints.size() + " > " + maxAreaNodes);
+                    continue;
+                }
 
-                    if (!areaEnv.is_valid(VISIBILITY_EPSILON)) {
-                        _log.warn("Area " + area.parent + " is not epsilon-valid (epsilon = "
-                                + VISIBILITY_EPSILON + ")");
-                        continue;
-                    }
-                    VisibilityGraph vg = new VisibilityGraph(areaEnv, VISIBILITY_EPSILON,
-                            visibilityPoints);
-                    AreaEdgeList edgeList = new AreaEdgeList();
-                    for (int i = 0; i < nodes.size(); ++i) {
-                        OSMNode nodeI = nodes.get(i);
-                        for (int j = 0; j < nodes.size(); ++j) {
-                            if (i == j)
-                                continue;
+                if (!areaEnv.is_valid(VISIBILITY_EPSILON)) {
+                    _log.warn("Area " + area.parent + " is not epsilon-valid (epsilon = "
+                            + VISIBILITY_EPSILON + ")");
+                    continue;
+                }
+                AreaRing areaRing = new AreaRing();
+                areaRing.areaEntity = areaEntity;
+                areaRing.areaPermissions = areaPermissions;
+                areaRing.carSpeed = carSpeed;
+                areaRing.nodes = nodes;
+                // the starting nodes found so far, since the edges of each ring used to be built
+                // before the next ring was read
+                areaRing.startingNodes = new HashSet<OSMNode>(startingNodes);
+                areaRing.vg = new VisibilityGraph(areaEnv, VISIBILITY_EPSILON,
+                        new HashSet<Point>(visibilityPoints), executor);
+                rings.add(areaRing);
+            }
+            return rings;
+        }
 
-                            if (vg.get(0, i, 0, j)) {
-                                // vertex i is connected to vertex j
-                                IntersectionVertex startEndpoint = getVertexForOsmNode(nodeI,
-                                        areaEntity);
-                                OSMNode nodeJ = nodes.get(j);
-                                IntersectionVertex endEndpoint = getVertexForOsmNode(nodeJ,
-                                        areaEntity);
-
-                                Coordinate[] coordinates = new Coordinate[] {
-                                        startEndpoint.getCoordinate(), endEndpoint.getCoordinate() };
-                                LineString geometry = GeometryUtils.getGeometryFactory()
-                                        .createLineString(coordinates);
-
-                                String id = "way (area) " + areaEntity.getId() + " from "
-                                        + nodeI.getId() + " to " + nodeJ.getId();
-                                id = unique(id);
-                                String name = getNameForWay(areaEntity, id);
-
-                                double length = distanceLibrary.distance(
-                                        startEndpoint.getCoordinate(), endEndpoint.getCoordinate());
-
-                                AreaEdge street = edgeFactory.createAreaEdge(nodeI, nodeJ,
-                                        areaEntity, startEndpoint, endEndpoint, geometry, name,
-                                        length, areaPermissions, i > j, carSpeed, edgeList);
-                                int cls = StreetEdge.CLASS_OTHERPATH;
-                                cls |= getStreetClasses(areaEntity);
-                                street.setStreetClass(cls);
-                                street.setId(id);
-
-                                edges.add(street);
-                                if (startingNodes.contains(nodeI)) {
-                                    startingVertices.add(startEndpoint);
-                                }
-                            }
-                        }
+        private void buildAreaEdges(AreaRing ring, List<Vertex> startingVertices,
+                Set<Edge> edges) {
+            OSMWithTags areaEntity = ring.areaEntity;
+            List<OSMNode> nodes = ring.nodes;
+            AreaEdgeList edgeList = new AreaEdgeList();
+            for (int i = 0; i < nodes.size(); ++i) {
+                OSMNode nodeI = nodes.get(i);
+                for (int j : ring.vg.getNeighbors(i)) {
+                    // vertex i is connected to vertex j
+                    IntersectionVertex startEndpoint = getVertexForOsmNode(nodeI, areaEntity);
+                    OSMNode nodeJ = nodes.get(j);
+                    IntersectionVertex endEndpoint = getVertexForOsmNode(nodeJ, areaEntity);
+
+                    Coordinate[] coordinates = new Coordinate[] {
+                            startEndpoint.getCoordinate(), endEndpoint.getCoordinate() };
+                    LineString geometry = GeometryUtils.getGeometryFactory().createLineString(
+                            coordinates);
+
+                    String id = "way (area) " + areaEntity.getId() + " from " + nodeI.getId()
+                            + " to " + nodeJ.getId();
+                    id = unique(id);
+                    String name = getNameForWay(areaEntity, id);
+
+                    double length = distanceLibrary.distance(startEndpoint.getCoordinate(),
+                            endEndpoint.getCoordinate());
+
+                    AreaEdge street = edgeFactory.createAreaEdge(nodeI, nodeJ, areaEntity,
+                            startEndpoint, endEndpoint, geometry, name, length,
+                            ring.areaPermissions, i > j, ring.carSpeed, edgeList);
+                    int cls = StreetEdge.CLASS_OTHERPATH;
+                    cls |= getStreetClasses(areaEntity);
+                    street.setStreetClass(cls);
+                    street.setId(id);
+
+                    edges.add(street);
+                    if (ring.startingNodes.contains(nodeI)) {
+                        startingVertices.add(startEndpoint);
                     }
                 }
-                pruneAreaEdges(startingVertices, edges);
             }
         }
 
@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -49,6 +50,7 @@ import org.opentripplanner.routing.impl.raptor.RaptorRoute;
 import org.opentripplanner.routing.impl.raptor.RaptorState;
 import org.opentripplanner.routing.impl.raptor.RaptorStateSet;
 import org.opentripplanner.routing.impl.raptor.RaptorStop;
+import org.opentripplanner.routing.impl.raptor.RaptorTransfers;
 import org.opentripplanner.routing.impl.raptor.RegionData;
 import org.opentripplanner.routing.impl.raptor.RouteSegmentComparator;
 import org.opentripplanner.routing.services.TransitIndexService;
@@ -77,6 +79,16 @@ public class RaptorDataBuilder implements GraphBuilder {
 
     private int MAX_TRANSFERS = 7;
 
+    private double maxTransferDistance = 1000;
+
+    /**
+     * The walking transfers between stops are precomputed up to this distance, in meters; a
+     * distance of zero or less disables them and RAPTOR searches the streets after each round.
+     */
+    public void setMaxTransferDistance(double maxTransferDistance) {
+        this.maxTransferDistance = maxTransferDistance;
+    }
+
     @SuppressWarnings("unchecked")
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         RaptorData data = new RaptorData();
@@ -216,6 +228,11 @@ public class RaptorDataBuilder implements GraphBuilder {
         nTotalStops = data.stops.length;
         // initNearbyStops();
 
+        if (maxTransferDistance > 0) {
+            data.transfers = computeTransfers(data, false);
+            data.wheelchairTransfers = computeTransfers(data, true);
+        }
+
         graph.putService(RaptorDataService.class, new RaptorDataService(data));
 
         //MaxTransitRegions regions = makeMaxTransitRegions(graph, data);
@@ -353,6 +370,100 @@ public class RaptorDataBuilder implements GraphBuilder {
         return times;
     }
 
+    private RaptorTransfers computeTransfers(RaptorData data, boolean wheelchair) {
+        log.debug("Finding stop-to-stop transfers" + (wheelchair ? " (wheelchair)" : ""));
+        RoutingRequest walkOptions = new RoutingRequest(TraverseMode.WALK);
+        walkOptions.setWalkSpeed(MIN_SPEED);
+        walkOptions.setMaxWalkDistance(maxTransferDistance);
+        walkOptions.setWheelchairAccessible(wheelchair);
+        GenericDijkstra dijkstra = new GenericDijkstra(walkOptions);
+        int nStops = data.stops.length;
+        int[][] stops = new int[nStops][];
+        int[][] times = new int[nStops][];
+        float[][] distances = new float[nStops][];
+        Edge[][] treeEdges = new Edge[nStops][];
+        int[][] treeParents = new int[nStops][];
+        int[][] lastEdges = new int[nStops][];
+        int nTransfers = 0;
+        int nEdges = 0;
+        for (RaptorStop stop : data.stops) {
+            State initialState = new MaxWalkState(stop.stopVertex, walkOptions);
+            ShortestPathTree spt = dijkstra.getShortestPathTree(initialState);
+            // the fastest state at each other stop
+            HashMap<RaptorStop, State> best = new HashMap<RaptorStop, State>();
+            for (State state : spt.getAllStates()) {
+                Vertex vertex = state.getVertex();
+                if (!(vertex instanceof TransitStop))
+                    continue;
+                RaptorStop to = data.raptorStopsForStopId.get(((TransitStop) vertex).getStopId());
+                if (to == null || to == stop)
+                    continue;
+                State old = best.get(to);
+                if (old == null || state.getElapsedTime() < old.getElapsedTime())
+                    best.put(to, state);
+            }
+            List<Entry<RaptorStop, State>> transfers = new ArrayList<Entry<RaptorStop, State>>(
+                    best.entrySet());
+            Collections.sort(transfers, new Comparator<Entry<RaptorStop, State>>() {
+                @Override
+                public int compare(Entry<RaptorStop, State> a, Entry<RaptorStop, State> b) {
+                    return (int) (a.getValue().getElapsedTime() - b.getValue().getElapsedTime());
+                }
+            });
+            int n = transfers.size();
+            stops[stop.index] = new int[n];
+            times[stop.index] = new int[n];
+            distances[stop.index] = new float[n];
+            lastEdges[stop.index] = new int[n];
+            // the paths of the transfers, as a tree of the edges leaving this stop
+            Map<State, Integer> treeIndex = new IdentityHashMap<State, Integer>();
+            List<Edge> edges = new ArrayList<Edge>();
+            List<Integer> parents = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++) {
+                Entry<RaptorStop, State> transfer = transfers.get(i);
+                stops[stop.index][i] = transfer.getKey().index;
+                times[stop.index][i] = (int) transfer.getValue().getElapsedTime();
+                distances[stop.index][i] = (float) transfer.getValue().getWalkDistance();
+                lastEdges[stop.index][i] = addToTree(transfer.getValue(), treeIndex, edges,
+                        parents);
+            }
+            treeEdges[stop.index] = edges.toArray(new Edge[edges.size()]);
+            treeParents[stop.index] = new int[parents.size()];
+            for (int i = 0; i < parents.size(); i++)
+                treeParents[stop.index][i] = parents.get(i);
+            nTransfers += n;
+            nEdges += edges.size();
+        }
+        log.debug("Found " + nTransfers + " transfers between " + nStops + " stops, using "
+                + nEdges + " edges");
+        return new RaptorTransfers(MIN_SPEED, maxTransferDistance, stops, times, distances,
+                treeEdges, treeParents, lastEdges);
+    }
+
+    /**
+     * Add the edges of the path to a state that are not in the tree yet.
+     * 
+     * @return the index in the tree of the last edge of the path, or -1 if it has none
+     */
+    private static int addToTree(State state, Map<State, Integer> treeIndex, List<Edge> edges,
+            List<Integer> parents) {
+        List<State> path = new ArrayList<State>();
+        State s = state;
+        while (s.getBackEdge() != null && !treeIndex.containsKey(s)) {
+            path.add(s);
+            s = s.getBackState();
+        }
+        int parent = s.getBackEdge() == null ? -1 : treeIndex.get(s);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            State p = path.get(i);
+            treeIndex.put(p, edges.size());
+            edges.add(p.getBackEdge());
+            parents.add(parent);
+            parent = edges.size() - 1;
+        }
+        return parent;
+    }
+
     private static <T> boolean isSubsetOf(Collection<T> c1, Collection<T> c2) {
 
         for (T a : c1) {
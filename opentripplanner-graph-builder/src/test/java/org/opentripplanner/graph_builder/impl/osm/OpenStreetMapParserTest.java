@@ -65,6 +65,26 @@ public class OpenStreetMapParserTest {
         testParser(map);
     }
 
+    @Test
+    public void testSequentialBinaryParser() throws Exception {
+        BinaryFileBasedOpenStreetMapProviderImpl pr = new BinaryFileBasedOpenStreetMapProviderImpl();
+        OSMMap map = new OSMMap();
+        pr.setPath(new File(getClass().getResource("map.osm.pbf").getPath()));
+        pr.setThreads(1);
+        pr.readOSM(map);
+        testParser(map);
+    }
+
+    @Test
+    public void testParallelBinaryParser() throws Exception {
+        BinaryFileBasedOpenStreetMapProviderImpl pr = new BinaryFileBasedOpenStreetMapProviderImpl();
+        OSMMap map = new OSMMap();
+        pr.setPath(new File(getClass().getResource("map.osm.pbf").getPath()));
+        pr.setThreads(4);
+        pr.readOSM(map);
+        testParser(map);
+    }
+
     @Test
     public void testXMLParser() throws Exception {
         FileBasedOpenStreetMapProviderImpl pr = new FileBasedOpenStreetMapProviderImpl();
@@ -0,0 +1,183 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl.raptor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.graph_builder.impl.GtfsGraphBuilderImpl;
+import org.opentripplanner.graph_builder.impl.transit_index.TransitIndexBuilder;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.model.GtfsBundles;
+import org.opentripplanner.graph_builder.services.GraphBuilderWithGtfsDao;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.impl.raptor.Raptor;
+import org.opentripplanner.routing.impl.raptor.RaptorData;
+import org.opentripplanner.routing.impl.raptor.RaptorDataService;
+import org.opentripplanner.routing.impl.raptor.RaptorStop;
+import org.opentripplanner.routing.impl.raptor.RaptorTransfers;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.TestUtils;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Checks that RAPTOR finds the same itineraries whether the walks between rounds use the
+ * precomputed transfers or search the streets, on the Caltrain feed with a street running along
+ * the line from station to station.
+ */
+public class TestRaptorTransfers extends TestCase {
+
+    private static final String[] STATIONS = { "Millbrae", "Broadway", "Burlingame",
+            "San Mateo", "Hayward Park", "Hillsdale", "Belmont", "San Carlos", "Redwood City",
+            "Atherton", "Menlo Park", "Palo Alto", "California Ave", "San Antonio",
+            "Mountain View" };
+
+    private DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
+
+    private Graph graph;
+
+    private IntersectionVertex origin;
+
+    private IntersectionVertex destination;
+
+    public void setUp() {
+        graph = new Graph();
+        GtfsBundle bundle = new GtfsBundle();
+        bundle.setPath(new File("../opentripplanner-routing/src/test/resources/caltrain_gtfs.zip"));
+        GtfsBundles bundles = new GtfsBundles();
+        bundles.setBundles(Arrays.asList(bundle));
+        GtfsGraphBuilderImpl gtfsBuilder = new GtfsGraphBuilderImpl();
+        gtfsBuilder.setGtfsBundles(bundles);
+        List<GraphBuilderWithGtfsDao> builders = new ArrayList<GraphBuilderWithGtfsDao>();
+        builders.add(new TransitIndexBuilder());
+        gtfsBuilder.setGtfsGraphBuilders(builders);
+        gtfsBuilder.buildGraph(graph, new HashMap<Class<?>, Object>());
+
+        IntersectionVertex previous = null;
+        for (String station : STATIONS) {
+            TransitStop stop = (TransitStop) graph.getVertex("Caltrain_" + station + " Caltrain");
+            IntersectionVertex corner = new IntersectionVertex(graph, station, stop.getX(),
+                    stop.getY());
+            new StreetTransitLink(corner, stop, true);
+            new StreetTransitLink(stop, corner, true);
+            if (previous != null)
+                street(previous, corner);
+            previous = corner;
+        }
+        // a few hundred meters from the first and last stations
+        Vertex millbrae = graph.getVertex("Millbrae");
+        origin = new IntersectionVertex(graph, "origin", millbrae.getX() - 0.003,
+                millbrae.getY());
+        street(origin, (IntersectionVertex) millbrae);
+        Vertex mountainView = graph.getVertex("Mountain View");
+        destination = new IntersectionVertex(graph, "destination", mountainView.getX() + 0.003,
+                mountainView.getY());
+        street((IntersectionVertex) mountainView, destination);
+    }
+
+    private void street(IntersectionVertex v0, IntersectionVertex v1) {
+        double length = distanceLibrary.distance(v0.getCoordinate(), v1.getCoordinate());
+        LineString geometry = GeometryUtils.makeLineString(v0.getX(), v0.getY(), v1.getX(),
+                v1.getY());
+        new PlainStreetEdge(v0, v1, geometry, "street", length, StreetTraversalPermission.ALL,
+                false);
+        new PlainStreetEdge(v1, v0, (LineString) geometry.reverse(), "street", length,
+                StreetTraversalPermission.ALL, true);
+    }
+
+    public void testTransferEdges() {
+        RaptorDataBuilder builder = new RaptorDataBuilder();
+        builder.setMaxTransferDistance(10000);
+        builder.buildGraph(graph, new HashMap<Class<?>, Object>());
+        RaptorData data = graph.getService(RaptorDataService.class).getData();
+        RaptorTransfers transfers = data.transfers;
+        assertNotNull(transfers);
+        int nTransfers = 0;
+        for (RaptorStop from : data.stops) {
+            for (int i = 0; i < transfers.stops[from.index].length; i++) {
+                RaptorStop to = data.stops[transfers.stops[from.index][i]];
+                // the stored path goes from one stop to the other, edge after edge
+                List<Edge> edges = transfers.getEdges(from.index, to.index);
+                assertFalse(edges.isEmpty());
+                assertEquals(from.stopVertex, edges.get(0).getFromVertex());
+                assertEquals(to.stopVertex, edges.get(edges.size() - 1).getToVertex());
+                for (int e = 1; e < edges.size(); e++)
+                    assertEquals(edges.get(e - 1).getToVertex(), edges.get(e).getFromVertex());
+                // the reversed transfers know the same paths
+                assertEquals(edges, transfers.reversed().getEdges(from.index, to.index));
+                nTransfers++;
+            }
+        }
+        // the street connects neighboring stations
+        assertTrue(nTransfers > 0);
+        assertNull(transfers.getEdges(0, 0));
+    }
+
+    public void testSameItineraries() {
+        long dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            List<GraphPath> precomputed = plan(10000, dateTime, arriveBy);
+            List<GraphPath> streets = plan(0, dateTime, arriveBy);
+            assertFalse(precomputed.isEmpty());
+            assertEquals(streets.size(), precomputed.size());
+            for (int i = 0; i < streets.size(); i++) {
+                GraphPath expected = streets.get(i);
+                GraphPath actual = precomputed.get(i);
+                assertEquals(expected.getTrips(), actual.getTrips());
+                assertEquals(origin, actual.getStartVertex());
+                assertEquals(destination, actual.getEndVertex());
+                // the precomputed walking times are rounded up to the second at each transfer
+                assertEquals(expected.getEndTime(), actual.getEndTime(), 60);
+                assertEquals(expected.getStartTime(), actual.getStartTime(), 60);
+            }
+        }
+    }
+
+    private List<GraphPath> plan(double maxTransferDistance, long dateTime, boolean arriveBy) {
+        RaptorDataBuilder builder = new RaptorDataBuilder();
+        builder.setMaxTransferDistance(maxTransferDistance);
+        builder.buildGraph(graph, new HashMap<Class<?>, Object>());
+        Raptor raptor = new Raptor();
+        raptor.setGraphService(new GraphServiceBeanImpl(graph));
+        raptor.sptService = new GenericAStar();
+        raptor.setup();
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet("WALK,TRANSIT"));
+        options.dateTime = dateTime;
+        options.setArriveBy(arriveBy);
+        options.setMaxWalkDistance(5000);
+        options.setNumItineraries(3);
+        options.setRoutingContext(graph, origin, destination);
+        return raptor.getPaths(options);
+    }
+}
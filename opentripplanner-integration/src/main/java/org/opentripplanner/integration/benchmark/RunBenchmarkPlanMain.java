@@ -24,6 +24,12 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
@@ -32,24 +38,77 @@ import org.apache.commons.cli.Parser;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.opentripplanner.model.GraphBundle;
+import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.impl.RetryingPathServiceImpl;
 import org.opentripplanner.routing.impl.SerializedGraphFactoryBean;
 import org.opentripplanner.routing.services.PathService;
+import org.opentripplanner.util.monitoring.LatencyHistogram;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.core.io.ClassPathResource;
 
+/**
+ * Replay a benchmark plan (see {@link GenerateBenchmarkPlanMain}) against a graph and report
+ * latency percentiles per mode.
+ * 
+ * By default requests are replayed one after the other. With -threads, several client threads
+ * replay the plan concurrently as fast as they can (closed loop). With -rate, requests are issued
+ * at a fixed arrival rate whatever the response times (open loop), and latency is measured from
+ * the time each request was due rather than from the time it was actually started, so that a
+ * stalled server shows up in the percentiles instead of silently slowing down the driver.
+ * 
+ * Each line of the plan may carry a "modes" field (for instance "BICYCLE" or "TRANSIT,WALK");
+ * -modes replays every plan once per listed mode set instead. Latencies are recorded per mode
+ * class (walk, bike, car, transit) in {@link LatencyHistogram}s.
+ * 
+ * With -compareGraph and/or -comparePathService, the same requests are replayed a second time
+ * against the other graph or PathService implementation and the two sets of percentiles are
+ * printed side by side. The two configurations are run one after the other, so that only one
+ * graph is loaded at a time.
+ */
 public class RunBenchmarkPlanMain {
 
   private static final String ARG_REPETITIONS = "repetitions";
 
+  private static final String ARG_THREADS = "threads";
+
+  private static final String ARG_RATE = "rate";
+
+  private static final String ARG_WARMUP = "warmup";
+
+  private static final String ARG_MODES = "modes";
+
+  private static final String ARG_PATH_SERVICE = "pathService";
+
+  private static final String ARG_COMPARE_GRAPH = "compareGraph";
+
+  private static final String ARG_COMPARE_PATH_SERVICE = "comparePathService";
+
+  private static final String ARG_VERBOSE = "verbose";
+
+  private static final String ALL_MODES = "all";
+
   public static void main(String[] args) throws Exception {
 
     Options options = new Options();
     options.addOption(ARG_REPETITIONS, true, "repetitions");
+    options.addOption(ARG_THREADS, true, "number of concurrent client threads");
+    options.addOption(ARG_RATE, true,
+        "open-loop arrival rate in requests per second (default: closed loop)");
+    options.addOption(ARG_WARMUP, true, "number of unrecorded warm-up requests");
+    options.addOption(ARG_MODES, true,
+        "mode sets to replay each plan with, separated by semicolons");
+    options.addOption(ARG_PATH_SERVICE, true, "PathService implementation class");
+    options.addOption(ARG_COMPARE_GRAPH, true, "graph path to compare against");
+    options.addOption(ARG_COMPARE_PATH_SERVICE, true,
+        "PathService implementation class to compare against");
+    options.addOption(ARG_VERBOSE, false, "print the latency of every request");
 
     Parser parser = new GnuParser();
     CommandLine cli = parser.parse(options, args);
@@ -66,6 +125,25 @@ public class RunBenchmarkPlanMain {
 
     if (cli.hasOption(ARG_REPETITIONS))
       task.setRepetitions(Integer.parseInt(cli.getOptionValue(ARG_REPETITIONS)));
+    if (cli.hasOption(ARG_THREADS))
+      task.setThreads(Integer.parseInt(cli.getOptionValue(ARG_THREADS)));
+    if (cli.hasOption(ARG_RATE))
+      task.setRate(Double.parseDouble(cli.getOptionValue(ARG_RATE)));
+    if (cli.hasOption(ARG_WARMUP))
+      task.setWarmup(Integer.parseInt(cli.getOptionValue(ARG_WARMUP)));
+    if (cli.hasOption(ARG_MODES)) {
+      List<TraverseModeSet> modes = new ArrayList<TraverseModeSet>();
+      for (String token : cli.getOptionValue(ARG_MODES).split(";"))
+        modes.add(new TraverseModeSet(token));
+      task.setModes(modes);
+    }
+    if (cli.hasOption(ARG_PATH_SERVICE))
+      task.setPathServiceClass(Class.forName(cli.getOptionValue(ARG_PATH_SERVICE)));
+    if (cli.hasOption(ARG_COMPARE_GRAPH))
+      task.setCompareGraphPath(new File(cli.getOptionValue(ARG_COMPARE_GRAPH)));
+    if (cli.hasOption(ARG_COMPARE_PATH_SERVICE))
+      task.setComparePathServiceClass(Class.forName(cli.getOptionValue(ARG_COMPARE_PATH_SERVICE)));
+    task.setVerbose(cli.hasOption(ARG_VERBOSE));
 
     task.run();
   }
@@ -76,6 +154,22 @@ public class RunBenchmarkPlanMain {
 
   private int _repetitions = 1;
 
+  private int _threads = 1;
+
+  private double _rate = 0;
+
+  private int _warmup = 0;
+
+  private List<TraverseModeSet> _modes = null;
+
+  private Class<?> _pathServiceClass = RetryingPathServiceImpl.class;
+
+  private File _compareGraphPath;
+
+  private Class<?> _comparePathServiceClass;
+
+  private boolean _verbose = false;
+
   public void setGraphPath(File path) {
     _graphPath = path;
   }
@@ -88,36 +182,221 @@ public class RunBenchmarkPlanMain {
     _repetitions = repetitions;
   }
 
+  public void setThreads(int threads) {
+    _threads = threads;
+  }
+
+  /** Requests per second for an open-loop run; zero or less for a closed loop. */
+  public void setRate(double rate) {
+    _rate = rate;
+  }
+
+  public void setWarmup(int warmup) {
+    _warmup = warmup;
+  }
+
+  public void setModes(List<TraverseModeSet> modes) {
+    _modes = modes;
+  }
+
+  public void setPathServiceClass(Class<?> pathServiceClass) {
+    _pathServiceClass = pathServiceClass;
+  }
+
+  public void setCompareGraphPath(File compareGraphPath) {
+    _compareGraphPath = compareGraphPath;
+  }
+
+  public void setComparePathServiceClass(Class<?> comparePathServiceClass) {
+    _comparePathServiceClass = comparePathServiceClass;
+  }
+
+  public void setVerbose(boolean verbose) {
+    _verbose = verbose;
+  }
+
   public void run() throws Exception {
-    GenericApplicationContext context = getApplicationContext();
-    PathService service = (PathService) context.getBean("pathServiceImpl");
 
-    List<Plan> plans = readPlans();
+    List<Request> requests = getRequests(readPlans());
+
+    String label = _graphPath.getName() + " " + _pathServiceClass.getSimpleName();
+    Map<String, LatencyHistogram> results = runConfiguration(_graphPath, _pathServiceClass,
+        requests);
+    printResults(label, results);
 
-    long tTotal = 0;
+    if (_compareGraphPath == null && _comparePathServiceClass == null)
+      return;
+
+    File compareGraphPath = _compareGraphPath != null ? _compareGraphPath : _graphPath;
+    Class<?> comparePathServiceClass = _comparePathServiceClass != null
+        ? _comparePathServiceClass : _pathServiceClass;
+    String compareLabel = compareGraphPath.getName() + " "
+        + comparePathServiceClass.getSimpleName();
+    Map<String, LatencyHistogram> compareResults = runConfiguration(compareGraphPath,
+        comparePathServiceClass, requests);
+    printResults(compareLabel, compareResults);
+
+    printComparison(label, results, compareLabel, compareResults);
+  }
+
+  private Map<String, LatencyHistogram> runConfiguration(File graphPath,
+      Class<?> pathServiceClass, List<Request> requests) throws InterruptedException {
+
+    GenericApplicationContext context = getApplicationContext(graphPath, pathServiceClass);
+    try {
+      PathService service = (PathService) context.getBean("pathService");
+      if (_warmup > 0) {
+        List<Request> warmup = new ArrayList<Request>();
+        for (int i = 0; i < _warmup; i++)
+          warmup.add(requests.get(i % requests.size()));
+        System.out.println("warming up with " + warmup.size() + " requests");
+        replay(service, warmup, null);
+      }
+      Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+      histograms.put(ALL_MODES, new LatencyHistogram());
+      for (Request request : requests)
+        if (!histograms.containsKey(request.modeLabel))
+          histograms.put(request.modeLabel, new LatencyHistogram());
+      replay(service, requests, histograms);
+      return histograms;
+    } finally {
+      context.close();
+    }
+  }
+
+  /**
+   * Replay the requests against the service, closed or open loop depending on the configured
+   * rate, recording latencies in microseconds into the histograms if they are not null.
+   */
+  private void replay(final PathService service, final List<Request> requests,
+      final Map<String, LatencyHistogram> histograms) throws InterruptedException {
+
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicLong totalMicros = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(_threads);
+    long t0 = System.nanoTime();
+
+    if (_rate > 0) {
+      // open loop: requests are due at fixed intervals, and latency counts from the due time
+      long interval = (long) (TimeUnit.SECONDS.toNanos(1) / _rate);
+      for (int i = 0; i < requests.size(); i++) {
+        final Request request = requests.get(i);
+        final long due = t0 + i * interval;
+        long wait = due - System.nanoTime();
+        if (wait > 0)
+          TimeUnit.NANOSECONDS.sleep(wait);
+        executor.execute(new Runnable() {
+          public void run() {
+            execute(service, request, due, histograms, failures, totalMicros);
+          }
+        });
+      }
+    } else {
+      // closed loop: every thread issues its next request as soon as the previous one returns
+      final AtomicInteger next = new AtomicInteger();
+      for (int t = 0; t < _threads; t++) {
+        executor.execute(new Runnable() {
+          public void run() {
+            int i;
+            while ((i = next.getAndIncrement()) < requests.size())
+              execute(service, requests.get(i), System.nanoTime(), histograms, failures,
+                  totalMicros);
+          }
+        });
+      }
+    }
+
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    double seconds = (System.nanoTime() - t0) / 1e9;
+    System.out.println(String.format(
+        "requests=%d failures=%d threads=%d elapsed=%.1fs throughput=%.1f/s totalTime=%d",
+        requests.size(), failures.get(), _threads, seconds, requests.size() / seconds,
+        totalMicros.get() / 1000));
+  }
+
+  private void execute(PathService service, Request request, long startNanos,
+      Map<String, LatencyHistogram> histograms, AtomicInteger failures, AtomicLong totalMicros) {
+    Plan plan = request.plan;
+    String from = plan.latFrom + " " + plan.lonFrom;
+    String to = plan.latTo + " " + plan.lonTo;
+    try {
+      RoutingRequest opt = new RoutingRequest(request.modes);
+      opt.setDateTime(plan.time);
+      opt.setFrom(from);
+      opt.setTo(to);
+      service.getPaths(opt);
+    } catch (VertexNotFoundException ex) {
+      failures.incrementAndGet();
+      if (_verbose)
+        System.out.println("no vertex: from=" + from + " to=" + to);
+      return;
+    } catch (RuntimeException ex) {
+      failures.incrementAndGet();
+      if (_verbose)
+        System.out.println("failed: from=" + from + " to=" + to + ": " + ex);
+      return;
+    }
+    long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    totalMicros.addAndGet(micros);
+    if (_verbose)
+      System.out.println("t=" + micros / 1000 + " mode=" + request.modeLabel);
+    if (histograms != null) {
+      histograms.get(request.modeLabel).recordValue(micros);
+      histograms.get(ALL_MODES).recordValue(micros);
+    }
+  }
+
+  private void printResults(String label, Map<String, LatencyHistogram> histograms) {
+    System.out.println("latencies in msec for " + label);
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+      entry.getValue().outputPercentiles(System.out, entry.getKey(), 1000.0);
+  }
+
+  private void printComparison(String label, Map<String, LatencyHistogram> results,
+      String compareLabel, Map<String, LatencyHistogram> compareResults) {
+    System.out.println("comparison of " + compareLabel + " against " + label
+        + " (msec, negative is faster)");
+    double[] percentiles = { 50, 90, 99, 99.9 };
+    for (Map.Entry<String, LatencyHistogram> entry : results.entrySet()) {
+      LatencyHistogram a = entry.getValue();
+      LatencyHistogram b = compareResults.get(entry.getKey());
+      if (b == null)
+        continue;
+      StringBuilder line = new StringBuilder(String.format("%-24s", entry.getKey()));
+      for (double p : percentiles) {
+        double delta = (b.getValueAtPercentile(p) - a.getValueAtPercentile(p)) / 1000.0;
+        line.append(String.format(" p%s=%+.2f", p == (int) p ? "" + (int) p : "" + p, delta));
+      }
+      System.out.println(line);
+    }
+  }
+
+  /** Expand the plans into the requests to replay: every plan, per mode set, per repetition. */
+  private List<Request> getRequests(List<Plan> plans) {
+    List<Request> requests = new ArrayList<Request>();
     for (int i = 0; i < _repetitions; i++) {
       for (Plan plan : plans) {
-
-        String from = plan.latFrom + " " + plan.lonFrom;
-        String to = plan.latTo + " " + plan.lonTo;
-
-        try {
-          RoutingRequest opt = new RoutingRequest();
-          opt.setDateTime(plan.time);
-          opt.setFrom(from);
-          opt.setTo(to);
-          long t0 = System.currentTimeMillis();
-          service.getPaths(opt);
-          long t1 = System.currentTimeMillis();
-
-          System.out.println("t=" + (t1 - t0));
-          tTotal += t1 - t0;
-        } catch (VertexNotFoundException ex) {
-          System.out.println("no vertex: from=" + from + " to=" + to);
+        if (_modes != null) {
+          for (TraverseModeSet modes : _modes)
+            requests.add(new Request(plan, modes));
+        } else {
+          requests.add(new Request(plan, plan.modes != null ? plan.modes
+              : new TraverseModeSet("TRANSIT,WALK")));
         }
       }
     }
-    System.out.println("totalTime=" + tTotal);
+    return requests;
+  }
+
+  static String getModeLabel(TraverseModeSet modes) {
+    if (modes.isTransit())
+      return "transit";
+    if (modes.getBicycle())
+      return "bike";
+    if (modes.getCar())
+      return "car";
+    return "walk";
   }
 
   private List<Plan> readPlans() throws FileNotFoundException, IOException,
@@ -135,14 +414,16 @@ public class RunBenchmarkPlanMain {
     return plans;
   }
 
-  private GenericApplicationContext getApplicationContext() {
+  private GenericApplicationContext getApplicationContext(File graphPath,
+      Class<?> pathServiceClass) {
 
     GenericApplicationContext ctx = new GenericApplicationContext();
     XmlBeanDefinitionReader xmlReader = new XmlBeanDefinitionReader(ctx);
     xmlReader.loadBeanDefinitions(new ClassPathResource(
         "org/opentripplanner/application-context.xml"));
 
-    Map<String, BeanDefinition> additionalBeans = getAdditionalBeans();
+    Map<String, BeanDefinition> additionalBeans = getAdditionalBeans(graphPath,
+        pathServiceClass);
     for (Map.Entry<String, BeanDefinition> entry : additionalBeans.entrySet())
       ctx.registerBeanDefinition(entry.getKey(), entry.getValue());
 
@@ -151,18 +432,29 @@ public class RunBenchmarkPlanMain {
     return ctx;
   }
 
-  private Map<String, BeanDefinition> getAdditionalBeans() {
+  private Map<String, BeanDefinition> getAdditionalBeans(File graphPath,
+      Class<?> pathServiceClass) {
 
     Map<String, BeanDefinition> additionalBeans = new HashMap<String, BeanDefinition>();
 
     BeanDefinitionBuilder bundlePath = BeanDefinitionBuilder.genericBeanDefinition(GraphBundle.class);
-    bundlePath.addPropertyValue("path", _graphPath);
+    bundlePath.addPropertyValue("path", graphPath);
     additionalBeans.put("graphBundle", bundlePath.getBeanDefinition());
 
     BeanDefinitionBuilder graph = BeanDefinitionBuilder.genericBeanDefinition(SerializedGraphFactoryBean.class);
     graph.addPropertyReference("graphBundle", "graphBundle");
     additionalBeans.put("graph", graph.getBeanDefinition());
 
+    BeanDefinitionBuilder graphService = BeanDefinitionBuilder.genericBeanDefinition(GraphServiceBeanImpl.class);
+    graphService.addConstructorArgReference("graph");
+    additionalBeans.put("graphService", graphService.getBeanDefinition());
+
+    BeanDefinitionBuilder sptService = BeanDefinitionBuilder.genericBeanDefinition(GenericAStar.class);
+    additionalBeans.put("sptService", sptService.getBeanDefinition());
+
+    BeanDefinitionBuilder pathService = BeanDefinitionBuilder.genericBeanDefinition(pathServiceClass);
+    additionalBeans.put("pathService", pathService.getBeanDefinition());
+
     return additionalBeans;
   }
 
@@ -179,6 +471,10 @@ public class RunBenchmarkPlanMain {
     plan.lonTo = to.get("lon").getValueAsDouble();
 
     plan.time = DateLibrary.getIso8601StringAsDate(obj.get("time").getValueAsText());
+
+    JsonNode modes = obj.get("modes");
+    if (modes != null)
+      plan.modes = new TraverseModeSet(modes.getValueAsText());
     return plan;
   }
 
@@ -188,5 +484,18 @@ public class RunBenchmarkPlanMain {
     public double latTo;
     public double lonTo;
     public Date time;
+    public TraverseModeSet modes;
+  }
+
+  private static class Request {
+    public final Plan plan;
+    public final TraverseModeSet modes;
+    public final String modeLabel;
+
+    public Request(Plan plan, TraverseModeSet modes) {
+      this.plan = plan;
+      this.modes = modes;
+      this.modeLabel = getModeLabel(modes);
+    }
   }
 }
@@ -0,0 +1,256 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.util.Collection;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.pathparser.PathParser;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.util.DateUtils;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Counter;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bidirectional A* for street-only searches. One search runs from the origin with the request's
+ * options, the other from the target with reversed options, each guided by its own remaining
+ * weight heuristic, always expanding the side with the smaller queue. Whenever a vertex has been
+ * reached from both sides the two half-paths are joined into a candidate solution. The searches
+ * stop as soon as the smallest key of either queue is no better than the best candidate.
+ * 
+ * The reverse search does not know the real arrival time and does not run the path parsers, and
+ * the turn between the two halves is not checked by either search. So the halves are joined by
+ * traversing the edges of the reverse half again from the end of the forward half, which applies
+ * turn restrictions, path parsers and the exact weights and times; only the joins that survive
+ * this are candidates, with the weight of the joined path. If there are none, or if the request
+ * is not street-only (transit, bike rental, batch searches...), the search is delegated to a
+ * GenericAStar.
+ */
+public class BidirectionalAStar implements SPTService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BidirectionalAStar.class);
+
+    private SPTService fallback = new GenericAStar();
+
+    /** The SPTService used for requests this class does not handle. */
+    public void setFallback(SPTService fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req) {
+        return getShortestPathTree(req, -1); // negative timeout means no timeout
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout) {
+        if (!isStreetOnly(options))
+            return fallback.getShortestPathTree(options, relTimeout);
+        long abortTime = DateUtils.absoluteTimeout(relTimeout);
+        State result = search(options, abortTime);
+        if (result == null) {
+            if (abortTime < Long.MAX_VALUE && System.currentTimeMillis() > abortTime)
+                return null; // timed out, like GenericAStar
+            LOG.debug("no valid meeting point, falling back on unidirectional search");
+            double remaining = relTimeout;
+            if (abortTime < Long.MAX_VALUE)
+                remaining = (abortTime - System.currentTimeMillis()) / 1000.0;
+            return fallback.getShortestPathTree(options, remaining);
+        }
+        ShortestPathTree spt = new BasicShortestPathTree(options);
+        spt.add(result);
+        return spt;
+    }
+
+    /** @return whether the request can be handled by a bidirectional search over streets */
+    public static boolean isStreetOnly(RoutingRequest options) {
+        RoutingContext rctx = options.rctx;
+        if (options.batch || rctx == null || rctx.origin == null || rctx.target == null)
+            return false;
+        if (options.getStartingTransitStopId() != null)
+            return false;
+        TraverseModeSet modes = options.getModes();
+        // walking and cycling together means bike rental or bike walking with several states
+        // per vertex, which needs a MultiShortestPathTree
+        return !modes.isTransit() && !(modes.getWalk() && modes.getBicycle());
+    }
+
+    /** @return the final state of the best path found, or null */
+    private State search(RoutingRequest options, long abortTime) {
+        RoutingContext rctx = options.rctx;
+        long t0 = System.nanoTime();
+
+        // the reverse search gets its own context: its own heuristic, and no path parsers
+        RoutingRequest reversed = options.reversedClone();
+        reversed.rctx = rctx.copyForConcurrentSearch(reversed);
+        reversed.rctx.pathParsers = new PathParser[0];
+
+        Direction forward = new Direction(options, new State(options), rctx.target,
+                rctx.remainingWeightHeuristic, false);
+        Direction backward = new Direction(reversed, new State(rctx.target, reversed),
+                rctx.origin, reversed.rctx.remainingWeightHeuristic, true);
+        forward.other = backward;
+        backward.other = forward;
+
+        // the target may already be reached by the initial state
+        State best = forward.meet(forward.initialState, null);
+
+        int nVisited = 0;
+        int nCreated = 0;
+        while (!forward.pq.empty() && !backward.pq.empty()) {
+            if (abortTime < Long.MAX_VALUE && System.currentTimeMillis() > abortTime) {
+                LOG.warn("Search timeout. origin={} target={}", rctx.origin, rctx.target);
+                endSearch(t0, nVisited, nCreated);
+                return null;
+            }
+            // the keys are lower bounds on the weight of any path through their states
+            if (best != null && (forward.pq.peek_min_key() >= best.getWeight()
+                    || backward.pq.peek_min_key() >= best.getWeight()))
+                break;
+            Direction d = forward.pq.size() <= backward.pq.size() ? forward : backward;
+            State u = d.pq.extract_min();
+            if (!d.spt.visit(u))
+                continue;
+            nVisited += 1;
+            Vertex u_vertex = u.getVertex();
+            Collection<Edge> edges = d.options.isArriveBy() ? u_vertex.getIncoming() : u_vertex
+                    .getOutgoing();
+            for (Edge edge : edges) {
+                for (State v = edge.traverse(u); v != null; v = v.getNextResult()) {
+                    nCreated += 1;
+                    double remaining_w = d.remainingWeight(v);
+                    if (remaining_w < 0 || Double.isInfinite(remaining_w))
+                        continue;
+                    double estimate = v.getWeight() + remaining_w;
+                    if (estimate > options.maxWeight || d.isWorstTimeExceeded(v))
+                        continue;
+                    if (d.spt.add(v)) {
+                        d.pq.insert(v, estimate);
+                        best = d.meet(v, best);
+                    }
+                }
+            }
+        }
+        endSearch(t0, nVisited, nCreated);
+        return best;
+    }
+
+    private void endSearch(long startNanos, int nVisited, int nCreated) {
+        RequestProfile.addTime(Phase.SEARCH, startNanos);
+        RequestProfile.addCount(Counter.STATES_EXPANDED, nVisited);
+        RequestProfile.addCount(Counter.STATES_CREATED, nCreated);
+    }
+
+    /**
+     * One of the two searches. The forward one uses the request's options and may be an arriveBy
+     * search; the reverse one goes the other way from the request's target.
+     */
+    private static class Direction {
+
+        final RoutingRequest options;
+
+        final boolean reverse;
+
+        final State initialState;
+
+        final Vertex target;
+
+        final RemainingWeightHeuristic heuristic;
+
+        final ShortestPathTree spt;
+
+        final BinHeap<State> pq = new BinHeap<State>();
+
+        Direction other;
+
+        Direction(RoutingRequest options, State initialState, Vertex target,
+                RemainingWeightHeuristic heuristic, boolean reverse) {
+            this.options = options;
+            this.reverse = reverse;
+            this.initialState = initialState;
+            this.target = target;
+            this.heuristic = heuristic;
+            this.spt = new BasicShortestPathTree(options);
+            spt.add(initialState);
+            pq.insert(initialState, heuristic.computeInitialWeight(initialState, target));
+        }
+
+        double remainingWeight(State s) {
+            if (options.isArriveBy())
+                return heuristic.computeReverseWeight(s, target);
+            else
+                return heuristic.computeForwardWeight(s, target);
+        }
+
+        boolean isWorstTimeExceeded(State v) {
+            // the reverse search does not know the real times, only the forward one is bounded
+            if (reverse)
+                return false;
+            if (options.isArriveBy())
+                return v.getTime() < options.worstTime;
+            else
+                return v.getTime() > options.worstTime;
+        }
+
+        /**
+         * If the vertex of this new state was reached from the other side, join the two halves
+         * and keep the joined path if it is valid and lighter than the best one so far.
+         * 
+         * @return the final state of the best path so far, or null if there is none yet
+         */
+        State meet(State s, State best) {
+            State o = other.spt.getState(s.getVertex());
+            if (o == null)
+                return best;
+            // the halves leave out the turn cost where they meet, so their sum is a lower bound
+            if (best != null && s.getWeight() + o.getWeight() >= best.getWeight())
+                return best;
+            State joined = reverse ? join(o, s) : join(s, o);
+            if (joined == null || (best != null && joined.getWeight() >= best.getWeight()))
+                return best;
+            return joined;
+        }
+
+        /**
+         * Continue a state of the forward search along the edges of a state of the reverse search
+         * at the same vertex, back to the root of the reverse search.
+         * 
+         * @return the resulting final state, or null if it is not a valid path
+         */
+        private static State join(State forward, State backward) {
+            State s = forward;
+            for (State b = backward; b.getBackEdge() != null; b = b.getBackState()) {
+                s = b.getBackEdge().traverse(s);
+                if (s == null)
+                    return null;
+            }
+            if (s.getVertex() != forward.getOptions().rctx.target || !s.isFinal()
+                    || !s.allPathParsersAccept())
+                return null;
+            return s;
+        }
+    }
+}
@@ -17,7 +17,6 @@ import java.util.Collection;
 
 import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.common.pqueue.OTPPriorityQueue;
-import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
@@ -33,8 +32,12 @@ import org.opentripplanner.routing.spt.MultiShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTreeFactory;
 import org.opentripplanner.util.DateUtils;
+import org.opentripplanner.util.monitoring.AllocationCounter;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Counter;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +49,14 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     private static final Logger LOG = LoggerFactory.getLogger(GenericAStar.class);
     private static final MonitoringStore store = MonitoringStoreFactory.getStore();
 
+    private static final ThreadLocal<SearchWorkspace> workspaces =
+            new ThreadLocal<SearchWorkspace>() {
+        @Override
+        protected SearchWorkspace initialValue() {
+            return new SearchWorkspace();
+        }
+    };
+
     private boolean _verbose = false;
 
     private ShortestPathTreeFactory _shortestPathTreeFactory;
@@ -75,6 +86,25 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
     /** @return the shortest path, or null if none is found */
     public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout) {
+        // only measure allocation when someone will look at it
+        long allocated = -1;
+        if (RequestProfile.current() != null)
+            allocated = AllocationCounter.getAllocatedBytes();
+        SearchWorkspace workspace = workspaces.get();
+        BinHeap<State> pq = workspace.acquireQueue();
+        try {
+            return search(options, relTimeout, pq);
+        } finally {
+            workspace.release(pq);
+            if (allocated >= 0) {
+                RequestProfile.addCount(Counter.BYTES_ALLOCATED,
+                        AllocationCounter.getAllocatedBytes() - allocated);
+            }
+        }
+    }
+
+    private ShortestPathTree search(RoutingRequest options, double relTimeout,
+            OTPPriorityQueue<State> pq) {
 
         RoutingContext rctx = options.getRoutingContext();
         long abortTime = DateUtils.absoluteTimeout(relTimeout);
@@ -89,12 +119,13 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
         // heuristic calc could actually be done when states are constructed, inside state
         State initialState = new State(options);
+        long t0 = System.nanoTime();
         double initialWeight = heuristic.computeInitialWeight(initialState, rctx.target);
+        RequestProfile.addTime(Phase.HEURISTIC, t0);
+        t0 = System.nanoTime();
         spt.add(initialState);
 
-        // Priority Queue
-        OTPPriorityQueueFactory qFactory = BinHeap.FACTORY;
-        OTPPriorityQueue<State> pq = qFactory.create(rctx.graph.getVertices().size());
+        // Priority Queue, reused from the previous search on this thread
         // this would allow continuing a search from an existing state
         pq.insert(initialState, initialWeight);
 
@@ -105,6 +136,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 //        options.setMaxWalkDistance(Math.max(options.getMaxWalkDistance(), rctx.getMinWalkDistance()));
 
         int nVisited = 0;
+        int nCreated = 0;
+        int queuePeak = 1;
 
         /* the core of the A* algorithm */
         while (!pq.empty()) { // Until the priority queue is empty:
@@ -121,7 +154,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                 // Returning null indicates something went wrong and search should be aborted.
                 // This is distinct from the empty list of paths which implies that a result may still
                 // be found by retrying with altered options (e.g. max walk distance)
-                storeMemory();
+                endSearch(t0, nVisited, nCreated, queuePeak);
                 return null; // throw timeout exception
             }
 
@@ -156,7 +189,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             // TODO AMB: Replace isFinal with bicycle conditions in BasicPathParser
             } else if (!options.batch && u_vertex == rctx.target && u.isFinal() && u.allPathParsersAccept()) {
                 LOG.debug("total vertices visited {}", nVisited);
-                storeMemory();
+                endSearch(t0, nVisited, nCreated, queuePeak);
                 return spt;
             }
 
@@ -170,6 +203,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                 // returning NULL), the iteration is over.
                 for (State v = edge.traverse(u); v != null; v = v.getNextResult()) {
                     // Could be: for (State v : traverseEdge...)
+                    nCreated += 1;
 
                     if (traverseVisitor != null) {
                         traverseVisitor.visitEdge(edge, v);
@@ -213,15 +247,26 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                             if (traverseVisitor != null)
                                 traverseVisitor.visitEnqueue(v);
                             pq.insert(v, estimate);
+                            if (pq.size() > queuePeak)
+                                queuePeak = pq.size();
                         } 
                     }
                 }
             }
         }
-        storeMemory();
+        endSearch(t0, nVisited, nCreated, queuePeak);
         return spt;
     }
 
+    /** Record the work done by a search in the profile of the current request, if any. */
+    private void endSearch(long startNanos, int nVisited, int nCreated, int queuePeak) {
+        RequestProfile.addTime(Phase.SEARCH, startNanos);
+        RequestProfile.addCount(Counter.STATES_EXPANDED, nVisited);
+        RequestProfile.addCount(Counter.STATES_CREATED, nCreated);
+        RequestProfile.setCountMax(Counter.QUEUE_PEAK_SIZE, queuePeak);
+        storeMemory();
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
@@ -0,0 +1,56 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.State;
+
+/**
+ * The priority queue that successive searches on the same thread reuse instead of reallocating;
+ * its backing arrays were the largest allocation of each search (they used to be sized to the
+ * whole graph). Nothing else is pooled: the shortest path tree, its states and their StateData
+ * are handed to the caller and outlive the search, so they are allocated anew each time.
+ */
+class SearchWorkspace {
+
+    /** Queues that grew beyond this capacity are dropped, to bound the memory kept per thread. */
+    static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final int INITIAL_CAPACITY = 1000;
+
+    private BinHeap<State> queue;
+
+    private boolean inUse = false;
+
+    /** @return an empty queue, which must be handed back to {@link #release(BinHeap)} */
+    BinHeap<State> acquireQueue() {
+        // a search started from within another search on the same thread gets its own queue
+        if (inUse)
+            return new BinHeap<State>(INITIAL_CAPACITY);
+        inUse = true;
+        if (queue == null)
+            queue = new BinHeap<State>(INITIAL_CAPACITY);
+        return queue;
+    }
+
+    void release(BinHeap<State> q) {
+        if (q != queue)
+            return;
+        inUse = false;
+        if (queue.getCapacity() > MAX_RETAINED_CAPACITY)
+            queue = null;
+        else
+            queue.reset();
+    }
+}
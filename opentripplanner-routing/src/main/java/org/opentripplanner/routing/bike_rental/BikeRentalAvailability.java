@@ -0,0 +1,56 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.bike_rental;
+
+/**
+ * An immutable snapshot of the bikes and spaces available at the bike rental stations that an
+ * updater manages. Each station vertex knows its slot in the arrays; an updater publishes a new
+ * snapshot after each poll, and each search keeps the one that was current when it started (see
+ * RoutingContext), so routing threads never see a partial update and never take a lock.
+ */
+public class BikeRentalAvailability {
+
+    /** The number of bikes of a station that is no longer in the feed. */
+    public static final int OUT_OF_SERVICE = -1;
+
+    public final long version;
+
+    private final int[] bikes;
+
+    private final int[] spaces;
+
+    public BikeRentalAvailability(long version, int[] bikes, int[] spaces) {
+        this.version = version;
+        this.bikes = bikes;
+        this.spaces = spaces;
+    }
+
+    /** @return whether this snapshot has information about the given slot */
+    public boolean covers(int slot) {
+        return slot >= 0 && slot < bikes.length;
+    }
+
+    public boolean isInService(int slot) {
+        return bikes[slot] != OUT_OF_SERVICE;
+    }
+
+    public int getBikesAvailable(int slot) {
+        return Math.max(bikes[slot], 0);
+    }
+
+    public int getSpacesAvailable(int slot) {
+        return Math.max(spaces[slot], 0);
+    }
+}
@@ -15,24 +15,49 @@ package org.opentripplanner.routing.bike_rental;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * The bike rental stations of a graph. Updaters replace the station set and the availability
+ * snapshot as a whole, so readers can use them without locking.
+ */
 public class BikeRentalStationService implements Serializable {
     private static final long serialVersionUID = -1288992939159246764L;
 
-    private Set<BikeRentalStation> stations = new HashSet<BikeRentalStation>();
+    private volatile Set<BikeRentalStation> stations = Collections.emptySet();
+
+    private transient volatile BikeRentalAvailability availability;
 
     public Collection<BikeRentalStation> getStations() {
         return stations;
     }
     
-    public void addStation(BikeRentalStation station) {
-        stations.remove(station);
-        stations.add(station);
+    public synchronized void addStation(BikeRentalStation station) {
+        Set<BikeRentalStation> copy = new HashSet<BikeRentalStation>(stations);
+        copy.remove(station);
+        copy.add(station);
+        stations = Collections.unmodifiableSet(copy);
     }
     
-    public void removeStation(BikeRentalStation station) {
-        stations.remove(station);
+    public synchronized void removeStation(BikeRentalStation station) {
+        Set<BikeRentalStation> copy = new HashSet<BikeRentalStation>(stations);
+        copy.remove(station);
+        stations = Collections.unmodifiableSet(copy);
+    }
+
+    /** Replace all the stations at once. */
+    public synchronized void setStations(Collection<BikeRentalStation> stations) {
+        this.stations = Collections.unmodifiableSet(new HashSet<BikeRentalStation>(stations));
+    }
+
+    /** @return the current availability snapshot, or null if no updater has published one */
+    public BikeRentalAvailability getAvailability() {
+        return availability;
+    }
+
+    public void setAvailability(BikeRentalAvailability availability) {
+        this.availability = availability;
     }
 }
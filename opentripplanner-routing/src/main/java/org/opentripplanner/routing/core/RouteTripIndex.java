@@ -0,0 +1,141 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.PatternEdge;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.ScheduledTripTimes;
+
+/**
+ * Dense integer indexes for the routes and scheduled trips in a graph, assigned when the graph is 
+ * loaded. Each ScheduledTripTimes is told its trip index, so that per-request route and trip 
+ * preferences can be compiled into BitSets (see {@link TransitFilter}) and checked on boarding 
+ * without allocating or hashing.
+ * 
+ * Only the scheduled trips of the TableTripPatterns in the graph are indexed. Other trips (on 
+ * frequency-based patterns, or added by realtime updates) keep a dense index of -1, and are
+ * looked up by id by the TransitFilter.
+ */
+public class RouteTripIndex {
+
+    private final List<Route> routes = new ArrayList<Route>();
+
+    private final Map<AgencyAndId, Integer> tripIndexForId = new HashMap<AgencyAndId, Integer>();
+
+    /** The dense route index of each trip, by dense trip index */
+    private final int[] routeForTrip;
+
+    public RouteTripIndex(Graph graph) {
+        Map<TableTripPattern, Boolean> patterns = new IdentityHashMap<TableTripPattern, Boolean>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof PatternEdge && ((PatternEdge) e).getPattern() != null)
+                    patterns.put(((PatternEdge) e).getPattern(), true);
+            }
+        }
+        // number the trips in order of id, so that the indexes do not depend on identity hashes
+        List<ScheduledTripTimes> trips = new ArrayList<ScheduledTripTimes>();
+        for (TableTripPattern pattern : patterns.keySet()) {
+            for (int i = 0; i < pattern.getNumScheduledTrips(); i++)
+                trips.add(pattern.getTripTimes(i).getScheduledTripTimes());
+        }
+        Collections.sort(trips, new Comparator<ScheduledTripTimes>() {
+            @Override
+            public int compare(ScheduledTripTimes a, ScheduledTripTimes b) {
+                return a.getTrip().getId().compareTo(b.getTrip().getId());
+            }
+        });
+        routeForTrip = new int[trips.size()];
+        Map<AgencyAndId, Integer> routeIndexForId = new HashMap<AgencyAndId, Integer>();
+        int t = 0;
+        for (ScheduledTripTimes tripTimes : trips) {
+            Trip trip = tripTimes.getTrip();
+            Route route = trip.getRoute();
+            Integer r = routeIndexForId.get(route.getId());
+            if (r == null) {
+                r = routes.size();
+                routes.add(route);
+                routeIndexForId.put(route.getId(), r);
+            }
+            tripTimes.setDenseIndex(t);
+            tripIndexForId.put(trip.getId(), t);
+            routeForTrip[t] = r;
+            ++t;
+        }
+    }
+
+    public int getNumRoutes() {
+        return routes.size();
+    }
+
+    public int getNumTrips() {
+        return routeForTrip.length;
+    }
+
+    /** @return the dense route index of the trip with the given dense index */
+    public int getRouteIndex(int tripIndex) {
+        return routeForTrip[tripIndex];
+    }
+
+    /** 
+     * @return the set of dense route indexes whose RouteSpec is in the given collection, or null 
+     * if the collection is null or empty.
+     */
+    public BitSet compileRoutes(Collection<RouteSpec> specs) {
+        if (specs == null || specs.isEmpty())
+            return null;
+        BitSet ret = new BitSet(routes.size());
+        for (int r = 0; r < routes.size(); r++) {
+            Route route = routes.get(r);
+            RouteSpec spec = new RouteSpec(route.getId().getAgencyId(), 
+                    GtfsLibrary.getRouteName(route));
+            if (specs.contains(spec))
+                ret.set(r);
+        }
+        return ret;
+    }
+
+    /** 
+     * @return the set of dense trip indexes for the given trip ids, or null if the collection is 
+     * null or empty. Ids of trips that are not indexed are ignored.
+     */
+    public BitSet compileTrips(Collection<AgencyAndId> tripIds) {
+        if (tripIds == null || tripIds.isEmpty())
+            return null;
+        BitSet ret = new BitSet(routeForTrip.length);
+        for (AgencyAndId tripId : tripIds) {
+            Integer t = tripIndexForId.get(tripId);
+            if (t != null)
+                ret.set(t);
+        }
+        return ret;
+    }
+}
@@ -11,6 +11,8 @@ import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.common.model.NamedPlace;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
+import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
 import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.error.TransitTimesException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
@@ -22,6 +24,8 @@ import org.opentripplanner.routing.pathparser.PathParser;
 import org.opentripplanner.routing.services.RemainingWeightHeuristicFactory;
 import org.opentripplanner.routing.services.TransitIndexService;
 import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +59,7 @@ public class RoutingContext implements Cloneable {
     public RemainingWeightHeuristic remainingWeightHeuristic;
     public final TransferTable transferTable;
     public final TimetableResolver timetableSnapshot; 
+    public final BikeRentalAvailability bikeRentalAvailability;
     
     /**
      * Cache lists of which transit services run on which midnight-to-midnight periods. This ties a
@@ -84,6 +89,7 @@ public class RoutingContext implements Cloneable {
                           Vertex from, Vertex to, boolean findPlaces) {
         this.opt = traverseOptions;
         this.graph = graph;
+        long t0 = System.nanoTime();
         if (findPlaces) {
             // normal mode, search for vertices based on fromPlace and toPlace
             fromVertex = graph.streetIndex.getVertexForPlace(opt.getFromPlace(), opt);
@@ -99,6 +105,8 @@ public class RoutingContext implements Cloneable {
             fromVertex = from;
             toVertex = to;
         }
+        RequestProfile.addTime(Phase.LINKING, t0);
+        t0 = System.nanoTime();
         if (opt.getStartingTransitStopId() != null) {
             TransitIndexService tis = graph.getService(TransitIndexService.class);
             if (tis == null) {
@@ -119,15 +127,44 @@ public class RoutingContext implements Cloneable {
             timetableSnapshot = graph.timetableSnapshotSource.getSnapshot();
         else
             timetableSnapshot = null;
+        // likewise for the bike rental availability, which is replaced after each poll
+        BikeRentalStationService bikeRentalService = graph.getService(BikeRentalStationService.class);
+        if (bikeRentalService != null)
+            bikeRentalAvailability = bikeRentalService.getAvailability();
+        else
+            bikeRentalAvailability = null;
         setServiceDays();
         if (opt.batch)
             remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
         else
             remainingWeightHeuristic = heuristicFactory.getInstanceForSearch(opt);
+        RequestProfile.addTime(Phase.ROUTING_CONTEXT, t0);
     }
     
     
     /* INSTANCE METHODS */
+
+    /**
+     * Make a copy of this context for a clone of its options, so that both can be searched at the
+     * same time on different threads. The endpoints and their temporary edges are shared; the copy
+     * gets its own remaining weight heuristic, which keeps per-search state. Only the original
+     * context should be destroyed.
+     */
+    public RoutingContext copyForConcurrentSearch(RoutingRequest options) {
+        try {
+            RoutingContext copy = (RoutingContext) super.clone();
+            copy.opt = options;
+            if (options.batch)
+                copy.remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
+            else
+                copy.remainingWeightHeuristic = heuristicFactory.getInstanceForSearch(options);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            /* this will never happen since we implement Cloneable */
+            throw new RuntimeException(e);
+        }
+    }
+
     
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
@@ -161,6 +198,7 @@ public class RoutingContext implements Cloneable {
      *  Cache ServiceDay objects representing which services are running yesterday, today, and tomorrow relative
      *  to the search time. This information is very heavily used (at every transit boarding) and Date operations were
      *  identified as a performance bottleneck. Must be called after the TraverseOptions already has a CalendarService set. 
+     *  The ServiceDays themselves are shared between requests through the graph's ServiceDayCache.
      */
     public void setServiceDays() {
         final long SEC_IN_DAY = 60 * 60 * 24;
@@ -170,13 +208,19 @@ public class RoutingContext implements Cloneable {
             LOG.warn("RoutingContext has no CalendarService. Transit will never be boarded.");
             return;
         }
+        // when several routers share this graph, only board the services of this router's feeds
+        Set<String> layer = null;
+        TransitLayers transitLayers = graph.getService(TransitLayers.class);
+        if (transitLayers != null)
+            layer = transitLayers.getAgencyIds(opt.getRouterId());
         // This should be a valid way to find yesterday and tomorrow,
         // since DST changes more than one hour after midnight in US/EU.
         // But is this true everywhere?
+        ServiceDayCache serviceDayCache = graph.getServiceDayCache();
         for (String agency : graph.getAgencyIds()) {
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time - SEC_IN_DAY, calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time, calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time + SEC_IN_DAY, calendarService, agency));
+            addIfNotExists(this.serviceDays, serviceDayCache.getServiceDay(time - SEC_IN_DAY, agency, layer));
+            addIfNotExists(this.serviceDays, serviceDayCache.getServiceDay(time, agency, layer));
+            addIfNotExists(this.serviceDays, serviceDayCache.getServiceDay(time + SEC_IN_DAY, agency, layer));
         }
     }
 
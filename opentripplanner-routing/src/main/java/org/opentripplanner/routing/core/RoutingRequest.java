@@ -86,6 +86,13 @@ public class RoutingRequest implements Cloneable, Serializable {
     public boolean wheelchairAccessible = false;
     /** The maximum number of possible itineraries to return. */
     public int numItineraries = 3;
+    /** 
+     * The maximum number of searches for additional itineraries once the first one is found. 
+     * Lowered by the API under heavy load. 
+     */
+    public int maxRetries = Integer.MAX_VALUE;
+    /** Multiplies the path service's search timeouts. Lowered by the API under heavy load. */
+    public double timeoutFactor = 1.0;
     /** The maximum slope of streets for wheelchair trips. */
     public double maxSlope = 0.0833333333333; // ADA max wheelchair ramp slope is a good default.
     /** Whether the planner should return intermediate stops lists for transit legs. */
@@ -285,6 +292,9 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public RoutingContext rctx;
 
+    /** The route and trip sets of this request compiled against the graph, see getTransitFilter */
+    private transient TransitFilter transitFilter;
+
     /** A transit stop that this trip must start from */
     private AgencyAndId startingTransitStopId;
     private boolean walkingBike;
@@ -588,6 +598,7 @@ public class RoutingRequest implements Cloneable, Serializable {
             RoutingRequest clone = (RoutingRequest) super.clone();
             clone.bannedRoutes = (HashSet<RouteSpec>) bannedRoutes.clone();
             clone.bannedTrips = (HashSet<AgencyAndId>) bannedTrips.clone();
+            clone.transitFilter = null; // the clone's sets may be modified
             if (this.walkingOptions != this)
                 clone.walkingOptions = this.walkingOptions.clone();
             else
@@ -648,6 +659,19 @@ public class RoutingRequest implements Cloneable, Serializable {
         return this.rctx;
     }
 
+    /** 
+     * @return the banned, preferred and unpreferred routes and the banned trips of this request, 
+     * compiled on first use against the graph of the routing context. 
+     */
+    public TransitFilter getTransitFilter() {
+        TransitFilter filter = transitFilter;
+        if (filter == null) {
+            filter = new TransitFilter(this, rctx.graph.getRouteTripIndex());
+            transitFilter = filter;
+        }
+        return filter;
+    }
+
     /** 
      * Equality does not mean that the fields of the two RoutingRequests are identical, but
      * that they will produce the same SPT. This is particularly important when the batch
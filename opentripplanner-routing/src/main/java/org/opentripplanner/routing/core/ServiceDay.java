@@ -18,6 +18,7 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.Set;
 import java.util.TimeZone;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -43,6 +44,15 @@ public class ServiceDay implements Serializable {
      * serviceIds running on that day.
      */
     public ServiceDay(Graph graph, long time, CalendarService cs, String agencyId) {
+        this(graph, time, cs, agencyId, null);
+    }
+
+    /* 
+     * As above, but only consider serviceIds whose agency is in the given set (all serviceIds 
+     * if the set is null). See TransitLayers.
+     */
+    public ServiceDay(Graph graph, long time, CalendarService cs, String agencyId,
+            Set<String> serviceAgencyIds) {
         TimeZone timeZone = cs.getTimeZoneForAgencyId(agencyId);
         GregorianCalendar calendar = new GregorianCalendar(timeZone);
         calendar.setTime(new Date(time * 1000));
@@ -54,6 +64,8 @@ public class ServiceDay implements Serializable {
         
         ServiceIdToNumberService service = graph.getService(ServiceIdToNumberService.class);
         for (AgencyAndId serviceId : cs.getServiceIdsOnDate(sd)) {
+            if (serviceAgencyIds != null && ! serviceAgencyIds.contains(serviceId.getAgencyId()))
+                continue;
             int n = service.getNumber(serviceId);
             if (n < 0)
                 continue;
@@ -0,0 +1,171 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares ServiceDay objects between requests on the same graph, so that setting up a
+ * RoutingContext does not query the CalendarService for the services running on each day.
+ * 
+ * ServiceDays are keyed on agency, local date in the agency's time zone and the set of feeds
+ * visible to the router (see {@link TransitLayers}). The days around the present within the
+ * validity window of the transit feeds are computed when the graph is loaded; other days are
+ * computed on demand and kept in a bounded LRU map.
+ */
+public class ServiceDayCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceDayCache.class);
+
+    private static final long SEC_IN_DAY = 60 * 60 * 24;
+
+    /** The number of days computed in advance, starting from yesterday. */
+    private static final int PRECOMPUTED_DAYS = 400;
+
+    /** The number of days outside the precomputed window that are kept. */
+    private static final int MAX_RECENT_DAYS = 1000;
+
+    private final Graph graph;
+
+    /** Read-only once published, so that lookups in the precomputed window do not lock. */
+    private volatile Map<Key, ServiceDay> precomputed = new HashMap<Key, ServiceDay>();
+
+    private final Map<Key, ServiceDay> recent = new LinkedHashMap<Key, ServiceDay>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ServiceDay> eldest) {
+            return size() > MAX_RECENT_DAYS;
+        }
+    };
+
+    public ServiceDayCache(Graph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return the ServiceDay of the given agency containing the given time, only considering the
+     *         services of the given feeds (all feeds if null).
+     */
+    public ServiceDay getServiceDay(long time, String agencyId, Set<String> serviceAgencyIds) {
+        CalendarService calendarService = graph.getCalendarService();
+        TimeZone timeZone = calendarService.getTimeZoneForAgencyId(agencyId);
+        Key key = new Key(agencyId, localDay(time, timeZone), serviceAgencyIds);
+        ServiceDay serviceDay = precomputed.get(key);
+        if (serviceDay != null)
+            return serviceDay;
+        synchronized (recent) {
+            serviceDay = recent.get(key);
+        }
+        if (serviceDay == null) {
+            serviceDay = new ServiceDay(graph, time, calendarService, agencyId, serviceAgencyIds);
+            synchronized (recent) {
+                recent.put(key, serviceDay);
+            }
+        }
+        return serviceDay;
+    }
+
+    /**
+     * Compute the ServiceDays of every agency, for every router sharing the graph, from yesterday
+     * until the end of the transit feeds' validity (at most PRECOMPUTED_DAYS days).
+     */
+    public void precompute() {
+        CalendarService calendarService = graph.getCalendarService();
+        if (calendarService == null)
+            return;
+        long now = System.currentTimeMillis() / 1000;
+        long start = Math.max(graph.getTransitServiceStarts(), now - SEC_IN_DAY) - SEC_IN_DAY;
+        long end = Math.min(graph.getTransitServiceEnds(), now + PRECOMPUTED_DAYS * SEC_IN_DAY)
+                + SEC_IN_DAY;
+        if (start >= end)
+            return;
+        TransitLayers transitLayers = graph.getService(TransitLayers.class);
+        Map<Key, ServiceDay> days = new HashMap<Key, ServiceDay>(precomputed);
+        long t0 = System.currentTimeMillis();
+        for (String agencyId : graph.getAgencyIds()) {
+            TimeZone timeZone = calendarService.getTimeZoneForAgencyId(agencyId);
+            // step from mid-day so that no day is skipped across DST changes
+            for (long time = start + SEC_IN_DAY / 2; time < end; time += SEC_IN_DAY) {
+                long day = localDay(time, timeZone);
+                precompute(days, calendarService, time, agencyId, day, null);
+                if (transitLayers == null)
+                    continue;
+                for (String routerId : transitLayers.getRouterIds()) {
+                    Set<String> layer = transitLayers.getAgencyIds(routerId);
+                    if (layer != null)
+                        precompute(days, calendarService, time, agencyId, day, layer);
+                }
+            }
+        }
+        precomputed = days;
+        LOG.info("precomputed {} service days in {} msec", days.size(),
+                System.currentTimeMillis() - t0);
+    }
+
+    private void precompute(Map<Key, ServiceDay> days, CalendarService calendarService,
+            long time, String agencyId, long day, Set<String> layer) {
+        Key key = new Key(agencyId, day, layer);
+        if (!days.containsKey(key))
+            days.put(key, new ServiceDay(graph, time, calendarService, agencyId, layer));
+    }
+
+    /** @return the number of days since the epoch of the local date at the given time */
+    private static long localDay(long time, TimeZone timeZone) {
+        long millis = time * 1000;
+        millis += timeZone.getOffset(millis);
+        long day = millis / (SEC_IN_DAY * 1000);
+        return millis < 0 && millis % (SEC_IN_DAY * 1000) != 0 ? day - 1 : day;
+    }
+
+    private static class Key {
+
+        private final String agencyId;
+
+        private final long day;
+
+        private final Set<String> layer;
+
+        Key(String agencyId, long day, Set<String> layer) {
+            this.agencyId = agencyId;
+            this.day = day;
+            this.layer = layer;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = agencyId.hashCode() * 31 + (int) day;
+            return layer == null ? hash : hash * 31 + layer.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return day == key.day && agencyId.equals(key.agencyId)
+                    && (layer == null ? key.layer == null : layer.equals(key.layer));
+        }
+    }
+}
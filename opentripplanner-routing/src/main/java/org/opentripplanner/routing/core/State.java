@@ -328,8 +328,16 @@ public class State implements Cloneable {
         return stateData.backMode;
     }
     
+    /**
+     * The alerts about the back edge. They are not carried through the search, but looked up on
+     * the edge when asked for, which should only happen for the states of the paths kept.
+     * 
+     * @return null if there are none
+     */
     public Set<Alert> getBackAlerts () {
-        return stateData.notes;
+        if (backEdge == null)
+            return null;
+        return backEdge.getAlerts(this);
     }
     
     /**
@@ -625,9 +633,8 @@ public class State implements Cloneable {
                 editor.incrementWeight(orig.getWeightDelta());
                 editor.incrementWalkDistance(orig.getWalkDistanceDelta());
                 
-                // propagate the modes and alerts through to the reversed edge
+                // propagate the modes through to the reversed edge
                 editor.setBackMode(orig.getBackMode());
-                editor.addAlerts(orig.getBackAlerts());
 
                 if (orig.isBikeRenting() != orig.getBackState().isBikeRenting())
                     editor.setBikeRenting(!orig.isBikeRenting());
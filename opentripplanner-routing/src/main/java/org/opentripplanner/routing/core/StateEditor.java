@@ -15,8 +15,6 @@ package org.opentripplanner.routing.core;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Set;
-import java.util.HashSet;
 import java.util.List;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -24,7 +22,6 @@ import org.opentripplanner.routing.automata.AutomatonState;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.routing.patch.Alert;
 import org.opentripplanner.routing.patch.Patch;
 import org.opentripplanner.routing.pathparser.PathParser;
 import org.opentripplanner.routing.trippattern.TripTimes;
@@ -52,9 +49,6 @@ public class StateEditor {
     private boolean defectiveTraversal = false;
 
     private boolean traversingBackward;
-    
-    // we use our own set of notes and only replace the child notes if they're different
-    private Set<Alert> notes = null;
 
     /* CONSTRUCTORS */
 
@@ -150,12 +144,6 @@ public class StateEditor {
         if ( ! parsePath(this.child))
         	return null;
         
-        // copy the notes if need be, keeping in mind they may both be null
-        if (this.notes != child.stateData.notes) {
-            cloneStateDataAsNeeded();
-            child.stateData.notes = this.notes;
-        }
-        
         spawned = true;
         return child;
     }
@@ -202,30 +190,6 @@ public class StateEditor {
         this.defectiveTraversal = true;
     }
 
-    /**
-     * Add an alert to this state. This used to use an EdgeNarrative
-     */
-    public void addAlert(Alert notes) {
-        if (notes == null)
-            return;
-        
-        if (this.notes == null)
-            this.notes = new HashSet<Alert>();
-        
-        this.notes.add(notes);
-    }
-    
-    /**
-     * Convenience function to add multiple alerts
-     */
-    public void addAlerts(Iterable<Alert> alerts) {
-        if (alerts == null)
-            return;
-        for (Alert alert : alerts) {
-            this.addAlert(alert);
-        }
-    }
-
     /* Incrementors */
 
     public void incrementWeight(double weight) {
@@ -478,6 +442,9 @@ public class StateEditor {
 
         if (patches != null) {
             for (Patch patch : patches) {
+                // patches that only carry an alert are looked up when the path is built
+                if (!patch.affectsTraversal())
+                    continue;
                 active  = false;
                 display = patch.displayDuring(child.stateData.opt, child.getStartTime(),
                                               child.getTime());
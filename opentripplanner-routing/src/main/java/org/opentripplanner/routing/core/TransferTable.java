@@ -13,17 +13,34 @@
 
 package org.opentripplanner.routing.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.graph.Vertex;
 
+/**
+ * Minimum transfer times and transfer types between pairs of stop vertices, from GTFS
+ * transfers.txt.
+ * 
+ * Transfers are added to a map keyed on vertex pairs at graph build time. Lookups during searches 
+ * use a primitive index keyed on vertex indices instead: the from-stop indices in a sorted array, 
+ * and for each of them a sorted range of to-stop indices with the transfer times in a parallel 
+ * array. The index is built on first lookup (vertex indices are only assigned once the graph has 
+ * been deserialized) and thrown away whenever a transfer is added or the graph is renumbered. The 
+ * index also keeps the vertices themselves, and is rebuilt if a lookup finds a transfer whose 
+ * vertices are not the ones asked for. In the serialized graph the transfers are written as 
+ * parallel arrays rather than as a map of boxed pairs.
+ */
 public class TransferTable implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     public static final int UNKNOWN_TRANSFER = -999;
 
@@ -38,8 +55,10 @@ public class TransferTable implements Serializable {
                                                  */
 
 
-    protected HashMap<P2<Vertex>, Integer> table = new HashMap<P2<Vertex>, Integer>();
+    protected transient HashMap<P2<Vertex>, Integer> table = new HashMap<P2<Vertex>, Integer>();
     protected boolean preferredTransfers = false;
+
+    private transient volatile Index index = null;
     
     public void setPreferredTransfers(boolean preferredTransfers) {
         this.preferredTransfers = preferredTransfers;
@@ -50,19 +69,40 @@ public class TransferTable implements Serializable {
     }    
     /** Get the transfer time, in seconds, between the stops */
     public int getTransferTime(Vertex previousStop, Vertex vertex) {
-        Integer result = table.get(new P2<Vertex>(previousStop, vertex));
-        if (result == null) {
+        if (previousStop == null || vertex == null)
             return UNKNOWN_TRANSFER;
+        Index idx = index;
+        if (idx == null)
+            idx = buildIndex();
+        int time = idx.get(previousStop, vertex);
+        if (time == Index.STALE) {
+            // the vertices were renumbered since the index was built
+            invalidateIndex();
+            time = buildIndex().get(previousStop, vertex);
+            if (time == Index.STALE)
+                time = UNKNOWN_TRANSFER;
         }
-        return result;
+        return time;
+    }
+
+    /** Throw away the lookup index, to be called when vertex indices change. */
+    public void invalidateIndex() {
+        index = null;
     }
     
-    public void setTransferTime(Vertex fromStop, Vertex toStop, int transferTime) {
+    public synchronized void setTransferTime(Vertex fromStop, Vertex toStop, int transferTime) {
         table.put(new P2<Vertex>(fromStop, toStop), transferTime);
+        index = null;
         if (transferTime == PREFERRED_TRANSFER) {
             setPreferredTransfers(true);
         }
     }
+
+    private synchronized Index buildIndex() {
+        if (index == null)
+            index = new Index(table);
+        return index;
+    }
     
     public static class Transfer {
         public Vertex from, to;
@@ -74,7 +114,7 @@ public class TransferTable implements Serializable {
         }        
     }
     
-    public Iterable<Transfer> getAllTransfers() {
+    public synchronized Iterable<Transfer> getAllTransfers() {
         ArrayList<Transfer> transfers = new ArrayList<Transfer>(table.size());
         for (Entry<P2<Vertex>, Integer> entry : table.entrySet()) {
             P2<Vertex> p2 = entry.getKey();
@@ -82,4 +122,112 @@ public class TransferTable implements Serializable {
         }
         return transfers;
     }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int n = table.size();
+        Vertex[] from = new Vertex[n];
+        Vertex[] to = new Vertex[n];
+        int[] seconds = new int[n];
+        int i = 0;
+        for (Entry<P2<Vertex>, Integer> entry : table.entrySet()) {
+            from[i] = entry.getKey().getFirst();
+            to[i] = entry.getKey().getSecond();
+            seconds[i] = entry.getValue();
+            ++i;
+        }
+        out.writeObject(from);
+        out.writeObject(to);
+        out.writeObject(seconds);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Vertex[] from = (Vertex[]) in.readObject();
+        Vertex[] to = (Vertex[]) in.readObject();
+        int[] seconds = (int[]) in.readObject();
+        table = new HashMap<P2<Vertex>, Integer>(from.length * 2);
+        for (int i = 0; i < from.length; ++i)
+            table.put(new P2<Vertex>(from[i], to[i]), seconds[i]);
+    }
+
+    /** The primitive lookup structure, keyed on vertex indices. Immutable once built. */
+    private static class Index {
+
+        /** Returned by get when the vertices found at the given indices are not the given ones */
+        static final int STALE = Integer.MIN_VALUE;
+
+        /** The distinct from-stop vertex indices, in increasing order */
+        private final int[] fromStops;
+
+        /** The from-stop vertices, parallel to fromStops */
+        private final Vertex[] fromVertices;
+
+        /** The transfers from fromStops[i] are at positions offsets[i] to offsets[i + 1] - 1 */
+        private final int[] offsets;
+
+        /** The to-stop vertex indices, in increasing order within each from-stop range */
+        private final int[] toStops;
+
+        /** The to-stop vertices, parallel to toStops */
+        private final Vertex[] toVertices;
+
+        /** The transfer times or types, parallel to toStops */
+        private final int[] times;
+
+        Index(HashMap<P2<Vertex>, Integer> table) {
+            int n = table.size();
+            // sort the transfers on (from, to) vertex indices packed into a long
+            long[] keys = new long[n];
+            int i = 0;
+            for (P2<Vertex> pair : table.keySet())
+                keys[i++] = key(pair.getFirst(), pair.getSecond());
+            Arrays.sort(keys);
+            int nFrom = 0;
+            for (i = 0; i < n; ++i)
+                if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32))
+                    ++nFrom;
+            fromStops = new int[nFrom];
+            fromVertices = new Vertex[nFrom];
+            offsets = new int[nFrom + 1];
+            toStops = new int[n];
+            toVertices = new Vertex[n];
+            times = new int[n];
+            int f = -1;
+            for (i = 0; i < n; ++i) {
+                int from = (int) (keys[i] >>> 32);
+                if (f < 0 || fromStops[f] != from) {
+                    fromStops[++f] = from;
+                    offsets[f] = i;
+                }
+                toStops[i] = (int) keys[i];
+            }
+            offsets[nFrom] = n;
+            // then place the vertices and times at the positions of their keys
+            for (Entry<P2<Vertex>, Integer> entry : table.entrySet()) {
+                Vertex from = entry.getKey().getFirst();
+                Vertex to = entry.getKey().getSecond();
+                int t = Arrays.binarySearch(keys, key(from, to));
+                fromVertices[Arrays.binarySearch(fromStops, from.getIndex())] = from;
+                toVertices[t] = to;
+                times[t] = entry.getValue();
+            }
+        }
+
+        private static long key(Vertex from, Vertex to) {
+            return ((long) from.getIndex() << 32) | (to.getIndex() & 0xffffffffL);
+        }
+
+        int get(Vertex from, Vertex to) {
+            int f = Arrays.binarySearch(fromStops, from.getIndex());
+            if (f < 0)
+                return UNKNOWN_TRANSFER;
+            int t = Arrays.binarySearch(toStops, offsets[f], offsets[f + 1], to.getIndex());
+            if (t < 0)
+                return UNKNOWN_TRANSFER;
+            if (fromVertices[f] != from || toVertices[t] != to)
+                return STALE;
+            return times[t];
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+/**
+ * The banned, preferred and unpreferred routes and the banned trips of a RoutingRequest, compiled 
+ * into BitSets over the dense indexes of a {@link RouteTripIndex}. A filter is compiled once per 
+ * RoutingRequest, on first use (see {@link RoutingRequest#getTransitFilter()}), so the route and 
+ * trip sets of a request must not be modified once it has been used in a search: clone it instead.
+ * 
+ * Trips that are not in the index (with a dense index of -1) are checked against the sets of the
+ * request by id instead.
+ */
+public class TransitFilter {
+
+    private final RouteTripIndex index;
+
+    /** Null when the corresponding set in the request is empty */
+    private final BitSet bannedRoutes, preferredRoutes, unpreferredRoutes, bannedTrips;
+
+    private final Collection<RouteSpec> bannedRouteSpecs, preferredRouteSpecs,
+            unpreferredRouteSpecs;
+
+    private final Collection<AgencyAndId> bannedTripIds;
+
+    private final int useAnotherThanPreferredRoutesPenalty;
+
+    private final int useUnpreferredRoutesPenalty;
+
+    public TransitFilter(RoutingRequest options, RouteTripIndex index) {
+        this.index = index;
+        bannedRoutes = index.compileRoutes(options.bannedRoutes);
+        preferredRoutes = index.compileRoutes(options.preferredRoutes);
+        unpreferredRoutes = index.compileRoutes(options.unpreferredRoutes);
+        bannedTrips = index.compileTrips(options.bannedTrips);
+        bannedRouteSpecs = options.bannedRoutes;
+        preferredRouteSpecs = options.preferredRoutes;
+        unpreferredRouteSpecs = options.unpreferredRoutes;
+        bannedTripIds = options.bannedTrips;
+        useAnotherThanPreferredRoutesPenalty = options.useAnotherThanPreferredRoutesPenalty;
+        useUnpreferredRoutesPenalty = options.useUnpreferredRoutesPenalty;
+    }
+
+    public boolean hasBannedTrips() {
+        return bannedTrips != null;
+    }
+
+    /** @return whether the trip is banned in this request */
+    public boolean tripBanned(TripTimes tripTimes) {
+        if (bannedTrips == null)
+            return false;
+        int t = tripTimes.getScheduledTripTimes().getDenseIndex();
+        if (t < 0)
+            return bannedTripIds.contains(tripTimes.getTrip().getId());
+        return bannedTrips.get(t);
+    }
+
+    /** @return whether the route of the trip is banned in this request */
+    public boolean routeBanned(TripTimes tripTimes) {
+        return bannedRoutes != null && onRoutes(tripTimes, bannedRoutes, bannedRouteSpecs);
+    }
+
+    /** @return the weight penalty for boarding the trip, given the route preferences */
+    public long routePenalty(TripTimes tripTimes) {
+        if (preferredRoutes == null && unpreferredRoutes == null)
+            return 0;
+        long penalty = 0;
+        if (preferredRoutes != null 
+                && ! onRoutes(tripTimes, preferredRoutes, preferredRouteSpecs))
+            penalty += useAnotherThanPreferredRoutesPenalty;
+        if (unpreferredRoutes != null 
+                && onRoutes(tripTimes, unpreferredRoutes, unpreferredRouteSpecs))
+            penalty += useUnpreferredRoutesPenalty;
+        return penalty;
+    }
+
+    /** @return whether the route of the trip is in the compiled set, or in the specs if unindexed */
+    private boolean onRoutes(TripTimes tripTimes, BitSet routes, Collection<RouteSpec> specs) {
+        int t = tripTimes.getScheduledTripTimes().getDenseIndex();
+        if (t >= 0)
+            return routes.get(index.getRouteIndex(t));
+        Route route = tripTimes.getTrip().getRoute();
+        return specs.contains(new RouteSpec(route.getId().getAgencyId(), 
+                GtfsLibrary.getRouteName(route)));
+    }
+}
@@ -0,0 +1,61 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets several routerIds share one Graph, and therefore one copy of the street network, its
+ * street index and everything derived from it. The graph is built once with the GTFS feeds of all
+ * the routers; each routerId is then restricted to the transit services of its own feeds.
+ *
+ * Feeds are identified by the agency id used to namespace their service ids, which is the
+ * default agency id of the feed at graph build time. A routerId without an entry here sees every
+ * service in the graph. Layers are only applied to the ServiceDays of a RoutingContext, so they
+ * decide which trips can be boarded, not which stops exist.
+ */
+public class TransitLayers implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, Set<String>> agencyIdsForRouter =
+            new ConcurrentHashMap<String, Set<String>>();
+
+    public void putLayer(String routerId, Collection<String> agencyIds) {
+        Set<String> ids = Collections.unmodifiableSet(new HashSet<String>(agencyIds));
+        agencyIdsForRouter.put(routerId, ids);
+    }
+
+    public void removeLayer(String routerId) {
+        agencyIdsForRouter.remove(routerId);
+    }
+
+    /** @return the agency ids visible to this routerId, or null if it is not restricted. */
+    public Set<String> getAgencyIds(String routerId) {
+        if (routerId == null)
+            return null;
+        return agencyIdsForRouter.get(routerId);
+    }
+
+    public Set<String> getRouterIds() {
+        return agencyIdsForRouter.keySet();
+    }
+
+}
@@ -148,6 +148,19 @@ public class FrequencyBasedTripPattern implements Serializable, TripPattern {
 
     }
 
+    /**
+     * @return the first departure from the given stop in the first headway period that starts
+     *         after afterTime, or -1 if there is none
+     */
+    public int getNextPeriodStart(int stopIndex, int afterTime) {
+        int stopDepartureTimeOffset = departureTimes[stopIndex];
+        for (int i = 0; i < timeRangeStart.length; i++) {
+            if (stopDepartureTimeOffset + timeRangeStart[i] > afterTime)
+                return stopDepartureTimeOffset + timeRangeStart[i];
+        }
+        return -1;
+    }
+
     public int getPreviousArrivalTime(int stopIndex, int beforeTime,
             boolean wheelchairAccessible, boolean bikesAllowed, boolean pickup) {
         int mask = pickup ? TableTripPattern.MASK_PICKUP : TableTripPattern.MASK_DROPOFF;
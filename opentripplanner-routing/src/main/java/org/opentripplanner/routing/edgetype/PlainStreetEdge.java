@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -51,6 +52,8 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Alert TOLL_ALERT = Alert.createSimpleAlerts("Toll road");
+
     private static final double GREENWAY_SAFETY_FACTOR = 0.1;
 
     private ElevationProfileSegment elevationProfileSegment;
@@ -302,10 +305,6 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
         StateEditor s1 = s0.edit(this);
         s1.setBackMode(traverseMode);
 
-        if (wheelchairNotes != null && options.wheelchairAccessible) {
-            s1.addAlerts(wheelchairNotes);
-        }
-
         PlainStreetEdge backPSE;
         if (backEdge != null && backEdge instanceof PlainStreetEdge) {
             backPSE = (PlainStreetEdge) backEdge;
@@ -369,15 +368,30 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
         s1.incrementWeight(weight);
         if (s1.weHaveWalkedTooFar(options))
             return null;
-        
-        s1.addAlerts(notes);
-        
-        if (this.toll && traverseMode == TraverseMode.CAR)
-            s1.addAlert(Alert.createSimpleAlerts("Toll road"));
 
         return s1.makeState();
     }
 
+    @Override
+    public Set<Alert> getAlerts(State s) {
+        Set<Alert> alerts = super.getAlerts(s);
+        if (wheelchairNotes != null && s.getOptions().wheelchairAccessible)
+            alerts = addAlerts(alerts, wheelchairNotes);
+        if (notes != null)
+            alerts = addAlerts(alerts, notes);
+        if (toll && s.getBackMode() == TraverseMode.CAR)
+            alerts = addAlerts(alerts, Collections.singleton(TOLL_ALERT));
+        return alerts;
+    }
+
+    private static Set<Alert> addAlerts(Set<Alert> alerts, Set<Alert> more) {
+        if (alerts == null)
+            return more;
+        Set<Alert> union = new HashSet<Alert>(alerts);
+        union.addAll(more);
+        return union;
+    }
+
     /**
      * Calculate the average automobile traversal speed of this segment, given the RoutingRequest,
      * and return it in meters per second.
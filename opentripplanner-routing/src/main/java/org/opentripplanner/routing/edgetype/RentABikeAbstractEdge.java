@@ -13,6 +13,8 @@
 
 package org.opentripplanner.routing.edgetype;
 
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -54,7 +56,11 @@ public abstract class RentABikeAbstractEdge extends Edge {
             return null;
 
         BikeRentalStationVertex dropoff = (BikeRentalStationVertex) tov;
-        if (options.isUseBikeRentalAvailabilityInformation() && dropoff.getBikesAvailable() == 0) {
+        BikeRentalAvailability availability = getAvailability(s0);
+        if (!dropoff.isInService(availability))
+            return null;
+        if (options.isUseBikeRentalAvailabilityInformation()
+                && dropoff.getBikesAvailable(availability) == 0) {
             return null;
         }
 
@@ -78,7 +84,11 @@ public abstract class RentABikeAbstractEdge extends Edge {
         if (!s0.isBikeRenting() || !s0.getBikeRentalNetwork().equals(network))
             return null;
         BikeRentalStationVertex pickup = (BikeRentalStationVertex) tov;
-        if (options.isUseBikeRentalAvailabilityInformation() && pickup.getSpacesAvailable() == 0) {
+        BikeRentalAvailability availability = getAvailability(s0);
+        if (!pickup.isInService(availability))
+            return null;
+        if (options.isUseBikeRentalAvailabilityInformation()
+                && pickup.getSpacesAvailable(availability) == 0) {
             return null;
         }
 
@@ -93,6 +103,12 @@ public abstract class RentABikeAbstractEdge extends Edge {
         return s1;
     }
 
+    /** @return the availability snapshot taken when the search started, if any */
+    private static BikeRentalAvailability getAvailability(State s0) {
+        RoutingContext rctx = s0.getOptions().rctx;
+        return rctx == null ? null : rctx.bikeRentalAvailability;
+    }
+
     @Override
     public double getDistance() {
         return 0;
@@ -13,6 +13,8 @@
 
 package org.opentripplanner.routing.edgetype;
 
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
@@ -66,6 +68,11 @@ public class StreetBikeRentalLink extends Edge {
         // turn restrictions.
         if (s0.getBackEdge() instanceof StreetBikeRentalLink)
             return null;
+        // stations linked after the search took its availability snapshot do not exist for it
+        RoutingContext rctx = s0.getOptions().rctx;
+        BikeRentalAvailability availability = rctx == null ? null : rctx.bikeRentalAvailability;
+        if (!bikeRentalStationVertex.isInService(availability))
+            return null;
 
         StateEditor s1 = s0.edit(this);
         //assume bike rental stations are more-or-less on-street
@@ -2,7 +2,7 @@ package org.opentripplanner.routing.edgetype;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -10,6 +10,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TransitFilter;
 import org.opentripplanner.routing.trippattern.CanceledTripTimes;
 import org.opentripplanner.routing.trippattern.DecayingDelayTripTimes;
 import org.opentripplanner.routing.trippattern.ScheduledTripTimes;
@@ -49,13 +50,19 @@ public class Timetable implements Serializable {
     private final ArrayList<TripTimes> tripTimes;
 
     /** 
-     * If the departures index is null, this timetable has not been indexed: use a linear search. 
-     * Unfortunately you really do need 2 indexes, because dwell times for different trips at
-     * the same stop may overlap. The indexes always contain the same elements as the main
-     * tripTimes List, but are re-sorted at each stop to allow binary searches.
+     * If the index is null, this timetable has not been indexed: use a linear search. The index 
+     * holds the departure and arrival times of every trip as primitive arrays re-sorted at each
+     * stop, allowing binary searches without touching the TripTimes objects.
      */
-    private transient TripTimes[][] arrivalsIndex = null;
-    private transient TripTimes[][] departuresIndex = null;
+    private transient TimetableIndex index = null;
+
+    /**
+     * Realtime updates are applied as a sparse overlay on the index: an updated copy of an indexed
+     * Timetable keeps using the index of the original, and this set holds the indexes of the trips 
+     * whose TripTimes have been replaced since. Those trips are skipped in the index and searched 
+     * linearly instead. Null when there is no overlay.
+     */
+    private transient BitSet overlay = null;
 
     /** For each hop, the best running time. This serves to provide lower bounds on traversal time. */
     private transient int bestRunningTimes[];
@@ -70,12 +77,15 @@ public class Timetable implements Serializable {
     }
     
     /** 
-     * Copy constructor: create an un-indexed Timetable with the same TripTimes as the 
-     * specified timetable. 
+     * Copy constructor: create a Timetable with the same TripTimes as the specified timetable, 
+     * sharing its index. 
      */
     private Timetable (Timetable tt) {
         tripTimes = new ArrayList<TripTimes>(tt.tripTimes);
         this.pattern = tt.pattern;
+        this.index = tt.index;
+        if (tt.overlay != null)
+            this.overlay = (BitSet) tt.overlay.clone();
     }
     
     /** 
@@ -87,47 +97,6 @@ public class Timetable implements Serializable {
         return new Timetable(this);
     }
     
-    /**
-     * Produces 2D index arrays that are stop-major and sorted, allowing binary search at any 
-     * given stop. It is of course inefficient to call this after updating only one or two 
-     * trips in a pattern since we can usually get by with swapping only the new trip into the 
-     * existing already-sorted lists. But let's see realistically how resource-intensive this 
-     * is before optimizing it.
-     */
-    private void index() {
-        int nHops = pattern.stops.length - 1;
-        arrivalsIndex = new TripTimes[nHops][];
-        departuresIndex = new TripTimes[nHops][];
-        boolean departuresFifo = true;
-        boolean arrivalsMatchDepartures = true;
-        for (int hop = 0; hop < nHops; hop++) {
-            // copy canonical TripTimes List into new arrays
-            arrivalsIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
-            departuresIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
-            // TODO: STOP VS HOP
-            Arrays.sort(arrivalsIndex[hop], new TripTimes.ArrivalsComparator(hop));
-            Arrays.sort(departuresIndex[hop], new TripTimes.DeparturesComparator(hop));
-            if (hop > 0) {
-                if (Arrays.equals(departuresIndex[hop], departuresIndex[hop - 1]))
-                    departuresIndex[hop] = departuresIndex[hop - 1];
-                else
-                    departuresFifo = false;
-            }
-            if (Arrays.equals(departuresIndex[hop], arrivalsIndex[hop]))
-                arrivalsIndex[hop] = departuresIndex[hop];
-            else
-                arrivalsMatchDepartures = false;
-        }
-        if (departuresFifo) {
-            //LOG.debug("Compressing FIFO Timetable index.");
-            departuresIndex = Arrays.copyOf(departuresIndex, 1);
-        }
-        if (arrivalsMatchDepartures) {
-            //LOG.debug("Reusing departures index where arrivals index is identical.");
-            arrivalsIndex = departuresIndex;
-        }
-    }
-    
     /** 
      * Get the next (previous) trip that departs (arrives) from the specified stop 
      * at or after (before) the specified time. The haveBicycle parameter must be passed in 
@@ -143,67 +112,101 @@ public class Timetable implements Serializable {
      */
     protected TripTimes getNextTrip(int stopIndex, int time, boolean haveBicycle,
             RoutingRequest options, boolean boarding) {
+        if (index != null)
+            return getNextTripIndexed(stopIndex, time, haveBicycle, options, boarding);
+        // no index present on this timetable. use a linear search:
+        // because trips may change with stoptime updates, we cannot count on them being sorted
         TripTimes bestTrip = null;
-        int idxLo = -1, idxHi = Integer.MAX_VALUE;
-        TripTimes[][] tableIndex = boarding ? departuresIndex : arrivalsIndex; 
-        // sorted = tripTimes; ARGH, Array versus List APIs
-        // for the purposes of adjacent trips, guess that unindexed tables are roughly FIFO
-        List<TripTimes> ordered = tripTimes;
-        if (tableIndex != null) {
-            TripTimes[] sorted;
-            // this timetable has been indexed, use binary search
-            if (tableIndex.length == 1) // for optimized FIFO patterns
-                sorted = tableIndex[0]; 
-            else
-                sorted = tableIndex[stopIndex];
-            // an alternative to conditional increment/decrement would be to sort the arrivals
-            // index in decreasing order, but that would require changing the search algorithm
+        int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        for (TripTimes tt : tripTimes) { 
+            // hoping JVM JIT will distribute the loop over the if clauses as needed
             if (boarding) {
-                idxLo = idxHi = TripTimes.binarySearchDepartures(sorted, stopIndex, time); 
-                for (; idxHi < sorted.length; idxHi++) {
-                    TripTimes tt = sorted[idxHi];
-                    if (tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
-                        break;
-                    }
+                int depTime = tt.getDepartureTime(stopIndex);
+                if (depTime >= time && depTime < bestTime && tt.tripAcceptable(options, haveBicycle)) {
+                    bestTrip = tt;
+                    bestTime = depTime;
                 }
             } else {
-                idxLo = idxHi = TripTimes.binarySearchArrivals(sorted, stopIndex, time); 
-                for (; idxLo >= 0; idxLo--) {
-                    TripTimes tt = sorted[idxLo];
-                    if (tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
-                        break;
-                    }
+                int arvTime = tt.getArrivalTime(stopIndex);
+                if (arvTime <= time && arvTime > bestTime && tt.tripAcceptable(options, haveBicycle)) {
+                    bestTrip = tt;
+                    bestTime = arvTime;
+                }
+            }
+        }
+        return bestTrip;
+    }
+
+    /** 
+     * Binary search in the primitive index, then check the trips in the realtime overlay if any.
+     * A TripTimes object is only fetched for the trip that is returned (or when trips are banned).
+     */
+    private TripTimes getNextTripIndexed(int stopIndex, int time, boolean haveBicycle,
+            RoutingRequest options, boolean boarding) {
+        int bestTrip = -1;
+        int bestTime;
+        if (boarding) {
+            bestTime = Integer.MAX_VALUE;
+            int[] times = index.departures[stopIndex];
+            int[] trips = index.departureTrips[stopIndex];
+            for (int p = index.firstDeparture(stopIndex, time); p < times.length; p++) {
+                int trip = trips[p];
+                if (overlay != null && overlay.get(trip))
+                    continue;
+                if (indexedTripAcceptable(trip, options, haveBicycle)) {
+                    bestTrip = trip;
+                    bestTime = times[p];
+                    break;
+                }
+            }
+        } else {
+            bestTime = Integer.MIN_VALUE;
+            int[] times = index.arrivals[stopIndex];
+            int[] trips = index.arrivalTrips[stopIndex];
+            // negative times are passed or canceled trips, which sort first
+            for (int p = index.lastArrival(stopIndex, time); p >= 0 && times[p] >= 0; p--) {
+                int trip = trips[p];
+                if (overlay != null && overlay.get(trip))
+                    continue;
+                if (indexedTripAcceptable(trip, options, haveBicycle)) {
+                    bestTrip = trip;
+                    bestTime = times[p];
+                    break;
                 }
             }
-            ordered = Arrays.asList(sorted); // find adjacent entries in the sorted list
-        } else { 
-            // no index present on this timetable. use a linear search:
-            // because trips may change with stoptime updates, we cannot count on them being sorted
-            int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-            int idx = 0;
-            for (TripTimes tt : tripTimes) { 
-                // hoping JVM JIT will distribute the loop over the if clauses as needed
+        }
+        if (overlay != null) {
+            for (int trip = overlay.nextSetBit(0); trip >= 0; trip = overlay.nextSetBit(trip + 1)) {
+                TripTimes tt = tripTimes.get(trip);
                 if (boarding) {
                     int depTime = tt.getDepartureTime(stopIndex);
                     if (depTime >= time && depTime < bestTime && tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
+                        bestTrip = trip;
                         bestTime = depTime;
-                        idxLo = idxHi = idx;
                     }
                 } else {
                     int arvTime = tt.getArrivalTime(stopIndex);
-                    if (arvTime <= time && arvTime > bestTime && tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
+                    if (arvTime >= 0 && arvTime <= time && arvTime > bestTime 
+                            && tt.tripAcceptable(options, haveBicycle)) {
+                        bestTrip = trip;
                         bestTime = arvTime;
-                        idxLo = idxHi = idx;
                     }
                 }
-                ++idx;
             }
         }
-        return bestTrip;
+        return bestTrip < 0 ? null : tripTimes.get(bestTrip);
+    }
+
+    /** Equivalent to TripTimes.tripAcceptable, but using the bitsets in the index. */
+    private boolean indexedTripAcceptable(int trip, RoutingRequest options, boolean bicycle) {
+        if (options.wheelchairAccessible && ! index.wheelchairAccessible.get(trip))
+            return false;
+        if (bicycle && ! index.bikesAllowed.get(trip))
+            return false;
+        TransitFilter filter = options.getTransitFilter();
+        if (filter.hasBannedTrips() && filter.tripBanned(tripTimes.get(trip)))
+            return false;
+        return true;
     }
     
     /** Gets the departure time for a given hop on a given trip */
@@ -260,12 +263,17 @@ public class Timetable implements Serializable {
                 }
             }
         }
+        if (index != null && index.nTrips == nTrips 
+                && (overlay == null || overlay.cardinality() <= INDEX_THRESHOLD)) {
+            // few trips were updated since the index was built: keep the index and the overlay
+            return;
+        }
+        overlay = null;
         if (nTrips > INDEX_THRESHOLD) {
             //LOG.debug("indexing pattern with {} trips", nTrips);
-            index(); 
+            index = new TimetableIndex(tripTimes, nHops); 
         } else {
-            arrivalsIndex = null;
-            departuresIndex = null;
+            index = null;
         }
     }
     
@@ -314,6 +322,11 @@ public class Timetable implements Serializable {
         return -1;
     }
     
+    /** @return the number of trips in this Timetable, including any unscheduled ones */
+    public int getNumTrips() {
+        return tripTimes.size();
+    }
+
     /** 
      * Not private because it's used when traversing interline dwells, which refer to order
      * in the scheduled trip pattern. 
@@ -376,6 +389,12 @@ public class Timetable implements Serializable {
             }
             // Update succeeded, save the new TripTimes back into this Timetable.
             this.tripTimes.set(tripIndex, newTimes);
+            if (index != null) {
+                // the indexed times for this trip are now stale
+                if (overlay == null)
+                    overlay = new BitSet();
+                overlay.set(tripIndex);
+            }
             return true;
         } catch (Exception e) { // prevent server from dying while debugging
             e.printStackTrace();
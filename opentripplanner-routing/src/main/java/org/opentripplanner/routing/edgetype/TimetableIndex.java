@@ -0,0 +1,132 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+/**
+ * A columnar, stop-major copy of the times in a Timetable, allowing trip searches to be performed
+ * on primitive arrays without touching (or dispatching through) the TripTimes objects. Trips are 
+ * identified by their index in the Timetable's list of TripTimes.
+ * 
+ * An index is immutable once built, so it can be shared between a Timetable and the updated
+ * copies made of it (see the overlay in {@link Timetable}).
+ */
+class TimetableIndex {
+
+    /** The number of trips in the Timetable when this index was built. */
+    final int nTrips;
+
+    /** For each hop, the departure times of all trips, in increasing order. */
+    final int[][] departures;
+
+    /** For each hop, the index of the trip providing the departure at the same position. */
+    final int[][] departureTrips;
+
+    /** For each hop, the arrival times of all trips, in increasing order. */
+    final int[][] arrivals;
+
+    /** For each hop, the index of the trip providing the arrival at the same position. */
+    final int[][] arrivalTrips;
+
+    /** Trips explicitly marked as wheelchair accessible. */
+    final BitSet wheelchairAccessible;
+
+    /** Trips on which bicycles may be carried. */
+    final BitSet bikesAllowed;
+
+    TimetableIndex(List<TripTimes> tripTimes, int nHops) {
+        nTrips = tripTimes.size();
+        departures = new int[nHops][];
+        departureTrips = new int[nHops][];
+        arrivals = new int[nHops][];
+        arrivalTrips = new int[nHops][];
+        wheelchairAccessible = new BitSet(nTrips);
+        bikesAllowed = new BitSet(nTrips);
+        for (int t = 0; t < nTrips; ++t) {
+            Trip trip = tripTimes.get(t).getTrip();
+            if (TripTimes.wheelchairAccessible(trip))
+                wheelchairAccessible.set(t);
+            if (TripTimes.bikesAllowed(trip))
+                bikesAllowed.set(t);
+        }
+        // sort (time, trip) pairs packed into longs, which is cheap and keeps ties in trip order
+        long[] keys = new long[nTrips];
+        for (int hop = 0; hop < nHops; ++hop) {
+            for (int t = 0; t < nTrips; ++t)
+                keys[t] = pack(tripTimes.get(t).getDepartureTime(hop), t);
+            Arrays.sort(keys);
+            departures[hop] = new int[nTrips];
+            departureTrips[hop] = unpack(keys, departures[hop]);
+            for (int t = 0; t < nTrips; ++t)
+                keys[t] = pack(tripTimes.get(t).getArrivalTime(hop), t);
+            Arrays.sort(keys);
+            arrivals[hop] = new int[nTrips];
+            arrivalTrips[hop] = unpack(keys, arrivals[hop]);
+            // patterns are usually FIFO, in which case all hops can share the same trip order
+            if (hop > 0 && Arrays.equals(departureTrips[hop], departureTrips[hop - 1]))
+                departureTrips[hop] = departureTrips[hop - 1];
+            if (Arrays.equals(arrivalTrips[hop], departureTrips[hop]))
+                arrivalTrips[hop] = departureTrips[hop];
+        }
+    }
+
+    private static long pack(int time, int trip) {
+        return ((long) time << 32) | trip;
+    }
+
+    /** Fills in the times from the packed keys and returns the trip order. */
+    private static int[] unpack(long[] keys, int[] times) {
+        int[] trips = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            times[i] = (int) (keys[i] >> 32);
+            trips[i] = (int) keys[i];
+        }
+        return trips;
+    }
+
+    /** @return the position of the first departure at or after the given time on this hop. */
+    int firstDeparture(int hop, int time) {
+        int[] times = departures[hop];
+        int lo = 0, hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the position of the last arrival at or before the given time on this hop, or -1. */
+    int lastArrival(int hop, int time) {
+        int[] times = arrivals[hop];
+        int lo = 0, hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo - 1;
+    }
+
+}
@@ -46,6 +46,11 @@ public class TimetableResolver {
         }
     }
     
+    /** @return whether this snapshot holds an updated timetable for the specified pattern */
+    public boolean isUpdated(TableTripPattern pattern) {
+        return timetables.containsKey(pattern);
+    }
+
     /**
      * @return whether or not the update was actually applied
      */
@@ -13,14 +13,12 @@
 
 package org.opentripplanner.routing.edgetype;
 
-import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.Trip;
-import org.opentripplanner.gtfs.GtfsLibrary;
-import org.opentripplanner.routing.core.RouteSpec;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.TransitFilter;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -260,36 +258,12 @@ public class TransitBoardAlight extends PatternEdge implements OnBoardForwardEdg
             }
             Trip trip = bestTripTimes.getTrip();
 
-            /* check if route banned for this plan */
-            if (options.bannedRoutes != null) {
-                Route route = trip.getRoute();
-                RouteSpec spec = new RouteSpec(route.getId().getAgencyId(),
-                        GtfsLibrary.getRouteName(route));
-                if (options.bannedRoutes.contains(spec)) {
-                    return null;
-                }
-            }
-
-            /* check if route is preferred for this plan */
-            long preferences_penalty = 0;
-            if (options.preferredRoutes != null && options.preferredRoutes.size() > 0) {
-                Route route = trip.getRoute();
-                RouteSpec spec = new RouteSpec(route.getId().getAgencyId(),
-                        GtfsLibrary.getRouteName(route));
-                if (!options.preferredRoutes.contains(spec)) {
-                    preferences_penalty += options.useAnotherThanPreferredRoutesPenalty;
-                }
-            }
-
-            /* check if route is unpreferred for this plan */
-            if (options.unpreferredRoutes != null && options.unpreferredRoutes.size() > 0) {
-                Route route = trip.getRoute();
-                RouteSpec spec = new RouteSpec(route.getId().getAgencyId(),
-                        GtfsLibrary.getRouteName(route));
-                if (options.unpreferredRoutes.contains(spec)) {
-                    preferences_penalty += options.useUnpreferredRoutesPenalty;
-                }
+            /* check if route banned for this plan, and whether it is (un)preferred */
+            TransitFilter filter = options.getTransitFilter();
+            if (filter.routeBanned(bestTripTimes)) {
+                return null;
             }
+            long preferences_penalty = filter.routePenalty(bestTripTimes);
 
             StateEditor s1 = state0.edit(this);
             s1.setBackMode(getMode());
@@ -20,7 +20,9 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -29,6 +31,7 @@ import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.patch.Alert;
 import org.opentripplanner.routing.patch.Patch;
 
 import com.vividsolutions.jts.geom.LineString;
@@ -179,6 +182,31 @@ public abstract class Edge implements Serializable {
         return patches;
     }
 
+    /**
+     * The alerts to show to a user whose path reached state s over this edge: those of the patches
+     * displayed or active at that time.
+     * 
+     * @return null if there are none
+     */
+    public Set<Alert> getAlerts(State s) {
+        if (patches == null)
+            return null;
+        Set<Alert> alerts = null;
+        RoutingRequest options = s.getOptions();
+        for (Patch patch : patches) {
+            Alert alert = patch.getAlert();
+            if (alert == null)
+                continue;
+            if (patch.displayDuring(options, s.getStartTime(), s.getTime())
+                    || patch.activeDuring(options, s.getStartTime(), s.getTime())) {
+                if (alerts == null)
+                    alerts = new HashSet<Alert>();
+                alerts.add(alert);
+            }
+        }
+        return alerts;
+    }
+
     public void removePatch(Patch patch) {
         if (patches == null || patches.size() == 1) {
             patches = null;
@@ -38,6 +38,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.onebusaway.gtfs.impl.calendar.CalendarServiceImpl;
 import org.onebusaway.gtfs.model.Agency;
@@ -50,10 +55,15 @@ import org.opentripplanner.gbannotation.GraphBuilderAnnotation;
 import org.opentripplanner.gbannotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
+import org.opentripplanner.routing.core.RouteTripIndex;
+import org.opentripplanner.routing.core.ServiceDayCache;
 import org.opentripplanner.routing.core.TransferTable;
+import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.TimetableSnapshotSource;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.opentripplanner.routing.services.StreetVertexIndexService;
+import org.opentripplanner.routing.services.TransitIndexService;
+import org.opentripplanner.routing.transit_index.DepartureIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,6 +83,15 @@ public class Graph implements Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Graph.class);
 
+    /** The number of edges in each chunk of a serialized graph */
+    private static final int EDGES_PER_CHUNK = 100000;
+
+    /** 
+     * Written at the start of a graph file, and changed whenever the layout of the stream written 
+     * by save changes, so that files in another layout are rejected with a clear message.
+     */
+    private static final String FILE_FORMAT = "OTP graph, chunked edges, format 1";
+
     // transit feed validity information in seconds since epoch
     private long transitServiceStarts = Long.MAX_VALUE;
 
@@ -87,7 +106,10 @@ public class Graph implements Serializable {
     /* vertex index by name is reconstructed from edges */
     private transient Map<String, Vertex> vertices;
     
-    private transient CalendarService calendarService;
+    private transient volatile CalendarService calendarService;
+
+    /** The number of edges in each chunk written by save, or 0 for EDGES_PER_CHUNK */
+    private transient int edgesPerChunk;
     
     private boolean debugData = true;
     
@@ -98,6 +120,12 @@ public class Graph implements Serializable {
     private transient Map<Edge, Integer> idForEdge;
     
     public transient StreetVertexIndexService streetIndex;
+
+    private transient volatile RouteTripIndex routeTripIndex;
+
+    private transient volatile ServiceDayCache serviceDayCache;
+
+    private transient volatile DepartureIndex departureIndex;
     
     public transient TimetableSnapshotSource timetableSnapshotSource = null;
     
@@ -207,6 +235,48 @@ public class Graph implements Serializable {
         return transferTable;
     }
 
+    /** 
+     * @return dense indexes of the routes and trips in this graph, built when the graph is loaded
+     * or on first use for graphs built in memory.
+     */
+    public RouteTripIndex getRouteTripIndex() {
+        RouteTripIndex index = routeTripIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = routeTripIndex;
+                if (index == null)
+                    routeTripIndex = index = new RouteTripIndex(this);
+            }
+        }
+        return index;
+    }
+
+    /** @return the departures from each stop, built on first use */
+    public DepartureIndex getDepartureIndex() {
+        DepartureIndex index = departureIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = departureIndex;
+                if (index == null)
+                    departureIndex = index = new DepartureIndex(this);
+            }
+        }
+        return index;
+    }
+
+    /** @return the ServiceDays of this graph's agencies, shared between requests */
+    public ServiceDayCache getServiceDayCache() {
+        ServiceDayCache cache = serviceDayCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = serviceDayCache;
+                if (cache == null)
+                    serviceDayCache = cache = new ServiceDayCache(this);
+            }
+        }
+        return cache;
+    }
+
     // Infer the time period covered by the transit feed
     public void updateTransitFeedValidity(CalendarServiceData data) {
         long now = new Date().getTime() / 1000;
@@ -235,6 +305,14 @@ public class Graph implements Serializable {
         }
     }
 
+    public long getTransitServiceStarts() {
+        return transitServiceStarts;
+    }
+
+    public long getTransitServiceEnds() {
+        return transitServiceEnds;
+    }
+
     // Check to see if we have transit information for a given date
     public boolean transitFeedCovers(long t) {
         return t >= this.transitServiceStarts && t < this.transitServiceEnds;
@@ -295,6 +373,8 @@ public class Graph implements Serializable {
             }
             ++i;
         }
+        // the transfer table is indexed on vertex indices
+        transferTable.invalidateIndex();
     }
 
     private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException,
@@ -351,10 +431,38 @@ public class Graph implements Serializable {
     	return load(new ObjectInputStream(is), level);
     }
 
+    /** @see #load(ObjectInputStream, LoadLevel, boolean) */
+    public static Graph load(InputStream is, LoadLevel level, boolean deferTransitIndexes)
+            throws ClassNotFoundException, IOException {
+        return load(new ObjectInputStream(is), level, deferTransitIndexes);
+    }
+
+    public static Graph load(ObjectInputStream in, LoadLevel level)
+            throws IOException, ClassNotFoundException {
+        return load(in, level, false);
+    }
+
+    /**
+     * Read a graph written by {@link #save(ObjectOutputStream)}. The chunks of edges are 
+     * deserialized one after the other from the same stream, since they share vertices, and the 
+     * vertices of each chunk are added to the vertex map on another thread while the next chunk is
+     * read. The street index and the transit indexes are then built concurrently.
+     * 
+     * @param deferTransitIndexes if true, return as soon as the street index is built and finish
+     *        the transit indexes in the background. Street searches can start right away, while
+     *        transit searches wait for the indexes they need on first use.
+     */
     @SuppressWarnings("unchecked")
-	public static Graph load(ObjectInputStream in, LoadLevel level) 
+	public static Graph load(ObjectInputStream in, LoadLevel level, boolean deferTransitIndexes) 
         throws IOException, ClassNotFoundException {
         try {
+            Object format = in.readObject();
+            if (!FILE_FORMAT.equals(format)) {
+                LOG.error("Stored graph is not in the format of this version of OTP ({}), " 
+                        + "please rebuild it.", FILE_FORMAT);
+                throw new IllegalStateException("Stored graph format error, please rebuild the " 
+                        + "graph");
+            }
             Graph graph = (Graph) in.readObject();
             LOG.debug("Basic graph info read.");
             if (graph.graphVersionMismatch())
@@ -364,18 +472,38 @@ public class Graph implements Serializable {
             // vertex edge lists are transient to avoid excessive recursion depth
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
-            List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();;
-            for (Edge e : edges) {
-               graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-               graph.vertices.put(e.getToVertex().getLabel(),   e.getToVertex());
+            graph.vertices = new ConcurrentHashMap<String, Vertex>();
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = Executors.newFixedThreadPool(nThreads,
+                    new LoaderThreadFactory());
+            try {
+                List<Future<?>> tasks = new ArrayList<Future<?>>();
+                int nChunks = in.readInt();
+                for (int i = 0; i < nChunks; i++) {
+                    // index the vertices of this chunk while the next one is deserialized
+                    tasks.add(executor.submit(new AddVertices(graph,
+                            (ArrayList<Edge>) in.readObject())));
+                }
+                waitFor(tasks);
+                LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(),
+                        graph.countEdges());
+                final Graph loaded = graph;
+                Future<?> streetIndex = executor.submit(new IndexTask("street index") {
+                    @Override
+                    void build() {
+                        loaded.streetIndex = new StreetVertexIndexServiceImpl(loaded);
+                    }
+                });
+                List<Future<?>> transitTasks = submitTransitIndexes(executor, graph);
+                waitFor(Collections.<Future<?>> singletonList(streetIndex));
+                if (deferTransitIndexes)
+                    LOG.info("Transit indexes are being built in the background.");
+                else
+                    waitFor(transitTasks);
+            } finally {
+                // lets the deferred tasks finish, then the threads exit
+                executor.shutdown();
             }
-            // trim edge lists to length
-            for (Vertex v : graph.getVertices())
-                v.compact();
-            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
-            graph.streetIndex = new StreetVertexIndexServiceImpl(graph);
-            LOG.debug("street index built.");
             if (level == LoadLevel.FULL)
                 return graph;
             if (graph.debugData) {
@@ -442,22 +570,48 @@ public class Graph implements Serializable {
         }
     }
 
+    /** Set the number of edges in each chunk written by save, so tests can write several. */
+    void setEdgesPerChunk(int edgesPerChunk) {
+        this.edgesPerChunk = edgesPerChunk;
+    }
+
+    /**
+     * Write the FILE_FORMAT, this graph, then its edges in chunks of EDGES_PER_CHUNK: street edges 
+     * first, then the others, which bring in the transit patterns they refer to. All chunks are 
+     * written to the same stream so that the vertices and patterns shared between chunks are 
+     * written only once.
+     */
     public void save(ObjectOutputStream out) throws IOException {
         LOG.debug("Consolidating edges...");
         // this is not space efficient
         List<Edge> edges = new ArrayList<Edge>(this.countEdges());
+        List<Edge> otherEdges = new ArrayList<Edge>();
         for (Vertex v : getVertices()) {
             // there are assumed to be no edges in an incoming list that are not
             // in an outgoing list
-            edges.addAll(v.getOutgoing());
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof StreetEdge)
+                    edges.add(e);
+                else
+                    otherEdges.add(e);
+            }
             if (v.getDegreeOut() + v.getDegreeIn() == 0)
                 LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
         }
+        edges.addAll(otherEdges);
         LOG.debug("Assigning vertex/edge ID numbers...");
         this.renumberVerticesAndEdges();
         LOG.debug("Writing edges...");
+        out.writeObject(FILE_FORMAT);
         out.writeObject(this);
-        out.writeObject(edges);
+        int chunkSize = edgesPerChunk > 0 ? edgesPerChunk : EDGES_PER_CHUNK;
+        int nChunks = (edges.size() + chunkSize - 1) / chunkSize;
+        out.writeInt(nChunks);
+        for (int i = 0; i < edges.size(); i += chunkSize) {
+            // sublists are not serializable
+            out.writeObject(new ArrayList<Edge>(edges.subList(i,
+                    Math.min(i + chunkSize, edges.size()))));
+        }
         if (debugData) {
             // should we make debug info generation conditional? 
             LOG.debug("Writing debug data...");
@@ -471,6 +625,113 @@ public class Graph implements Serializable {
         LOG.info("Graph written.");
     }
     
+    private static List<Future<?>> submitTransitIndexes(ExecutorService executor,
+            final Graph graph) {
+        // created here, so that the service day task does not wait for the lock held by the route
+        // trip index
+        graph.getCalendarService();
+        List<Future<?>> tasks = new ArrayList<Future<?>>();
+        tasks.add(executor.submit(new IndexTask("route and trip index") {
+            @Override
+            void build() {
+                graph.getRouteTripIndex();
+            }
+        }));
+        final TransitIndexService transitIndex = graph.getService(TransitIndexService.class);
+        if (transitIndex != null) {
+            tasks.add(executor.submit(new IndexTask("stop index") {
+                @Override
+                void build() {
+                    transitIndex.getStopIndex();
+                }
+            }));
+        }
+        // created here, so that the task does not wait for the lock held by the route trip index
+        final ServiceDayCache serviceDayCache = graph.getServiceDayCache();
+        tasks.add(executor.submit(new IndexTask("service day cache") {
+            @Override
+            void build() {
+                serviceDayCache.precompute();
+            }
+        }));
+        return tasks;
+    }
+
+    /** Wait for all the tasks, rethrowing the first failure. */
+    private static void waitFor(List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks)
+                task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading graph");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** Adds the end vertices of a chunk of deserialized edges to the vertex map. */
+    private static class AddVertices implements Runnable {
+
+        private final Graph graph;
+
+        private final List<Edge> edges;
+
+        AddVertices(Graph graph, List<Edge> edges) {
+            this.graph = graph;
+            this.edges = edges;
+        }
+
+        @Override
+        public void run() {
+            for (Edge e : edges) {
+                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+            }
+        }
+    }
+
+    /** Logs failures, which nobody else sees when the transit indexes are deferred. */
+    private static abstract class IndexTask implements Runnable {
+
+        private final String name;
+
+        IndexTask(String name) {
+            this.name = name;
+        }
+
+        abstract void build();
+
+        @Override
+        public void run() {
+            try {
+                build();
+                LOG.debug("{} built.", name);
+            } catch (RuntimeException e) {
+                LOG.error("could not build " + name, e);
+                throw e;
+            }
+        }
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+
+        private int n = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "graph-loader-" + n++);
+            // do not keep the JVM alive for the deferred transit indexes
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     /* deserialization for org.opentripplanner.customize */
     private static class GraphObjectInputStream extends ObjectInputStream {
         ClassLoader classLoader;
@@ -493,15 +754,21 @@ public class Graph implements Serializable {
     }
 
     public CalendarService getCalendarService() {
-        if (calendarService == null) {
-            CalendarServiceData data = this.getService(CalendarServiceData.class);
-            if (data != null) {
-              CalendarServiceImpl calendarService = new CalendarServiceImpl();
-              calendarService.setData(data);
-              this.calendarService = calendarService;
+        CalendarService service = calendarService;
+        if (service == null) {
+            synchronized (this) {
+                service = calendarService;
+                if (service == null) {
+                    CalendarServiceData data = this.getService(CalendarServiceData.class);
+                    if (data != null) {
+                        CalendarServiceImpl impl = new CalendarServiceImpl();
+                        impl.setData(data);
+                        calendarService = service = impl;
+                    }
+                }
             }
         }
-        return this.calendarService;
+        return service;
     }
     
     public Edge getEdgeById(int id) {
@@ -0,0 +1,494 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.opentripplanner.common.model.P2;
+import org.opentripplanner.routing.core.Fare;
+import org.opentripplanner.routing.core.FareRuleSet;
+import org.opentripplanner.routing.services.BatchFareService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the same fares as {@link DefaultFareServiceImpl}, but on fare rules compiled into
+ * lookup tables rather than by scanning every fare attribute and building sets of zones and
+ * routes for each ride sequence.
+ *
+ * Zones and routes are numbered densely, so that the zones and routes visited by a ride sequence
+ * are BitSets which grow as rides are appended to the sequence. Within each feed the fares are
+ * sorted by price and indexed by route, so that the first fare whose rules and time limits accept
+ * a sequence is the cheapest one. The fares matching a given combination of zones and routes are
+ * memoized across calls, which pays off when pricing the itineraries of a plan, since they
+ * usually share rides.
+ */
+public class CompiledFareServiceImpl extends DefaultFareServiceImpl implements BatchFareService {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledFareServiceImpl.class);
+
+    /** The memo of rule matches is cleared when it grows past this many entries. */
+    private static final int MAX_MEMO_SIZE = 10000;
+
+    /** Zone id used for missing zones in origin-destination rules. */
+    private static final int NULL_ZONE = 0;
+
+    /** Index of zones or routes which do not appear in any fare rule. */
+    private static final int UNKNOWN = -1;
+
+    private transient volatile CompiledRules compiledRules;
+
+    public CompiledFareServiceImpl(HashMap<AgencyAndId, FareRuleSet> fareRules,
+            HashMap<AgencyAndId, FareAttribute> fareAttributes) {
+        super(fareRules, fareAttributes);
+    }
+
+    @Override
+    public List<Fare> getCosts(List<GraphPath> paths) {
+        List<Fare> fares = new ArrayList<Fare>(paths.size());
+        for (GraphPath path : paths) {
+            fares.add(getCost(path));
+        }
+        return fares;
+    }
+
+    /**
+     * Finds the cheapest way to cover the rides with consecutive ride sequences. This is the same
+     * recurrence as the superclass, but over prefixes of the rides, so that each sequence is
+     * priced once and its zones and routes are extended one ride at a time.
+     */
+    @Override
+    public float getLowestCost(List<Ride> rides) {
+        int n = rides.size();
+        Ride[] array = rides.toArray(new Ride[n]);
+        CompiledRules rules = getCompiledRules();
+        // best[i] is the lowest cost of the first i rides
+        float[] best = new float[n + 1];
+        Arrays.fill(best, 1, n + 1, Float.POSITIVE_INFINITY);
+        for (int start = 0; start < n; start++) {
+            if (best[start] == Float.POSITIVE_INFINITY)
+                continue;
+            Sequence sequence = new Sequence(rules, array[start]);
+            for (int end = start; end < n; end++) {
+                if (end > start && !sequence.extend(array[end])) {
+                    // no fare covers rides from several feeds, nor any longer sequence
+                    break;
+                }
+                float cost = rules.lowestCost(sequence);
+                if (cost < 0) {
+                    LOG.error("negative cost for a ride sequence");
+                    cost = Float.POSITIVE_INFINITY;
+                }
+                float total = best[start] + cost;
+                if (total < best[end + 1])
+                    best[end + 1] = total;
+            }
+        }
+        return best[n];
+    }
+
+    @Override
+    protected float calculateCost(List<Ride> rides) {
+        CompiledRules rules = getCompiledRules();
+        Sequence sequence = null;
+        for (Ride ride : rides) {
+            if (sequence == null) {
+                sequence = new Sequence(rules, ride);
+            } else if (!sequence.extend(ride)) {
+                LOG.debug("skipped multi-feed ride sequence {}", rides);
+                return Float.POSITIVE_INFINITY;
+            }
+        }
+        return rules.lowestCost(sequence);
+    }
+
+    private CompiledRules getCompiledRules() {
+        CompiledRules rules = compiledRules;
+        if (rules == null) {
+            synchronized (this) {
+                rules = compiledRules;
+                if (rules == null) {
+                    rules = new CompiledRules(fareRules, fareAttributes);
+                    compiledRules = rules;
+                }
+            }
+        }
+        return rules;
+    }
+
+    private static long zonePair(int origin, int destination) {
+        return ((long) origin << 32) | (destination & 0xffffffffL);
+    }
+
+    /** The fare rules of one fare attribute, over dense zone and route indexes. */
+    private static class CompiledFare {
+
+        final FareAttribute attribute;
+
+        final float price;
+
+        /** Sorted origin-destination zone pairs, or null if the fare has no such rule. */
+        long[] zonePairs;
+
+        /** The exact set of zones visited, or null if the fare has no contains rule. */
+        BitSet contains;
+
+        /** The routes on which the fare is valid, or null if the fare has no route rule. */
+        BitSet routes;
+
+        CompiledFare(FareAttribute attribute) {
+            this.attribute = attribute;
+            this.price = attribute.getPrice();
+        }
+
+        boolean matches(Sequence sequence) {
+            if (zonePairs != null) {
+                int start = sequence.startZone;
+                if (Arrays.binarySearch(zonePairs, zonePair(start, sequence.endZone)) < 0
+                        && Arrays.binarySearch(zonePairs, zonePair(start, NULL_ZONE)) < 0
+                        && Arrays.binarySearch(zonePairs, zonePair(NULL_ZONE, start)) < 0)
+                    return false;
+            }
+            if (contains != null) {
+                if (sequence.unknownZone || !contains.equals(sequence.zones))
+                    return false;
+            }
+            if (routes != null) {
+                if (sequence.unknownRoute)
+                    return false;
+                BitSet visited = sequence.routes;
+                for (int r = visited.nextSetBit(0); r >= 0; r = visited.nextSetBit(r + 1)) {
+                    if (!routes.get(r))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        /** Transfers are evaluated at boarding time, as in the superclass. */
+        boolean accepts(Sequence sequence) {
+            if (attribute.isTransfersSet() && attribute.getTransfers() < sequence.transfersUsed)
+                return false;
+            if (attribute.isTransferDurationSet()
+                    && sequence.lastRideStartTime - sequence.startTime > attribute
+                            .getTransferDuration())
+                return false;
+            if (attribute.isJourneyDurationSet()
+                    && sequence.lastRideEndTime - sequence.startTime > attribute
+                            .getJourneyDuration())
+                return false;
+            return true;
+        }
+    }
+
+    /** The fares of one feed, cheapest first. */
+    private static class FeedFares {
+
+        /** Fares without route rules. */
+        CompiledFare[] unrestricted;
+
+        /** For each route index, the fares valid on that route, including the unrestricted ones. */
+        Map<Integer, CompiledFare[]> byRoute = new HashMap<Integer, CompiledFare[]>();
+
+        CompiledFare[] candidates(int firstRoute) {
+            CompiledFare[] fares = byRoute.get(firstRoute);
+            return fares != null ? fares : unrestricted;
+        }
+    }
+
+    private static class CompiledRules {
+
+        private final Map<String, Integer> zoneIndex = new HashMap<String, Integer>();
+
+        private final Map<AgencyAndId, Integer> routeIndex = new HashMap<AgencyAndId, Integer>();
+
+        private final Map<String, FeedFares> feeds = new HashMap<String, FeedFares>();
+
+        private final Map<MatchKey, CompiledFare[]> memo =
+                new ConcurrentHashMap<MatchKey, CompiledFare[]>();
+
+        CompiledRules(Map<AgencyAndId, FareRuleSet> fareRules,
+                Map<AgencyAndId, FareAttribute> fareAttributes) {
+            zoneIndex.put(null, NULL_ZONE);
+            Map<String, List<CompiledFare>> faresForFeed = new HashMap<String, List<CompiledFare>>();
+            // iterate in the same order as the superclass, so that ties resolve identically
+            for (Map.Entry<AgencyAndId, FareAttribute> entry : fareAttributes.entrySet()) {
+                // fares don't really have an agency id, they have the per-feed default id
+                String feedId = entry.getKey().getAgencyId();
+                List<CompiledFare> fares = faresForFeed.get(feedId);
+                if (fares == null) {
+                    fares = new ArrayList<CompiledFare>();
+                    faresForFeed.put(feedId, fares);
+                }
+                fares.add(compile(entry.getValue(), fareRules.get(entry.getKey())));
+            }
+            for (Map.Entry<String, List<CompiledFare>> entry : faresForFeed.entrySet()) {
+                feeds.put(entry.getKey(), index(entry.getValue()));
+            }
+        }
+
+        private CompiledFare compile(FareAttribute attribute, FareRuleSet ruleSet) {
+            CompiledFare fare = new CompiledFare(attribute);
+            if (ruleSet == null)
+                return fare;
+            if (!ruleSet.getOriginDestinations().isEmpty()) {
+                long[] pairs = new long[ruleSet.getOriginDestinations().size()];
+                int i = 0;
+                for (P2<String> od : ruleSet.getOriginDestinations()) {
+                    pairs[i++] = zonePair(addZone(od.getFirst()), addZone(od.getSecond()));
+                }
+                Arrays.sort(pairs);
+                fare.zonePairs = pairs;
+            }
+            if (!ruleSet.getContains().isEmpty()) {
+                fare.contains = new BitSet();
+                for (String zone : ruleSet.getContains()) {
+                    fare.contains.set(addZone(zone));
+                }
+            }
+            if (!ruleSet.getRoutes().isEmpty()) {
+                fare.routes = new BitSet();
+                for (AgencyAndId route : ruleSet.getRoutes()) {
+                    Integer index = routeIndex.get(route);
+                    if (index == null) {
+                        index = routeIndex.size();
+                        routeIndex.put(route, index);
+                    }
+                    fare.routes.set(index);
+                }
+            }
+            return fare;
+        }
+
+        private int addZone(String zone) {
+            Integer index = zoneIndex.get(zone);
+            if (index == null) {
+                index = zoneIndex.size();
+                zoneIndex.put(zone, index);
+            }
+            return index;
+        }
+
+        private FeedFares index(List<CompiledFare> fares) {
+            // a stable sort, so that fares of equal price keep their relative order
+            Collections.sort(fares, new Comparator<CompiledFare>() {
+                @Override
+                public int compare(CompiledFare a, CompiledFare b) {
+                    return Float.compare(a.price, b.price);
+                }
+            });
+            BitSet feedRoutes = new BitSet();
+            List<CompiledFare> unrestricted = new ArrayList<CompiledFare>();
+            for (CompiledFare fare : fares) {
+                if (fare.routes == null)
+                    unrestricted.add(fare);
+                else
+                    feedRoutes.or(fare.routes);
+            }
+            FeedFares feed = new FeedFares();
+            feed.unrestricted = unrestricted.toArray(new CompiledFare[unrestricted.size()]);
+            for (int r = feedRoutes.nextSetBit(0); r >= 0; r = feedRoutes.nextSetBit(r + 1)) {
+                List<CompiledFare> candidates = new ArrayList<CompiledFare>();
+                for (CompiledFare fare : fares) {
+                    if (fare.routes == null || fare.routes.get(r))
+                        candidates.add(fare);
+                }
+                feed.byRoute.put(r, candidates.toArray(new CompiledFare[candidates.size()]));
+            }
+            return feed;
+        }
+
+        int zoneIndex(String zone) {
+            Integer index = zoneIndex.get(zone);
+            return index == null ? UNKNOWN : index;
+        }
+
+        int routeIndex(AgencyAndId route) {
+            Integer index = routeIndex.get(route);
+            return index == null ? UNKNOWN : index;
+        }
+
+        float lowestCost(Sequence sequence) {
+            for (CompiledFare fare : matchingFares(sequence)) {
+                if (fare.accepts(sequence)) {
+                    LOG.debug("{} best for {}", fare.attribute, sequence);
+                    return fare.price;
+                }
+            }
+            LOG.warn("No fare for a ride sequence: {}", sequence);
+            return Float.POSITIVE_INFINITY;
+        }
+
+        /** @return the fares whose rules match the zones and routes of the sequence, cheapest first */
+        private CompiledFare[] matchingFares(Sequence sequence) {
+            FeedFares feed = feeds.get(sequence.feedId);
+            if (feed == null)
+                return new CompiledFare[0];
+            MatchKey key = new MatchKey(sequence);
+            CompiledFare[] matching = memo.get(key);
+            if (matching == null) {
+                List<CompiledFare> fares = new ArrayList<CompiledFare>();
+                for (CompiledFare fare : feed.candidates(sequence.firstRoute)) {
+                    if (fare.matches(sequence))
+                        fares.add(fare);
+                }
+                matching = fares.toArray(new CompiledFare[fares.size()]);
+                if (memo.size() >= MAX_MEMO_SIZE)
+                    memo.clear();
+                memo.put(key, matching);
+            }
+            return matching;
+        }
+    }
+
+    /** A sequence of consecutive rides in a single feed, priced as a whole. */
+    private static class Sequence {
+
+        private final CompiledRules rules;
+
+        private final Ride firstRide;
+
+        final String feedId;
+
+        final int firstRoute;
+
+        final int startZone;
+
+        final long startTime;
+
+        int endZone;
+
+        BitSet zones = new BitSet();
+
+        boolean unknownZone;
+
+        BitSet routes = new BitSet();
+
+        boolean unknownRoute;
+
+        int transfersUsed = -1;
+
+        long lastRideStartTime;
+
+        long lastRideEndTime;
+
+        private int rideCount;
+
+        Sequence(CompiledRules rules, Ride firstRide) {
+            this.rules = rules;
+            this.firstRide = firstRide;
+            // stops don't really have an agency id, they have the per-feed default id
+            this.feedId = firstRide.firstStop.getId().getAgencyId();
+            this.firstRoute = rules.routeIndex(firstRide.route);
+            this.startZone = rules.zoneIndex(firstRide.startZone);
+            this.startTime = firstRide.startTime;
+            add(firstRide);
+        }
+
+        /** @return false if the ride is in another feed, in which case nothing is added. */
+        boolean extend(Ride ride) {
+            if (!ride.firstStop.getId().getAgencyId().equals(feedId))
+                return false;
+            add(ride);
+            return true;
+        }
+
+        private void add(Ride ride) {
+            lastRideStartTime = ride.startTime;
+            lastRideEndTime = ride.endTime;
+            endZone = rules.zoneIndex(ride.endZone);
+            int route = rules.routeIndex(ride.route);
+            if (route == UNKNOWN)
+                unknownRoute = true;
+            else
+                routes.set(route);
+            for (String zone : ride.zones) {
+                int index = rules.zoneIndex(zone);
+                if (index == UNKNOWN)
+                    unknownZone = true;
+                else
+                    zones.set(index);
+            }
+            transfersUsed += 1;
+            rideCount += 1;
+        }
+
+        @Override
+        public String toString() {
+            return rideCount + " ride(s) starting with " + firstRide;
+        }
+    }
+
+    /** The inputs of the zone and route rules, which determine the set of matching fares. */
+    private static class MatchKey {
+
+        private final String feedId;
+
+        private final int startZone;
+
+        private final int endZone;
+
+        private final BitSet zones;
+
+        private final boolean unknownZone;
+
+        private final BitSet routes;
+
+        private final boolean unknownRoute;
+
+        MatchKey(Sequence sequence) {
+            feedId = sequence.feedId;
+            startZone = sequence.startZone;
+            endZone = sequence.endZone;
+            zones = (BitSet) sequence.zones.clone();
+            unknownZone = sequence.unknownZone;
+            routes = (BitSet) sequence.routes.clone();
+            unknownRoute = sequence.unknownRoute;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = feedId.hashCode();
+            hash = 31 * hash + startZone;
+            hash = 31 * hash + endZone;
+            hash = 31 * hash + zones.hashCode();
+            hash = 31 * hash + routes.hashCode();
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof MatchKey))
+                return false;
+            MatchKey key = (MatchKey) other;
+            return startZone == key.startZone && endZone == key.endZone
+                    && unknownZone == key.unknownZone && unknownRoute == key.unknownRoute
+                    && feedId.equals(key.feedId) && zones.equals(key.zones)
+                    && routes.equals(key.routes);
+        }
+    }
+}
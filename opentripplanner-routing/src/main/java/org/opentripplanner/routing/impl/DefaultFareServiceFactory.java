@@ -37,7 +37,7 @@ public class DefaultFareServiceFactory implements FareServiceFactory {
     HashMap<AgencyAndId, FareAttribute> fareAttributes = new HashMap<AgencyAndId, FareAttribute>();
 
     public FareService makeFareService() {
-        return new DefaultFareServiceImpl(fareRules, fareAttributes);
+        return new CompiledFareServiceImpl(fareRules, fareAttributes);
     }
 
     private void readFareRules(GtfsRelationalDao dao) {
@@ -20,16 +20,25 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import lombok.Setter;
 
+import org.opentripplanner.routing.core.TransitLayers;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.GraphWarmer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ResourceLoaderAware;
@@ -42,6 +51,17 @@ import org.springframework.core.io.ResourceLoader;
  * It can handle multiple graphs, each with its own routerId. These graphs are loaded from 
  * serialized graph files in subdirectories immediately under the specified base 
  * resource/filesystem path.
+ * 
+ * Replacing a graph is a single reference swap in a concurrent map: a new graph is completely
+ * loaded and passed through the configured GraphWarmers before it becomes visible. Requests that
+ * already fetched the old graph finish on it, and it becomes garbage once they have all returned.
+ * Each swap increments the version number of the routerId.
+ * 
+ * Routers whose graphs would differ only in their transit feeds can be declared as 
+ * {@link SharedRouter}s: they use the graph of a base routerId (built with all the feeds) and 
+ * only board the services of their own feeds, so the street network is held in memory once. They
+ * follow the reloads and evictions of their base graph. Only boarding is restricted: the stops, 
+ * the transit index and the fares of the other feeds stay visible to a shared router.
  */
 @Scope("singleton")
 public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
@@ -50,12 +70,37 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 
     private String resourceBase = "file:/var/otp/graphs";
 
-    private Map<String, Graph> graphs = new HashMap<String, Graph>();
+    private Map<String, Graph> graphs = new ConcurrentHashMap<String, Graph>();
 
-    private Map<String, LoadLevel> levels = new HashMap<String, LoadLevel>();
+    private Map<String, LoadLevel> levels = new ConcurrentHashMap<String, LoadLevel>();
+
+    private Map<String, Integer> versions = new HashMap<String, Integer>();
+
+    /** Serializes graph loading, so that at most one extra graph is held in memory at a time. */
+    private final Object loadLock = new Object();
+
+    /** 
+     * Loads graphs in the background for non-blocking reloads, created on first use and shut 
+     * down with the service.
+     */
+    private ExecutorService loadExecutor;
+
+    /** Run on every graph before it is made available for routing. */
+    @Setter private List<GraphWarmer> warmers;
+
+    /** Routers sharing the graph of another routerId, registered at startup. */
+    @Setter private List<SharedRouter> sharedRouters;
+
+    private Map<String, SharedRouter> sharedRoutersById = new ConcurrentHashMap<String, SharedRouter>();
 
     private LoadLevel loadLevel = LoadLevel.FULL;
 
+    /**
+     * If true, graphs are made available as soon as their street index is built, and transit
+     * searches wait for the transit indexes still being built in the background.
+     */
+    @Setter private boolean deferTransitIndexes = false;
+
     @Setter private String defaultRouterId = "";
 
     /** The resourceLoader setter is called by Spring via ResourceLoaderAware interface. */
@@ -117,6 +162,11 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
             LOG.info("Attempting to load graph for default routerId '{}'.", defaultRouterId);
             registerGraph(defaultRouterId, true);
         }
+        if (sharedRouters != null) {
+            for (SharedRouter sharedRouter : sharedRouters) {
+                this.registerSharedRouter(sharedRouter);
+            }
+        }
         if (this.getRouterIds().isEmpty()) {
             LOG.warn("No graphs have been loaded/registered. " +
                     "You must use the routers API to register one or more graphs before routing.");
@@ -134,13 +184,20 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
             routerId = defaultRouterId;
             LOG.debug("routerId not specified, set to default of '{}'", routerId);
         }
-        synchronized (graphs) {
-            if ( ! graphs.containsKey(routerId)) {
-                LOG.error("no graph registered with the routerId '{}'", routerId);
-                return null;
-            } else {
-                return graphs.get(routerId);
-            }
+        Graph graph = graphs.get(routerId);
+        if (graph == null)
+            LOG.error("no graph registered with the routerId '{}'", routerId);
+        return graph;
+    }
+
+    /**
+     * @return the number of times a graph has been published under this routerId, or 0 if none
+     * ever was. Lets clients detect that a reload took effect.
+     */
+    public int getGraphVersion(String routerId) {
+        synchronized (versions) {
+            Integer version = versions.get(routerId);
+            return version == null ? 0 : version;
         }
     }
 
@@ -178,7 +235,7 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
         }
         LOG.debug("graph input stream successfully opened. now loading.");
         try {
-            return Graph.load(is, loadLevel);
+            return Graph.load(is, loadLevel, deferTransitIndexes);
         } catch (Exception ex) {
             LOG.error("Exception while loading graph from {}.", graphResource);
             ex.printStackTrace();
@@ -186,16 +243,140 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
         }
     }
 
+    private void warm(String routerId, Graph graph) {
+        if (warmers == null)
+            return;
+        for (GraphWarmer warmer : warmers) {
+            try {
+                warmer.warm(routerId, graph);
+            } catch (RuntimeException ex) {
+                LOG.warn("graph warmer {} failed on routerId '{}': {}", new Object[] { warmer,
+                        routerId, ex });
+            }
+        }
+    }
+
+    /** 
+     * Make a fully loaded and warmed graph visible to request threads in a single step, along with
+     * the routers sharing it.
+     */
+    private synchronized void publish(String routerId, Graph graph) {
+        // install the layers before the graph is visible, graph services are not thread-safe
+        if ( ! graph.hasService(TransitLayers.class))
+            graph.putService(TransitLayers.class, new TransitLayers());
+        TransitLayers layers = graph.getService(TransitLayers.class);
+        for (SharedRouter sharedRouter : sharedRoutersById.values()) {
+            if (sharedRouter.getBaseRouterId().equals(routerId))
+                layers.putLayer(sharedRouter.getRouterId(), sharedRouter.getAgencyIds());
+        }
+        // the service days of shared routers depend on their layers
+        if ( ! layers.getRouterIds().isEmpty())
+            graph.getServiceDayCache().precompute();
+        swap(routerId, graph);
+        // routers sharing this graph follow it
+        for (SharedRouter sharedRouter : sharedRoutersById.values()) {
+            if (sharedRouter.getBaseRouterId().equals(routerId))
+                swap(sharedRouter.getRouterId(), graph);
+        }
+    }
+
+    private void swap(String routerId, Graph graph) {
+        Graph previous;
+        int version;
+        synchronized (versions) {
+            previous = graphs.put(routerId, graph);
+            version = getGraphVersion(routerId) + 1;
+            versions.put(routerId, version);
+        }
+        LOG.info("routerId '{}' is now at version {}{}", new Object[] { routerId, version,
+                previous == null || previous == graph ? "" 
+                        : ", previous graph released once in-flight requests end" });
+    }
+
+    /**
+     * Register a routerId that routes on the graph of sharedRouter.baseRouterId, boarding only 
+     * the services of its own agencies. The base routerId must already be registered. The shared 
+     * router follows reloads and evictions of its base.
+     * 
+     * The layer is added to the live base graph, and its service days are computed, before the 
+     * new routerId becomes visible. Requests of other routers do not read it.
+     * 
+     * @return whether the base graph was found and the router registered
+     */
+    public synchronized boolean registerSharedRouter(SharedRouter sharedRouter) {
+        String routerId = sharedRouter.getRouterId();
+        String baseRouterId = sharedRouter.getBaseRouterId();
+        if (sharedRoutersById.containsKey(baseRouterId)) {
+            LOG.error("routerId '{}' cannot share the graph of shared routerId '{}'", routerId,
+                    baseRouterId);
+            return false;
+        }
+        Graph base = graphs.get(baseRouterId);
+        if (base == null) {
+            LOG.error("cannot register routerId '{}': base routerId '{}' is not registered",
+                    routerId, baseRouterId);
+            return false;
+        }
+        LOG.info("registering routerId '{}' on the graph of '{}' with agencies {}", new Object[] {
+                routerId, baseRouterId, sharedRouter.getAgencyIds() });
+        sharedRoutersById.put(routerId, sharedRouter);
+        // TransitLayers is installed on every published graph
+        base.getService(TransitLayers.class).putLayer(routerId, sharedRouter.getAgencyIds());
+        base.getServiceDayCache().precompute();
+        swap(routerId, base);
+        return true;
+    }
+
     public boolean reloadGraphs(boolean preEvict) {
         boolean allSucceeded = true;
-        synchronized (graphs) {
-            for (String routerId : this.getRouterIds()) {
-                boolean success = registerGraph(routerId, preEvict);
-                allSucceeded &= success;
-            }
+        for (String routerId : this.getRouterIds()) {
+            // shared routers are re-published along with their base graph
+            if (sharedRoutersById.containsKey(routerId))
+                continue;
+            boolean success = registerGraph(routerId, preEvict);
+            allSucceeded &= success;
         }
         return allSucceeded;
     }
+
+    /**
+     * Load, warm and publish the graph for the given routerId on a background thread. The
+     * current graph (if any) keeps serving requests until the new one is swapped in.
+     * 
+     * @return a future yielding whether the reload succeeded
+     */
+    public Future<Boolean> reloadGraphInBackground(final String routerId) {
+        return getLoadExecutor().submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return registerGraph(routerId, false);
+            }
+        });
+    }
+
+    private synchronized ExecutorService getLoadExecutor() {
+        if (loadExecutor == null) {
+            loadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "graph-reloader");
+                    // do not keep the JVM alive for a pending reload
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return loadExecutor;
+    }
+
+    /** Stop the background reload thread, letting a reload in progress finish. */
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (loadExecutor != null) {
+            loadExecutor.shutdown();
+            loadExecutor = null;
+        }
+    }
     
     @Override
     public Collection<String> getRouterIds() {
@@ -204,16 +385,23 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 
     @Override
     public boolean registerGraph(String routerId, boolean preEvict) {
+        SharedRouter sharedRouter = sharedRoutersById.get(routerId);
+        if (sharedRouter != null) {
+            LOG.info("routerId {} shares the graph of {}, reloading that instead", routerId,
+                    sharedRouter.getBaseRouterId());
+            return registerGraph(sharedRouter.getBaseRouterId(), preEvict);
+        }
         if (preEvict)
             evictGraph(routerId);
         LOG.info("registering routerId {}", routerId);
-        Graph graph = this.loadGraph(routerId);
-        if (graph != null) {
-            synchronized (graphs) {
-                graphs.put(routerId, graph);
+        synchronized (loadLock) {
+            Graph graph = this.loadGraph(routerId);
+            if (graph != null) {
+                warm(routerId, graph);
+                levels.put(routerId, loadLevel);
+                publish(routerId, graph);
+                return true;
             }
-            levels.put(routerId, loadLevel);
-            return true;
         }
         LOG.info("routerId {} was not registered (graph was null).", routerId);
         return false;
@@ -221,26 +409,35 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 
     @Override
     public boolean registerGraph(String routerId, Graph graph) {
-        Graph existing = graphs.put(routerId, graph);
-        return existing == null;
+        boolean existed = graphs.containsKey(routerId);
+        warm(routerId, graph);
+        publish(routerId, graph);
+        return ! existed;
     }
     
+    /** 
+     * Evicting a shared router unregisters it. Evicting a base graph also evicts the routers 
+     * sharing it, which come back when the base is registered again.
+     */
     @Override
-    public boolean evictGraph(String routerId) {
+    public synchronized boolean evictGraph(String routerId) {
         LOG.debug("evicting graph {}", routerId);
-        synchronized (graphs) {
-            Graph existing = graphs.remove(routerId);
-            return existing != null;
+        Graph existing = graphs.remove(routerId);
+        SharedRouter sharedRouter = sharedRoutersById.remove(routerId);
+        if (sharedRouter != null && existing != null)
+            existing.getService(TransitLayers.class).removeLayer(routerId);
+        for (SharedRouter follower : sharedRoutersById.values()) {
+            if (follower.getBaseRouterId().equals(routerId))
+                graphs.remove(follower.getRouterId());
         }
+        return existing != null;
     }
 
+    /** Evict every graph. Shared routers come back when their base is registered again. */
     @Override
-    public int evictAll() {
-        int n;
-        synchronized(graphs) {
-            n = graphs.size(); 
-            graphs.clear();
-        }
+    public synchronized int evictAll() {
+        int n = graphs.size();
+        graphs.clear();
         return n;
     }
 }
@@ -29,7 +29,7 @@ import org.opentripplanner.routing.core.Fare.FareType;
 import org.opentripplanner.routing.edgetype.HopEdge;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.graph.Edge;
-import org.opentripplanner.routing.services.FareService;
+import org.opentripplanner.routing.services.BatchFareService;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,7 +53,7 @@ enum NycFareState {
  * (2) the b61/b62 special case is not handled
  * (3) MNR, LIRR, and LI Bus are not supported -- only subways and buses   
  */
-public class NycFareServiceImpl implements FareService, Serializable {
+public class NycFareServiceImpl implements BatchFareService, Serializable {
         private static final Logger _log = LoggerFactory.getLogger(NycFareServiceImpl.class);
 
 	private static final long serialVersionUID = 1L;
@@ -67,6 +67,15 @@ public class NycFareServiceImpl implements FareService, Serializable {
 	public NycFareServiceImpl() {
 	}
 
+	@Override
+	public List<Fare> getCosts(List<GraphPath> paths) {
+		List<Fare> fares = new ArrayList<Fare>(paths.size());
+		for (GraphPath path : paths) {
+			fares.add(getCost(path));
+		}
+		return fares;
+	}
+
 	@Override
 	public Fare getCost(GraphPath path) {
 
@@ -15,9 +15,20 @@ package org.opentripplanner.routing.impl;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -29,6 +40,8 @@ import org.opentripplanner.routing.services.PathService;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,6 +62,10 @@ public class RetryingPathServiceImpl implements PathService {
 
     private double firstPathTimeout = 0; // seconds
     private double multiPathTimeout = 0; // seconds
+
+    private int parallelSearches = 0;
+
+    private ExecutorService executor;
     
     /** Give up on searching for itineraries after this many seconds have elapsed. */
     public void setTimeout (double seconds) {
@@ -76,6 +93,16 @@ public class RetryingPathServiceImpl implements PathService {
         multiPathTimeout = seconds;
     }
 
+    /**
+     * Once the first itinerary is found, run up to this many searches for additional itineraries
+     * at the same time, on a pool of worker threads shared by all requests. The multiPathTimeout
+     * then bounds the whole search for additional itineraries rather than each one. Zero (the
+     * default) searches for additional itineraries one at a time on the request thread.
+     */
+    public void setParallelSearches (int parallelSearches) {
+        this.parallelSearches = parallelSearches;
+    }
+
     @Override
     public List<GraphPath> getPaths(RoutingRequest options) {
 
@@ -101,7 +128,13 @@ public class RetryingPathServiceImpl implements PathService {
         double initialMaxWalk = maxWalk;
         long maxTime = options.isArriveBy() ? 0 : Long.MAX_VALUE;
         RoutingRequest currOptions;
+        int retries = 0;
+        ExecutorService executor = getExecutor();
         while (paths.size() < options.numItineraries) {
+            if ( ! paths.isEmpty() && retries++ >= options.maxRetries) {
+                LOG.debug("Reached the maximum number of retries.");
+                break;
+            }
             currOptions = optionQueue.poll();
             if (currOptions == null) {
                 LOG.debug("Ran out of options to try.");
@@ -111,6 +144,7 @@ public class RetryingPathServiceImpl implements PathService {
             
             // apply appropriate timeout
             double timeout = paths.isEmpty() ? firstPathTimeout : multiPathTimeout;
+            timeout *= options.timeoutFactor;
             
             // options.worstTime = maxTime;
             //options.maxWeight = maxWeight;
@@ -120,7 +154,9 @@ public class RetryingPathServiceImpl implements PathService {
             ShortestPathTree spt = sptService.getShortestPathTree(currOptions, timeout);
             if (spt == null) // timeout or other fail
                 break;
+            long t0 = System.nanoTime();
             List<GraphPath> somePaths = spt.getPaths();
+            RequestProfile.addTime(Phase.PATHS, t0);
             LOG.debug("END SUBSEARCH ({} msec of {} msec total)", 
                     System.currentTimeMillis() - subsearchBeginTime,
                     System.currentTimeMillis() - searchBeginTime);
@@ -179,6 +215,11 @@ public class RetryingPathServiceImpl implements PathService {
                 }
             }
             LOG.debug("{} / {} itineraries", paths.size(), currOptions.numItineraries);
+            if (executor != null) {
+                // the searches for alternatives are independent once the first path is known
+                searchInParallel(executor, paths, currOptions, maxWalk, retries);
+                break;
+            }
         }
         if (paths.size() == 0) {
             return null;
@@ -188,6 +229,209 @@ public class RetryingPathServiceImpl implements PathService {
         return paths;
     }
 
+    /**
+     * Search for additional itineraries in rounds of concurrent searches. Each round bans, for
+     * every itinerary found in the previous round, either all of its trips or one of them at a
+     * time. The best distinct paths of a round are kept until enough itineraries are found, no
+     * alternatives are left, or the multiPathTimeout has elapsed.
+     */
+    private void searchInParallel(ExecutorService executor, List<GraphPath> paths,
+            RoutingRequest options, double maxWalk, int retries) {
+        long abortTime = Long.MAX_VALUE;
+        if (multiPathTimeout > 0)
+            abortTime = System.currentTimeMillis()
+                    + (long) (multiPathTimeout * options.timeoutFactor * 1000);
+        List<RoutingRequest> alternatives = new ArrayList<RoutingRequest>();
+        for (GraphPath path : paths)
+            addAlternatives(alternatives, options, path.getTrips());
+        // searches on the worker threads are recorded in the profile of this request
+        RequestProfile profile = RequestProfile.current();
+        while (paths.size() < options.numItineraries && !alternatives.isEmpty()) {
+            int n = Math.min(alternatives.size(), parallelSearches);
+            n = Math.min(n, options.maxRetries - retries);
+            long remaining = abortTime - System.currentTimeMillis();
+            if (n <= 0 || remaining <= 0)
+                break;
+            retries += n;
+            List<Future<ShortestPathTree>> futures = new ArrayList<Future<ShortestPathTree>>(n);
+            List<SubSearch> submitted = new ArrayList<SubSearch>(n);
+            for (int i = 0; i < n; i++) {
+                RoutingRequest alternative = alternatives.remove(0);
+                alternative.setMaxWalkDistance(maxWalk);
+                // the clone shares the endpoints and temporary edges of the first search, but
+                // has a heuristic of its own since heuristics keep per-search state
+                alternative.rctx = options.rctx.copyForConcurrentSearch(alternative);
+                SubSearch subSearch = new SubSearch(alternative,
+                        abortTime == Long.MAX_VALUE ? -1 : remaining / 1000.0, profile != null);
+                futures.add(executor.submit(subSearch));
+                submitted.add(subSearch);
+            }
+            List<GraphPath> candidates = new ArrayList<GraphPath>();
+            List<RoutingRequest> candidateOptions = new ArrayList<RoutingRequest>();
+            for (int i = 0; i < n; i++) {
+                List<GraphPath> somePaths = getResult(futures.get(i), abortTime);
+                if (somePaths == null)
+                    continue;
+                for (GraphPath path : somePaths) {
+                    if (!paths.contains(path) && !candidates.contains(path)) {
+                        candidates.add(path);
+                        candidateOptions.add(submitted.get(i).options);
+                    }
+                }
+            }
+            // Searches ignore interrupts, and still use the temporary edges of this request. Those
+            // that are running finish soon on their own timeout, so wait for them before the
+            // request goes on to clean up.
+            for (SubSearch subSearch : submitted) {
+                subSearch.abandonAndWait();
+                if (profile != null && subSearch.profile != null)
+                    profile.merge(subSearch.profile);
+            }
+            LOG.debug("parallel round of {} searches found {} new paths", n, candidates.size());
+            // keep the best paths of this round, regardless of which search finished first
+            List<Integer> order = new ArrayList<Integer>(candidates.size());
+            for (int i = 0; i < candidates.size(); i++)
+                order.add(i);
+            final List<GraphPath> weighted = candidates;
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(weighted.get(a).getWeight(), weighted.get(b).getWeight());
+                }
+            });
+            for (int i : order) {
+                if (paths.size() >= options.numItineraries)
+                    break;
+                paths.add(candidates.get(i));
+                addAlternatives(alternatives, candidateOptions.get(i),
+                        candidates.get(i).getTrips());
+            }
+        }
+    }
+
+    /** Queue the options banning all the trips of a path, then those banning each of them. */
+    static void addAlternatives(List<RoutingRequest> alternatives, RoutingRequest options,
+            List<AgencyAndId> trips) {
+        RoutingRequest banAll = options.clone();
+        banAll.bannedTrips.addAll(trips);
+        if (!alternatives.contains(banAll))
+            alternatives.add(banAll);
+        if (trips.size() < 2)
+            return;
+        for (AgencyAndId trip : trips) {
+            RoutingRequest banOne = options.clone();
+            banOne.bannedTrips.add(trip);
+            if (!alternatives.contains(banOne))
+                alternatives.add(banOne);
+        }
+    }
+
+    /** @return the paths found by a concurrent search, or null if it failed or timed out. */
+    static List<GraphPath> getResult(Future<ShortestPathTree> future, long abortTime) {
+        try {
+            ShortestPathTree spt;
+            if (abortTime == Long.MAX_VALUE) {
+                spt = future.get();
+            } else {
+                // allow a little slack for the search to notice its own timeout
+                long wait = abortTime - System.currentTimeMillis() + 100;
+                spt = future.get(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+            }
+            if (spt == null)
+                return null;
+            long t0 = System.nanoTime();
+            List<GraphPath> paths = spt.getPaths();
+            RequestProfile.addTime(Phase.PATHS, t0);
+            return paths;
+        } catch (TimeoutException e) {
+            // a search that has not started yet will not start
+            future.cancel(false);
+            return null;
+        } catch (ExecutionException e) {
+            LOG.warn("search for an additional itinerary failed", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return null;
+        }
+    }
+
+    private class SubSearch implements Callable<ShortestPathTree> {
+
+        private final RoutingRequest options;
+
+        private final double timeout;
+
+        private final boolean profiled;
+
+        /** The work done by this search, if profiled, once it has finished. */
+        private RequestProfile profile;
+
+        /** Set by the worker when it starts the search, or by the request when it gives up. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        SubSearch(RoutingRequest options, double timeout, boolean profiled) {
+            this.options = options;
+            this.timeout = timeout;
+            this.profiled = profiled;
+        }
+
+        @Override
+        public ShortestPathTree call() {
+            if (!claimed.compareAndSet(false, true))
+                return null; // the request has moved on
+            try {
+                if (!profiled)
+                    return sptService.getShortestPathTree(options, timeout);
+                RequestProfile.begin();
+                try {
+                    return sptService.getShortestPathTree(options, timeout);
+                } finally {
+                    // never marked as handled, so it is not recorded on its own
+                    profile = RequestProfile.end();
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        /** Keep this search from starting, or wait until it has finished if it has started. */
+        void abandonAndWait() {
+            if (claimed.compareAndSet(false, true))
+                return;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (parallelSearches <= 0)
+            return null;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelSearches, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "parallel-path-search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
     public GraphService getGraphService() {
         return graphService;
     }
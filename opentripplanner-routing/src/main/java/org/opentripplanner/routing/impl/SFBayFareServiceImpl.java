@@ -14,7 +14,7 @@ import org.opentripplanner.routing.core.TraverseMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SFBayFareServiceImpl extends DefaultFareServiceImpl {
+public class SFBayFareServiceImpl extends CompiledFareServiceImpl {
 
     public SFBayFareServiceImpl(
             HashMap<AgencyAndId, FareRuleSet>   fareRules,
@@ -0,0 +1,42 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Configuration for a routerId that does not have a graph file of its own, but routes on the
+ * graph of another routerId restricted to a subset of its transit feeds.
+ *
+ * The restriction applies to the trips boarded in searches. Stop lookups, the transit index API
+ * and fare computations still see all the feeds of the base graph.
+ *
+ * @see GraphServiceImpl#setSharedRouters(List)
+ * @see org.opentripplanner.routing.core.TransitLayers
+ */
+@Data
+public class SharedRouter {
+
+    /** The routerId being defined. */
+    private String routerId;
+
+    /** The routerId whose graph (street network and all transit feeds) is shared. */
+    private String baseRouterId;
+
+    /** The agency ids namespacing the service ids of the feeds this router may board. */
+    private List<String> agencyIds;
+
+}
@@ -0,0 +1,70 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import lombok.Setter;
+
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.GraphWarmer;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms a graph by running a handful of walking searches between randomly chosen street
+ * vertices. This touches the street layer and exercises the search code paths so that the first
+ * user requests after a reload do not pay for page faults and JIT compilation.
+ */
+public class StreetSearchGraphWarmer implements GraphWarmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetSearchGraphWarmer.class);
+
+    /** The number of warm-up searches to run. */
+    @Setter private int searches = 10;
+
+    /** Timeout for each individual warm-up search, in seconds. */
+    @Setter private double timeout = 5;
+
+    @Setter private long seed = 42;
+
+    @Override
+    public void warm(String routerId, Graph graph) {
+        List<Vertex> streetVertices = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices())
+            if (v instanceof StreetVertex)
+                streetVertices.add(v);
+        if (streetVertices.size() < 2)
+            return;
+        Random random = new Random(seed);
+        GenericAStar aStar = new GenericAStar();
+        long t0 = System.currentTimeMillis();
+        for (int i = 0; i < searches; i++) {
+            Vertex from = streetVertices.get(random.nextInt(streetVertices.size()));
+            Vertex to = streetVertices.get(random.nextInt(streetVertices.size()));
+            RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+            options.setRoutingContext(graph, from, to);
+            aStar.getShortestPathTree(options, timeout);
+        }
+        LOG.info("ran {} warm-up searches on routerId '{}' in {} msec", new Object[] { searches,
+                routerId, System.currentTimeMillis() - t0 });
+    }
+}
@@ -9,6 +9,8 @@ import org.opentripplanner.routing.services.PathService;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
 import org.springframework.beans.factory.annotation.Autowired;
 
 public class TrivialPathServiceImpl implements PathService {
@@ -22,7 +24,10 @@ public class TrivialPathServiceImpl implements PathService {
         ShortestPathTree spt = sptService.getShortestPathTree(options);
         if (spt == null)
             return Collections.emptyList();
-        return spt.getPaths();
+        long t0 = System.nanoTime();
+        List<GraphPath> paths = spt.getPaths();
+        RequestProfile.addTime(Phase.PATHS, t0);
+        return paths;
     }
 
 }
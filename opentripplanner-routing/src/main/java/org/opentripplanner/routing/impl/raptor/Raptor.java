@@ -83,6 +83,10 @@ public class Raptor implements PathService {
      */
     private double shortPathCutoff = 10000;
 
+    public void setGraphService(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
     @PostConstruct
     public void setup() {
         shortPathService.setGraphService(graphService);
@@ -360,6 +364,8 @@ public class Raptor implements PathService {
         trimmedData.stops = data.stops;
         //trimmedData.allowedStops = stops;
         trimmedData.routesForStop = data.routesForStop;
+        trimmedData.transfers = data.transfers;
+        trimmedData.wheelchairTransfers = data.wheelchairTransfers;
 
         double walkDistance = options.getMaxWalkDistance();
         options = options.clone();
@@ -475,9 +481,10 @@ public class Raptor implements PathService {
         State state = new State(states.get(0).getRequest());
         for (int i = states.size() - 1; i >= 0; --i) {
             RaptorState cur = states.get(i);
-            if (cur.walkPath != null) { //a walking step
-                GraphPath path = new GraphPath(cur.walkPath, false);
-                for (Edge e : path.edges) {
+            if (cur.walkPath != null || cur.transfer) { //a walking step
+                List<Edge> edges = cur.transfer ? getTransferEdges(data, cur)
+                        : new GraphPath(cur.walkPath, false).edges;
+                for (Edge e : edges) {
                     State oldState = state;
                     state = e.traverse(state);
                     if (state == null) {
@@ -549,9 +556,10 @@ public class Raptor implements PathService {
         State state = new State(options.rctx.origin, options);
         for (int i = states.size() - 1; i >= 0; --i) {
             RaptorState cur = states.get(i);
-            if (cur.walkPath != null) {
-                GraphPath path = new GraphPath(cur.walkPath, false);
-                for (ListIterator<Edge> it = path.edges.listIterator(path.edges.size()); it.hasPrevious();) {
+            if (cur.walkPath != null || cur.transfer) {
+                List<Edge> edges = cur.transfer ? getTransferEdges(data, cur)
+                        : new GraphPath(cur.walkPath, false).edges;
+                for (ListIterator<Edge> it = edges.listIterator(edges.size()); it.hasPrevious();) {
                     Edge e = it.previous();
                     State oldState = state;
                     state = e.traverse(state);
@@ -622,6 +630,32 @@ public class Raptor implements PathService {
         return state;
     }
 
+    /**
+     * Get the street path of a precomputed transfer, which RaptorSearch does not keep.
+     * 
+     * @return the edges walked, in chronological order
+     */
+    private List<Edge> getTransferEdges(RaptorData data, RaptorState state) {
+        RoutingRequest options = state.getRequest();
+        RaptorStop from = state.getParent().stop;
+        RaptorStop to = state.stop;
+        if (from == to)
+            return Collections.emptyList();
+        if (options.arriveBy) {
+            RaptorStop tmp = from;
+            from = to;
+            to = tmp;
+        }
+        RaptorTransfers transfers = options.isWheelchairAccessible() ? data.wheelchairTransfers
+                : data.transfers;
+        List<Edge> edges = transfers.getEdges(from.index, to.index);
+        if (edges == null) {
+            log.warn("no street path for the transfer from " + from + " to " + to);
+            return Collections.emptyList();
+        }
+        return edges;
+    }
+
     /**
      * Prune raptor data to include only routes and boardings which have trips today. Doesn't
      * actually improve speed
@@ -635,6 +669,8 @@ public class Raptor implements PathService {
         RaptorData pruned = new RaptorData();
         pruned.raptorStopsForStopId = data.raptorStopsForStopId;
         pruned.stops = data.stops;
+        pruned.transfers = data.transfers;
+        pruned.wheelchairTransfers = data.wheelchairTransfers;
         pruned.routes = new ArrayList<RaptorRoute>();
         pruned.routesForStop = new List[pruned.stops.length];
 
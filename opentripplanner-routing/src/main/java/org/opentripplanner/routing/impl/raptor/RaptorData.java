@@ -26,6 +26,12 @@ public class RaptorData implements Serializable {
     //unused
     public List<T2<Double, RaptorStop>>[] nearbyStops;
 
+    /** Walking transfers between stops, or null if they were not precomputed */
+    public RaptorTransfers transfers;
+
+    /** The same for wheelchair users */
+    public RaptorTransfers wheelchairTransfers;
+
     public MaxTransitRegions maxTransitRegions;
 
 }
@@ -16,6 +16,7 @@ package org.opentripplanner.routing.impl.raptor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,9 +31,12 @@ import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.TableTripPattern;
 import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
@@ -63,10 +67,14 @@ public class RaptorSearch {
 
     private RaptorData data;
 
+    /** For each stop, the state of the walk from the target found in round 0, if any */
+    private State[] egressStates;
+
 
     @SuppressWarnings("unchecked")
     RaptorSearch(RaptorData data, RoutingRequest options) {
         statesByStop = new List[data.stops.length];
+        egressStates = new State[data.stops.length];
         bounder = new TargetBound(options);
         this.data = data;
     }
@@ -469,6 +477,11 @@ public class RaptorSearch {
 
         final int boardSlack = nBoardings == 1 ? options.getBoardSlack() : (options
                 .getTransferSlack() - options.getAlightSlack());
+
+        RaptorTransfers transfers = getTransfers(options, walkOptions);
+        if (nBoardings > 0 && transfers != null)
+            return transferPhase(options, walkOptions, transfers, nBoardings, createdStates);
+
         ShortestPathTree spt;
         GenericDijkstra dijkstra = new GenericDijkstra(walkOptions);
         dijkstra.setShortestPathTreeFactory(bounder);
@@ -491,7 +504,8 @@ public class RaptorSearch {
             // also, compute an initial spt from the target so that we can find out what transit
             // stops are nearby and what
             // the time is to them, so that we can start target bounding earlier
-            if (maxTimeDayIndex > 0) {
+            // (and, with precomputed transfers, so that later rounds can walk to the target)
+            if (maxTimeDayIndex > 0 || (transfers != null && options.rctx.target != null)) {
                 RoutingRequest reversedWalkOptions = walkOptions.clone();
                 reversedWalkOptions.setArriveBy(!walkOptions.isArriveBy());
                 GenericDijkstra destDijkstra = new GenericDijkstra(reversedWalkOptions);
@@ -510,7 +524,12 @@ public class RaptorSearch {
                         continue;
                     }
 
-                    addStopNearTarget(stop, state.getWalkDistance(), (int) state.getElapsedTime());
+                    if (maxTimeDayIndex > 0)
+                        addStopNearTarget(stop, state.getWalkDistance(),
+                                (int) state.getElapsedTime());
+                    State egress = egressStates[stop.index];
+                    if (egress == null || state.getWeight() < egress.getWeight())
+                        egressStates[stop.index] = state;
                 }
             }
         } else {
@@ -578,33 +597,8 @@ public class RaptorSearch {
         List<? extends State> targetStates = null;
         if (walkOptions.rctx.target != null)
             targetStates = spt.getStates(walkOptions.rctx.target);
-        if (targetStates != null) {
-            TARGET: for (State targetState : targetStates) {
-                RaptorState parent = (RaptorState) targetState.getExtension("raptorParent");
-                RaptorState state;
-                if (parent != null) {
-                    state = new RaptorState(parent);
-                    state.nBoardings = parent.nBoardings;
-                    state.rentingBike = targetState.isBikeRenting();
-                } else {
-                    state = new RaptorState(options);
-                }
-                state.weight = targetState.getWeight();
-                state.walkDistance = targetState.getWalkDistance();
-                state.arrivalTime = (int) targetState.getTime();
-                state.walkPath = targetState;
-                for (Iterator<RaptorState> it = getTargetStates().iterator(); it.hasNext();) {
-                    RaptorState oldState = it.next();
-                    if (oldState.eDominates(state)) {
-                        continue TARGET;
-                    } else if (state.eDominates(oldState)) {
-                        it.remove();
-                    }
-                }
-                addTargetState(state);
-                log.debug("Found target at: " + state + " on " + state.getTrips());
-            }
-        }
+        if (targetStates != null)
+            addTargetStates(options, targetStates);
         for (State state : bounder.removedBoundingStates) {
             removeTargetState(state);
         }
@@ -686,6 +680,142 @@ public class RaptorSearch {
         return true;
     }
 
+    private void addTargetStates(RoutingRequest options, List<? extends State> targetStates) {
+        TARGET: for (State targetState : targetStates) {
+            RaptorState parent = (RaptorState) targetState.getExtension("raptorParent");
+            RaptorState state;
+            if (parent != null) {
+                state = new RaptorState(parent);
+                state.nBoardings = parent.nBoardings;
+                state.rentingBike = targetState.isBikeRenting();
+            } else {
+                state = new RaptorState(options);
+            }
+            state.weight = targetState.getWeight();
+            state.walkDistance = targetState.getWalkDistance();
+            state.arrivalTime = (int) targetState.getTime();
+            state.walkPath = targetState;
+            for (Iterator<RaptorState> it = getTargetStates().iterator(); it.hasNext();) {
+                RaptorState oldState = it.next();
+                if (oldState.eDominates(state)) {
+                    continue TARGET;
+                } else if (state.eDominates(oldState)) {
+                    it.remove();
+                }
+            }
+            addTargetState(state);
+            log.debug("Found target at: " + state + " on " + state.getTrips());
+        }
+    }
+
+    /**
+     * @return the precomputed transfers usable by this search, or null if the walk phases need a
+     *         street search (no transfers were built, or the request is not for walking only)
+     */
+    private RaptorTransfers getTransfers(RoutingRequest options, RoutingRequest walkOptions) {
+        TraverseModeSet modes = walkOptions.getModes();
+        if (modes.getBicycle() || modes.getCar())
+            return null;
+        RaptorTransfers transfers = options.isWheelchairAccessible() ? data.wheelchairTransfers
+                : data.transfers;
+        if (transfers != null && options.isArriveBy())
+            transfers = transfers.reversed();
+        return transfers;
+    }
+
+    /**
+     * The walk phase of the rounds after the first one, using precomputed transfers: each stop
+     * reached by transit is extended to the stops within walking distance, and to the target
+     * if it was reached from that stop by the walk from the target done in round 0.
+     */
+    private boolean transferPhase(RoutingRequest options, RoutingRequest walkOptions,
+            RaptorTransfers transfers, int nBoardings, List<RaptorState> createdStates) {
+        if (createdStates.isEmpty())
+            return false;
+        final double maxWalk = options.getMaxWalkDistance();
+        final double walkSpeed = options.getWalkSpeed();
+        final int direction = options.isArriveBy() ? -1 : 1;
+        for (RaptorState state : createdStates) {
+            RaptorStop from = state.stop;
+            // staying at the stop is the first transfer
+            relaxTransfer(options, state, from, 0, state.walkDistance, nBoardings);
+            int[] to = transfers.stops[from.index];
+            for (int i = 0; i < to.length; i++) {
+                double walkDistance = state.walkDistance + transfers.distances[from.index][i];
+                if (walkDistance > maxWalk)
+                    continue;
+                int time = transfers.getTime(from.index, i, walkSpeed);
+                relaxTransfer(options, state, data.stops[to[i]], time * direction, walkDistance,
+                        nBoardings);
+            }
+            walkToTarget(options, walkOptions, state);
+        }
+        return true;
+    }
+
+    private void relaxTransfer(RoutingRequest options, RaptorState parent, RaptorStop stop,
+            int time, double walkDistance, int nBoardings) {
+        if (data.raptorStopsForStopId.get(stop.stopVertex.getStopId()) != stop)
+            return; // a stop that is not part of this (trimmed) data
+        RaptorState newState = new RaptorState(parent);
+        newState.weight = parent.weight + Math.abs(time) * options.getWalkReluctance();
+        newState.nBoardings = nBoardings;
+        newState.walkDistance = walkDistance;
+        newState.arrivalTime = parent.arrivalTime + time;
+        newState.transfer = true;
+        newState.stop = stop;
+        // no use walking to a stop after arriving at the target at least as well
+        for (RaptorState target : targetStates) {
+            if (target.eDominates(newState))
+                return;
+        }
+        List<RaptorState> states = statesByStop[stop.index];
+        if (states == null) {
+            states = new ArrayList<RaptorState>();
+            statesByStop[stop.index] = states;
+        }
+        for (RaptorState oldState : states) {
+            if (oldState.eDominates(newState))
+                return;
+        }
+        visitedLastRound.add(stop);
+        visitedEver.add(stop);
+        states.add(newState);
+    }
+
+    /**
+     * Follow the edges of the walk found from the target in round 0, from the stop of this state,
+     * to make a target state.
+     */
+    private void walkToTarget(RoutingRequest options, RoutingRequest walkOptions,
+            RaptorState parent) {
+        State egress = egressStates[parent.stop.index];
+        if (egress == null)
+            return;
+        StateEditor editor = new MaxWalkState.MaxWalkStateEditor(walkOptions,
+                parent.stop.stopVertex);
+        editor.setInitialWaitTime(parent.initialWaitTime);
+        editor.setStartTime(options.dateTime);
+        editor.setNumBoardings(parent.nBoardings);
+        editor.setWalkDistance(parent.walkDistance);
+        editor.setTime(parent.arrivalTime);
+        editor.setExtension("raptorParent", parent);
+        editor.setOptions(walkOptions);
+        editor.incrementWeight(parent.weight);
+        State state = editor.makeState();
+        // the edges of the egress walk, from the stop to the target in chronological order
+        List<Edge> edges = new ArrayList<Edge>(new GraphPath(egress, false).edges);
+        if (walkOptions.isArriveBy())
+            Collections.reverse(edges);
+        for (Edge e : edges) {
+            state = e.traverse(state);
+            if (state == null)
+                return; // too far, or not the way the target was reached
+        }
+        bounder.addBounder(state);
+        addTargetStates(options, Collections.singletonList(state));
+    }
+
     class PrefilledPriorityQueueFactory implements OTPPriorityQueueFactory {
 
         private List<? extends State> startPoints;
@@ -709,6 +839,7 @@ public class RaptorSearch {
     public void reset(RoutingRequest options) {
         bounder.reset(options);
         Arrays.fill(statesByStop, null);
+        Arrays.fill(egressStates, null);
     }
 
 }
@@ -49,6 +49,10 @@ public class RaptorState implements Comparable<RaptorState>, Cloneable {
 
     /* if has walked to transit,  */
     State walkPath;
+
+    /* if has walked from the stop of its parent using a precomputed transfer; the street path
+     * is kept by the transfers and only looked up when the itinerary is built */
+    boolean transfer;
     
     /* path info */
     private RaptorState parent;
@@ -0,0 +1,135 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opentripplanner.routing.graph.Edge;
+
+/**
+ * Precomputed walking transfers between RAPTOR stops, so that the walk phases between transit
+ * rounds are simple array relaxations instead of street searches. For each stop index, the
+ * arrays hold the stops reachable on foot within maxDistance, in increasing order of time, with
+ * the walking time (at walkSpeed, turn costs included) and the walked distance.
+ * 
+ * The arrays describe transfers leaving each stop; arriveBy searches use the
+ * {@link #reversed()} transfers arriving at each stop.
+ * 
+ * The street edges of the transfers leaving a stop are kept as a tree rooted at that stop, so
+ * that itineraries can be built without searching the streets again, and paths sharing their
+ * first edges do not store them twice.
+ */
+public class RaptorTransfers implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    /** The walk speed the times were computed at, in meters per second. */
+    public final double walkSpeed;
+
+    /** The longest transfer kept, in meters. */
+    public final double maxDistance;
+
+    public final int[][] stops;
+
+    /** In seconds, at walkSpeed. */
+    public final int[][] times;
+
+    /** In meters. */
+    public final float[][] distances;
+
+    /** For each stop, the edges of the tree of its transfers. Null in reversed transfers. */
+    private final Edge[][] treeEdges;
+
+    /** The index in treeEdges of the edge walked before each edge, or -1 for the first one. */
+    private final int[][] treeParents;
+
+    /** For each transfer, the index in treeEdges of its last edge. */
+    private final int[][] lastEdges;
+
+    private transient RaptorTransfers reversed;
+
+    public RaptorTransfers(double walkSpeed, double maxDistance, int[][] stops, int[][] times,
+            float[][] distances, Edge[][] treeEdges, int[][] treeParents, int[][] lastEdges) {
+        this.walkSpeed = walkSpeed;
+        this.maxDistance = maxDistance;
+        this.stops = stops;
+        this.times = times;
+        this.distances = distances;
+        this.treeEdges = treeEdges;
+        this.treeParents = treeParents;
+        this.lastEdges = lastEdges;
+    }
+
+    /** @return the walking time of a transfer at the given speed, in seconds */
+    public int getTime(int stop, int i, double speed) {
+        return (int) Math.ceil(times[stop][i] * walkSpeed / speed);
+    }
+
+    /**
+     * @return the street edges walked from one stop to the other, in chronological order, or null
+     *         if there is no such transfer
+     */
+    public List<Edge> getEdges(int from, int to) {
+        if (treeEdges == null)
+            return reversed.getEdges(from, to);
+        int[] toStops = stops[from];
+        for (int i = 0; i < toStops.length; i++) {
+            if (toStops[i] != to)
+                continue;
+            List<Edge> edges = new ArrayList<Edge>();
+            for (int e = lastEdges[from][i]; e >= 0; e = treeParents[from][e])
+                edges.add(treeEdges[from][e]);
+            Collections.reverse(edges);
+            return edges;
+        }
+        return null;
+    }
+
+    /** @return the transfers arriving at each stop, computed on first use */
+    public synchronized RaptorTransfers reversed() {
+        if (reversed == null) {
+            int nStops = stops.length;
+            int[] counts = new int[nStops];
+            for (int[] to : stops)
+                for (int stop : to)
+                    counts[stop]++;
+            int[][] rStops = new int[nStops][];
+            int[][] rTimes = new int[nStops][];
+            float[][] rDistances = new float[nStops][];
+            for (int i = 0; i < nStops; i++) {
+                rStops[i] = new int[counts[i]];
+                rTimes[i] = new int[counts[i]];
+                rDistances[i] = new float[counts[i]];
+            }
+            int[] filled = new int[nStops];
+            for (int from = 0; from < nStops; from++) {
+                for (int i = 0; i < stops[from].length; i++) {
+                    int to = stops[from][i];
+                    int j = filled[to]++;
+                    rStops[to][j] = from;
+                    rTimes[to][j] = times[from][i];
+                    rDistances[to][j] = distances[from][i];
+                }
+            }
+            // the edges are only kept by this instance, which getEdges delegates to
+            reversed = new RaptorTransfers(walkSpeed, maxDistance, rStops, rTimes, rDistances,
+                    null, null, null);
+            reversed.reversed = this;
+        }
+        return reversed;
+    }
+}
@@ -146,10 +146,14 @@ public class AlertPatch extends AbstractPatch {
 
     @Override
     public boolean filterTraverseResult(StateEditor result, boolean displayOnly) {
-        result.addAlert(alert);
         return displayOnly || !isCancelled();
     }
 
+    @Override
+    public boolean affectsTraversal() {
+        return isCancelled();
+    }
+
     public String getAgency() {
         return agency;
     }
@@ -42,4 +42,10 @@ public interface Patch extends Serializable {
     public void remove(Graph graph);
 
     public boolean filterTraverseResult(StateEditor result, boolean displayOnly);
+
+    /**
+     * @return whether filterTraverseResult can block traversals. Searches skip the patches that
+     *         cannot; their alerts are looked up on the edges of the resulting paths.
+     */
+    public boolean affectsTraversal();
 }
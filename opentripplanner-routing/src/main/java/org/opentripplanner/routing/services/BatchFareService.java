@@ -0,0 +1,30 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.services;
+
+import java.util.List;
+
+import org.opentripplanner.routing.core.Fare;
+import org.opentripplanner.routing.spt.GraphPath;
+
+/**
+ * A FareService that can price all the itineraries of a trip plan in one call, sharing whatever
+ * work the rides of those itineraries have in common.
+ */
+public interface BatchFareService extends FareService {
+
+    /** @return the fare of each path, in the same order as the paths; elements may be null. */
+    public List<Fare> getCosts(List<GraphPath> paths);
+
+}
@@ -0,0 +1,29 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.services;
+
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * A GraphWarmer prepares a freshly loaded graph for routing before it is made visible to request
+ * threads, for instance by building lazily initialized indexes or by running a few searches so
+ * that the JIT and the heap are in a steady state when real traffic arrives.
+ *
+ * Warmers are run by {@link GraphService} implementations on the loading thread, before the new
+ * graph replaces the old one. They must not assume the graph is reachable through the
+ * GraphService.
+ */
+public interface GraphWarmer {
+    public void warm(String routerId, Graph graph);
+}
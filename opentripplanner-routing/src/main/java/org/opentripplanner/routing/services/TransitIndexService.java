@@ -25,6 +25,7 @@ import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.PreAlightEdge;
 import org.opentripplanner.routing.edgetype.PreBoardEdge;
 import org.opentripplanner.routing.transit_index.RouteVariant;
+import org.opentripplanner.routing.transit_index.StopIndex;
 
 import com.vividsolutions.jts.geom.Coordinate;
 
@@ -77,4 +78,10 @@ public interface TransitIndexService {
      * 
      */
     int getOvernightBreak();
+
+    /**
+     * Returns a spatial index of the stops, for the queries of map clients. It is built on first
+     * use (normally when the graph is loaded) and never modified.
+     */
+    public StopIndex getStopIndex();
 }
@@ -0,0 +1,402 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.transit_index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.ServiceDayCache;
+import org.opentripplanner.routing.edgetype.FrequencyBasedTripPattern;
+import org.opentripplanner.routing.edgetype.FrequencyBoard;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.vertextype.TransitVertex;
+
+/**
+ * The departures from each stop, for departure boards. The scheduled departures of all the 
+ * patterns boarding at a stop are merged into one array sorted by time of day when the index is
+ * built, so that a query only has to look up a range of it for each service day. Patterns that
+ * have a realtime timetable in the graph's current TimetableResolver are read from that timetable
+ * instead.
+ * 
+ * Frequency-based patterns have no list of trips to sort: their departures are enumerated from
+ * the headways for each query, the way FrequencyBoard finds the next one when routing.
+ * 
+ * Departure boards ask for the same stops over and over, so the results are also kept for a 
+ * while, for each stop and range of minutes, as long as the timetable snapshot does not change.
+ */
+public class DepartureIndex {
+
+    private static final long SEC_IN_DAY = 60 * 60 * 24;
+
+    /** The number of departure lists (for a stop and a range of minutes) kept. */
+    static final int MAX_CACHED_QUERIES = 1000;
+
+    private final Graph graph;
+
+    private final Map<AgencyAndId, StopDepartures> departuresByStop = 
+            new HashMap<AgencyAndId, StopDepartures>();
+
+    private final Map<Key, CachedDepartures> cache = new LinkedHashMap<Key, CachedDepartures>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedDepartures> eldest) {
+            return size() > MAX_CACHED_QUERIES;
+        }
+    };
+
+    /** A departure from a stop, on a given day. */
+    public static class Departure {
+
+        /** In seconds since the epoch */
+        public final long time;
+
+        public final Trip trip;
+
+        /** A TableTripPattern or a FrequencyBasedTripPattern */
+        public final TripPattern pattern;
+
+        public final int stopIndex;
+
+        /** Whether the time comes from a realtime update rather than from the schedule */
+        public final boolean realtime;
+
+        public Departure(long time, Trip trip, TripPattern pattern, int stopIndex,
+                boolean realtime) {
+            this.time = time;
+            this.trip = trip;
+            this.pattern = pattern;
+            this.stopIndex = stopIndex;
+            this.realtime = realtime;
+        }
+    }
+
+    public DepartureIndex(Graph graph) {
+        this.graph = graph;
+        Map<AgencyAndId, List<TransitBoardAlight>> boardingsByStop = 
+                new HashMap<AgencyAndId, List<TransitBoardAlight>>();
+        Map<AgencyAndId, List<FrequencyBoard>> frequencyBoardingsByStop = 
+                new HashMap<AgencyAndId, List<FrequencyBoard>>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof TransitBoardAlight && ((TransitBoardAlight) e).isBoarding()) {
+                    TransitBoardAlight board = (TransitBoardAlight) e;
+                    if (board.getPattern().canBoard(board.getStopIndex()))
+                        add(boardingsByStop, ((TransitVertex) v).getStopId(), board);
+                } else if (e instanceof FrequencyBoard) {
+                    FrequencyBoard board = (FrequencyBoard) e;
+                    if (board.getPattern().canBoard(board.getStopIndex()))
+                        add(frequencyBoardingsByStop, ((TransitVertex) v).getStopId(), board);
+                }
+            }
+        }
+        Set<AgencyAndId> stops = new HashSet<AgencyAndId>(boardingsByStop.keySet());
+        stops.addAll(frequencyBoardingsByStop.keySet());
+        for (AgencyAndId stop : stops) {
+            List<TransitBoardAlight> boardings = boardingsByStop.get(stop);
+            List<FrequencyBoard> frequencyBoardings = frequencyBoardingsByStop.get(stop);
+            departuresByStop.put(stop, new StopDepartures(
+                    boardings == null ? Collections.<TransitBoardAlight> emptyList() : boardings,
+                    frequencyBoardings == null ? Collections.<FrequencyBoard> emptyList()
+                            : frequencyBoardings));
+        }
+    }
+
+    private static <T> void add(Map<AgencyAndId, List<T>> byStop, AgencyAndId stop, T board) {
+        List<T> boardings = byStop.get(stop);
+        if (boardings == null) {
+            boardings = new ArrayList<T>();
+            byStop.put(stop, boardings);
+        }
+        boardings.add(board);
+    }
+
+    /**
+     * @return the departures from a stop between startTime and endTime inclusive (in seconds
+     *         since the epoch) in chronological order, according to the graph's current timetable
+     *         snapshot if there is one.
+     */
+    public List<Departure> getDepartures(AgencyAndId stop, long startTime, long endTime) {
+        StopDepartures departures = departuresByStop.get(stop);
+        if (departures == null || graph.getCalendarService() == null)
+            return Collections.emptyList();
+        TimetableResolver snapshot = null;
+        if (graph.timetableSnapshotSource != null)
+            snapshot = graph.timetableSnapshotSource.getSnapshot();
+        Key key = new Key(stop, startTime / 60, endTime / 60);
+        CachedDepartures cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached == null || cached.snapshot != snapshot) {
+            cached = new CachedDepartures(snapshot, departures.find(key.startMinute * 60,
+                    key.endMinute * 60 + 59, snapshot));
+            synchronized (cache) {
+                cache.put(key, cached);
+            }
+        }
+        // the cached list covers whole minutes
+        List<Departure> all = cached.departures;
+        int from = 0;
+        while (from < all.size() && all.get(from).time < startTime)
+            ++from;
+        int to = all.size();
+        while (to > from && all.get(to - 1).time > endTime)
+            --to;
+        return Collections.unmodifiableList(all.subList(from, to));
+    }
+
+    /** @return whether the departures for these whole minutes are cached, whatever the snapshot */
+    boolean isCached(AgencyAndId stop, long startTime, long endTime) {
+        synchronized (cache) {
+            // containsKey does not count as an access, so this does not change the eviction order
+            return cache.containsKey(new Key(stop, startTime / 60, endTime / 60));
+        }
+    }
+
+    /** The boardings at one stop, and their scheduled departures sorted by time of day. */
+    private class StopDepartures {
+
+        private final TransitBoardAlight[] boardings;
+
+        private final FrequencyBoard[] frequencyBoardings;
+
+        private final int[] times;
+
+        private final int[] boardingForDeparture;
+
+        private final int[] tripForDeparture;
+
+        StopDepartures(List<TransitBoardAlight> boardingList,
+                List<FrequencyBoard> frequencyBoardingList) {
+            boardings = boardingList.toArray(new TransitBoardAlight[boardingList.size()]);
+            frequencyBoardings = frequencyBoardingList
+                    .toArray(new FrequencyBoard[frequencyBoardingList.size()]);
+            int n = 0;
+            for (TransitBoardAlight board : boardings)
+                n += board.getPattern().getNumScheduledTrips();
+            final int[] unsortedTimes = new int[n];
+            int[] unsortedBoardings = new int[n];
+            int[] unsortedTrips = new int[n];
+            Integer[] order = new Integer[n];
+            int d = 0;
+            for (int b = 0; b < boardings.length; b++) {
+                TableTripPattern pattern = boardings[b].getPattern();
+                int stopIndex = boardings[b].getStopIndex();
+                for (int trip = 0; trip < pattern.getNumScheduledTrips(); trip++) {
+                    unsortedTimes[d] = pattern.getDepartureTime(stopIndex, trip);
+                    unsortedBoardings[d] = b;
+                    unsortedTrips[d] = trip;
+                    order[d] = d;
+                    ++d;
+                }
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer d0, Integer d1) {
+                    return unsortedTimes[d0] - unsortedTimes[d1];
+                }
+            });
+            times = new int[n];
+            boardingForDeparture = new int[n];
+            tripForDeparture = new int[n];
+            for (int i = 0; i < n; i++) {
+                times[i] = unsortedTimes[order[i]];
+                boardingForDeparture[i] = unsortedBoardings[order[i]];
+                tripForDeparture[i] = unsortedTrips[order[i]];
+            }
+        }
+
+        List<Departure> find(long startTime, long endTime, TimetableResolver snapshot) {
+            List<Departure> ret = new ArrayList<Departure>();
+            boolean[] updated = new boolean[boardings.length];
+            Map<String, List<ServiceDay>> serviceDaysByAgency = 
+                    new HashMap<String, List<ServiceDay>>();
+            for (int b = 0; b < boardings.length; b++) {
+                if (snapshot != null)
+                    updated[b] = snapshot.isUpdated(boardings[b].getPattern());
+                String agencyId = getAgencyId(boardings[b].getPattern().getExemplar());
+                if (!serviceDaysByAgency.containsKey(agencyId))
+                    serviceDaysByAgency.put(agencyId, getServiceDays(agencyId, startTime, endTime));
+            }
+            for (FrequencyBoard board : frequencyBoardings) {
+                String agencyId = getAgencyId(board.getPattern().getTrip());
+                if (!serviceDaysByAgency.containsKey(agencyId))
+                    serviceDaysByAgency.put(agencyId, getServiceDays(agencyId, startTime, endTime));
+            }
+            // scheduled departures, by service day
+            for (Map.Entry<String, List<ServiceDay>> entry : serviceDaysByAgency.entrySet()) {
+                for (ServiceDay sd : entry.getValue()) {
+                    int start = sd.secondsSinceMidnight(startTime);
+                    int end = sd.secondsSinceMidnight(endTime);
+                    for (int i = firstAtOrAfter(start); i < times.length && times[i] <= end; i++) {
+                        int b = boardingForDeparture[i];
+                        TableTripPattern pattern = boardings[b].getPattern();
+                        if (updated[b] || !sd.serviceIdRunning(pattern.getServiceId())
+                                || !getAgencyId(pattern.getExemplar()).equals(entry.getKey()))
+                            continue;
+                        ret.add(new Departure(sd.time(times[i]), pattern
+                                .getTrip(tripForDeparture[i]), pattern, boardings[b]
+                                .getStopIndex(), false));
+                    }
+                }
+            }
+            // the realtime timetables are not indexed, just scanned
+            for (int b = 0; b < boardings.length; b++) {
+                if (!updated[b])
+                    continue;
+                TableTripPattern pattern = boardings[b].getPattern();
+                int stopIndex = boardings[b].getStopIndex();
+                Timetable timetable = snapshot.resolve(pattern);
+                for (ServiceDay sd : serviceDaysByAgency.get(getAgencyId(pattern.getExemplar()))) {
+                    if (!sd.serviceIdRunning(pattern.getServiceId()))
+                        continue;
+                    for (int trip = 0; trip < timetable.getNumTrips(); trip++) {
+                        TripTimes tripTimes = timetable.getTripTimes(trip);
+                        int t = tripTimes.getDepartureTime(stopIndex);
+                        if (t < 0) // passed or canceled
+                            continue;
+                        long time = sd.time(t);
+                        if (time >= startTime && time <= endTime)
+                            ret.add(new Departure(time, tripTimes.getTrip(), pattern, stopIndex,
+                                    true));
+                    }
+                }
+            }
+            // frequency-based trips, from one departure to the next
+            for (FrequencyBoard board : frequencyBoardings) {
+                FrequencyBasedTripPattern pattern = board.getPattern();
+                int stopIndex = board.getStopIndex();
+                for (ServiceDay sd : serviceDaysByAgency.get(getAgencyId(pattern.getTrip()))) {
+                    if (!sd.serviceIdRunning(pattern.getServiceId()))
+                        continue;
+                    int end = sd.secondsSinceMidnight(endTime);
+                    int t = nextDeparture(pattern, stopIndex,
+                            sd.secondsSinceMidnight(startTime) - 1);
+                    while (t >= 0 && t <= end) {
+                        ret.add(new Departure(sd.time(t), pattern.getTrip(), pattern, stopIndex,
+                                false));
+                        t = nextDeparture(pattern, stopIndex, t);
+                    }
+                }
+            }
+            Collections.sort(ret, new Comparator<Departure>() {
+                @Override
+                public int compare(Departure d0, Departure d1) {
+                    return d0.time < d1.time ? -1 : (d0.time == d1.time ? 0 : 1);
+                }
+            });
+            return ret;
+        }
+
+        /** @return the first departure after afterTime, in its headway period or a later one */
+        private int nextDeparture(FrequencyBasedTripPattern pattern, int stopIndex, int afterTime) {
+            int t = pattern.getNextDepartureTime(stopIndex, afterTime, false, false, true);
+            if (t < 0)
+                t = pattern.getNextPeriodStart(stopIndex, afterTime);
+            return t;
+        }
+
+        private String getAgencyId(Trip trip) {
+            return trip.getRoute().getAgency().getId();
+        }
+
+        private int firstAtOrAfter(int time) {
+            int lo = 0, hi = times.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[mid] < time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /** 
+     * @return the service days of an agency whose trips may depart in the given interval: trips
+     *         can run past midnight, so this starts with the day before startTime.
+     */
+    private List<ServiceDay> getServiceDays(String agencyId, long startTime, long endTime) {
+        ServiceDayCache serviceDayCache = graph.getServiceDayCache();
+        List<ServiceDay> serviceDays = new ArrayList<ServiceDay>();
+        for (long t = startTime - SEC_IN_DAY; t < endTime + SEC_IN_DAY; t += SEC_IN_DAY) {
+            ServiceDay sd = serviceDayCache.getServiceDay(Math.min(t, endTime), agencyId, null);
+            if (!serviceDays.contains(sd))
+                serviceDays.add(sd);
+        }
+        return serviceDays;
+    }
+
+    private static class CachedDepartures {
+
+        final TimetableResolver snapshot;
+
+        final List<Departure> departures;
+
+        CachedDepartures(TimetableResolver snapshot, List<Departure> departures) {
+            this.snapshot = snapshot;
+            this.departures = departures;
+        }
+    }
+
+    private static class Key {
+
+        final AgencyAndId stop;
+
+        final long startMinute, endMinute;
+
+        Key(AgencyAndId stop, long startMinute, long endMinute) {
+            this.stop = stop;
+            this.startMinute = startMinute;
+            this.endMinute = endMinute;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return stop.equals(other.stop) && startMinute == other.startMinute
+                    && endMinute == other.endMinute;
+        }
+
+        @Override
+        public int hashCode() {
+            return stop.hashCode() * 31 + (int) (startMinute * 17 + endMinute);
+        }
+    }
+}
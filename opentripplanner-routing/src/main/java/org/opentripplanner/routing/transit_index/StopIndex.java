@@ -0,0 +1,267 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.transit_index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * An immutable grid index of the transit stops, for map clients that ask for the stops near a 
+ * point or in a rectangle over and over. The stops are sorted by grid cell, so that each cell is a 
+ * range of the stop arrays; queries walk the cells they overlap and filter the stops by agency, 
+ * route and mode as they go, without building any intermediate collection.
+ * 
+ * The filters are optional: a null agency, route or mode set matches all stops.
+ */
+public class StopIndex {
+
+    private static final double CELL_SIZE_M = 500;
+
+    private static final int MAX_CELLS = 1 << 20;
+
+    private static final DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
+
+    /** Receives the stops found by a query. */
+    public static interface StopVisitor {
+        public void visit(TransitStop stop);
+    }
+
+    private final TransitStop[] stops;
+
+    private final double[] lats, lons;
+
+    private final String[] agencies;
+
+    /** The TraverseModeSet masks of the route variants serving each stop */
+    private final int[] modes;
+
+    private final Map<AgencyAndId, BitSet> stopsForRoute = new HashMap<AgencyAndId, BitSet>();
+
+    private final double west, south, dLon, dLat;
+
+    private final int width, height;
+
+    /** The stops of cell (x, y) are those from cellStart[y * width + x] to the next cell's start */
+    private final int[] cellStart;
+
+    /** A lower bound on the width and height of a cell, in meters */
+    private final double minCellSizeM;
+
+    public StopIndex(Collection<TransitStop> stopVertices, Collection<RouteVariant> variants) {
+        int n = stopVertices.size();
+        Envelope env = new Envelope();
+        for (TransitStop stop : stopVertices)
+            env.expandToInclude(stop.getCoordinate());
+        if (env.isNull())
+            env.expandToInclude(0, 0);
+        double cellLat = SphericalDistanceLibrary.metersToDegrees(CELL_SIZE_M);
+        double cellLon = cellLat / Math.cos(Math.toRadians(env.centre().y));
+        while ((env.getWidth() / cellLon + 1) * (env.getHeight() / cellLat + 1) > MAX_CELLS) {
+            cellLat *= 2;
+            cellLon *= 2;
+        }
+        west = env.getMinX();
+        south = env.getMinY();
+        dLon = cellLon;
+        dLat = cellLat;
+        width = (int) (env.getWidth() / dLon) + 1;
+        height = (int) (env.getHeight() / dLat) + 1;
+        double maxAbsLat = Math.max(Math.abs(env.getMinY()), Math.abs(env.getMaxY()));
+        double metersPerDegree = CELL_SIZE_M / SphericalDistanceLibrary.metersToDegrees(CELL_SIZE_M);
+        minCellSizeM = Math.min(dLat, dLon * Math.cos(Math.toRadians(maxAbsLat)))
+                * metersPerDegree;
+
+        // counting sort of the stops by cell
+        cellStart = new int[width * height + 1];
+        int[] cellOfStop = new int[n];
+        int i = 0;
+        for (TransitStop stop : stopVertices) {
+            cellOfStop[i] = cell(cellX(stop.getX()), cellY(stop.getY()));
+            cellStart[cellOfStop[i] + 1]++;
+            ++i;
+        }
+        for (int c = 0; c < width * height; c++)
+            cellStart[c + 1] += cellStart[c];
+        int[] next = new int[width * height];
+        System.arraycopy(cellStart, 0, next, 0, next.length);
+        stops = new TransitStop[n];
+        lats = new double[n];
+        lons = new double[n];
+        agencies = new String[n];
+        modes = new int[n];
+        Map<AgencyAndId, Integer> indexForStop = new HashMap<AgencyAndId, Integer>();
+        i = 0;
+        for (TransitStop stop : stopVertices) {
+            int s = next[cellOfStop[i++]]++;
+            stops[s] = stop;
+            lats[s] = stop.getY();
+            lons[s] = stop.getX();
+            agencies[s] = stop.getStopId().getAgencyId();
+            indexForStop.put(stop.getStopId(), s);
+        }
+
+        for (RouteVariant variant : variants) {
+            int mask = new TraverseModeSet(variant.getTraverseMode()).getMask();
+            AgencyAndId route = variant.getRoute().getId();
+            BitSet routeStops = stopsForRoute.get(route);
+            if (routeStops == null) {
+                routeStops = new BitSet(n);
+                stopsForRoute.put(route, routeStops);
+            }
+            for (Stop stop : variant.getStops()) {
+                Integer s = indexForStop.get(stop.getId());
+                if (s == null)
+                    continue;
+                modes[s] |= mask;
+                routeStops.set(s);
+            }
+        }
+    }
+
+    public int size() {
+        return stops.length;
+    }
+
+    /** Visit the stops inside an envelope (in longitude and latitude) that match the filters. */
+    public void query(Envelope env, String agency, AgencyAndId route, TraverseModeSet modeSet,
+            StopVisitor visitor) {
+        BitSet routeStops = getRouteStops(route);
+        if (route != null && routeStops == null)
+            return;
+        int modeMask = modeSet == null ? 0 : modeSet.getMask();
+        int x0 = Math.max(cellX(env.getMinX()), 0), x1 = Math.min(cellX(env.getMaxX()), width - 1);
+        int y0 = Math.max(cellY(env.getMinY()), 0), y1 = Math.min(cellY(env.getMaxY()), height - 1);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int c = cell(x, y);
+                for (int s = cellStart[c]; s < cellStart[c + 1]; s++) {
+                    if (lons[s] < env.getMinX() || lons[s] > env.getMaxX()
+                            || lats[s] < env.getMinY() || lats[s] > env.getMaxY())
+                        continue;
+                    if (matches(s, agency, routeStops, modeMask))
+                        visitor.visit(stops[s]);
+                }
+            }
+        }
+    }
+
+    /** @return the stops inside an envelope that match the filters */
+    public List<TransitStop> getStopsInEnvelope(Envelope env, String agency, AgencyAndId route,
+            TraverseModeSet modeSet) {
+        final List<TransitStop> ret = new ArrayList<TransitStop>();
+        query(env, agency, route, modeSet, new StopVisitor() {
+            @Override
+            public void visit(TransitStop stop) {
+                ret.add(stop);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * @return the (at most) k stops matching the filters that are nearest to a point and within
+     *         radius meters of it, nearest first.
+     */
+    public List<TransitStop> getNearestStops(Coordinate c, double radius, int k, String agency,
+            AgencyAndId route, TraverseModeSet modeSet) {
+        BitSet routeStops = getRouteStops(route);
+        int capacity = Math.min(k, stops.length);
+        if ((route != null && routeStops == null) || capacity <= 0)
+            return new ArrayList<TransitStop>();
+        int modeMask = modeSet == null ? 0 : modeSet.getMask();
+        // the best stops found so far, nearest first
+        int[] best = new int[capacity];
+        double[] bestDistance = new double[capacity];
+        int found = 0;
+        int cx = cellX(c.x), cy = cellY(c.y);
+        int maxRing = Math.max(width, height) + Math.abs(cx) + Math.abs(cy);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // every stop in this ring or beyond is at least this far away
+            double minDistance = (ring - 1) * minCellSizeM;
+            if (minDistance > radius || (found == capacity && minDistance > bestDistance[found - 1]))
+                break;
+            for (int y = cy - ring; y <= cy + ring; y++) {
+                if (y < 0 || y >= height)
+                    continue;
+                boolean edgeRow = y == cy - ring || y == cy + ring;
+                for (int x = cx - ring; x <= cx + ring; x += edgeRow ? 1 : 2 * ring) {
+                    if (x >= 0 && x < width) {
+                        int cell = cell(x, y);
+                        for (int s = cellStart[cell]; s < cellStart[cell + 1]; s++) {
+                            if (!matches(s, agency, routeStops, modeMask))
+                                continue;
+                            double d = distanceLibrary.distance(c.y, c.x, lats[s], lons[s]);
+                            if (d > radius || (found == capacity && d >= bestDistance[found - 1]))
+                                continue;
+                            // insert into the sorted best stops
+                            int j = found < capacity ? found++ : found - 1;
+                            while (j > 0 && bestDistance[j - 1] > d) {
+                                best[j] = best[j - 1];
+                                bestDistance[j] = bestDistance[j - 1];
+                                --j;
+                            }
+                            best[j] = s;
+                            bestDistance[j] = d;
+                        }
+                    }
+                }
+            }
+        }
+        List<TransitStop> ret = new ArrayList<TransitStop>(found);
+        for (int j = 0; j < found; j++)
+            ret.add(stops[best[j]]);
+        return ret;
+    }
+
+    private BitSet getRouteStops(AgencyAndId route) {
+        return route == null ? null : stopsForRoute.get(route);
+    }
+
+    private boolean matches(int s, String agency, BitSet routeStops, int modeMask) {
+        if (agency != null && !agency.equals(agencies[s]))
+            return false;
+        if (routeStops != null && !routeStops.get(s))
+            return false;
+        if (modeMask != 0 && (modes[s] & modeMask) == 0)
+            return false;
+        return true;
+    }
+
+    private int cellX(double lon) {
+        return (int) Math.floor((lon - west) / dLon);
+    }
+
+    private int cellY(double lat) {
+        return (int) Math.floor((lat - south) / dLat);
+    }
+
+    private int cell(int x, int y) {
+        return y * width + x;
+    }
+}
@@ -33,6 +33,7 @@ import org.opentripplanner.routing.edgetype.PreAlightEdge;
 import org.opentripplanner.routing.edgetype.PreBoardEdge;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.services.TransitIndexService;
+import org.opentripplanner.routing.vertextype.TransitStop;
 import org.opentripplanner.util.MapUtils;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -66,6 +67,8 @@ public class TransitIndexServiceImpl implements TransitIndexService, Serializabl
 
     private int overnightBreak;
 
+    private transient volatile StopIndex stopIndex;
+
     public TransitIndexServiceImpl(HashMap<String, List<RouteVariant>> variantsByAgency,
             HashMap<AgencyAndId, List<RouteVariant>> variantsByRoute,
             HashMap<AgencyAndId, RouteVariant> variantsByTrip,
@@ -103,6 +106,7 @@ public class TransitIndexServiceImpl implements TransitIndexService, Serializabl
                 this.modes.add(mode);
             }
         }
+        stopIndex = null;
     }
 
     @Override
@@ -231,4 +235,30 @@ public class TransitIndexServiceImpl implements TransitIndexService, Serializabl
     public Collection<Stop> getStopsForRoute(AgencyAndId route) {
         return stopsForRoute.get(route);
     }
+
+    @Override
+    public StopIndex getStopIndex() {
+        StopIndex index = stopIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = stopIndex;
+                if (index == null) {
+                    HashMap<AgencyAndId, TransitStop> stops = new HashMap<AgencyAndId, TransitStop>();
+                    for (PreBoardEdge e : preBoardEdges.values()) {
+                        TransitStop stop = (TransitStop) e.getFromVertex();
+                        stops.put(stop.getStopId(), stop);
+                    }
+                    for (PreAlightEdge e : preAlightEdges.values()) {
+                        TransitStop stop = (TransitStop) e.getToVertex();
+                        stops.put(stop.getStopId(), stop);
+                    }
+                    List<RouteVariant> variants = new ArrayList<RouteVariant>();
+                    for (List<RouteVariant> routeVariants : variantsByRoute.values())
+                        variants.addAll(routeVariants);
+                    stopIndex = index = new StopIndex(stops.values(), variants);
+                }
+            }
+        }
+        return index;
+    }
 }
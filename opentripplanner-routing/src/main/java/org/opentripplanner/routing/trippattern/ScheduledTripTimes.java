@@ -1,10 +1,13 @@
 package org.opentripplanner.routing.trippattern;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 
 import lombok.Getter;
+import lombok.Setter;
 
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
@@ -25,6 +28,12 @@ public class ScheduledTripTimes extends TripTimes implements Serializable {
     
     @Getter private final Trip trip;
 
+    /** 
+     * The index of this trip among all scheduled trips in the graph, assigned at graph load by
+     * {@link org.opentripplanner.routing.core.RouteTripIndex}, or -1 if it was not indexed.
+     */
+    @Getter @Setter private transient int denseIndex = -1;
+
     /**
      * Both trip_headsign and stop_headsign (per stop on a particular trip) are optional GTFS 
      * fields. If the headsigns array is null, we will report the trip_headsign (which may also
@@ -163,6 +172,12 @@ public class ScheduledTripTimes extends TripTimes implements Serializable {
     public String toString() {
         return "ScheduledTripTimes\n" + dumpTimes();
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // transient fields are zeroed, which is a valid index
+        denseIndex = -1;
+    }
     
     @Override
     public String getHeadsign(int hop) {
@@ -1,9 +1,5 @@
 package org.opentripplanner.routing.trippattern;
 
-import java.util.Comparator;
-
-import lombok.AllArgsConstructor;
-
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.slf4j.Logger;
@@ -155,64 +151,6 @@ public abstract class TripTimes {
         return increasing;
     }
     
-    /* STATIC METHODS TAKING TRIPTIMES AS ARGUMENTS */
-
-    /**
-     * Binary search method adapted from GNU Classpath Arrays.java (GPL). 
-     * Range parameters and range checking removed.
-     * Search across an array of TripTimes, looking only at a specific hop number.
-     * 
-     * @return the index at which the key was found, or the index of the first value higher than 
-     * key if it was not found, or a.length if there is no such value. Note that this has been
-     * changed from Arrays.binarysearch.
-     */
-    public static int binarySearchDepartures(TripTimes[] a, int hop, int key) {
-        int low = 0;
-        int hi = a.length - 1;
-        int mid = 0;
-        while (low <= hi) {
-            mid = (low + hi) >>> 1;
-            final int d = a[mid].getDepartureTime(hop);
-            if (d == key)
-                return mid;
-            else if (d > key)
-                hi = mid - 1;
-            else
-                // This gets the insertion point right on the last loop.
-                low = ++mid;
-        }
-        return mid;
-    }
-
-    /**
-     * Binary search method adapted from GNU Classpath Arrays.java (GPL). 
-     * Range parameters and range checking removed.
-     * Search across an array of TripTimes, looking only at a specific hop number.
-     * 
-     * @return the index at which the key was found, or the index of the first value *lower* than
-     * key if it was not found, or -1 if there is no such value. Note that this has been changed
-     * from Arrays.binarysearch: this is a mirror-image of the departure search algorithm.
-     * 
-     * TODO: I have worked through corner cases but should reverify with some critical distance.
-     */
-    public static int binarySearchArrivals(TripTimes[] a, int hop, int key) {
-        int low = 0;
-        int hi = a.length - 1;
-        int mid = hi;
-        while (low <= hi) {
-            mid = (low + hi) >>> 1;
-            final int d = a[mid].getArrivalTime(hop);
-            if (d == key)
-                return mid;
-            else if (d < key)
-                low = mid + 1;
-            else
-                // This gets the insertion point right on the last loop.
-                hi = --mid;
-        }
-        return mid;
-    }
-
     /**
      * Once a trip has been found departing or arriving at an appropriate time, check whether that 
      * trip fits other restrictive search criteria such as bicycle and wheelchair accessibility.
@@ -227,37 +165,30 @@ public abstract class TripTimes {
      */
     public boolean tripAcceptable(RoutingRequest options, boolean bicycle) {
         Trip trip = this.getTrip();
-        if (options.bannedTrips.contains(trip.getId()))
+        if (options.rctx == null) {
+            // no graph to compile the filter against, check the set itself
+            if (options.bannedTrips.contains(trip.getId()))
+                return false;
+        } else if (options.getTransitFilter().tripBanned(this)) {
             return false;
-        if (options.wheelchairAccessible && trip.getWheelchairAccessible() != 1)
+        }
+        if (options.wheelchairAccessible && ! wheelchairAccessible(trip))
             return false;
-        if (bicycle)
-            if ((trip.getTripBikesAllowed() != 2) &&    // trip does not explicitly allow bikes and
-                (trip.getRoute().getBikesAllowed() != 2 // route does not explicitly allow bikes or  
-                || trip.getTripBikesAllowed() == 1))    // trip explicitly forbids bikes
-                return false; 
+        if (bicycle && ! bikesAllowed(trip))
+            return false; 
         return true;
     }
 
-
-    /* NESTED STATIC CLASSES */
-    
-    /** Used for sorting an array of StopTimes based on arrivals for a specific hop. */
-    @AllArgsConstructor
-    public static class ArrivalsComparator implements Comparator<TripTimes> {
-        final int hop; 
-        @Override public int compare(TripTimes tt1, TripTimes tt2) {
-            return tt1.getArrivalTime(hop) - tt2.getArrivalTime(hop);
-        }
+    /** @return whether the trip is explicitly marked as wheelchair accessible. */
+    public static boolean wheelchairAccessible(Trip trip) {
+        return trip.getWheelchairAccessible() == 1;
     }
-        
-    /** Used for sorting an array of StopTimes based on departures for a specific hop. */
-    @AllArgsConstructor
-    public static class DeparturesComparator implements Comparator<TripTimes> {
-        final int hop; 
-        @Override public int compare(TripTimes tt1, TripTimes tt2) {
-            return tt1.getDepartureTime(hop) - tt2.getDepartureTime(hop);
-        }
+
+    /** @return whether bicycles may be carried on the trip, see {@link #tripAcceptable}. */
+    public static boolean bikesAllowed(Trip trip) {
+        return (trip.getTripBikesAllowed() == 2) ||  // trip explicitly allows bikes or
+               (trip.getRoute().getBikesAllowed() == 2 // route explicitly allows bikes and  
+                && trip.getTripBikesAllowed() != 1);   // trip does not explicitly forbid bikes
     }
 
 }
@@ -1,6 +1,7 @@
 package org.opentripplanner.routing.vertextype;
 
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
 import org.opentripplanner.routing.graph.AbstractVertex;
 import org.opentripplanner.routing.graph.Graph;
 
@@ -20,6 +21,9 @@ public class BikeRentalStationVertex extends AbstractVertex {
 
     private String id;
 
+    /** The index of this station in the BikeRentalAvailability snapshots, if it has one */
+    private int availabilitySlot = -1;
+
     public BikeRentalStationVertex(Graph g, String id, String label, double x, double y, String name,
             int capacity) {
         super(g, label, x, y, name);
@@ -52,6 +56,41 @@ public class BikeRentalStationVertex extends AbstractVertex {
         this.spacesAvailable = spaces;
     }
 
+    /**
+     * The availability at this station according to a snapshot, or to the values last set on the
+     * vertex if the snapshot does not cover this station.
+     */
+    public int getBikesAvailable(BikeRentalAvailability availability) {
+        if (availability != null && availability.covers(availabilitySlot))
+            return availability.getBikesAvailable(availabilitySlot);
+        return bikesAvailable;
+    }
+
+    public int getSpacesAvailable(BikeRentalAvailability availability) {
+        if (availability != null && availability.covers(availabilitySlot))
+            return availability.getSpacesAvailable(availabilitySlot);
+        return spacesAvailable;
+    }
+
+    /**
+     * @return false if the station has been removed from the feed after it was linked, or if it
+     *         was linked by an updater after the snapshot was published
+     */
+    public boolean isInService(BikeRentalAvailability availability) {
+        if (availabilitySlot < 0)
+            return true;
+        return availability != null && availability.covers(availabilitySlot)
+                && availability.isInService(availabilitySlot);
+    }
+
+    public int getAvailabilitySlot() {
+        return availabilitySlot;
+    }
+
+    public void setAvailabilitySlot(int availabilitySlot) {
+        this.availabilitySlot = availabilitySlot;
+    }
+
     public String getId() {
         return id;
     }
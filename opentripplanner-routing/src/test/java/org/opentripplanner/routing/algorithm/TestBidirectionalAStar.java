@@ -0,0 +1,163 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.LineString;
+
+public class TestBidirectionalAStar extends TestCase {
+
+    private static final int SIZE = 20;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    private PlainStreetEdge[][] eastbound;
+
+    private PlainStreetEdge[][] northbound;
+
+    /** A slightly irregular grid of two-way streets. */
+    public void setUp() {
+        Random random = new Random(42);
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        eastbound = new PlainStreetEdge[SIZE][SIZE];
+        northbound = new PlainStreetEdge[SIZE][SIZE];
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                double lat = 45.5 + row * 0.002 + random.nextDouble() * 0.0005;
+                double lon = -122.7 + col * 0.0028 + random.nextDouble() * 0.0007;
+                grid[row][col] = new IntersectionVertex(graph, "i_" + row + "_" + col, lon, lat);
+            }
+        }
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                if (col + 1 < SIZE)
+                    eastbound[row][col] = street(grid[row][col], grid[row][col + 1], random);
+                if (row + 1 < SIZE)
+                    northbound[row][col] = street(grid[row][col], grid[row + 1][col], random);
+            }
+        }
+    }
+
+    private PlainStreetEdge street(IntersectionVertex v0, IntersectionVertex v1, Random random) {
+        DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
+        // some streets wind a bit, so that the shortest paths are not all equivalent
+        double length = distanceLibrary.distance(v0.getCoordinate(), v1.getCoordinate())
+                * (1 + random.nextDouble() * 0.5);
+        LineString geometry = GeometryUtils.makeLineString(v0.getX(), v0.getY(), v1.getX(),
+                v1.getY());
+        StreetTraversalPermission permission = random.nextInt(10) == 0 ?
+                StreetTraversalPermission.PEDESTRIAN : StreetTraversalPermission.ALL;
+        PlainStreetEdge forward = new PlainStreetEdge(v0, v1, geometry, "street", length,
+                permission, false);
+        new PlainStreetEdge(v1, v0, (LineString) geometry.reverse(), "street", length,
+                permission, true);
+        return forward;
+    }
+
+    private GraphPath route(SPTService sptService, String modes, boolean arriveBy,
+            IntersectionVertex from, IntersectionVertex to) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(modes));
+        options.dateTime = 1370440800; // 2013-06-05 14:00 UTC
+        options.setArriveBy(arriveBy);
+        options.setRoutingContext(graph, from, to);
+        ShortestPathTree spt = sptService.getShortestPathTree(options);
+        List<GraphPath> paths = spt.getPaths();
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+
+    public void testSameWeightsAsGenericAStar() {
+        GenericAStar aStar = new GenericAStar();
+        BidirectionalAStar bidirectional = new BidirectionalAStar();
+        Random random = new Random(7);
+        for (String modes : new String[] { "WALK", "BICYCLE", "CAR" }) {
+            for (int i = 0; i < 30; i++) {
+                IntersectionVertex from = grid[random.nextInt(SIZE)][random.nextInt(SIZE)];
+                IntersectionVertex to = grid[random.nextInt(SIZE)][random.nextInt(SIZE)];
+                boolean arriveBy = random.nextBoolean();
+                GraphPath expected = route(aStar, modes, arriveBy, from, to);
+                GraphPath actual = route(bidirectional, modes, arriveBy, from, to);
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+                assertNotNull(actual);
+                assertEquals(from, actual.getStartVertex());
+                assertEquals(to, actual.getEndVertex());
+                assertEquals(modes + " " + from + " -> " + to, expected.getWeight(),
+                        actual.getWeight(), 0.0);
+            }
+        }
+    }
+
+    public void testTurnRestrictionAtMeetingPoint() {
+        // forbid going straight through the middle of the grid from the west
+        int mid = SIZE / 2;
+        PlainStreetEdge from = eastbound[mid][mid - 1];
+        PlainStreetEdge to = eastbound[mid][mid];
+        TurnRestriction restriction = new TurnRestriction();
+        restriction.type = TurnRestrictionType.NO_TURN;
+        restriction.from = from;
+        restriction.to = to;
+        restriction.modes = new TraverseModeSet(TraverseMode.CAR);
+        from.addTurnRestriction(restriction);
+
+        GraphPath expected = route(new GenericAStar(), "CAR", false, grid[mid][0],
+                grid[mid][SIZE - 1]);
+        GraphPath path = route(new BidirectionalAStar(), "CAR", false, grid[mid][0],
+                grid[mid][SIZE - 1]);
+        assertNotNull(path);
+        Edge previous = null;
+        for (Edge edge : path.edges) {
+            assertFalse(previous == from && edge == to);
+            previous = edge;
+        }
+        assertEquals(expected.getWeight(), path.getWeight(), 0.0);
+    }
+
+    public void testTransitIsDelegated() {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet("WALK,TRANSIT"));
+        options.setRoutingContext(graph, grid[0][0], grid[1][1]);
+        assertFalse(BidirectionalAStar.isStreetOnly(options));
+        options = new RoutingRequest(new TraverseModeSet("WALK,BICYCLE"));
+        options.setRoutingContext(graph, grid[0][0], grid[1][1]);
+        assertFalse(BidirectionalAStar.isStreetOnly(options));
+        options = new RoutingRequest(new TraverseModeSet("CAR"));
+        options.setRoutingContext(graph, grid[0][0], grid[1][1]);
+        assertTrue(BidirectionalAStar.isStreetOnly(options));
+    }
+}
@@ -14,6 +14,8 @@
 package org.opentripplanner.routing.algorithm;
 
 import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
+import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.edgetype.PlainStreetEdge;
@@ -102,4 +104,93 @@ public class TestBikeRental extends TestCase {
         path = tree.getPath(v3, false);
         assertNotNull(path);
     }
+
+    public void testAvailabilitySnapshot() throws Exception {
+        Graph graph = new Graph();
+        BikeRentalStationVertex[] stations = makeStations(graph);
+        StreetVertex v1 = (StreetVertex) graph.getVertex("v1");
+        StreetVertex v3 = (StreetVertex) graph.getVertex("v3");
+        GenericAStar aStar = new GenericAStar();
+
+        // the second station has left the feed
+        stations[0].setAvailabilitySlot(0);
+        stations[1].setAvailabilitySlot(1);
+        BikeRentalStationService service = new BikeRentalStationService();
+        graph.putService(BikeRentalStationService.class, service);
+        service.setAvailability(new BikeRentalAvailability(1, new int[] { 5, -1 }, new int[] {
+                5, -1 }));
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet("WALK,BICYCLE,TRANSIT"));
+        options.setRoutingContext(graph, v1, v3);
+        ShortestPathTree tree = aStar.getShortestPathTree(options);
+
+        GraphPath path = tree.getPath(v3, false);
+        assertNull(path);
+
+        // searches keep the snapshot they started with
+        RoutingRequest before = options;
+        service.setAvailability(new BikeRentalAvailability(2, new int[] { 5, 5 }, new int[] {
+                5, 5 }));
+        assertEquals(1, before.rctx.bikeRentalAvailability.version);
+        options = new RoutingRequest(new TraverseModeSet("WALK,BICYCLE,TRANSIT"));
+        options.setRoutingContext(graph, v1, v3);
+        tree = aStar.getShortestPathTree(options);
+
+        path = tree.getPath(v3, false);
+        assertNotNull(path);
+    }
+
+    public void testUnpublishedStation() throws Exception {
+        Graph graph = new Graph();
+        BikeRentalStationVertex[] stations = makeStations(graph);
+        StreetVertex v1 = (StreetVertex) graph.getVertex("v1");
+        StreetVertex v3 = (StreetVertex) graph.getVertex("v3");
+        GenericAStar aStar = new GenericAStar();
+
+        // the second station was linked after the current snapshot was published
+        stations[0].setAvailabilitySlot(0);
+        stations[1].setAvailabilitySlot(1);
+        BikeRentalStationService service = new BikeRentalStationService();
+        graph.putService(BikeRentalStationService.class, service);
+        service.setAvailability(new BikeRentalAvailability(1, new int[] { 5 }, new int[] { 5 }));
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet("WALK,BICYCLE,TRANSIT"));
+        options.setRoutingContext(graph, v1, v3);
+        ShortestPathTree tree = aStar.getShortestPathTree(options);
+
+        assertNull(tree.getPath(v3, false));
+        assertNull(tree.getState(stations[1]));
+
+        // nor is it usable before the first snapshot
+        service.setAvailability(null);
+        options = new RoutingRequest(new TraverseModeSet("WALK,BICYCLE,TRANSIT"));
+        options.setRoutingContext(graph, v1, v3);
+        tree = aStar.getShortestPathTree(options);
+
+        assertNull(tree.getState(stations[0]));
+        assertNull(tree.getState(stations[1]));
+    }
+
+    /** The street graph of testBasic, with both stations linked */
+    private BikeRentalStationVertex[] makeStations(Graph graph) {
+        StreetVertex v1 = new IntersectionVertex(graph, "v1", -77.0492, 38.856, "v1");
+        StreetVertex v2 = new IntersectionVertex(graph, "v2", -77.0492, 38.857, "v2");
+        StreetVertex v3 = new IntersectionVertex(graph, "v3", -77.0492, 38.858, "v3");
+        new PlainStreetEdge(v1, v2, GeometryUtils.makeLineString(-77.0492, 38.856, -77.0492,
+                38.857), "S. Crystal Dr", 87, StreetTraversalPermission.PEDESTRIAN, false);
+        new PlainStreetEdge(v2, v3, GeometryUtils.makeLineString(-77.0492, 38.857, -77.0492,
+                38.858), "S. Crystal Dr", 87, StreetTraversalPermission.BICYCLE, false);
+
+        BikeRentalStationVertex station = new BikeRentalStationVertex(graph, "id", "station",
+                -77.049, 36.856, "station", 10);
+        new StreetBikeRentalLink(station, v2);
+        new StreetBikeRentalLink(v2, station);
+        new RentABikeOnEdge(station, station, "default");
+        new RentABikeOffEdge(station, station, "default");
+        BikeRentalStationVertex station2 = new BikeRentalStationVertex(graph, "id2", "station2",
+                -77.049, 36.857, "station", 10);
+        new StreetBikeRentalLink(station2, v3);
+        new StreetBikeRentalLink(v3, station2);
+        new RentABikeOnEdge(station2, station2, "default");
+        new RentABikeOffEdge(station2, station2, "default");
+        return new BikeRentalStationVertex[] { station, station2 };
+    }
 }
@@ -14,6 +14,8 @@
 package org.opentripplanner.routing.algorithm;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -29,6 +31,7 @@ import org.opentripplanner.routing.core.WrappedCurrency;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.services.BatchFareService;
 import org.opentripplanner.routing.services.FareService;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
@@ -59,6 +62,12 @@ public class TestFares extends TestCase {
         
         Fare cost = fareService.getCost(path);
         assertEquals(cost.getFare(FareType.regular), new Money(new WrappedCurrency("USD"), 425));
+
+        // the fare service of a GTFS graph prices whole plans at once
+        assertTrue(fareService instanceof BatchFareService);
+        List<Fare> costs = ((BatchFareService) fareService).getCosts(Arrays.asList(path, path));
+        assertEquals(2, costs.size());
+        assertEquals(cost.getFare(FareType.regular), costs.get(1).getFare(FareType.regular));
     }
 
     public void testPortland() throws Exception {
@@ -0,0 +1,57 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.State;
+
+public class TestSearchWorkspace {
+
+    @Test
+    public void testQueueIsReused() {
+        SearchWorkspace workspace = new SearchWorkspace();
+        BinHeap<State> q1 = workspace.acquireQueue();
+        q1.insert(null, 1.0);
+        workspace.release(q1);
+        BinHeap<State> q2 = workspace.acquireQueue();
+        assertSame(q1, q2);
+        assertTrue(q2.empty());
+        workspace.release(q2);
+    }
+
+    @Test
+    public void testNestedSearchGetsItsOwnQueue() {
+        SearchWorkspace workspace = new SearchWorkspace();
+        BinHeap<State> outer = workspace.acquireQueue();
+        BinHeap<State> inner = workspace.acquireQueue();
+        assertNotSame(outer, inner);
+        workspace.release(inner);
+        workspace.release(outer);
+        assertSame(outer, workspace.acquireQueue());
+    }
+
+    @Test
+    public void testOversizedQueueIsDropped() {
+        SearchWorkspace workspace = new SearchWorkspace();
+        BinHeap<State> q1 = workspace.acquireQueue();
+        q1.resize(SearchWorkspace.MAX_RETAINED_CAPACITY + 1);
+        workspace.release(q1);
+        assertNotSame(q1, workspace.acquireQueue());
+    }
+}
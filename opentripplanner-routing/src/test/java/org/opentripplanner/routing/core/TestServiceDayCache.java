@@ -0,0 +1,51 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.util.TestUtils;
+
+public class TestServiceDayCache extends TestCase {
+
+    public void testCachedServiceDays() throws Exception {
+        Graph graph = new Graph();
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        new GTFSPatternHopFactory(context).run(graph);
+        CalendarServiceData data = GtfsLibrary.createCalendarServiceData(context.getDao());
+        graph.putService(CalendarServiceData.class, data);
+        graph.updateTransitFeedValidity(data);
+
+        ServiceDayCache cache = graph.getServiceDayCache();
+        cache.precompute();
+        String agency = graph.getAgencyIds().iterator().next();
+        // a weekday, a saturday, a sunday, at all hours of the day
+        long start = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 0, 0, 0);
+        for (long time = start; time < start + 3 * 24 * 3600; time += 3 * 3600 + 17) {
+            ServiceDay cached = cache.getServiceDay(time, agency, null);
+            ServiceDay computed = new ServiceDay(graph, time, graph.getCalendarService(), agency);
+            assertEquals(computed.midnight, cached.midnight);
+            assertEquals(computed.serviceIdsRunning, cached.serviceIdsRunning);
+            assertSame(cached, cache.getServiceDay(time, agency, null));
+        }
+    }
+}
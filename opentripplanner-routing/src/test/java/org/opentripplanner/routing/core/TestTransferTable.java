@@ -0,0 +1,122 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestTransferTable extends TestCase {
+
+    private Graph graph;
+
+    private Vertex a, b, c, d;
+
+    private TransferTable table;
+
+    public void setUp() {
+        graph = new Graph();
+        a = new IntersectionVertex(graph, "a", 0, 0);
+        b = new IntersectionVertex(graph, "b", 0, 1);
+        c = new IntersectionVertex(graph, "c", 1, 0);
+        d = new IntersectionVertex(graph, "d", 1, 1);
+        table = graph.getTransferTable();
+        table.setTransferTime(a, b, 120);
+        table.setTransferTime(a, c, TransferTable.FORBIDDEN_TRANSFER);
+        table.setTransferTime(c, b, TransferTable.TIMED_TRANSFER);
+        table.setTransferTime(d, a, 300);
+    }
+
+    public void testLookups() {
+        assertFalse(table.hasPreferredTransfers());
+        assertEquals(120, table.getTransferTime(a, b));
+        assertEquals(TransferTable.FORBIDDEN_TRANSFER, table.getTransferTime(a, c));
+        assertEquals(TransferTable.TIMED_TRANSFER, table.getTransferTime(c, b));
+        assertEquals(300, table.getTransferTime(d, a));
+        // transfers are directed
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(b, a));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(a, d));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(b, c));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(null, a));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(a, null));
+    }
+
+    public void testAddAfterLookup() {
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(b, d));
+        table.setTransferTime(b, d, TransferTable.PREFERRED_TRANSFER);
+        assertTrue(table.hasPreferredTransfers());
+        assertEquals(TransferTable.PREFERRED_TRANSFER, table.getTransferTime(b, d));
+        table.setTransferTime(a, b, 60);
+        assertEquals(60, table.getTransferTime(a, b));
+        assertEquals(TransferTable.FORBIDDEN_TRANSFER, table.getTransferTime(a, c));
+    }
+
+    public void testRenumberedVertices() {
+        assertEquals(120, table.getTransferTime(a, b));
+        // the index finds the transfer from c at the index of a, and sees it is not from a
+        int index = a.getIndex();
+        a.setIndex(c.getIndex());
+        c.setIndex(index);
+        assertEquals(120, table.getTransferTime(a, b));
+        assertEquals(TransferTable.TIMED_TRANSFER, table.getTransferTime(c, b));
+
+        // renumbering the graph throws the index away
+        index = b.getIndex();
+        b.setIndex(d.getIndex());
+        d.setIndex(index);
+        graph.renumberVerticesAndEdges();
+        assertEquals(120, table.getTransferTime(a, b));
+        assertEquals(300, table.getTransferTime(d, a));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(a, d));
+    }
+
+    public void testSerialization() throws Exception {
+        table.setTransferTime(b, d, TransferTable.PREFERRED_TRANSFER);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(table);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        TransferTable copy = (TransferTable) in.readObject();
+        assertTrue(copy.hasPreferredTransfers());
+        // the vertices are copies too
+        Map<String, Vertex> vertices = new HashMap<String, Vertex>();
+        int n = 0;
+        for (TransferTable.Transfer transfer : copy.getAllTransfers()) {
+            vertices.put(transfer.from.getLabel(), transfer.from);
+            vertices.put(transfer.to.getLabel(), transfer.to);
+            ++n;
+        }
+        assertEquals(5, n);
+        assertEquals(4, vertices.size());
+        Vertex a = vertices.get("a"), b = vertices.get("b"), c = vertices.get("c"),
+                d = vertices.get("d");
+        assertEquals(120, copy.getTransferTime(a, b));
+        assertEquals(TransferTable.FORBIDDEN_TRANSFER, copy.getTransferTime(a, c));
+        assertEquals(TransferTable.TIMED_TRANSFER, copy.getTransferTime(c, b));
+        assertEquals(300, copy.getTransferTime(d, a));
+        assertEquals(TransferTable.PREFERRED_TRANSFER, copy.getTransferTime(b, d));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, copy.getTransferTime(b, a));
+    }
+}
@@ -0,0 +1,141 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.PatternEdge;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.ScheduledTripTimes;
+
+public class TestTransitFilter extends TestCase {
+
+    private RouteTripIndex index;
+
+    /** The trip with dense index 0 */
+    private ScheduledTripTimes first;
+
+    /** A trip on the same route as the first one, which is not in the index */
+    private ScheduledTripTimes unindexed;
+
+    /** Every indexed trip, by dense index */
+    private ScheduledTripTimes[] trips;
+
+    public void setUp() throws Exception {
+        Graph graph = new Graph();
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        new GTFSPatternHopFactory(context).run(graph);
+        index = graph.getRouteTripIndex();
+        trips = new ScheduledTripTimes[index.getNumTrips()];
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (!(e instanceof PatternEdge))
+                    continue;
+                TableTripPattern pattern = ((PatternEdge) e).getPattern();
+                for (int i = 0; i < pattern.getNumScheduledTrips(); i++) {
+                    ScheduledTripTimes tripTimes = pattern.getTripTimes(i)
+                            .getScheduledTripTimes();
+                    // every trip of every pattern is indexed
+                    assertTrue(tripTimes.getDenseIndex() >= 0);
+                    trips[tripTimes.getDenseIndex()] = tripTimes;
+                }
+            }
+        }
+        first = trips[0];
+        assertNotNull(first);
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", "unindexed"));
+        trip.setRoute(first.getTrip().getRoute());
+        List<StopTime> stopTimes = new ArrayList<StopTime>();
+        for (int t = 0; t < 2; t++) {
+            StopTime st = new StopTime();
+            st.setArrivalTime(t * 600);
+            st.setDepartureTime(t * 600);
+            stopTimes.add(st);
+        }
+        unindexed = new ScheduledTripTimes(trip, stopTimes);
+        assertEquals(-1, unindexed.getDenseIndex());
+    }
+
+    private RouteSpec routeSpec(ScheduledTripTimes tripTimes) {
+        Route route = tripTimes.getTrip().getRoute();
+        return new RouteSpec(route.getId().getAgencyId(), GtfsLibrary.getRouteName(route));
+    }
+
+    public void testBannedTrips() {
+        RoutingRequest options = new RoutingRequest();
+        options.bannedTrips.add(first.getTrip().getId());
+        TransitFilter filter = new TransitFilter(options, index);
+        assertTrue(filter.tripBanned(first));
+        // an unindexed trip must not be mistaken for trip 0
+        assertFalse(filter.tripBanned(unindexed));
+        assertFalse(filter.routeBanned(unindexed));
+
+        options = new RoutingRequest();
+        options.bannedTrips.add(unindexed.getTrip().getId());
+        filter = new TransitFilter(options, index);
+        assertFalse(filter.tripBanned(first));
+        assertTrue(filter.tripBanned(unindexed));
+    }
+
+    public void testRoutes() {
+        RoutingRequest options = new RoutingRequest();
+        options.bannedRoutes.add(routeSpec(first));
+        TransitFilter filter = new TransitFilter(options, index);
+        assertTrue(filter.routeBanned(first));
+        assertTrue(filter.routeBanned(unindexed));
+
+        options = new RoutingRequest();
+        options.bannedRoutes.add(new RouteSpec("agency", "no such route"));
+        options.unpreferredRoutes.add(routeSpec(first));
+        options.useUnpreferredRoutesPenalty = 300;
+        filter = new TransitFilter(options, index);
+        assertFalse(filter.routeBanned(unindexed));
+        assertEquals(300, filter.routePenalty(first));
+        assertEquals(300, filter.routePenalty(unindexed));
+    }
+
+    public void testIndexesFollowTripIds() {
+        for (int t = 1; t < trips.length; t++) {
+            assertNotNull(trips[t]);
+            assertTrue(trips[t - 1].getTrip().getId().compareTo(trips[t].getTrip().getId()) < 0);
+        }
+    }
+
+    public void testTripAcceptableWithoutContext() {
+        RoutingRequest options = new RoutingRequest();
+        assertNull(options.rctx);
+        assertTrue(first.tripAcceptable(options, false));
+        options.bannedTrips.add(first.getTrip().getId());
+        assertFalse(first.tripAcceptable(options, false));
+        assertTrue(unindexed.tripAcceptable(options, false));
+    }
+
+}
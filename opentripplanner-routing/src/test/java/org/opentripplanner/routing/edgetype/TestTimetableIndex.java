@@ -0,0 +1,103 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.edgetype;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.trippattern.CanceledTripTimes;
+import org.opentripplanner.routing.trippattern.ScheduledTripTimes;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+public class TestTimetableIndex extends TestCase {
+
+    private static final Route ROUTE = new Route();
+
+    /** @return a two-hop trip departing its stops at the given times, dwelling 30 seconds */
+    private static ScheduledTripTimes trip(String id, int t0, int t1, int t2) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", id));
+        trip.setRoute(ROUTE);
+        List<StopTime> stopTimes = new ArrayList<StopTime>();
+        for (int t : new int[] { t0, t1, t2 }) {
+            StopTime st = new StopTime();
+            st.setArrivalTime(t - 30);
+            st.setDepartureTime(t);
+            stopTimes.add(st);
+        }
+        return new ScheduledTripTimes(trip, stopTimes);
+    }
+
+    public void testDepartures() {
+        List<TripTimes> tripTimes = new ArrayList<TripTimes>();
+        tripTimes.add(trip("late", 2000, 2600, 3200));
+        tripTimes.add(trip("early", 1000, 1600, 2200));
+        // overtakes "early" on the second hop
+        tripTimes.add(trip("express", 1200, 1500, 1800));
+        TimetableIndex index = new TimetableIndex(tripTimes, 2);
+        assertEquals(3, index.nTrips);
+
+        assertEquals(0, index.firstDeparture(0, 0));
+        assertEquals(1, index.departureTrips[0][index.firstDeparture(0, 1000)]);
+        assertEquals(2, index.departureTrips[0][index.firstDeparture(0, 1001)]);
+        assertEquals(0, index.departureTrips[0][index.firstDeparture(0, 1201)]);
+        assertEquals(3, index.firstDeparture(0, 2001));
+
+        assertEquals(2, index.departureTrips[1][index.firstDeparture(1, 1400)]);
+        assertEquals(1, index.departureTrips[1][index.firstDeparture(1, 1501)]);
+    }
+
+    public void testArrivals() {
+        List<TripTimes> tripTimes = new ArrayList<TripTimes>();
+        tripTimes.add(trip("early", 1000, 1600, 2200));
+        tripTimes.add(trip("late", 2000, 2600, 3200));
+        TimetableIndex index = new TimetableIndex(tripTimes, 2);
+        // arrivals at the end of hop 0 are 30 seconds before the next departures
+        assertEquals(-1, index.lastArrival(0, 1569));
+        assertEquals(0, index.arrivalTrips[0][index.lastArrival(0, 1570)]);
+        assertEquals(0, index.arrivalTrips[0][index.lastArrival(0, 2569)]);
+        assertEquals(1, index.arrivalTrips[0][index.lastArrival(0, 2570)]);
+        assertEquals(1, index.arrivalTrips[1][index.lastArrival(1, 5000)]);
+    }
+
+    public void testCanceledTrips() {
+        List<TripTimes> tripTimes = new ArrayList<TripTimes>();
+        tripTimes.add(trip("early", 1000, 1600, 2200));
+        tripTimes.add(new CanceledTripTimes(trip("canceled", 1200, 1800, 2400)));
+        tripTimes.add(trip("late", 2000, 2600, 3200));
+        TimetableIndex index = new TimetableIndex(tripTimes, 2);
+        for (int hop = 0; hop < 2; hop++) {
+            // canceled trips sort before all real times, where no search starting at a valid
+            // time reaches them
+            assertEquals(TripTimes.CANCELED, index.departures[hop][0]);
+            assertEquals(1, index.departureTrips[hop][0]);
+            assertEquals(TripTimes.CANCELED, index.arrivals[hop][0]);
+            assertEquals(1, index.arrivalTrips[hop][0]);
+        }
+        assertEquals(0, index.departureTrips[0][index.firstDeparture(0, 0)]);
+        assertEquals(2, index.departureTrips[0][index.firstDeparture(0, 1001)]);
+        // the last arrival before any real arrival is the canceled one, which searches stop at
+        assertEquals(0, index.lastArrival(0, 1000));
+        assertTrue(index.arrivals[0][index.lastArrival(0, 1000)] < 0);
+        assertEquals(0, index.arrivalTrips[0][index.lastArrival(0, 2000)]);
+    }
+
+}
@@ -0,0 +1,115 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.graph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestGraphSerialization extends TestCase {
+
+    public void testSaveAndLoad() throws Exception {
+        Graph g = new Graph();
+        IntersectionVertex a = new IntersectionVertex(g, "A", 5, 5);
+        IntersectionVertex b = new IntersectionVertex(g, "B", 6, 6);
+        Vertex c = new IntersectionVertex(g, "C", 7, 7);
+        new PlainStreetEdge(a, b, GeometryUtils.makeLineString(5, 5, 6, 6), "street", 100,
+                StreetTraversalPermission.ALL, false);
+        new FreeEdge(b, c);
+        byte[] bytes = save(g);
+        for (boolean deferTransitIndexes : new boolean[] { false, true }) {
+            Graph loaded = Graph.load(new ByteArrayInputStream(bytes), LoadLevel.FULL,
+                    deferTransitIndexes);
+            assertEquals(3, loaded.countVertices());
+            assertEquals(2, loaded.countEdges());
+            assertNotNull(loaded.streetIndex);
+            assertNotNull(loaded.getRouteTripIndex());
+        }
+    }
+
+    public void testSaveAndLoadChunks() throws Exception {
+        // a line of streets, with a free edge back from each vertex, in chunks of 3 edges
+        Graph g = new Graph();
+        int n = 10;
+        IntersectionVertex[] vertices = new IntersectionVertex[n];
+        for (int i = 0; i < n; i++)
+            vertices[i] = new IntersectionVertex(g, "V" + i, i, i);
+        for (int i = 1; i < n; i++) {
+            new PlainStreetEdge(vertices[i - 1], vertices[i], GeometryUtils.makeLineString(
+                    i - 1, i - 1, i, i), "street " + i, 100, StreetTraversalPermission.ALL, false);
+            new FreeEdge(vertices[i], vertices[i - 1]);
+        }
+        g.setEdgesPerChunk(3);
+        byte[] bytes = save(g);
+        for (boolean deferTransitIndexes : new boolean[] { false, true }) {
+            Graph loaded = Graph.load(new ByteArrayInputStream(bytes), LoadLevel.FULL,
+                    deferTransitIndexes);
+            assertEquals(n, loaded.countVertices());
+            assertEquals(2 * (n - 1), loaded.countEdges());
+            // vertices shared between chunks are read once, with all their edges
+            for (int i = 0; i < n; i++) {
+                Vertex v = loaded.getVertex("V" + i);
+                int degree = i == 0 || i == n - 1 ? 1 : 2;
+                assertEquals(degree, v.getDegreeOut());
+                assertEquals(degree, v.getDegreeIn());
+                for (Edge e : v.getOutgoing())
+                    assertSame(v, e.getFromVertex());
+                for (Edge e : v.getIncoming())
+                    assertSame(v, e.getToVertex());
+            }
+            assertNotNull(loaded.streetIndex);
+        }
+    }
+
+    public void testOtherFormat() throws Exception {
+        // a graph written without the format header, as by earlier versions
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new Graph());
+        out.close();
+        try {
+            Graph.load(new ByteArrayInputStream(bytes.toByteArray()), LoadLevel.FULL);
+            fail("a graph in another format was loaded");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("rebuild"));
+        }
+    }
+
+    public void testCalendarService() {
+        Graph g = new Graph();
+        assertNull(g.getCalendarService());
+        g.putService(CalendarServiceData.class, new CalendarServiceData());
+        assertNotNull(g.getCalendarService());
+        assertSame(g.getCalendarService(), g.getCalendarService());
+    }
+
+    private static byte[] save(Graph g) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        g.save(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
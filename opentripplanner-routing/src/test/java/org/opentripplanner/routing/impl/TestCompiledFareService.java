@@ -0,0 +1,176 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.routing.core.FareRuleSet;
+import org.opentripplanner.routing.core.TraverseMode;
+
+/**
+ * Checks that CompiledFareServiceImpl prices random ride sequences exactly as the reference
+ * DefaultFareServiceImpl does, on random fare tables.
+ */
+public class TestCompiledFareService extends TestCase {
+
+    private static final String[] FEEDS = { "A", "B" };
+
+    private static final int ZONES = 5;
+
+    private static final int ROUTES = 6;
+
+    private Random random = new Random(42);
+
+    private HashMap<AgencyAndId, FareRuleSet> fareRules;
+
+    private HashMap<AgencyAndId, FareAttribute> fareAttributes;
+
+    public void testRandomFareTables() {
+        for (int table = 0; table < 20; table++) {
+            makeFareTable(30);
+            DefaultFareServiceImpl reference = new DefaultFareServiceImpl(fareRules,
+                    fareAttributes);
+            CompiledFareServiceImpl compiled = new CompiledFareServiceImpl(fareRules,
+                    fareAttributes);
+            for (int trip = 0; trip < 200; trip++) {
+                List<Ride> rides = makeRides(1 + random.nextInt(5));
+                assertEquals(reference.calculateCost(rides), compiled.calculateCost(rides), 0f);
+                // the sums of fares may be added in another order
+                assertEquals(reference.getLowestCost(rides), compiled.getLowestCost(rides), 1e-4f);
+            }
+        }
+    }
+
+    public void testSFBay() {
+        makeFareTable(10);
+        // BART fares are zone-based, and the BART feed has no route rules
+        for (FareRuleSet ruleSet : fareRules.values()) {
+            ruleSet.getRoutes().clear();
+        }
+        final DefaultFareServiceImpl reference = new DefaultFareServiceImpl(fareRules,
+                fareAttributes);
+        SFBayFareServiceImpl referenceSFBay = new SFBayFareServiceImpl(fareRules, fareAttributes) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected float calculateCost(List<Ride> rides) {
+                return reference.calculateCost(rides);
+            }
+        };
+        SFBayFareServiceImpl compiledSFBay = new SFBayFareServiceImpl(fareRules, fareAttributes);
+        String[] agencies = { "BART", "SFMTA", "AirBART" };
+        for (int trip = 0; trip < 500; trip++) {
+            List<Ride> rides = makeRides(1 + random.nextInt(5));
+            for (Ride ride : rides) {
+                String agency = agencies[random.nextInt(agencies.length)];
+                ride.route = new AgencyAndId(agency, ride.route.getId());
+                ride.firstStop.getId().setAgencyId("A");
+                ride.lastStop.setId(new AgencyAndId("A", "EMBR"));
+                if (random.nextInt(4) == 0)
+                    ride.classifier = TraverseMode.CABLE_CAR;
+            }
+            assertEquals(referenceSFBay.getLowestCost(rides), compiledSFBay.getLowestCost(rides),
+                    1e-4f);
+        }
+    }
+
+    private void makeFareTable(int faresPerFeed) {
+        fareRules = new HashMap<AgencyAndId, FareRuleSet>();
+        fareAttributes = new HashMap<AgencyAndId, FareAttribute>();
+        for (String feed : FEEDS) {
+            for (int i = 0; i < faresPerFeed; i++) {
+                AgencyAndId id = new AgencyAndId(feed, "fare" + i);
+                FareAttribute attribute = new FareAttribute();
+                attribute.setId(id);
+                attribute.setCurrencyType("USD");
+                attribute.setPrice(0.25f * (1 + random.nextInt(20)));
+                if (random.nextInt(3) == 0)
+                    attribute.setTransfers(random.nextInt(3));
+                if (random.nextInt(3) == 0)
+                    attribute.setTransferDuration(600 * (1 + random.nextInt(6)));
+                if (random.nextInt(3) == 0)
+                    attribute.setJourneyDuration(900 * (1 + random.nextInt(6)));
+                fareAttributes.put(id, attribute);
+                if (random.nextInt(20) == 0)
+                    continue;
+                FareRuleSet ruleSet = new FareRuleSet();
+                int rules = 1 + random.nextInt(3);
+                for (int r = 0; r < rules; r++) {
+                    switch (random.nextInt(3)) {
+                    case 0:
+                        ruleSet.addOriginDestination(randomZone(true), randomZone(true));
+                        break;
+                    case 1:
+                        ruleSet.addContains(randomZone(false));
+                        break;
+                    default:
+                        ruleSet.addRoute(new AgencyAndId(feed, "route" + random.nextInt(ROUTES)));
+                    }
+                }
+                fareRules.put(id, ruleSet);
+            }
+        }
+    }
+
+    /** @return a zone id, sometimes null or one that no fare rule mentions */
+    private String randomZone(boolean nullable) {
+        int zone = random.nextInt(ZONES + 2);
+        if (zone == ZONES)
+            return nullable ? null : "zone0";
+        return "zone" + zone;
+    }
+
+    private List<Ride> makeRides(int count) {
+        List<Ride> rides = new ArrayList<Ride>();
+        String feed = FEEDS[0];
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(10) == 0)
+                feed = FEEDS[random.nextInt(FEEDS.length)];
+            Ride ride = new Ride();
+            ride.route = new AgencyAndId(feed, "route" + random.nextInt(ROUTES + 1));
+            ride.firstStop = makeStop(feed);
+            ride.lastStop = makeStop(feed);
+            ride.startZone = ride.firstStop.getZoneId();
+            ride.endZone = ride.lastStop.getZoneId();
+            ride.zones.add(ride.startZone);
+            if (random.nextBoolean())
+                ride.zones.add(randomZone(true));
+            ride.zones.add(ride.endZone);
+            time += random.nextInt(900);
+            ride.startTime = time;
+            time += random.nextInt(1800);
+            ride.endTime = time;
+            ride.classifier = TraverseMode.BUS;
+            rides.add(ride);
+        }
+        return rides;
+    }
+
+    private Stop makeStop(String feed) {
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId(feed, "stop" + random.nextInt(100)));
+        // some stops are in zones that no fare rule mentions
+        stop.setZoneId(random.nextInt(10) == 0 ? "elsewhere" : randomZone(true));
+        return stop;
+    }
+}
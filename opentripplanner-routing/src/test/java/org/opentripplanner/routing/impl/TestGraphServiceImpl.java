@@ -0,0 +1,258 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.TransitLayers;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphWarmer;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.TestUtils;
+import org.springframework.core.io.DefaultResourceLoader;
+
+public class TestGraphServiceImpl extends TestCase {
+
+    private GraphServiceImpl graphService;
+
+    private File graphDir;
+
+    /** What the warmers saw, in the order they ran */
+    private List<String> warmed = Collections.synchronizedList(new ArrayList<String>());
+
+    private List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    /** Records its runs, and checks that the graph it warms is not visible yet. */
+    private class RecordingWarmer implements GraphWarmer {
+
+        private final String name;
+
+        RecordingWarmer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void warm(String routerId, Graph graph) {
+            try {
+                assertNotSame(graph, graphService.getGraph(routerId));
+            } catch (Throwable t) {
+                failures.add(t);
+            }
+            warmed.add(name + " " + routerId + " " + Thread.currentThread().getName());
+        }
+    }
+
+    public void setUp() throws Exception {
+        graphDir = File.createTempFile("graphs", "");
+        graphDir.delete();
+        graphDir.mkdir();
+        graphService = new GraphServiceImpl();
+        graphService.setResourceLoader(new DefaultResourceLoader());
+        graphService.setPath(graphDir.getAbsolutePath());
+        graphService.setWarmers(Arrays.<GraphWarmer> asList(new RecordingWarmer("first"),
+                new GraphWarmer() {
+                    @Override
+                    public void warm(String routerId, Graph graph) {
+                        throw new RuntimeException("a failing warmer must not block the swap");
+                    }
+                }, new RecordingWarmer("second")));
+    }
+
+    public void tearDown() {
+        graphService.shutdown();
+        for (File routerDir : graphDir.listFiles()) {
+            for (File file : routerDir.listFiles())
+                file.delete();
+            routerDir.delete();
+        }
+        graphDir.delete();
+    }
+
+    private Graph makeGraph() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "A", 5, 5);
+        IntersectionVertex b = new IntersectionVertex(graph, "B", 6, 6);
+        new PlainStreetEdge(a, b, GeometryUtils.makeLineString(5, 5, 6, 6), "street", 100,
+                StreetTraversalPermission.ALL, false);
+        return graph;
+    }
+
+    private void saveGraph(String routerId) throws Exception {
+        File routerDir = new File(graphDir, routerId);
+        routerDir.mkdir();
+        makeGraph().save(new File(routerDir, "Graph.obj"));
+    }
+
+    public void testPublishAndVersions() {
+        assertEquals(0, graphService.getGraphVersion("A"));
+        Graph g1 = makeGraph();
+        assertTrue(graphService.registerGraph("A", g1));
+        assertSame(g1, graphService.getGraph("A"));
+        assertEquals(1, graphService.getGraphVersion("A"));
+
+        Graph g2 = makeGraph();
+        assertFalse(graphService.registerGraph("A", g2));
+        assertSame(g2, graphService.getGraph("A"));
+        assertEquals(2, graphService.getGraphVersion("A"));
+        assertEquals(0, graphService.getGraphVersion("B"));
+
+        // warmers run in order on every graph, before it replaces the previous one
+        String thread = Thread.currentThread().getName();
+        assertEquals(Arrays.asList("first A " + thread, "second A " + thread, 
+                "first A " + thread, "second A " + thread), warmed);
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        // evicting does not reset the version, so clients still see a change
+        assertTrue(graphService.evictGraph("A"));
+        assertNull(graphService.getGraph("A"));
+        graphService.registerGraph("A", g1);
+        assertEquals(3, graphService.getGraphVersion("A"));
+    }
+
+    public void testReloadInBackground() throws Exception {
+        saveGraph("A");
+        assertTrue(graphService.registerGraph("A", true));
+        Graph g1 = graphService.getGraph("A");
+        assertNotNull(g1);
+        assertEquals(1, graphService.getGraphVersion("A"));
+
+        // the old graph serves requests until the new one is swapped in
+        assertTrue(graphService.reloadGraphInBackground("A").get());
+        Graph g2 = graphService.getGraph("A");
+        assertNotNull(g2);
+        assertNotSame(g1, g2);
+        assertEquals(2, graphService.getGraphVersion("A"));
+        assertEquals("second A graph-reloader", warmed.get(warmed.size() - 1));
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        // a missing graph leaves the current one in place
+        assertFalse(graphService.reloadGraphInBackground("B").get());
+        assertNull(graphService.getGraph("B"));
+        assertEquals(0, graphService.getGraphVersion("B"));
+
+        // the reload thread is a daemon, and is started again after a shutdown
+        graphService.shutdown();
+        final boolean[] daemon = new boolean[1];
+        graphService.setWarmers(Arrays.<GraphWarmer> asList(new GraphWarmer() {
+            @Override
+            public void warm(String routerId, Graph graph) {
+                daemon[0] = Thread.currentThread().isDaemon();
+            }
+        }));
+        assertTrue(graphService.reloadGraphInBackground("A").get());
+        assertTrue(daemon[0]);
+        assertEquals(3, graphService.getGraphVersion("A"));
+    }
+
+    private SharedRouter sharedRouter(String routerId, String baseRouterId, String... agencyIds) {
+        SharedRouter sharedRouter = new SharedRouter();
+        sharedRouter.setRouterId(routerId);
+        sharedRouter.setBaseRouterId(baseRouterId);
+        sharedRouter.setAgencyIds(Arrays.asList(agencyIds));
+        return sharedRouter;
+    }
+
+    public void testSharedRoutersFollowTheirBase() {
+        assertFalse(graphService.registerSharedRouter(sharedRouter("S", "A", "agency")));
+        Graph g1 = makeGraph();
+        graphService.registerGraph("A", g1);
+        assertTrue(graphService.registerSharedRouter(sharedRouter("S", "A", "agency")));
+        // a router cannot share the graph of a shared router
+        assertFalse(graphService.registerSharedRouter(sharedRouter("T", "S", "agency")));
+        assertSame(g1, graphService.getGraph("S"));
+        assertEquals(1, graphService.getGraphVersion("S"));
+
+        // a reload of the base is published with the layer already in place
+        Graph g2 = makeGraph();
+        graphService.registerGraph("A", g2);
+        assertSame(g2, graphService.getGraph("S"));
+        assertEquals(2, graphService.getGraphVersion("S"));
+        assertEquals(new HashSet<String>(Arrays.asList("agency")), g2.getService(
+                TransitLayers.class).getAgencyIds("S"));
+        assertNull(g2.getService(TransitLayers.class).getAgencyIds("A"));
+
+        // evicting the base takes the shared router with it, until the base comes back
+        assertTrue(graphService.evictGraph("A"));
+        assertNull(graphService.getGraph("S"));
+        assertTrue(graphService.getRouterIds().isEmpty());
+        Graph g3 = makeGraph();
+        graphService.registerGraph("A", g3);
+        assertSame(g3, graphService.getGraph("S"));
+
+        // evicting the shared router unregisters it
+        assertTrue(graphService.evictGraph("S"));
+        assertNull(g3.getService(TransitLayers.class).getAgencyIds("S"));
+        graphService.registerGraph("A", makeGraph());
+        assertNull(graphService.getGraph("S"));
+        assertEquals(Arrays.asList("A"), new ArrayList<String>(graphService.getRouterIds()));
+    }
+
+    public void testSharedRoutersOnlyBoardTheirFeeds() throws Exception {
+        Graph graph = new Graph();
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        new GTFSPatternHopFactory(context).run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        String feed = graph.getCalendarService().getServiceIds().iterator().next().getAgencyId();
+        graphService.registerGraph("all", graph);
+        assertTrue(graphService.registerSharedRouter(sharedRouter("mine", "all", feed)));
+        assertTrue(graphService.registerSharedRouter(sharedRouter("other", "all", "no feed")));
+        assertSame(graph, graphService.getGraph("other"));
+
+        int all = countRunningServices("all");
+        assertTrue(all > 0);
+        assertEquals(all, countRunningServices("mine"));
+        assertEquals(0, countRunningServices("other"));
+        // a router without a layer of its own sees every feed
+        assertEquals(all, countRunningServices("unknown"));
+    }
+
+    /** @return the number of services running around noon on a weekday, for the routerId */
+    private int countRunningServices(String routerId) {
+        Graph graph = graphService.getGraph("all");
+        RoutingRequest options = new RoutingRequest();
+        options.routerId = routerId;
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        RoutingContext rctx = new RoutingContext(options, graph, null, null, false);
+        CalendarService calendarService = graph.getCalendarService();
+        int running = 0;
+        for (ServiceDay serviceDay : rctx.serviceDays) {
+            for (int s = 0; s < calendarService.getServiceIds().size(); s++) {
+                if (serviceDay.serviceIdRunning(s))
+                    ++running;
+            }
+        }
+        return running;
+    }
+
+}
@@ -0,0 +1,213 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.util.TestUtils;
+import org.opentripplanner.util.monitoring.RequestProfile;
+import org.opentripplanner.util.monitoring.RequestProfile.Counter;
+
+public class TestRetryingPathServiceImpl extends TestCase {
+
+    private static Graph graph;
+
+    public void setUp() throws Exception {
+        if (graph != null)
+            return;
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        graph = new Graph();
+        new GTFSPatternHopFactory(context).run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+    }
+
+    public void testAddAlternatives() {
+        RoutingRequest options = new RoutingRequest();
+        AgencyAndId a = new AgencyAndId("Caltrain", "a");
+        AgencyAndId b = new AgencyAndId("Caltrain", "b");
+        List<RoutingRequest> alternatives = new ArrayList<RoutingRequest>();
+
+        // a single trip: banning all of it and banning it alone are the same search
+        RetryingPathServiceImpl.addAlternatives(alternatives, options, Arrays.asList(a));
+        assertEquals(1, alternatives.size());
+        assertEquals(1, alternatives.get(0).bannedTrips.size());
+
+        // ban both, then each one; banning a alone is already queued
+        RetryingPathServiceImpl.addAlternatives(alternatives, options, Arrays.asList(a, b));
+        assertEquals(3, alternatives.size());
+        assertEquals(2, alternatives.get(1).bannedTrips.size());
+        assertTrue(alternatives.get(2).bannedTrips.contains(b));
+
+        // the same path again adds nothing
+        RetryingPathServiceImpl.addAlternatives(alternatives, options, Arrays.asList(a, b));
+        assertEquals(3, alternatives.size());
+        // the options themselves are left alone
+        assertTrue(options.bannedTrips.isEmpty());
+    }
+
+    public void testGetResultTimeout() {
+        // a search that is never run, so never finishes
+        FutureTask<ShortestPathTree> future = new FutureTask<ShortestPathTree>(
+                new Callable<ShortestPathTree>() {
+                    @Override
+                    public ShortestPathTree call() {
+                        return null;
+                    }
+                });
+        long start = System.currentTimeMillis();
+        assertNull(RetryingPathServiceImpl.getResult(future, start + 50));
+        assertTrue(future.isCancelled());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    public void testGetResultFailure() {
+        FutureTask<ShortestPathTree> failed = new FutureTask<ShortestPathTree>(
+                new Callable<ShortestPathTree>() {
+                    @Override
+                    public ShortestPathTree call() {
+                        throw new IllegalStateException("search failed");
+                    }
+                });
+        failed.run();
+        assertNull(RetryingPathServiceImpl.getResult(failed, Long.MAX_VALUE));
+
+        FutureTask<ShortestPathTree> empty = new FutureTask<ShortestPathTree>(
+                new Callable<ShortestPathTree>() {
+                    @Override
+                    public ShortestPathTree call() {
+                        return null;
+                    }
+                });
+        empty.run();
+        assertNull(RetryingPathServiceImpl.getResult(empty, Long.MAX_VALUE));
+    }
+
+    public void testParallelSearch() {
+        List<GraphPath> sequential = getPaths(0, 3);
+        List<GraphPath> parallel = getPaths(2, 3);
+        assertEquals(3, sequential.size());
+        assertEquals(3, parallel.size());
+        for (int i = 0; i < parallel.size(); i++) {
+            for (int j = i + 1; j < parallel.size(); j++)
+                assertFalse(parallel.get(i).equals(parallel.get(j)));
+        }
+        // the first itinerary is found by the same search either way
+        assertTrue(parallel.contains(best(sequential)));
+        assertEquals(best(sequential).getWeight(), best(parallel).getWeight(), 0.0);
+    }
+
+    public void testParallelSearchProfile() {
+        RequestProfile.begin();
+        getPaths(2, 1);
+        long first = RequestProfile.end().getCount(Counter.STATES_EXPANDED);
+        assertTrue(first > 0);
+
+        RequestProfile.begin();
+        getPaths(2, 3);
+        long all = RequestProfile.end().getCount(Counter.STATES_EXPANDED);
+        // the searches on the worker threads are counted along with the first one
+        assertTrue(all > first);
+    }
+
+    public void testWaitsForTimedOutSearches() {
+        // additional searches outlive the multiPathTimeout and ignore interrupts
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final GenericAStar aStar = new GenericAStar();
+        SPTService slow = new SPTService() {
+            @Override
+            public ShortestPathTree getShortestPathTree(RoutingRequest req) {
+                return getShortestPathTree(req, -1);
+            }
+
+            @Override
+            public ShortestPathTree getShortestPathTree(RoutingRequest req, double timeout) {
+                if (calls.getAndIncrement() == 0)
+                    return aStar.getShortestPathTree(req, timeout);
+                running.incrementAndGet();
+                try {
+                    long end = System.currentTimeMillis() + 300;
+                    while (System.currentTimeMillis() < end) {
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            // like the search, keep going
+                        }
+                    }
+                    return aStar.getShortestPathTree(req, timeout);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
+        pathService.setGraphService(new GraphServiceBeanImpl(graph));
+        pathService.setSptService(slow);
+        pathService.setParallelSearches(2);
+        pathService.setMultiPathTimeout(0.05);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        options.setNumItineraries(3);
+        options.setRoutingContext(graph, "Caltrain_Millbrae Caltrain",
+                "Caltrain_Mountain View Caltrain");
+        List<GraphPath> paths = pathService.getPaths(options);
+        // only the first itinerary, and no search left running on the request's edges
+        assertEquals(1, paths.size());
+        assertTrue(calls.get() > 1);
+        assertEquals(0, running.get());
+    }
+
+    private List<GraphPath> getPaths(int parallelSearches, int numItineraries) {
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
+        pathService.setGraphService(new GraphServiceBeanImpl(graph));
+        pathService.setSptService(new GenericAStar());
+        pathService.setParallelSearches(parallelSearches);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        options.setNumItineraries(numItineraries);
+        options.setRoutingContext(graph, "Caltrain_Millbrae Caltrain",
+                "Caltrain_Mountain View Caltrain");
+        return pathService.getPaths(options);
+    }
+
+    private static GraphPath best(List<GraphPath> paths) {
+        GraphPath best = null;
+        for (GraphPath path : paths) {
+            if (best == null || path.getWeight() < best.getWeight())
+                best = path;
+        }
+        return best;
+    }
+}
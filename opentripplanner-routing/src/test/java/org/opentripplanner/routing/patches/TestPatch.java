@@ -50,6 +50,7 @@ import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.transit_index.RouteSegment;
 import org.opentripplanner.routing.transit_index.RouteVariant;
+import org.opentripplanner.routing.transit_index.StopIndex;
 import org.opentripplanner.util.TestUtils;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -185,6 +186,11 @@ public class TestPatch extends TestCase {
             public Collection<Stop> getStopsForRoute(AgencyAndId route) {
                 return Collections.emptyList();
             }
+
+            @Override
+            public StopIndex getStopIndex() {
+                return null;
+            }
         };
         graph.putService(TransitIndexService.class, index);
     }
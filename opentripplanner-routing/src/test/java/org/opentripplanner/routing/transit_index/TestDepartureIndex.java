@@ -0,0 +1,174 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.transit_index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.FrequencyBasedTripPattern;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.edgetype.TimetableSnapshotSource;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.transit_index.DepartureIndex.Departure;
+import org.opentripplanner.routing.trippattern.Update;
+import org.opentripplanner.routing.trippattern.UpdateBlock;
+import org.opentripplanner.util.TestUtils;
+
+public class TestDepartureIndex extends TestCase {
+
+    private static final AgencyAndId STOP_A = new AgencyAndId("agency", "A");
+
+    private static final AgencyAndId STOP_U = new AgencyAndId("agency", "U");
+
+    private Graph graph;
+
+    private TimetableResolver snapshot;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        graph.timetableSnapshotSource = new TimetableSnapshotSource() {
+            @Override
+            public TimetableResolver getSnapshot() {
+                return snapshot;
+            }
+        };
+    }
+
+    public void testScheduledStop() {
+        DepartureIndex index = new DepartureIndex(graph);
+        // trips 1.1 and 1.2 leave A at 00:00 and 00:20, 1.3 at 08:00
+        List<Departure> departures = index.getDepartures(STOP_A, time(0, 0, 0), time(0, 30, 0));
+        assertEquals(2, departures.size());
+        assertEquals(time(0, 0, 0), departures.get(0).time);
+        assertEquals("1.1", departures.get(0).trip.getId().getId());
+        assertEquals(time(0, 20, 0), departures.get(1).time);
+        assertEquals("1.2", departures.get(1).trip.getId().getId());
+        assertFalse(departures.get(1).realtime);
+        assertTrue(departures.get(1).pattern instanceof TableTripPattern);
+
+        departures = index.getDepartures(STOP_A, time(7, 0, 0), time(9, 0, 0));
+        assertEquals(1, departures.size());
+        assertEquals("1.3", departures.get(0).trip.getId().getId());
+
+        assertTrue(index.getDepartures(STOP_A, time(8, 0, 1), time(9, 0, 0)).isEmpty());
+        assertTrue(index.getDepartures(new AgencyAndId("agency", "nowhere"), time(0, 0, 0),
+                time(23, 0, 0)).isEmpty());
+    }
+
+    public void testFrequencyStop() {
+        DepartureIndex index = new DepartureIndex(graph);
+        // trip 15.1 leaves U every hour from 06:00 to 10:00 and from 14:00 to 16:00
+        List<Departure> departures = index.getDepartures(STOP_U, time(5, 30, 0), time(17, 0, 0));
+        int[] hours = { 6, 7, 8, 9, 10, 14, 15, 16 };
+        assertEquals(hours.length, departures.size());
+        for (int i = 0; i < hours.length; i++) {
+            Departure departure = departures.get(i);
+            assertEquals(time(hours[i], 0, 0), departure.time);
+            assertEquals("15.1", departure.trip.getId().getId());
+            assertTrue(departure.pattern instanceof FrequencyBasedTripPattern);
+            assertFalse(departure.realtime);
+        }
+
+        // between the two periods
+        departures = index.getDepartures(STOP_U, time(9, 30, 0), time(15, 0, 0));
+        assertEquals(3, departures.size());
+        assertEquals(time(10, 0, 0), departures.get(0).time);
+        assertEquals(time(14, 0, 0), departures.get(1).time);
+        assertEquals(time(15, 0, 0), departures.get(2).time);
+        assertTrue(index.getDepartures(STOP_U, time(10, 0, 1), time(13, 59, 59)).isEmpty());
+    }
+
+    public void testMinuteCache() {
+        DepartureIndex index = new DepartureIndex(graph);
+        long start = time(0, 0, 0);
+        assertEquals(2, index.getDepartures(STOP_A, start, start + 1800).size());
+        assertTrue(index.isCached(STOP_A, start, start + 1800));
+        // the cached whole minutes are trimmed to the requested times
+        assertTrue(index.isCached(STOP_A, start + 30, start + 1800 + 30));
+        List<Departure> departures = index.getDepartures(STOP_A, start + 30, start + 1800 + 30);
+        assertEquals(1, departures.size());
+        assertEquals(start + 1200, departures.get(0).time);
+        departures = index.getDepartures(STOP_A, start, start + 1199);
+        assertEquals(1, departures.size());
+        assertEquals(start, departures.get(0).time);
+
+        // fill the cache, using the first query again before one more evicts the eldest
+        index = new DepartureIndex(graph);
+        for (int i = 0; i < DepartureIndex.MAX_CACHED_QUERIES; i++)
+            index.getDepartures(STOP_A, start + i * 60, start + i * 60 + 1800);
+        assertTrue(index.isCached(STOP_A, start, start + 1800));
+        index.getDepartures(STOP_A, start, start + 1800);
+        int n = DepartureIndex.MAX_CACHED_QUERIES;
+        index.getDepartures(STOP_A, start + n * 60, start + n * 60 + 1800);
+        assertTrue(index.isCached(STOP_A, start, start + 1800));
+        assertFalse(index.isCached(STOP_A, start + 60, start + 60 + 1800));
+        assertTrue(index.isCached(STOP_A, start + n * 60, start + n * 60 + 1800));
+    }
+
+    public void testTimetableUpdate() {
+        DepartureIndex index = new DepartureIndex(graph);
+        List<Departure> departures = index.getDepartures(STOP_A, time(7, 30, 0), time(8, 30, 0));
+        assertEquals(1, departures.size());
+        assertEquals("1.3", departures.get(0).trip.getId().getId());
+
+        // cancel trip 1.3
+        TableTripPattern pattern = null;
+        for (Edge e : graph.getVertex("agency_A_depart").getOutgoing())
+            pattern = ((TransitBoardAlight) e).getPattern();
+        TimetableResolver buffer = new TimetableResolver();
+        List<Update> updates = new ArrayList<Update>();
+        updates.add(new Update(new AgencyAndId("agency", "1.3"), "A", 1, 0, 0,
+                Update.Status.CANCEL, 0));
+        assertTrue(buffer.update(pattern, UpdateBlock.splitByTrip(updates).get(0)));
+        snapshot = buffer.commit();
+        assertTrue(snapshot.isUpdated(pattern));
+
+        // the cached departures were computed without this snapshot
+        assertTrue(index.isCached(STOP_A, time(7, 30, 0), time(8, 30, 0)));
+        assertTrue(index.getDepartures(STOP_A, time(7, 30, 0), time(8, 30, 0)).isEmpty());
+
+        // the other trips of the pattern are now read from the updated timetable
+        departures = index.getDepartures(STOP_A, time(0, 0, 0), time(0, 30, 0));
+        assertEquals(2, departures.size());
+        assertTrue(departures.get(0).realtime);
+        assertEquals("1.1", departures.get(0).trip.getId().getId());
+
+        // and the departures of the patterns that were not updated still come from the index
+        departures = index.getDepartures(STOP_U, time(5, 30, 0), time(7, 0, 0));
+        assertEquals(2, departures.size());
+        assertFalse(departures.get(0).realtime);
+    }
+
+    private static long time(int hour, int minute, int second) {
+        return TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, hour, minute, second);
+    }
+}
@@ -0,0 +1,100 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.transit_index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class TestStopIndex extends TestCase {
+
+    private List<TransitStop> stops = new ArrayList<TransitStop>();
+
+    private StopIndex index;
+
+    public void setUp() {
+        Graph graph = new Graph();
+        // a line of stops about 111 meters apart, alternating between two agencies
+        for (int i = 0; i < 100; i++) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId(i % 2 == 0 ? "A" : "B", "s" + i));
+            stop.setLat(45.0 + i * 0.001);
+            stop.setLon(-122.0);
+            stops.add(new TransitStop(graph, stop));
+        }
+        Route bus = new Route();
+        bus.setId(new AgencyAndId("A", "bus"));
+        bus.setType(3);
+        ArrayList<Stop> busStops = new ArrayList<Stop>();
+        for (int i = 0; i < 10; i += 2)
+            busStops.add(stops.get(i).getStop());
+        Route tram = new Route();
+        tram.setId(new AgencyAndId("B", "tram"));
+        tram.setType(0);
+        ArrayList<Stop> tramStops = new ArrayList<Stop>();
+        tramStops.add(stops.get(51).getStop());
+        index = new StopIndex(stops, Arrays.asList(new RouteVariant(bus, busStops),
+                new RouteVariant(tram, tramStops)));
+    }
+
+    public void testNearest() {
+        Coordinate c = new Coordinate(-122.0, 45.0501);
+        List<TransitStop> nearest = index.getNearestStops(c, 1000, 3, null, null, null);
+        assertEquals(Arrays.asList(stops.get(50), stops.get(51), stops.get(49)), nearest);
+
+        nearest = index.getNearestStops(c, 1000, 2, "B", null, null);
+        assertEquals(Arrays.asList(stops.get(51), stops.get(49)), nearest);
+
+        // all the stops within 250 meters
+        assertEquals(5, index.getNearestStops(c, 250, Integer.MAX_VALUE, null, null, null).size());
+
+        // far from the stops
+        assertTrue(index.getNearestStops(new Coordinate(-121.0, 45.0), 1000, 3, null, null, null)
+                .isEmpty());
+        assertEquals(stops.get(0), index.getNearestStops(new Coordinate(-121.0, 45.0),
+                Double.POSITIVE_INFINITY, 1, null, null, null).get(0));
+    }
+
+    public void testFilters() {
+        Coordinate c = new Coordinate(-122.0, 45.0501);
+        List<TransitStop> nearest = index.getNearestStops(c, 10000, 1, "A", new AgencyAndId("A",
+                "bus"), null);
+        assertEquals(Arrays.asList(stops.get(8)), nearest);
+        nearest = index.getNearestStops(c, 10000, 10, null, null, new TraverseModeSet("TRAM"));
+        assertEquals(Arrays.asList(stops.get(51)), nearest);
+        assertTrue(index.getNearestStops(c, 10000, 10, null, new AgencyAndId("A", "none"), null)
+                .isEmpty());
+    }
+
+    public void testEnvelope() {
+        Envelope env = new Envelope(-122.01, -121.99, 45.0095, 45.0195);
+        assertEquals(10, index.getStopsInEnvelope(env, null, null, null).size());
+        assertEquals(5, index.getStopsInEnvelope(env, "A", null, null).size());
+        assertEquals(100, index.getStopsInEnvelope(new Envelope(-180, 180, -90, 90), null, null,
+                null).size());
+    }
+}
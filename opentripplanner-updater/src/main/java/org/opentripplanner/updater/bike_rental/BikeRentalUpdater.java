@@ -14,35 +14,50 @@
 package org.opentripplanner.updater.bike_rental;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 
 import javax.annotation.PostConstruct;
 
+import org.opentripplanner.common.model.P2;
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
 import org.opentripplanner.routing.bike_rental.BikeRentalStation;
 import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
 import org.opentripplanner.routing.edgetype.RentABikeOffEdge;
 import org.opentripplanner.routing.edgetype.RentABikeOnEdge;
+import org.opentripplanner.routing.edgetype.StreetBikeRentalLink;
 import org.opentripplanner.routing.edgetype.loader.LinkRequest;
 import org.opentripplanner.routing.edgetype.loader.NetworkLinkerLibrary;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+/**
+ * Polls a bike rental data source. Stations are linked to the street network the first time they
+ * appear and stay linked; each poll then only publishes a new BikeRentalAvailability snapshot,
+ * which searches pick up when they start. A new station becomes usable with the first snapshot
+ * that covers its slot, so searches already running never see it.
+ * 
+ * Availability slots are numbered by each updater, so there should be only one per graph.
+ */
 public class BikeRentalUpdater implements Runnable {
     private static final Logger _log = LoggerFactory.getLogger(BikeRentalUpdater.class);
 
     Map<BikeRentalStation, BikeRentalStationVertex> verticesByStation = new HashMap<BikeRentalStation, BikeRentalStationVertex>();
 
+    /** The availability slot of the next station to be linked */
+    private int nextSlot = 0;
+
+    private long version = 0;
+
     private BikeRentalDataSource source;
 
     private Graph graph;
@@ -102,41 +117,52 @@ public class BikeRentalUpdater implements Runnable {
             return;
         }
         List<BikeRentalStation> stations = source.getStations();
-        Set<BikeRentalStation> stationSet = new HashSet<BikeRentalStation>();
+        // Link the stations never seen before; the others keep their vertex and slot. The links
+        // and rental edges of the new stations are held off the graph until the snapshot covering
+        // their slots is published, and searches holding an older snapshot ignore them anyway.
+        List<Edge> newEdges = new ArrayList<Edge>();
+        List<P2<Vertex>> newEdgeEnds = new ArrayList<P2<Vertex>>();
         for (BikeRentalStation station : stations) {
-            service.addStation(station);
+            if (verticesByStation.containsKey(station))
+                continue;
             String id = station.id;
-            stationSet.add(station);
-            BikeRentalStationVertex vertex = verticesByStation.get(station);
-            if (vertex == null) {
-                String name = "bike rental station " + id;
-                vertex = new BikeRentalStationVertex(graph, id, name, station.x,
-                        station.y, station.name, station.bikesAvailable, station.spacesAvailable);
-                LinkRequest request = networkLinkerLibrary.connectVertexToStreets(vertex);
-                for (Edge e : request.getEdgesAdded()) {
-                    graph.addTemporaryEdge(e);
-                }
-                verticesByStation.put(station, vertex);
-                new RentABikeOnEdge(vertex, vertex, network);
-                new RentABikeOffEdge(vertex, vertex, network);
-            } else {
-                vertex.setBikesAvailable(station.bikesAvailable);
-                vertex.setSpacesAvailable(station.spacesAvailable);
+            String name = "bike rental station " + id;
+            BikeRentalStationVertex vertex = new BikeRentalStationVertex(graph, id, name,
+                    station.x, station.y, station.name, station.bikesAvailable,
+                    station.spacesAvailable);
+            vertex.setAvailabilitySlot(nextSlot++);
+            LinkRequest request = networkLinkerLibrary.connectVertexToStreets(vertex);
+            for (Edge e : request.getEdgesAdded()) {
+                graph.addTemporaryEdge(e);
+                // edges splitting streets stay where they are: they only duplicate existing streets
+                if (e instanceof StreetBikeRentalLink)
+                    detach(e, newEdges, newEdgeEnds);
             }
+            verticesByStation.put(station, vertex);
+            detach(new RentABikeOnEdge(vertex, vertex, network), newEdges, newEdgeEnds);
+            detach(new RentABikeOffEdge(vertex, vertex, network), newEdges, newEdgeEnds);
         }
-        List<BikeRentalStationVertex> toRemove = new ArrayList<BikeRentalStationVertex>();
-        for (Entry<BikeRentalStation, BikeRentalStationVertex> entry : verticesByStation.entrySet()) {
-            BikeRentalStation station = entry.getKey();
-            if (stationSet.contains(station))
-                continue;
-            BikeRentalStationVertex vertex = entry.getValue();
-            graph.removeVertexAndEdges(vertex);
-            toRemove.add(vertex);
-            service.removeStation(station);
-            //TODO: need to unsplit any streets that were split
+        // stations missing from this poll stay linked, but out of service until they reappear
+        int[] bikes = new int[nextSlot];
+        int[] spaces = new int[nextSlot];
+        Arrays.fill(bikes, BikeRentalAvailability.OUT_OF_SERVICE);
+        for (BikeRentalStation station : stations) {
+            int slot = verticesByStation.get(station).getAvailabilitySlot();
+            bikes[slot] = Math.max(station.bikesAvailable, 0);
+            spaces[slot] = Math.max(station.spacesAvailable, 0);
+        }
+        for (int i = 0; i < newEdges.size(); i++) {
+            P2<Vertex> ends = newEdgeEnds.get(i);
+            newEdges.get(i).attach(ends.getFirst(), ends.getSecond());
         }
-        verticesByStation.keySet().removeAll(toRemove);
+        service.setStations(stations);
+        service.setAvailability(new BikeRentalAvailability(++version, bikes, spaces));
+    }
 
+    private static void detach(Edge edge, List<Edge> edges, List<P2<Vertex>> ends) {
+        edges.add(edge);
+        ends.add(new P2<Vertex>(edge.getFromVertex(), edge.getToVertex()));
+        edge.detach();
     }
 
 }
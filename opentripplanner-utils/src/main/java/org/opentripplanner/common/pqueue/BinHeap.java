@@ -24,6 +24,8 @@ public class BinHeap<T> implements OTPPriorityQueue<T> {
     private T[] elem;
     private int size; 
     private int capacity;
+    /** The highest slot used since the last reset, so that reset only clears those */
+    private int used;
     
     public BinHeap() {
     	this(1000);
@@ -118,10 +120,19 @@ public class BinHeap<T> implements OTPPriorityQueue<T> {
     	System.out.printf("-----------------------\n");
     }
     
+    /**
+     * Empty the queue and drop its references to the elements, keeping the backing arrays so
+     * that the queue can be reused without reallocating them.
+     */
     public void reset() {
-    	// empties the queue in one operation
-    	size=0;
-    } 
+        Arrays.fill(elem, 1, used + 1, null);
+        used = 0;
+        size = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
 
     @Override
     public void insert(T e, double p) {
@@ -129,6 +140,8 @@ public class BinHeap<T> implements OTPPriorityQueue<T> {
         size += 1;
         if (size > capacity) 
         	resize((int) (capacity * GROW_FACTOR));
+        if (size > used)
+            used = size;
         for (i = size; prio[i/2] > p; i /= 2) {
             elem[i] = elem[i/2];
             prio[i] = prio[i/2];
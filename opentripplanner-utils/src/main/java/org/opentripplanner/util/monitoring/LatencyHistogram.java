@@ -0,0 +1,140 @@
+/* This program is free software: you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public License
+  as published by the Free Software Foundation, either version 3 of
+  the License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram in the style of HdrHistogram: values are counted in log-linear buckets, so
+ * that every recorded value is represented with a relative error below 1% whatever its
+ * magnitude, in a fixed and small amount of memory. Values below {@link #SUB_BUCKET_COUNT} are
+ * counted exactly.
+ * 
+ * Recording is lock-free and may be done concurrently from any number of threads.
+ * 
+ * Values are plain longs, usually durations in microseconds.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+
+    /** Values below this are counted exactly */
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /** Enough buckets for any non-negative long */
+    private static final int BUCKET_COUNT = 64 - SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKET_COUNT
+            + BUCKET_COUNT * SUB_BUCKET_HALF_COUNT);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void recordValue(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(indexFor(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value))
+            max = maxValue.get();
+    }
+
+    /** Add all the values recorded in another histogram to this one. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0)
+                counts.addAndGet(i, count);
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        sum.addAndGet(other.sum.get());
+        long max = maxValue.get();
+        long otherMax = other.maxValue.get();
+        while (otherMax > max && !maxValue.compareAndSet(max, otherMax))
+            max = maxValue.get();
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value equivalent to the value below which the given percentage of the
+     *         recorded values fall, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0)
+            return 0;
+        long target = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total);
+        if (target < 1)
+            target = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(highestEquivalentValue(i), maxValue.get());
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Print the count, mean and usual percentiles, dividing every value by the given scale (for
+     * instance 1000.0 to print microsecond values in milliseconds).
+     */
+    public void outputPercentiles(PrintStream out, String label, double scale) {
+        out.println(String.format(
+                "%-24s n=%-7d mean=%-9.2f p50=%-9.2f p90=%-9.2f p99=%-9.2f p99.9=%-9.2f max=%.2f",
+                label, getTotalCount(), getMean() / scale, getValueAtPercentile(50) / scale,
+                getValueAtPercentile(90) / scale, getValueAtPercentile(99) / scale,
+                getValueAtPercentile(99.9) / scale, getMaxValue() / scale));
+    }
+
+    static int indexFor(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        // shift the value so that it falls in the upper half of the sub-buckets
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+                + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+}
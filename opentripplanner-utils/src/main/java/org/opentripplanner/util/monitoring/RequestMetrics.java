@@ -0,0 +1,75 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import org.opentripplanner.util.monitoring.RequestProfile.Counter;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
+
+/**
+ * Histograms of the phase timings and counters of all the profiled requests since startup (or
+ * since the last reset). Times are recorded in microseconds.
+ */
+public class RequestMetrics {
+
+    private static final RequestMetrics INSTANCE = new RequestMetrics();
+
+    private volatile Histograms histograms = new Histograms();
+
+    public static RequestMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public void add(RequestProfile profile) {
+        Histograms h = histograms;
+        h.total.recordValue(profile.getTotalNanos() / 1000);
+        for (Phase phase : Phase.values())
+            h.phases[phase.ordinal()].recordValue(profile.getNanos(phase) / 1000);
+        for (Counter counter : Counter.values())
+            h.counters[counter.ordinal()].recordValue(profile.getCount(counter));
+    }
+
+    /** @return the histogram of total request times */
+    public LatencyHistogram getTotal() {
+        return histograms.total;
+    }
+
+    public LatencyHistogram getPhase(Phase phase) {
+        return histograms.phases[phase.ordinal()];
+    }
+
+    public LatencyHistogram getCounter(Counter counter) {
+        return histograms.counters[counter.ordinal()];
+    }
+
+    /** Discard everything recorded so far. */
+    public void reset() {
+        histograms = new Histograms();
+    }
+
+    private static class Histograms {
+
+        final LatencyHistogram total = new LatencyHistogram();
+
+        final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+        final LatencyHistogram[] counters = new LatencyHistogram[Counter.values().length];
+
+        Histograms() {
+            for (int i = 0; i < phases.length; i++)
+                phases[i] = new LatencyHistogram();
+            for (int i = 0; i < counters.length; i++)
+                counters[i] = new LatencyHistogram();
+        }
+    }
+}
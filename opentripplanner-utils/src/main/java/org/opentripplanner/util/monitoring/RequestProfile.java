@@ -0,0 +1,162 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+/**
+ * The time spent in each phase of a single request, and counters of the work done by its
+ * searches. A profile is attached to the request thread by {@link #begin()}; the static
+ * recording methods do nothing on threads without a profile, so instrumented code can call them
+ * unconditionally. Finished profiles are added to {@link RequestMetrics}.
+ * 
+ * The use pattern is:
+ * 
+ * <pre>
+ * long t0 = System.nanoTime();
+ * ... do the work of the phase ...
+ * RequestProfile.addTime(Phase.SEARCH, t0);
+ * </pre>
+ */
+public class RequestProfile {
+
+    public static enum Phase {
+        /** Finding or creating the vertices of the request's places */
+        LINKING,
+        /** The rest of the RoutingContext setup, such as service days and heuristic creation */
+        ROUTING_CONTEXT,
+        /** Initializing the remaining weight heuristic at the start of each search */
+        HEURISTIC,
+        /** Shortest path tree searches */
+        SEARCH,
+        /** Extracting paths from shortest path trees */
+        PATHS,
+        /** Turning paths into itineraries */
+        PLAN,
+        /** Pricing itineraries */
+        FARES,
+        /** Writing the response */
+        SERIALIZATION
+    }
+
+    public static enum Counter {
+        /** States taken off the queue and expanded, summed over all searches */
+        STATES_EXPANDED,
+        /** States produced by edge traversals, summed over all searches */
+        STATES_CREATED,
+        /** The largest priority queue size reached by any search */
+        QUEUE_PEAK_SIZE,
+        /** Bytes allocated by searches on the request thread, if the JVM can measure it */
+        BYTES_ALLOCATED
+    }
+
+    private static final ThreadLocal<RequestProfile> CURRENT = new ThreadLocal<RequestProfile>();
+
+    private final long startTime = System.nanoTime();
+
+    private long endTime;
+
+    private long handledTime;
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+
+    private final long[] counters = new long[Counter.values().length];
+
+    /** Start profiling a request on this thread, replacing any unfinished profile. */
+    public static RequestProfile begin() {
+        RequestProfile profile = new RequestProfile();
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /** @return the profile of the request being handled on this thread, or null */
+    public static RequestProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stop profiling on this thread. Profiles of requests that were marked as handled are added to
+     * the request metrics, the time since they were handled being counted as serialization.
+     * 
+     * @return the finished profile, or null if none was started
+     */
+    public static RequestProfile end() {
+        RequestProfile profile = CURRENT.get();
+        if (profile == null)
+            return null;
+        CURRENT.remove();
+        profile.endTime = System.nanoTime();
+        if (profile.handledTime != 0) {
+            profile.phaseNanos[Phase.SERIALIZATION.ordinal()] += profile.endTime
+                    - profile.handledTime;
+            RequestMetrics.getInstance().add(profile);
+        }
+        return profile;
+    }
+
+    /** Add the time elapsed since startNanos (from System.nanoTime) to the given phase. */
+    public static void addTime(Phase phase, long startNanos) {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null)
+            profile.phaseNanos[phase.ordinal()] += System.nanoTime() - startNanos;
+    }
+
+    public static void addCount(Counter counter, long count) {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null)
+            profile.counters[counter.ordinal()] += count;
+    }
+
+    public static void setCountMax(Counter counter, long count) {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null && profile.counters[counter.ordinal()] < count)
+            profile.counters[counter.ordinal()] = count;
+    }
+
+    /**
+     * Add the phase times and counters of a profile recorded on another thread, such as a worker
+     * searching on behalf of this request. Times and counts are summed, so concurrent work is
+     * counted in full rather than by the wall-clock time it took; the queue peak is the larger of
+     * the two.
+     */
+    public void merge(RequestProfile other) {
+        for (int i = 0; i < phaseNanos.length; i++)
+            phaseNanos[i] += other.phaseNanos[i];
+        for (int i = 0; i < counters.length; i++) {
+            if (i == Counter.QUEUE_PEAK_SIZE.ordinal())
+                counters[i] = Math.max(counters[i], other.counters[i]);
+            else
+                counters[i] += other.counters[i];
+        }
+    }
+
+    /**
+     * Mark the request as handled: its response has been computed and only remains to be written.
+     * Only handled requests are added to the request metrics.
+     */
+    public void markHandled() {
+        handledTime = System.nanoTime();
+    }
+
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return counters[counter.ordinal()];
+    }
+
+    /** @return the time from the start of the profile until it ended, or until now */
+    public long getTotalNanos() {
+        return (endTime != 0 ? endTime : System.nanoTime()) - startTime;
+    }
+}
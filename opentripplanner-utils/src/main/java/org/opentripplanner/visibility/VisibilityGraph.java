@@ -24,15 +24,47 @@
 package org.opentripplanner.visibility;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
+/**
+ * The visibility graph of (some of) the vertices of an Environment.
+ * 
+ * Adjacency is stored sparsely: row k only exists for the origins, and only holds the origins of
+ * lower index visible from the k-th point (the visibility polygon of the higher point decides for
+ * each pair). Candidates are taken from an index of the origins sorted by x, within the bounding
+ * box of each visibility polygon. The rows can be computed by an Executor, in which case the
+ * constructor returns immediately and the accessors wait for the rows to be done.
+ */
 public class VisibilityGraph {
 
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     // the number of vertices in each Polygon of corresponding Environment
     ArrayList<Integer> vertex_counts;
 
-    // n-by-n adjacency matrix data stored as 2D dynamic array
-    boolean[][] adjacency_matrix;
+    // the rows of the lower triangle of the adjacency matrix; null for points that are not origins
+    private final BitSet[] rows;
+
+    private final Point[] points;
+
+    // the origins, sorted by x
+    private final int[] byX;
+
+    private final double[] xs;
+
+    private final CountDownLatch done;
+
+    private volatile RuntimeException failure;
 
     int n;
 
@@ -41,80 +73,171 @@ public class VisibilityGraph {
     }
 
     public VisibilityGraph(Environment environment, double epsilon, Collection<Point> origins) {
-        n = environment.n();
+        this(environment, epsilon, origins, DIRECT);
+    }
 
+    /**
+     * @param origins the points to compute visibility between, or null for all vertices
+     * @param executor runs the computation of each row
+     */
+    public VisibilityGraph(Environment environment, double epsilon, Collection<Point> origins,
+            Executor executor) {
+        n = environment.n();
         // fill vertex_counts
         vertex_counts = new ArrayList<Integer>(environment.h());
         for (int i = 0; i < environment.h(); i++)
             vertex_counts.add(environment.get(i).n());
-
-        adjacency_matrix = new boolean[n][];
-        for (int i = 0; i < n; i++)
-            adjacency_matrix[i] = new boolean[n];
-        // fill adjacency matrix by checking for inclusion in the
-        // visibility polygons
-        for (int k1 = 0; k1 < n; k1++) {
-            Point point1 = environment.kth_point(k1);
-            if (origins != null && !origins.contains(point1)) 
-                    continue;
-            Polygon polygon_temp = new VisibilityPolygon(point1, environment, epsilon);
-            for (int k2 = 0; k2 < n; k2++) {
-                if (k1 == k2)
-                    adjacency_matrix[k1][k1] = true;
-                else {
-                    Point point2 = environment.kth_point(k2);
-                    if (origins == null || origins.contains(point2)) {
-                        adjacency_matrix[k1][k2] = adjacency_matrix[k2][k1] = point2.in(
-                                polygon_temp, epsilon);
-                    }
-                }
+        points = new Point[n];
+        for (int k = 0; k < n; k++)
+            points[k] = environment.kth_point(k);
+        rows = new BitSet[n];
+        int nOrigins = 0;
+        for (int k = 0; k < n; k++) {
+            if (origins == null || origins.contains(points[k])) {
+                rows[k] = new BitSet();
+                nOrigins++;
             }
         }
+        byX = new int[nOrigins];
+        xs = new double[nOrigins];
+        done = new CountDownLatch(nOrigins);
+        index();
+        for (int k = 0; k < n; k++) {
+            if (rows[k] != null)
+                executor.execute(new Row(k, environment, epsilon));
+        }
     }
 
     VisibilityGraph(ArrayList<Point> points, Environment environment, double epsilon) {
         vertex_counts = new ArrayList<Integer>(environment.h());
         n = points.size();
-
         // fill vertex_counts
         vertex_counts.add(n);
+        this.points = points.toArray(new Point[n]);
+        rows = new BitSet[n];
+        for (int k = 0; k < n; k++)
+            rows[k] = new BitSet();
+        byX = new int[n];
+        xs = new double[n];
+        done = new CountDownLatch(n);
+        index();
+        for (int k = 0; k < n; k++)
+            new Row(k, environment, epsilon).run();
+    }
 
-        adjacency_matrix = new boolean[n][];
-        for (int i = 0; i < n; i++)
-            adjacency_matrix[i] = new boolean[n];
+    private void index() {
+        Integer[] sorted = new Integer[byX.length];
+        int i = 0;
+        for (int k = 0; k < n; k++)
+            if (rows[k] != null)
+                sorted[i++] = k;
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(points[a].x, points[b].x);
+            }
+        });
+        for (i = 0; i < sorted.length; i++) {
+            byX[i] = sorted[i];
+            xs[i] = points[sorted[i]].x;
+        }
+    }
 
-        // fill adjacency matrix by checking for inclusion in the
-        // visibility polygons
-        Polygon polygontemp;
-        for (int k1 = 0; k1 < n; k1++) {
-            polygontemp = new VisibilityPolygon(points.get(k1), environment, epsilon);
-            for (int k2 = 0; k2 < n; k2++) {
-                if (k1 == k2)
-                    adjacency_matrix[k1][k1] = true;
-                else
-                    adjacency_matrix[k1][k2] = adjacency_matrix[k2][k1] = points.get(k2).in(
-                            polygontemp, epsilon);
+    /** Tests the origins of lower index against the visibility polygon of one origin. */
+    private class Row implements Runnable {
+
+        private final int k1;
+
+        private final Environment environment;
+
+        private final double epsilon;
+
+        Row(int k1, Environment environment, double epsilon) {
+            this.k1 = k1;
+            this.environment = environment;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Polygon polygon = new VisibilityPolygon(points[k1], environment, epsilon);
+                BoundingBox bbox = polygon.bbox();
+                double yMin = bbox.y_min - epsilon;
+                double yMax = bbox.y_max + epsilon;
+                int i = Arrays.binarySearch(xs, bbox.x_min - epsilon);
+                if (i < 0)
+                    i = -i - 1;
+                // binarySearch finds any of several equal keys; back up to the first one
+                while (i > 0 && xs[i - 1] >= bbox.x_min - epsilon)
+                    i--;
+                BitSet row = rows[k1];
+                for (; i < xs.length && xs[i] <= bbox.x_max + epsilon; i++) {
+                    int k2 = byX[i];
+                    if (k2 >= k1)
+                        continue;
+                    Point point2 = points[k2];
+                    if (point2.y < yMin || point2.y > yMax)
+                        continue;
+                    if (point2.in(polygon, epsilon))
+                        row.set(k2);
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    private void await() {
+        if (done.getCount() > 0) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while building a visibility graph", e);
             }
         }
+        if (failure != null)
+            throw failure;
     }
 
     public boolean get(int polygon1, int vertex1, int polygon2, int vertex2) {
-        return adjacency_matrix[get_vertex_index(polygon1, vertex1)][get_vertex_index(polygon2, vertex2)];
+        return get(get_vertex_index(polygon1, vertex1), get_vertex_index(polygon2, vertex2));
     }
 
     public boolean get(int k1, int k2) {
-        return adjacency_matrix[k1][k2];
+        await();
+        if (k1 == k2)
+            return rows[k1] != null;
+        if (k1 < k2)
+            return rows[k2] != null && rows[k2].get(k1);
+        return rows[k1] != null && rows[k1].get(k2);
     }
 
+    /** @return the indices of the other points visible from the k-th point, in increasing order */
+    public int[] getNeighbors(int k) {
+        await();
+        if (rows[k] == null)
+            return new int[0];
+        BitSet neighbors = (BitSet) rows[k].clone();
+        for (int k2 = k + 1; k2 < n; k2++)
+            if (rows[k2] != null && rows[k2].get(k))
+                neighbors.set(k2);
+        int[] result = new int[neighbors.cardinality()];
+        int i = 0;
+        for (int k2 = neighbors.nextSetBit(0); k2 >= 0; k2 = neighbors.nextSetBit(k2 + 1))
+            result[i++] = k2;
+        return result;
+    }
 
     // original code called this two_to_one, incomprehensibly
     public int get_vertex_index(int polygon, int vertex) {
         int k = 0;
-
         for (int counter = 0; counter < polygon; counter++)
             k += vertex_counts.get(counter);
         k += vertex;
-
         return k;
     }
 
@@ -129,8 +252,6 @@ public class VisibilityGraph {
                     outs += "\n";
             }
         }
-
         return outs;
     }
-
-}
\ No newline at end of file
+}
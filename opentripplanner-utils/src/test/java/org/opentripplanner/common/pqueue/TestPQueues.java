@@ -199,4 +199,36 @@ public class TestPQueues extends TestCase {
 
         }
     }    
+
+    public void testResetKeepsCapacity() {
+        BinHeap<Integer> q = new BinHeap<Integer>(10);
+        for (int i = 100; i > 0; i--)
+            q.insert(i, i);
+        int capacity = q.getCapacity();
+        assertTrue(capacity >= 100);
+        q.reset();
+        assertTrue(q.empty());
+        assertNull(q.peek_min());
+        assertEquals(capacity, q.getCapacity());
+        q.insert(7, 7);
+        q.insert(3, 3);
+        assertEquals(3, (int) q.extract_min());
+        assertEquals(7, (int) q.extract_min());
+        assertTrue(q.empty());
+        // a partly drained queue, reset with only its used slots cleared, is still a heap
+        for (int i = 0; i < 50; i++)
+            q.insert(i, 50 - i);
+        for (int i = 0; i < 20; i++)
+            q.extract_min();
+        q.reset();
+        assertTrue(q.empty());
+        for (int i = 0; i < 30; i++)
+            q.insert(i, i % 7);
+        double last = Double.NEGATIVE_INFINITY;
+        while (!q.empty()) {
+            assertTrue(q.peek_min_key() >= last);
+            last = q.peek_min_key();
+            q.extract_min();
+        }
+    }
 }
@@ -0,0 +1,97 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.util.monitoring;
+
+import junit.framework.TestCase;
+
+public class TestLatencyHistogram extends TestCase {
+
+    public void testIndexFor() {
+        // small values are counted exactly
+        for (int v = 0; v < LatencyHistogram.SUB_BUCKET_COUNT; v++) {
+            assertEquals(v, LatencyHistogram.indexFor(v));
+            assertEquals(v, LatencyHistogram.highestEquivalentValue(v));
+        }
+        // then buckets are two, four... values wide
+        int first = LatencyHistogram.SUB_BUCKET_COUNT;
+        assertEquals(first, LatencyHistogram.indexFor(256));
+        assertEquals(first, LatencyHistogram.indexFor(257));
+        assertEquals(first + 1, LatencyHistogram.indexFor(258));
+        assertEquals(first + 127, LatencyHistogram.indexFor(511));
+        assertEquals(first + 128, LatencyHistogram.indexFor(512));
+        assertEquals(first + 128, LatencyHistogram.indexFor(515));
+        assertEquals(first + 129, LatencyHistogram.indexFor(516));
+        assertEquals(257, LatencyHistogram.highestEquivalentValue(first));
+        assertEquals(515, LatencyHistogram.highestEquivalentValue(first + 128));
+    }
+
+    public void testIndexesAreMonotonicAndTight() {
+        long[] values = { 255, 256, 1000, 65535, 65536, 123456789L, 1L << 40, Long.MAX_VALUE };
+        for (long v : values) {
+            int index = LatencyHistogram.indexFor(v);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertTrue(highest >= v);
+            // relative error under 1%
+            assertTrue((highest - v) <= v / 100);
+            assertEquals(index, LatencyHistogram.indexFor(highest));
+            if (highest < Long.MAX_VALUE)
+                assertEquals(index + 1, LatencyHistogram.indexFor(highest + 1));
+        }
+        // the largest value fits in the array
+        new LatencyHistogram().recordValue(Long.MAX_VALUE);
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0.0, histogram.getMean());
+        for (int v = 1; v <= 100; v++)
+            histogram.recordValue(v);
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(100, histogram.getMaxValue());
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(90, histogram.getValueAtPercentile(90));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(99.9));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(100, histogram.getValueAtPercentile(150));
+    }
+
+    public void testPercentilesOfLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(1000);
+        histogram.recordValue(100000);
+        // reported as the top of the bucket, but never above the largest value recorded
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue(p50 >= 1000 && p50 <= 1010);
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+    }
+
+    public void testNegativeValuesAndAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.recordValue(-5);
+        assertEquals(0, a.getValueAtPercentile(100));
+        b.recordValue(10);
+        b.recordValue(300);
+        a.add(b);
+        assertEquals(3, a.getTotalCount());
+        assertEquals(300, a.getMaxValue());
+        assertEquals(10, a.getValueAtPercentile(50));
+        assertEquals(310.0 / 3, a.getMean(), 1e-9);
+    }
+}
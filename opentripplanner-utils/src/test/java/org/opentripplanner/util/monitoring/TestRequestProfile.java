@@ -0,0 +1,142 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.util.monitoring;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.util.monitoring.RequestProfile.Counter;
+import org.opentripplanner.util.monitoring.RequestProfile.Phase;
+
+public class TestRequestProfile extends TestCase {
+
+    private RequestMetrics metrics = RequestMetrics.getInstance();
+
+    public void setUp() {
+        // no profile left over on this thread, nothing recorded by other tests
+        RequestProfile.end();
+        metrics.reset();
+    }
+
+    public void testPhasesAndCounters() throws Exception {
+        RequestProfile profile = RequestProfile.begin();
+        assertSame(profile, RequestProfile.current());
+        long t0 = System.nanoTime();
+        Thread.sleep(2);
+        RequestProfile.addTime(Phase.SEARCH, t0);
+        long search = profile.getNanos(Phase.SEARCH);
+        assertTrue(search >= 2000000);
+        RequestProfile.addTime(Phase.SEARCH, System.nanoTime());
+        assertTrue(profile.getNanos(Phase.SEARCH) >= search);
+        assertEquals(0, profile.getNanos(Phase.PATHS));
+
+        RequestProfile.addCount(Counter.STATES_EXPANDED, 10);
+        RequestProfile.addCount(Counter.STATES_EXPANDED, 5);
+        assertEquals(15, profile.getCount(Counter.STATES_EXPANDED));
+        RequestProfile.setCountMax(Counter.QUEUE_PEAK_SIZE, 7);
+        RequestProfile.setCountMax(Counter.QUEUE_PEAK_SIZE, 3);
+        assertEquals(7, profile.getCount(Counter.QUEUE_PEAK_SIZE));
+
+        profile.markHandled();
+        assertSame(profile, RequestProfile.end());
+        assertNull(RequestProfile.current());
+        assertTrue(profile.getTotalNanos() >= profile.getNanos(Phase.SEARCH));
+        assertTrue(profile.getNanos(Phase.SERIALIZATION) >= 0);
+    }
+
+    public void testNoProfile() {
+        assertNull(RequestProfile.current());
+        // the recording methods are no-ops without a profile
+        RequestProfile.addTime(Phase.SEARCH, System.nanoTime());
+        RequestProfile.addCount(Counter.STATES_CREATED, 1);
+        RequestProfile.setCountMax(Counter.QUEUE_PEAK_SIZE, 1);
+        assertNull(RequestProfile.end());
+        assertEquals(0, metrics.getTotal().getTotalCount());
+    }
+
+    public void testProfilesAreThreadLocal() throws Exception {
+        final RequestProfile profile = RequestProfile.begin();
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                RequestProfile.addCount(Counter.STATES_CREATED, 100);
+            }
+        };
+        other.start();
+        other.join();
+        assertEquals(0, profile.getCount(Counter.STATES_CREATED));
+        RequestProfile.end();
+    }
+
+    public void testMerge() throws Exception {
+        final RequestProfile[] worker = new RequestProfile[1];
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                RequestProfile.begin();
+                RequestProfile.addTime(Phase.SEARCH, System.nanoTime() - 1000);
+                RequestProfile.addCount(Counter.STATES_EXPANDED, 100);
+                RequestProfile.setCountMax(Counter.QUEUE_PEAK_SIZE, 5);
+                worker[0] = RequestProfile.end();
+            }
+        };
+        other.start();
+        other.join();
+        RequestProfile profile = RequestProfile.begin();
+        RequestProfile.addCount(Counter.STATES_EXPANDED, 10);
+        RequestProfile.setCountMax(Counter.QUEUE_PEAK_SIZE, 8);
+        profile.merge(worker[0]);
+        assertEquals(110, profile.getCount(Counter.STATES_EXPANDED));
+        assertEquals(8, profile.getCount(Counter.QUEUE_PEAK_SIZE));
+        assertTrue(profile.getNanos(Phase.SEARCH) >= 1000);
+        RequestProfile.end();
+        // a profile that was never marked as handled is not recorded
+        assertEquals(0, metrics.getTotal().getTotalCount());
+    }
+
+    public void testMetricsAggregation() {
+        for (int i = 1; i <= 3; i++) {
+            RequestProfile profile = RequestProfile.begin();
+            RequestProfile.addCount(Counter.STATES_EXPANDED, i * 10);
+            profile.markHandled();
+            RequestProfile.end();
+        }
+        // not handled (failed or not a plan request): not recorded
+        RequestProfile.begin();
+        RequestProfile.addCount(Counter.STATES_EXPANDED, 1000);
+        RequestProfile.end();
+
+        assertEquals(3, metrics.getTotal().getTotalCount());
+        LatencyHistogram expanded = metrics.getCounter(Counter.STATES_EXPANDED);
+        assertEquals(3, expanded.getTotalCount());
+        assertEquals(30, expanded.getMaxValue());
+        assertEquals(20.0, expanded.getMean(), 0.001);
+        for (Phase phase : Phase.values())
+            assertEquals(3, metrics.getPhase(phase).getTotalCount());
+    }
+
+    public void testMetricsReset() {
+        RequestProfile profile = RequestProfile.begin();
+        profile.markHandled();
+        RequestProfile.end();
+        LatencyHistogram before = metrics.getTotal();
+        assertEquals(1, before.getTotalCount());
+        metrics.reset();
+        assertEquals(0, metrics.getTotal().getTotalCount());
+        assertEquals(0, metrics.getCounter(Counter.STATES_EXPANDED).getTotalCount());
+        // histograms handed out before the reset are left as they were
+        assertEquals(1, before.getTotalCount());
+    }
+
+}
@@ -24,6 +24,11 @@ package org.opentripplanner.visibility;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
 
@@ -227,6 +232,40 @@ public class TestVisibilityGraph extends TestCase {
 
     }
 
+    // rows computed by an executor, for a subset of the points, read through getNeighbors
+    public void testParallelOrigins() throws Exception {
+        Polygon poly = poly(12.3402039, 45.4342526, 12.339956, 45.43421, 12.3401159, 45.4338161,
+                12.3404923, 45.4338996, 12.3402845, 45.4344296, 12.3402433, 45.4344174, 12.3401433,
+                45.4343973, 12.3401691, 45.4343433);
+
+        Environment environment = new Environment(Arrays.asList(poly));
+        environment.enforce_standard_form();
+        VisibilityGraph all = new VisibilityGraph(environment, 0.0000001);
+
+        Set<Point> origins = new HashSet<Point>();
+        for (int k = 0; k < environment.n(); k += 2)
+            origins.add(environment.kth_point(k));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            VisibilityGraph vg = new VisibilityGraph(environment, 0.0000001, origins, executor);
+            for (int i = 0; i < environment.n(); ++i) {
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int j = 0; j < environment.n(); ++j) {
+                    boolean visible = i % 2 == 0 && j % 2 == 0 && all.get(i, j);
+                    assertEquals(" at " + i + ", " + j, visible, vg.get(i, j));
+                    if (visible && i != j)
+                        expected.add(j);
+                }
+                List<Integer> neighbors = new ArrayList<Integer>();
+                for (int j : vg.getNeighbors(i))
+                    neighbors.add(j);
+                assertEquals(expected, neighbors);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     public static Polygon poly(double... coords) {
         ArrayList<Point> points = new ArrayList<Point>();
         for (int i = 0; i < coords.length; i += 2) {